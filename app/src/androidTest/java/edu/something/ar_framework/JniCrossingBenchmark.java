@@ -0,0 +1,112 @@
+package edu.something.ar_framework;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented microbenchmark of what it costs to get one frame's pose result (PoseEngine.RESULT_SIZE floats) from
+ * native code into Java: an empty native call for reference, a direct buffer written in place and read with absolute
+ * gets (what the pose pipeline does), a float[] filled with SetFloatArrayRegion, a new float[] per frame, one native
+ * call per float, and a String parsed on the Java side. Each case is warmed up before it is timed. Results are written
+ * to logcat under the JniCrossingBenchmark tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class JniCrossingBenchmark {
+
+    private static final String TAG = "JniCrossingBenchmark";
+
+    private static final int WARMUP_ITERATIONS = 2000;
+    private static final int ITERATIONS = 20000;
+
+    @Test
+    public void resultTransfer() throws Exception {
+        final int count = PoseEngine.RESULT_SIZE;
+        ByteBuffer blockBytes = ByteBuffer.allocateDirect(count * 4).order(ByteOrder.nativeOrder());
+        FloatBuffer block = blockBytes.asFloatBuffer();
+        // Wrapped once up front, like PoseEngine.createFrameFeatures() wraps each pipeline slot's block
+        long blockAddress = NativeBenchmarks.nativeWrapResultBlock(blockBytes);
+        assertTrue(blockAddress != 0);
+        float[] array = new float[count];
+
+        double empty = 0, direct = 0, region = 0, newArray = 0, perField = 0, string = 0;
+        float sink = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            // First pass warms up, second pass is timed
+            int iterations = pass == 0 ? WARMUP_ITERATIONS : ITERATIONS;
+
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                NativeBenchmarks.nativeEmptyCall();
+            }
+            empty = nanos(start, iterations);
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                NativeBenchmarks.nativeWriteResultBlock(blockAddress, count);
+                for (int j = 0; j < count; j++) {
+                    sink += block.get(j);
+                }
+            }
+            direct = nanos(start, iterations);
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                NativeBenchmarks.nativeWriteResultArray(array);
+                for (int j = 0; j < count; j++) {
+                    sink += array[j];
+                }
+            }
+            region = nanos(start, iterations);
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                float[] result = NativeBenchmarks.nativeNewResultArray(count);
+                for (int j = 0; j < count; j++) {
+                    sink += result[j];
+                }
+            }
+            newArray = nanos(start, iterations);
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                for (int j = 0; j < count; j++) {
+                    sink += NativeBenchmarks.nativeResultField(j);
+                }
+            }
+            perField = nanos(start, iterations);
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                String[] fields = NativeBenchmarks.nativeResultString(count).split(" ");
+                for (int j = 0; j < count; j++) {
+                    sink += Float.parseFloat(fields[j]);
+                }
+            }
+            string = nanos(start, iterations);
+        }
+
+        // Every variant has to have handed over the same values
+        for (int j = 0; j < count; j++) {
+            assertEquals(j * 0.5f, block.get(j), 0);
+            assertEquals(j * 0.5f, array[j], 0);
+        }
+        assertTrue(sink > 0);
+
+        Log.i(TAG, String.format("%d floats, ns/frame: empty call %.0f, direct block %.0f, float[] region %.0f, "
+                + "new float[] %.0f, call per field %.0f, String %.0f", count, empty, direct, region, newArray,
+                perField, string));
+    }
+
+    private static double nanos(long startNanos, int iterations) {
+        return (System.nanoTime() - startNanos) / (double) iterations;
+    }
+}
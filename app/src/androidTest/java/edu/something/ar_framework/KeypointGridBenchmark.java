@@ -0,0 +1,79 @@
+package edu.something.ar_framework;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented benchmark of per-frame keypoint cost with the default KeypointGrid against plain ORB, at the feature
+ * counts FeatureBudget steps through, and of how the two spread their keypoints over a frame whose texture is bunched
+ * up in one corner. Results are written to logcat under the KeypointGridBenchmark tag. What the grid does to pose
+ * stability is compared on rendered frames by GridPoseStabilityTest in the replay module.
+ */
+@RunWith(AndroidJUnit4.class)
+public class KeypointGridBenchmark {
+
+    private static final String TAG = "KeypointGridBenchmark";
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    private static final int ITERATIONS = 20;
+    private static final int[] FEATURE_COUNTS = {250, 500, 1000};
+
+    // Coverage grid the keypoints are counted on. The strong texture fills the top left third of the frame, cell 0.
+    private static final int CELL_COLUMNS = 3;
+    private static final int CELL_ROWS = 3;
+
+    @Test
+    public void keypointTimeByFeatureCount() throws Exception {
+        Log.i(TAG, "features  plain ORB (ms)  grid (ms)");
+        for (int features : FEATURE_COUNTS) {
+            double plain = NativeBenchmarks.nativeKeypointMillis(WIDTH, HEIGHT, features, 0, 0, ITERATIONS);
+            double grid = NativeBenchmarks.nativeKeypointMillis(WIDTH, HEIGHT, features,
+                    PoseEngine.DEFAULT_GRID_COLUMNS, PoseEngine.DEFAULT_GRID_ROWS, ITERATIONS);
+            Log.i(TAG, String.format("%8d  %14.2f  %9.2f", features, plain, grid));
+
+            // -1 is the native side saying more than features keypoints came out
+            assertTrue("plain ORB went over " + features + " keypoints", plain >= 0);
+            assertTrue("grid went over " + features + " keypoints", grid >= 0);
+        }
+    }
+
+    @Test
+    public void keypointSpreadByFeatureCount() throws Exception {
+        Log.i(TAG, "features  plain ORB (keypoints, cells, in corner)  grid (keypoints, cells, in corner)");
+        for (int features : FEATURE_COUNTS) {
+            int[] plainCells = new int[CELL_COLUMNS * CELL_ROWS];
+            int[] gridCells = new int[CELL_COLUMNS * CELL_ROWS];
+            int plain = NativeBenchmarks.nativeKeypointCells(WIDTH, HEIGHT, features, 0, 0, plainCells, CELL_COLUMNS);
+            int grid = NativeBenchmarks.nativeKeypointCells(WIDTH, HEIGHT, features, PoseEngine.DEFAULT_GRID_COLUMNS,
+                    PoseEngine.DEFAULT_GRID_ROWS, gridCells, CELL_COLUMNS);
+            double plainCorner = (double) plainCells[0] / plain;
+            double gridCorner = (double) gridCells[0] / grid;
+            Log.i(TAG, String.format("%8d  %9d  %5d  %8.0f%%  %9d  %5d  %8.0f%%", features, plain,
+                    coveredCells(plainCells), 100 * plainCorner, grid, coveredCells(gridCells), 100 * gridCorner));
+
+            assertTrue("plain ORB found no keypoints", plain > 0);
+            assertTrue("grid found " + grid + " keypoints for a budget of " + features, grid > 0 && grid <= features);
+            assertTrue("grid covered fewer cells than plain ORB",
+                    coveredCells(gridCells) >= coveredCells(plainCells));
+            assertTrue("grid left " + Math.round(100 * gridCorner) + "% of its keypoints in the textured corner",
+                    gridCorner < plainCorner);
+        }
+    }
+
+    // Cells with at least one keypoint
+    private static int coveredCells(int[] cells) {
+        int covered = 0;
+        for (int count : cells) {
+            if (count > 0) {
+                covered++;
+            }
+        }
+        return covered;
+    }
+}
@@ -0,0 +1,100 @@
+package edu.something.ar_framework;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.android.OpenCVLoader;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented microbenchmark of bulk Mat transfers: the byte[] put/get overloads, which go through JNI array pinning,
+ * against the direct ByteBuffer overloads (a memcpy) and asByteBuffer() (no copy), for 640x480 and 1920x1080 luma
+ * frames. Each case is warmed up before it is timed. Results are written to logcat under the MatTransferBenchmark tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MatTransferBenchmark {
+
+    private static final String TAG = "MatTransferBenchmark";
+
+    private static final int WARMUP_ITERATIONS = 20;
+    private static final int ITERATIONS = 200;
+
+    @BeforeClass
+    public static void loadOpenCV() {
+        assertTrue("OpenCV native library failed to load", OpenCVLoader.initDebug());
+    }
+
+    @Test
+    public void vga() throws Exception {
+        compareTransfers(640, 480);
+    }
+
+    @Test
+    public void fullHd() throws Exception {
+        compareTransfers(1920, 1080);
+    }
+
+    private void compareTransfers(int width, int height) {
+        Mat mat = new Mat(height, width, CvType.CV_8UC1);
+        try {
+            final int bytes = width * height;
+            byte[] array = new byte[bytes];
+            ByteBuffer direct = ByteBuffer.allocateDirect(bytes);
+
+            double putArray = 0, getArray = 0, putDirect = 0, getDirect = 0, wrap = 0;
+            for (int pass = 0; pass < 2; pass++) {
+                // First pass warms up, second pass is timed
+                int iterations = pass == 0 ? WARMUP_ITERATIONS : ITERATIONS;
+
+                long start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    mat.put(0, 0, array);
+                }
+                putArray = micros(start, iterations);
+
+                start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    mat.get(0, 0, array);
+                }
+                getArray = micros(start, iterations);
+
+                start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    direct.clear();
+                    assertEquals(bytes, mat.put(0, 0, direct));
+                }
+                putDirect = micros(start, iterations);
+
+                start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    direct.clear();
+                    assertEquals(bytes, mat.get(0, 0, direct));
+                }
+                getDirect = micros(start, iterations);
+
+                start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    assertEquals(bytes, mat.asByteBuffer().capacity());
+                }
+                wrap = micros(start, iterations);
+            }
+
+            Log.i(TAG, String.format("%dx%d us/op: put byte[] %.1f, get byte[] %.1f, put direct %.1f, get direct %.1f, "
+                    + "asByteBuffer %.1f", width, height, putArray, getArray, putDirect, getDirect, wrap));
+        } finally {
+            mat.close();
+        }
+    }
+
+    private static double micros(long startNanos, int iterations) {
+        return (System.nanoTime() - startNanos) / 1000.0 / iterations;
+    }
+}
@@ -0,0 +1,110 @@
+package edu.something.ar_framework;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+import android.opengl.GLES20;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.android.GLFrameRenderer;
+import org.opencv.android.OpenCVLoader;
+import org.opencv.android.Utils;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented benchmark of the two ways CameraBridgeViewBase can draw a processed frame onto a 1920x1080 screen:
+ * DRAW_CANVAS (Utils.matToBitmap() into the cache Bitmap, then a scaled drawBitmap() on a software Canvas) against
+ * DRAW_GL (GLFrameRenderer uploading the Mat into a texture and drawing it scaled). The Canvas draws into a screen
+ * sized Bitmap and GL into a pbuffer of the same size, and GL is timed up to glFinish() so the GPU work counts. Frames
+ * are 640x480 and 1920x1080, RGBA and gray. Each case is warmed up before it is timed. Results are written to logcat
+ * under the PreviewDrawBenchmark tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PreviewDrawBenchmark {
+
+    private static final String TAG = "PreviewDrawBenchmark";
+
+    private static final int SCREEN_WIDTH = 1920;
+    private static final int SCREEN_HEIGHT = 1080;
+
+    private static final int WARMUP_ITERATIONS = 10;
+    private static final int ITERATIONS = 100;
+
+    @BeforeClass
+    public static void loadOpenCV() {
+        assertTrue("OpenCV native library failed to load", OpenCVLoader.initDebug());
+    }
+
+    @Test
+    public void vgaRgba() {
+        compareDrawing(640, 480, CvType.CV_8UC4);
+    }
+
+    @Test
+    public void fullHdRgba() {
+        compareDrawing(1920, 1080, CvType.CV_8UC4);
+    }
+
+    @Test
+    public void fullHdGray() {
+        compareDrawing(1920, 1080, CvType.CV_8UC1);
+    }
+
+    private void compareDrawing(int width, int height, int type) {
+        Mat frame = new Mat(height, width, type, new Scalar(64, 128, 192, 255));
+        Bitmap cache = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Bitmap screen = Bitmap.createBitmap(SCREEN_WIDTH, SCREEN_HEIGHT, Bitmap.Config.ARGB_8888);
+        GLFrameRenderer renderer = new GLFrameRenderer(SCREEN_WIDTH, SCREEN_HEIGHT);
+        try {
+            // Fit the frame to the screen the way initializeCamera() sets mScale for a MATCH_PARENT view
+            float scale = Math.min((float) SCREEN_HEIGHT / height, (float) SCREEN_WIDTH / width);
+            Canvas canvas = new Canvas(screen);
+            Rect src = new Rect(0, 0, width, height);
+            Rect dst = new Rect((int) ((SCREEN_WIDTH - scale * width) / 2),
+                    (int) ((SCREEN_HEIGHT - scale * height) / 2), (int) ((SCREEN_WIDTH + scale * width) / 2),
+                    (int) ((SCREEN_HEIGHT + scale * height) / 2));
+
+            double canvasMillis = 0, glMillis = 0;
+            for (int pass = 0; pass < 2; pass++) {
+                // First pass warms up, second pass is timed
+                int iterations = pass == 0 ? WARMUP_ITERATIONS : ITERATIONS;
+
+                long start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    Utils.matToBitmap(frame, cache);
+                    canvas.drawColor(0, PorterDuff.Mode.CLEAR);
+                    canvas.drawBitmap(cache, src, dst, null);
+                }
+                canvasMillis = millis(start, iterations);
+
+                start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    renderer.drawFrame(frame, scale);
+                    GLES20.glFinish();
+                }
+                glMillis = millis(start, iterations);
+            }
+
+            Log.i(TAG, String.format("%dx%d %s ms/frame: canvas %.2f, gl %.2f (%.1fx)", width, height,
+                    CvType.typeToString(type), canvasMillis, glMillis, canvasMillis / glMillis));
+        } finally {
+            renderer.release();
+            screen.recycle();
+            cache.recycle();
+            frame.close();
+        }
+    }
+
+    private static double millis(long startNanos, int iterations) {
+        return (System.nanoTime() - startNanos) / 1e6 / iterations;
+    }
+}
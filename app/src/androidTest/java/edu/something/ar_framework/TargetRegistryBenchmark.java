@@ -0,0 +1,41 @@
+package edu.something.ar_framework;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented benchmark of per-frame recognition cost against a multi-target registry, with 1, 10, 100 and 1000
+ * targets, for both brute-force and LSH matching. Results are written to logcat under the TargetRegistryBenchmark tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TargetRegistryBenchmark {
+
+    private static final String TAG = "TargetRegistryBenchmark";
+
+    // Same numbers of descriptors as the native pose path uses for reference images and camera frames
+    private static final int DESCRIPTORS_PER_TARGET = 1000;
+    private static final int QUERY_DESCRIPTORS = 500;
+    private static final int ITERATIONS = 10;
+
+    @Test
+    public void matchTimeByTargetCount() throws Exception {
+        int[] targetCounts = {1, 10, 100, 1000};
+
+        Log.i(TAG, "targets  brute force (ms)  LSH (ms)");
+        for (int targets : targetCounts) {
+            double bruteForce = NativeBenchmarks.nativeRegistryMatchMillis(targets, DESCRIPTORS_PER_TARGET,
+                    QUERY_DESCRIPTORS, ITERATIONS, false);
+            double lsh = NativeBenchmarks.nativeRegistryMatchMillis(targets, DESCRIPTORS_PER_TARGET,
+                    QUERY_DESCRIPTORS, ITERATIONS, true);
+            Log.i(TAG, String.format("%7d  %16.2f  %8.2f", targets, bruteForce, lsh));
+
+            assertTrue("brute force failed to recognize the target with " + targets + " targets", bruteForce >= 0);
+            assertTrue("LSH failed to recognize the target with " + targets + " targets", lsh >= 0);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+#include "keypoint_grid.h"
+
+#include <algorithm>
+#include <cmath>
+
+#include <opencv2/imgproc.hpp>
+
+// Cells smaller than this (in pixels of their pyramid level) are merged, they would hold too few corners to rank
+static const int MIN_CELL_SIZE = 24;
+
+// FAST threshold for cells where ORB's own threshold finds nothing, so low-texture parts of the frame still get corners
+static const int MIN_FAST_THRESHOLD = 7;
+
+// FAST tests a circle of radius 3 around every pixel
+static const int FAST_RADIUS = 3;
+
+static bool strongerResponse(const cv::KeyPoint &a, const cv::KeyPoint &b) {
+    return a.response > b.response;
+}
+
+KeypointGrid::KeypointGrid() : myColumns(1), myRows(1), myHalfPatch(0) {}
+
+void KeypointGrid::setGrid(int columns, int rows) {
+    myColumns = std::max(1, columns);
+    myRows = std::max(1, rows);
+}
+
+// The circular patch of ORB's intensity centroid, built the same way ORB builds it so the angles agree
+void KeypointGrid::updatePatch(int patchSize) {
+    int halfPatch = patchSize / 2;
+    if (halfPatch == myHalfPatch) {
+        return;
+    }
+    myHalfPatch = halfPatch;
+    myUMax.assign((size_t) halfPatch + 2, 0);
+    int vmax = cvFloor(halfPatch * std::sqrt(2.0) / 2 + 1);
+    int vmin = cvCeil(halfPatch * std::sqrt(2.0) / 2);
+    for (int v = 0; v <= vmax; v++) {
+        myUMax[v] = cvRound(std::sqrt((double) halfPatch * halfPatch - v * v));
+    }
+    // Make the patch symmetric under 90 degree rotations
+    for (int v = halfPatch, v0 = 0; v >= vmin; v--) {
+        while (myUMax[v0] == myUMax[v0 + 1]) {
+            v0++;
+        }
+        myUMax[v] = v0;
+        v0++;
+    }
+}
+
+void KeypointGrid::detectAndCompute(const cv::Mat &gray, cv::ORB &orb, std::vector<cv::KeyPoint> &keypoints,
+                                    cv::Mat &descriptors) {
+    keypoints.clear();
+    int features = orb.getMaxFeatures();
+    int levels = std::max(1, orb.getNLevels());
+    double scaleFactor = orb.getScaleFactor();
+    updatePatch(orb.getPatchSize());
+    // Far enough from the edge for the orientation patch and the rotated descriptor pattern
+    int border = std::max(orb.getEdgeThreshold(), myHalfPatch + 1);
+
+    // Share the features out over the levels like ORB does, fewer on the smaller levels
+    double factor = 1.0 / scaleFactor;
+    double perLevel = features * (1 - factor) / (1 - std::pow(factor, levels));
+    int assigned = 0;
+
+    myPyramid.resize((size_t) levels);
+    myPyramid[0] = gray;
+    double levelScale = 1.0;
+    for (int level = 0; level < levels; level++) {
+        if (level > 0) {
+            levelScale *= scaleFactor;
+            cv::Size size(cvRound(gray.cols / levelScale), cvRound(gray.rows / levelScale));
+            if (size.width <= 2 * border || size.height <= 2 * border) {
+                break;
+            }
+            cv::resize(myPyramid[level - 1], myPyramid[level], size, 0, 0, cv::INTER_LINEAR);
+        }
+        int quota = level == levels - 1 ? features - assigned : cvRound(perLevel);
+        assigned += quota;
+        perLevel *= factor;
+
+        detectLevel(myPyramid[level], quota, border, orb.getFastThreshold());
+        for (size_t i = 0; i < myLevel.size(); i++) {
+            cv::KeyPoint &keypoint = myLevel[i];
+            keypoint.angle = orientation(myPyramid[level], keypoint.pt);
+            keypoint.pt *= (float) levelScale;
+            keypoint.size = (float) (orb.getPatchSize() * levelScale);
+            keypoint.octave = level;
+            keypoints.push_back(keypoint);
+        }
+    }
+
+    // ORB keeps the octave and angle of keypoints it is given, and only computes their descriptors
+    orb.compute(gray, keypoints, descriptors);
+}
+
+/*
+ Into myLevel, up to quota corners from one pyramid level, spread over the grid. Every cell first gets its fair share of
+ its strongest corners. Whatever is left of the quota after that, because some cells had fewer corners than their
+ share, goes to the strongest of the corners that didn't make it into their cell's share.
+ */
+void KeypointGrid::detectLevel(const cv::Mat &level, int quota, int border, int fastThreshold) {
+    myLevel.clear();
+    mySpare.clear();
+    int width = level.cols - 2 * border;
+    int height = level.rows - 2 * border;
+    if (quota <= 0 || width <= 0 || height <= 0) {
+        return;
+    }
+    int columns = std::max(1, std::min(myColumns, width / MIN_CELL_SIZE));
+    int rows = std::max(1, std::min(myRows, height / MIN_CELL_SIZE));
+    int perCell = std::max(1, quota / (columns * rows));
+    cv::Rect image(0, 0, level.cols, level.rows);
+
+    for (int row = 0; row < rows; row++) {
+        int y0 = border + height * row / rows;
+        int y1 = border + height * (row + 1) / rows;
+        for (int column = 0; column < columns; column++) {
+            int x0 = border + width * column / columns;
+            int x1 = border + width * (column + 1) / columns;
+
+            // FAST can't test the pixels within its radius of the edge of what it's given, so give it some margin
+            cv::Rect window = cv::Rect(x0 - FAST_RADIUS, y0 - FAST_RADIUS, x1 - x0 + 2 * FAST_RADIUS,
+                                       y1 - y0 + 2 * FAST_RADIUS) & image;
+            cv::FAST(level(window), myCell, fastThreshold, true);
+            if (myCell.empty() && fastThreshold > MIN_FAST_THRESHOLD) {
+                cv::FAST(level(window), myCell, MIN_FAST_THRESHOLD, true);
+            }
+
+            // Back to level coordinates, dropping corners in the margin, which belong to the neighbouring cells
+            size_t kept = 0;
+            for (size_t i = 0; i < myCell.size(); i++) {
+                cv::KeyPoint keypoint = myCell[i];
+                keypoint.pt.x += window.x;
+                keypoint.pt.y += window.y;
+                if (keypoint.pt.x < x0 || keypoint.pt.x >= x1 || keypoint.pt.y < y0 || keypoint.pt.y >= y1) {
+                    continue;
+                }
+                myCell[kept++] = keypoint;
+            }
+            myCell.resize(kept);
+
+            size_t share = std::min(kept, (size_t) perCell);
+            std::partial_sort(myCell.begin(), myCell.begin() + share, myCell.end(), strongerResponse);
+            myLevel.insert(myLevel.end(), myCell.begin(), myCell.begin() + share);
+            mySpare.insert(mySpare.end(), myCell.begin() + share, myCell.end());
+        }
+    }
+
+    if ((int) myLevel.size() < quota) {
+        size_t fill = std::min(mySpare.size(), (size_t) quota - myLevel.size());
+        std::partial_sort(mySpare.begin(), mySpare.begin() + fill, mySpare.end(), strongerResponse);
+        myLevel.insert(myLevel.end(), mySpare.begin(), mySpare.begin() + fill);
+    } else if ((int) myLevel.size() > quota) {
+        // Only when there are more cells than the quota, and every cell still gets one corner
+        std::partial_sort(myLevel.begin(), myLevel.begin() + quota, myLevel.end(), strongerResponse);
+        myLevel.resize((size_t) quota);
+    }
+}
+
+// Angle in degrees of the intensity centroid of the patch around point, which is at least myHalfPatch from the edge
+float KeypointGrid::orientation(const cv::Mat &level, const cv::Point2f &point) const {
+    const uchar *center = &level.at<uchar>(cvRound(point.y), cvRound(point.x));
+    int step = (int) level.step1();
+    int m01 = 0;
+    int m10 = 0;
+    for (int u = -myHalfPatch; u <= myHalfPatch; u++) {
+        m10 += u * center[u];
+    }
+    // Rows above and below the center at once
+    for (int v = 1; v <= myHalfPatch; v++) {
+        int rowSum = 0;
+        int extent = myUMax[v];
+        for (int u = -extent; u <= extent; u++) {
+            int below = center[u + v * step];
+            int above = center[u - v * step];
+            rowSum += below - above;
+            m10 += u * (below + above);
+        }
+        m01 += v * rowSum;
+    }
+    return cv::fastAtan2((float) m01, (float) m10);
+}
@@ -0,0 +1,51 @@
+#ifndef ASUFORIA_KEYPOINT_GRID_H
+#define ASUFORIA_KEYPOINT_GRID_H
+
+#include <vector>
+
+#include <opencv2/core.hpp>
+#include <opencv2/features2d.hpp>
+
+/*
+ ORB keypoints picked per cell of a grid instead of over the whole frame. Plain ORB keeps the strongest corners of the
+ frame, which on a real scene bunch up on a few high-texture patches: matching pays for many near-identical descriptors
+ and PnP gets its points from a small part of the target, which conditions the pose badly. KeypointGrid splits every
+ pyramid level into cells, runs FAST on each cell with a threshold that drops for cells with too little texture, keeps
+ the strongest corners of every cell and computes descriptors only for those. The keypoint count is a hard cap, so the
+ descriptor, matching and RANSAC work per frame no longer depends on how much texture the frame has.
+
+ Every other setting comes from the ORB passed in: feature count, pyramid levels and scale factor, FAST threshold, edge
+ threshold and patch size. The keypoints come out like ORB's own, in frame coordinates with octave, size and angle set,
+ so their descriptors match those plain ORB computed for the reference images. Not thread-safe, keep one per thread.
+ */
+class KeypointGrid {
+public:
+    KeypointGrid();
+
+    // Cells per pyramid level, fewer on levels too small to give every cell MIN_CELL_SIZE pixels
+    void setGrid(int columns, int rows);
+
+    // Detect at most orb.getMaxFeatures() keypoints in gray and compute their descriptors with orb
+    void detectAndCompute(const cv::Mat &gray, cv::ORB &orb, std::vector<cv::KeyPoint> &keypoints,
+                          cv::Mat &descriptors);
+
+private:
+    void detectLevel(const cv::Mat &level, int quota, int border, int fastThreshold);
+    float orientation(const cv::Mat &level, const cv::Point2f &point) const;
+    void updatePatch(int patchSize);
+
+    int myColumns;
+    int myRows;
+
+    // Rows of the circular patch the orientation is measured over, the same as ORB's: row v spans -umax[v]..umax[v]
+    int myHalfPatch;
+    std::vector<int> myUMax;
+
+    // Scratch buffers reused between frames
+    std::vector<cv::Mat> myPyramid;
+    std::vector<cv::KeyPoint> myCell;
+    std::vector<cv::KeyPoint> myLevel;
+    std::vector<cv::KeyPoint> mySpare;
+};
+
+#endif // ASUFORIA_KEYPOINT_GRID_H
@@ -1,29 +1,374 @@
 #include <jni.h>
+#include <algorithm>
 #include <string>
+#include <vector>
 
+#include <opencv2/core.hpp>
+#include <opencv2/imgproc.hpp>
+
+#include "pose_tracker.h"
+#include "target_model.h"
+#include "target_registry.h"
+
+// Everything but nativeFeatureDetection() is portable, so the pose engine can also be built for a desktop JVM
+#ifdef __ANDROID__
+#include <android/bitmap.h>
+#endif
+
+// Layout of the pose result floats nativePoseEstimation() writes into the frame block, right after its FrameMetrics.
+// Shared with PoseEngine.java, keep them in sync.
+enum PoseResultIndex {
+    RESULT_RVEC = 0,              // 3 floats
+    RESULT_TVEC = 3,              // 3 floats
+    RESULT_INLIERS = 6,
+    RESULT_REPROJECTION_ERROR = 7,
+    RESULT_DETECT_MILLIS = 8,
+    RESULT_TRACK_MILLIS = 9,
+    RESULT_TARGET = 10,           // index of the recognized target, -1 when lost
+    RESULT_MODE = 11,             // the PoseMode
+    RESULT_COVARIANCE = 12,       // POSE_COVARIANCE_SIZE floats, see PoseResult
+    RESULT_SIZE = RESULT_COVARIANCE + POSE_COVARIANCE_SIZE
+};
+
+/*
+ One slot of the frame pipeline: the FrameFeatures the tracker works on, and where the frame's pose goes. The frame
+ block is a direct ByteBuffer owned by Java holding the FrameMetrics followed by the RESULT_SIZE pose floats, so
+ everything about a frame crosses back into Java without a single JNI call or array copy.
+ */
+struct FrameSlot {
+    FrameFeatures features;
+    float *result;
+};
+
+// Throw a Java IllegalArgumentException from native code. The caller must return right after.
+static void throwIllegalArgument(JNIEnv *env, const char *message) {
+    jclass exceptionClass = env->FindClass("java/lang/IllegalArgumentException");
+    if (exceptionClass != NULL) {
+        env->ThrowNew(exceptionClass, message);
+    }
+}
+
+// Copy a serialized target model into a new Java byte[]. Returns NULL, with an OutOfMemoryError pending, if that fails.
+static jbyteArray toByteArray(JNIEnv *env, const std::vector<uint8_t> &serialized) {
+    jbyteArray result = env->NewByteArray((jsize) serialized.size());
+    if (result != NULL) {
+        env->SetByteArrayRegion(result, 0, (jsize) serialized.size(),
+                                reinterpret_cast<const jbyte *>(serialized.data()));
+    }
+    return result;
+}
+
+/*
+ Wrap the luma plane of an android.media.Image as a single channel cv::Mat without copying it. The Y plane of a
+ YUV_420_888 image can have padding at the end of every row (rowStride > width), which cv::Mat handles directly through
+ its step argument, so padded rows never need to be repacked. Android guarantees a pixelStride of 1 for the Y plane, but
+ in case a device ever reports something else the pixels are gathered into scratch, which is reused between frames.
+ Returns false and throws if the buffer is not direct or is too small for the given geometry.
+ */
+static bool wrapLumaPlane(JNIEnv *env, jobject buffer, jint width, jint height, jint rowStride, jint pixelStride,
+                          cv::Mat &scratch, cv::Mat &gray) {
+    if (width <= 0 || height <= 0 || pixelStride <= 0 || rowStride < (width - 1) * pixelStride + 1) {
+        throwIllegalArgument(env, "Invalid luma plane geometry");
+        return false;
+    }
+
+    uint8_t *data = static_cast<uint8_t *>(env->GetDirectBufferAddress(buffer));
+    if (data == NULL) {
+        throwIllegalArgument(env, "Luma plane must be a direct ByteBuffer");
+        return false;
+    }
+
+    // The last row doesn't have to include its padding, so only require the bytes we will actually read
+    jlong required = (jlong) (height - 1) * rowStride + (jlong) (width - 1) * pixelStride + 1;
+    if (env->GetDirectBufferCapacity(buffer) < required) {
+        throwIllegalArgument(env, "Luma plane buffer is smaller than width, height and strides require");
+        return false;
+    }
+
+    if (pixelStride == 1) {
+        // Zero-copy: the Mat points straight at the camera buffer, with rowStride as the step between rows
+        gray = cv::Mat(height, width, CV_8UC1, data, (size_t) rowStride);
+        return true;
+    }
+
+    // Interleaved luma, gather every pixelStride-th byte
+    scratch.create(height, width, CV_8UC1);
+    for (int row = 0; row < height; row++) {
+        const uint8_t *src = data + (size_t) row * rowStride;
+        uint8_t *dst = scratch.ptr<uint8_t>(row);
+        for (int col = 0; col < width; col++) {
+            dst[col] = src[col * pixelStride];
+        }
+    }
+    gray = scratch;
+    return true;
+}
+
+
+// Native method that allocates the FrameSlot for one slot of the frame pipeline. Slots are reused for every frame
+// that passes through them, so their buffers are only allocated once. frameBlock is a direct buffer in native byte
+// order that the stages write the frame's timings and pose into for Java to read, laid out as described at FrameSlot.
+// It must stay reachable until nativeReleaseFrameFeatures().
 extern "C"
+JNIEXPORT jlong JNICALL
+Java_edu_something_ar_1framework_PoseEngine_nativeCreateFrameFeatures(JNIEnv *env, jclass, jobject frameBlock) {
+
+    void *block = env->GetDirectBufferAddress(frameBlock);
+    jlong required = (jlong) (sizeof(FrameMetrics) + RESULT_SIZE * sizeof(jfloat));
+    if (block == NULL || env->GetDirectBufferCapacity(frameBlock) < required
+            || reinterpret_cast<uintptr_t>(block) % sizeof(int64_t) != 0) {
+        throwIllegalArgument(env, "Frame block must be an aligned direct ByteBuffer of FRAME_BLOCK_SIZE bytes");
+        return 0;
+    }
 
-JNIEXPORT jstring JNICALL
+    FrameSlot *slot = new FrameSlot();
+    slot->features.metrics = static_cast<FrameMetrics *>(block);
+    *slot->features.metrics = FrameMetrics();
+    slot->result = reinterpret_cast<float *>(static_cast<uint8_t *>(block) + sizeof(FrameMetrics));
+    std::fill(slot->result, slot->result + RESULT_SIZE, 0.0f);
+    return reinterpret_cast<jlong>(slot);
+}
 
-// Native method for pose estimation with OpenCV
-Java_edu_something_ar_1framework_ASUForia_nativePoseEstimation(
+// Native method for freeing a FrameSlot returned by nativeCreateFrameFeatures()
+extern "C"
+JNIEXPORT void JNICALL
+Java_edu_something_ar_1framework_PoseEngine_nativeReleaseFrameFeatures(JNIEnv *, jclass, jlong slotHandle) {
+    delete reinterpret_cast<FrameSlot *>(slotHandle);
+}
+
+// Native method for the feature extraction stage of the pipeline. Wraps the camera's luma plane in place and builds
+// the optical flow pyramid and ORB features the tracker expects to need for it. Runs on its own thread, concurrently
+// with nativePoseEstimation() for the previous frame.
+extern "C"
+JNIEXPORT void JNICALL
+Java_edu_something_ar_1framework_PoseEngine_nativeExtractFeatures(
         JNIEnv *env,
-        jobject /* this */) {
+        jclass,
+        jlong trackerHandle,
+        jlong slotHandle,
+        jobject yPlane,
+        jint width,
+        jint height,
+        jint rowStride,
+        jint pixelStride) {
 
-    //TODO: Implement nativePoseEstimation with OpenCV methods
+    int64_t entryNanos = monotonicNanos();
+    PoseTracker *tracker = reinterpret_cast<PoseTracker *>(trackerHandle);
+    FrameSlot *slot = reinterpret_cast<FrameSlot *>(slotHandle);
+    if (tracker == NULL || slot == NULL) {
+        throwIllegalArgument(env, "No pose tracker or frame features");
+        return;
+    }
+    FrameFeatures *features = &slot->features;
 
-    std::string hello = "Hello from C++";
-    return env->NewStringUTF(hello.c_str());
+    // The scratch belongs to the slot, so frames in different stages never share it
+    if (!wrapLumaPlane(env, yPlane, width, height, rowStride, pixelStride, features->lumaScratch, features->gray)) {
+        return;
+    }
+    features->metrics->extractEntryNanos = entryNanos;
+    tracker->extract(*features);
 }
 
-// Native method for feature detection with OpenCVextern "C"
-JNIEXPORT jstring JNICALL
-Java_edu_something_ar_1framework_ASUForia_nativeFeatureDetection(JNIEnv *env, jobject) {
+// Native method for the pose solving stage of the pipeline. Recognizes a target from the features extracted by
+// nativeExtractFeatures() and estimates its pose. This is the only call per frame that produces output: the pose, its
+// covariance, inlier count, reprojection error, mode and the time spent detecting and tracking go straight into the
+// slot's frame block, next to the stage timings. Also returns the PoseMode. Frames must be solved in the order they
+// were extracted.
+extern "C"
+JNIEXPORT jint JNICALL
+Java_edu_something_ar_1framework_PoseEngine_nativePoseEstimation(
+        JNIEnv *env,
+        jclass,
+        jlong trackerHandle,
+        jlong registryHandle,
+        jlong slotHandle) {
 
-    // TODO: Implement nativeFeatureDetection to extract ORB features from reference image
+    int64_t entryNanos = monotonicNanos();
+    PoseTracker *tracker = reinterpret_cast<PoseTracker *>(trackerHandle);
+    const TargetRegistry *registry = reinterpret_cast<const TargetRegistry *>(registryHandle);
+    FrameSlot *slot = reinterpret_cast<FrameSlot *>(slotHandle);
+    if (tracker == NULL || registry == NULL || slot == NULL) {
+        throwIllegalArgument(env, "No pose tracker, target registry or frame features loaded");
+        return POSE_MODE_LOST;
+    }
+    if (slot->features.gray.empty()) {
+        throwIllegalArgument(env, "Frame features were not extracted");
+        return POSE_MODE_LOST;
+    }
 
+    slot->features.metrics->solveEntryNanos = entryNanos;
+    PoseResult pose;
+    tracker->solve(slot->features, *registry, pose);
 
+    float *result = slot->result;
+    for (int i = 0; i < 3; i++) {
+        result[RESULT_RVEC + i] = pose.mode == POSE_MODE_LOST ? 0.0f : pose.rvec[i];
+        result[RESULT_TVEC + i] = pose.mode == POSE_MODE_LOST ? 0.0f : pose.tvec[i];
+    }
+    result[RESULT_INLIERS] = (float) pose.inlierCount;
+    result[RESULT_REPROJECTION_ERROR] = pose.reprojectionError;
+    result[RESULT_DETECT_MILLIS] = (float) pose.detectMillis;
+    result[RESULT_TRACK_MILLIS] = (float) pose.trackMillis;
+    result[RESULT_TARGET] = (float) pose.targetIndex;
+    result[RESULT_MODE] = (float) pose.mode;
+    std::copy(pose.covariance, pose.covariance + POSE_COVARIANCE_SIZE, result + RESULT_COVARIANCE);
+
+    return pose.mode;
+}
 
-    std::string testing = "Hello from C++";
-    return env->NewStringUTF(testing.c_str());
-}
\ No newline at end of file
+// Native method that creates the detect-then-track state kept between frames
+extern "C"
+JNIEXPORT jlong JNICALL
+Java_edu_something_ar_1framework_PoseEngine_nativeCreateTracker(JNIEnv *, jclass) {
+    return reinterpret_cast<jlong>(new PoseTracker());
+}
+
+// Native method that changes when tracking gives up and full detection runs again, and where detection looks
+extern "C"
+JNIEXPORT void JNICALL
+Java_edu_something_ar_1framework_PoseEngine_nativeSetTrackerParams(JNIEnv *, jclass, jlong trackerHandle,
+                                                                   jboolean trackingEnabled, jint minTrackedInliers,
+                                                                   jfloat maxReprojectionError,
+                                                                   jboolean roiSearchEnabled, jint roiMaxMisses) {
+    PoseTracker *tracker = reinterpret_cast<PoseTracker *>(trackerHandle);
+    PoseTrackerParams params = tracker->params();
+    params.trackingEnabled = trackingEnabled == JNI_TRUE;
+    params.minTrackedInliers = minTrackedInliers;
+    params.maxReprojectionError = maxReprojectionError;
+    params.roiSearchEnabled = roiSearchEnabled == JNI_TRUE;
+    params.roiMaxMisses = roiMaxMisses;
+    tracker->setParams(params);
+}
+
+// Native method that changes how much work ORB does on detection frames, from the solving thread while the extraction
+// thread may be running ORB
+extern "C"
+JNIEXPORT void JNICALL
+Java_edu_something_ar_1framework_PoseEngine_nativeSetFeatureBudget(JNIEnv *, jclass, jlong trackerHandle,
+                                                                   jint features, jint pyramidLevels,
+                                                                   jfloat downscale) {
+    reinterpret_cast<PoseTracker *>(trackerHandle)->setFeatureBudget(features, pyramidLevels, downscale);
+}
+
+// Native method that switches detection frames between grid-bucketed and plain ORB keypoints, from any thread
+extern "C"
+JNIEXPORT void JNICALL
+Java_edu_something_ar_1framework_PoseEngine_nativeSetKeypointGrid(JNIEnv *, jclass, jlong trackerHandle, jint columns,
+                                                                  jint rows) {
+    reinterpret_cast<PoseTracker *>(trackerHandle)->setKeypointGrid(columns, rows);
+}
+
+// Native method for freeing a tracker returned by nativeCreateTracker()
+extern "C"
+JNIEXPORT void JNICALL
+Java_edu_something_ar_1framework_PoseEngine_nativeReleaseTracker(JNIEnv *, jclass, jlong trackerHandle) {
+    delete reinterpret_cast<PoseTracker *>(trackerHandle);
+}
+
+#ifdef __ANDROID__
+// Native method for feature detection with OpenCV. Runs ORB on the reference image and returns the serialized
+// target model (see target_model.h), which ASUForia caches on disk so this only runs once per reference image.
+extern "C"
+JNIEXPORT jbyteArray JNICALL
+Java_edu_something_ar_1framework_ASUForia_nativeFeatureDetection(JNIEnv *env, jobject, jobject referenceImage) {
+
+    AndroidBitmapInfo info;
+    if (AndroidBitmap_getInfo(env, referenceImage, &info) != ANDROID_BITMAP_RESULT_SUCCESS
+            || info.format != ANDROID_BITMAP_FORMAT_RGBA_8888) {
+        throwIllegalArgument(env, "Reference image must be an ARGB_8888 Bitmap");
+        return NULL;
+    }
+
+    void *pixels = NULL;
+    if (AndroidBitmap_lockPixels(env, referenceImage, &pixels) != ANDROID_BITMAP_RESULT_SUCCESS) {
+        throwIllegalArgument(env, "Unable to lock reference image pixels");
+        return NULL;
+    }
+
+    // ORB only looks at intensity, so convert to gray while we still hold the pixel lock
+    cv::Mat gray;
+    cv::Mat rgba((int) info.height, (int) info.width, CV_8UC4, pixels, (size_t) info.stride);
+    cv::cvtColor(rgba, gray, cv::COLOR_RGBA2GRAY);
+    AndroidBitmap_unlockPixels(env, referenceImage);
+
+    std::vector<uint8_t> serialized;
+    buildTargetModel(gray, serialized);
+    return toByteArray(env, serialized);
+}
+#endif
+
+// Native method that builds the serialized target model of a grayscale reference image. Does the same as
+// nativeFeatureDetection() for callers that don't have a Bitmap, such as PoseReplay on a desktop JVM.
+extern "C"
+JNIEXPORT jbyteArray JNICALL
+Java_edu_something_ar_1framework_PoseEngine_nativeBuildTargetModel(JNIEnv *env, jclass, jobject grayImage,
+                                                                   jint width, jint height, jint rowStride) {
+    cv::Mat scratch;
+    cv::Mat gray;
+    if (!wrapLumaPlane(env, grayImage, width, height, rowStride, 1, scratch, gray)) {
+        return NULL;
+    }
+
+    std::vector<uint8_t> serialized;
+    buildTargetModel(gray, serialized);
+    return toByteArray(env, serialized);
+}
+
+// Native method for loading a serialized target model. The model is used in place, so the buffer (normally a
+// MappedByteBuffer over the cached model file) must stay reachable until nativeReleaseTargetModel() is called.
+// Returns 0 if the buffer doesn't hold a valid model.
+extern "C"
+JNIEXPORT jlong JNICALL
+Java_edu_something_ar_1framework_PoseEngine_nativeLoadTargetModel(JNIEnv *env, jclass, jobject modelBuffer) {
+
+    const uint8_t *data = static_cast<const uint8_t *>(env->GetDirectBufferAddress(modelBuffer));
+    if (data == NULL) {
+        throwIllegalArgument(env, "Target model must be a direct ByteBuffer");
+        return 0;
+    }
+
+    TargetModel *model = new TargetModel();
+    if (!loadTargetModel(data, (size_t) env->GetDirectBufferCapacity(modelBuffer), *model)) {
+        delete model;
+        return 0;
+    }
+    return reinterpret_cast<jlong>(model);
+}
+
+// Native method for freeing a target model returned by nativeLoadTargetModel()
+extern "C"
+JNIEXPORT void JNICALL
+Java_edu_something_ar_1framework_PoseEngine_nativeReleaseTargetModel(JNIEnv *, jclass, jlong targetModelHandle) {
+    delete reinterpret_cast<TargetModel *>(targetModelHandle);
+}
+
+// Native method that indexes the descriptors of every loaded target model in one TargetRegistry. The registry keeps
+// its own copy of the models, so the model handles can be released afterwards, but not the buffers behind them.
+extern "C"
+JNIEXPORT jlong JNICALL
+Java_edu_something_ar_1framework_PoseEngine_nativeCreateTargetRegistry(JNIEnv *env, jclass, jlongArray modelHandles) {
+
+    jsize count = env->GetArrayLength(modelHandles);
+    std::vector<jlong> handles((size_t) count);
+    if (count > 0) {
+        env->GetLongArrayRegion(modelHandles, 0, count, &handles[0]);
+    }
+
+    std::vector<TargetModel> models;
+    for (jsize i = 0; i < count; i++) {
+        const TargetModel *model = reinterpret_cast<const TargetModel *>(handles[i]);
+        if (model == NULL) {
+            throwIllegalArgument(env, "Target model handle is 0");
+            return 0;
+        }
+        models.push_back(*model);
+    }
+    return reinterpret_cast<jlong>(new TargetRegistry(models));
+}
+
+// Native method for freeing a registry returned by nativeCreateTargetRegistry()
+extern "C"
+JNIEXPORT void JNICALL
+Java_edu_something_ar_1framework_PoseEngine_nativeReleaseTargetRegistry(JNIEnv *, jclass, jlong registryHandle) {
+    delete reinterpret_cast<TargetRegistry *>(registryHandle);
+}
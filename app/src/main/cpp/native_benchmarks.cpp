@@ -0,0 +1,242 @@
+#include <jni.h>
+
+#include <algorithm>
+#include <stdio.h>
+#include <string>
+#include <vector>
+
+#include <opencv2/core.hpp>
+#include <opencv2/features2d.hpp>
+#include <opencv2/imgproc.hpp>
+
+#include "keypoint_grid.h"
+#include "target_registry.h"
+
+/*
+ Native halves of NativeBenchmarks.java. These run the same native code the pose path uses, on synthetic data, so they
+ can be timed on a device from an instrumented test without a camera.
+ */
+
+// Random ORB-sized descriptors, one row per keypoint
+static cv::Mat randomDescriptors(cv::RNG &rng, int rows) {
+    cv::Mat descriptors(rows, 32, CV_8UC1);
+    rng.fill(descriptors, cv::RNG::UNIFORM, 0, 256);
+    return descriptors;
+}
+
+// Native method that times one frame's worth of recognition against a registry of targetCount synthetic targets. The
+// query is made of descriptors of target 0 with a few bits flipped, like a real frame of that target. Returns the
+// average milliseconds per knnMatch over all iterations, or -1 if the registry failed to recognize target 0.
+extern "C"
+JNIEXPORT jdouble JNICALL
+Java_edu_something_ar_1framework_NativeBenchmarks_nativeRegistryMatchMillis(JNIEnv *, jclass, jint targetCount,
+                                                                           jint descriptorsPerTarget,
+                                                                           jint queryDescriptors, jint iterations,
+                                                                           jboolean useLsh) {
+    cv::RNG rng(598);
+
+    std::vector<cv::Mat> descriptorStorage;
+    std::vector<TargetModel> models;
+    for (int i = 0; i < targetCount; i++) {
+        descriptorStorage.push_back(randomDescriptors(rng, descriptorsPerTarget));
+        TargetModel model;
+        model.imageSize = cv::Size(640, 480);
+        model.keypoints = NULL;
+        model.keypointCount = descriptorsPerTarget;
+        model.objectPoints = cv::Mat::zeros(descriptorsPerTarget, 1, CV_32FC3);
+        model.descriptors = descriptorStorage.back();
+        models.push_back(model);
+    }
+
+    cv::Mat query(queryDescriptors, 32, CV_8UC1);
+    for (int i = 0; i < queryDescriptors; i++) {
+        descriptorStorage[0].row(i % descriptorsPerTarget).copyTo(query.row(i));
+        for (int flip = 0; flip < 8; flip++) {
+            query.at<uchar>(i, rng.uniform(0, 32)) ^= (uchar) (1 << rng.uniform(0, 8));
+        }
+    }
+
+    TargetRegistry registry(models, useLsh ? TargetRegistry::INDEX_LSH : TargetRegistry::INDEX_BRUTE_FORCE);
+    std::vector<std::vector<cv::DMatch> > matches;
+
+    // Warm up once so the first-call costs don't count
+    registry.knnMatch(query, matches);
+
+    int64 start = cv::getTickCount();
+    for (int i = 0; i < iterations; i++) {
+        registry.knnMatch(query, matches);
+    }
+    double millis = (cv::getTickCount() - start) * 1000.0 / cv::getTickFrequency() / iterations;
+
+    // Sanity check that the index still finds the right target, otherwise a fast time means nothing
+    std::vector<int> votes((size_t) targetCount, 0);
+    for (size_t i = 0; i < matches.size(); i++) {
+        if (!matches[i].empty()) {
+            votes[matches[i][0].imgIdx]++;
+        }
+    }
+    for (int i = 1; i < targetCount; i++) {
+        if (votes[i] >= votes[0]) {
+            return -1.0;
+        }
+    }
+    return millis;
+}
+
+// A camera-sized frame whose texture is bunched up like in a real scene: one strongly textured corner, and faint
+// texture everywhere else, which ORB's FAST threshold mostly ignores but KeypointGrid's lower one for bare cells
+// doesn't
+static cv::Mat clusteredTextureFrame(cv::RNG &rng, int width, int height) {
+    cv::Mat frame(height, width, CV_8UC1);
+    rng.fill(frame, cv::RNG::UNIFORM, 96, 160);
+    cv::Mat corner = frame(cv::Rect(0, 0, width / 3, height / 3));
+    rng.fill(corner, cv::RNG::UNIFORM, 0, 256);
+    cv::GaussianBlur(frame, frame, cv::Size(5, 5), 1.0);
+    return frame;
+}
+
+// Native method that times ORB keypoints and descriptors for one frame, either picked on a gridColumns x gridRows grid
+// or with plain ORB when gridColumns is 0. Returns the average milliseconds per frame over all iterations, or -1 if
+// more than features keypoints came out.
+extern "C"
+JNIEXPORT jdouble JNICALL
+Java_edu_something_ar_1framework_NativeBenchmarks_nativeKeypointMillis(JNIEnv *, jclass, jint width, jint height,
+                                                                      jint features, jint gridColumns, jint gridRows,
+                                                                      jint iterations) {
+    cv::RNG rng(598);
+    cv::Mat frame = clusteredTextureFrame(rng, width, height);
+    cv::Ptr<cv::ORB> orb = cv::ORB::create(features, 1.2f, 8);
+    KeypointGrid grid;
+    grid.setGrid(gridColumns, gridRows);
+    std::vector<cv::KeyPoint> keypoints;
+    cv::Mat descriptors;
+
+    // Warm up once so the first-call costs don't count
+    int64 start = 0;
+    for (int i = -1; i < iterations; i++) {
+        if (i == 0) {
+            start = cv::getTickCount();
+        }
+        if (gridColumns > 0) {
+            grid.detectAndCompute(frame, *orb, keypoints, descriptors);
+        } else {
+            orb->detectAndCompute(frame, cv::noArray(), keypoints, descriptors);
+        }
+    }
+    double millis = (cv::getTickCount() - start) * 1000.0 / cv::getTickFrequency() / iterations;
+    return (int) keypoints.size() > features ? -1.0 : millis;
+}
+
+// Native method that detects keypoints on the same frame as nativeKeypointMillis() once, and counts how many fall in
+// each cell of a coverage grid cellColumns wide, row by row into cells. Returns the number of keypoints.
+extern "C"
+JNIEXPORT jint JNICALL
+Java_edu_something_ar_1framework_NativeBenchmarks_nativeKeypointCells(JNIEnv *env, jclass, jint width, jint height,
+                                                                     jint features, jint gridColumns, jint gridRows,
+                                                                     jintArray cells, jint cellColumns) {
+    cv::RNG rng(598);
+    cv::Mat frame = clusteredTextureFrame(rng, width, height);
+    cv::Ptr<cv::ORB> orb = cv::ORB::create(features, 1.2f, 8);
+    std::vector<cv::KeyPoint> keypoints;
+    cv::Mat descriptors;
+    if (gridColumns > 0) {
+        KeypointGrid grid;
+        grid.setGrid(gridColumns, gridRows);
+        grid.detectAndCompute(frame, *orb, keypoints, descriptors);
+    } else {
+        orb->detectAndCompute(frame, cv::noArray(), keypoints, descriptors);
+    }
+
+    jsize cellCount = env->GetArrayLength(cells);
+    int cellRows = cellCount / cellColumns;
+    std::vector<jint> counts((size_t) cellCount, 0);
+    for (size_t i = 0; i < keypoints.size(); i++) {
+        int column = std::min(cellColumns - 1, (int) (keypoints[i].pt.x * cellColumns / width));
+        int row = std::min(cellRows - 1, (int) (keypoints[i].pt.y * cellRows / height));
+        counts[row * cellColumns + column]++;
+    }
+    env->SetIntArrayRegion(cells, 0, cellCount, counts.data());
+    return (jint) keypoints.size();
+}
+
+/*
+ The JNI crossing benchmarks below return the same made-up pose result in different ways, so timing them from Java
+ shows what crossing the boundary costs compared to the work of writing count floats: into a direct buffer wrapped once
+ (what nativePoseEstimation() does), into a float[], into a new float[] every time, one call per float, or formatted as
+ a String for Java to parse.
+ */
+
+static float resultValue(int index) {
+    return index * 0.5f;
+}
+
+// Native method that does nothing, for the cost of the call itself
+extern "C"
+JNIEXPORT void JNICALL
+Java_edu_something_ar_1framework_NativeBenchmarks_nativeEmptyCall(JNIEnv *, jclass) {
+}
+
+// Native method that returns where the floats of a direct buffer start, or 0 if it isn't direct
+extern "C"
+JNIEXPORT jlong JNICALL
+Java_edu_something_ar_1framework_NativeBenchmarks_nativeWrapResultBlock(JNIEnv *env, jclass, jobject block) {
+    return reinterpret_cast<jlong>(env->GetDirectBufferAddress(block));
+}
+
+// Native method that writes the result through a pointer from nativeWrapResultBlock()
+extern "C"
+JNIEXPORT void JNICALL
+Java_edu_something_ar_1framework_NativeBenchmarks_nativeWriteResultBlock(JNIEnv *, jclass, jlong block, jint count) {
+    float *result = reinterpret_cast<float *>(block);
+    for (int i = 0; i < count; i++) {
+        result[i] = resultValue(i);
+    }
+}
+
+// Native method that copies the result into a Java float[]
+extern "C"
+JNIEXPORT void JNICALL
+Java_edu_something_ar_1framework_NativeBenchmarks_nativeWriteResultArray(JNIEnv *env, jclass, jfloatArray result) {
+    jsize count = env->GetArrayLength(result);
+    std::vector<jfloat> values((size_t) count);
+    for (jsize i = 0; i < count; i++) {
+        values[i] = resultValue(i);
+    }
+    env->SetFloatArrayRegion(result, 0, count, &values[0]);
+}
+
+// Native method that returns the result in a new float[]
+extern "C"
+JNIEXPORT jfloatArray JNICALL
+Java_edu_something_ar_1framework_NativeBenchmarks_nativeNewResultArray(JNIEnv *env, jclass, jint count) {
+    jfloatArray result = env->NewFloatArray(count);
+    if (result == NULL) {
+        return NULL;
+    }
+    std::vector<jfloat> values((size_t) count);
+    for (jsize i = 0; i < count; i++) {
+        values[i] = resultValue(i);
+    }
+    env->SetFloatArrayRegion(result, 0, count, &values[0]);
+    return result;
+}
+
+// Native method that returns one float of the result, for a call per field
+extern "C"
+JNIEXPORT jfloat JNICALL
+Java_edu_something_ar_1framework_NativeBenchmarks_nativeResultField(JNIEnv *, jclass, jint index) {
+    return resultValue(index);
+}
+
+// Native method that returns the result as space separated numbers
+extern "C"
+JNIEXPORT jstring JNICALL
+Java_edu_something_ar_1framework_NativeBenchmarks_nativeResultString(JNIEnv *env, jclass, jint count) {
+    std::string text;
+    char number[32];
+    for (int i = 0; i < count; i++) {
+        snprintf(number, sizeof(number), i == 0 ? "%g" : " %g", resultValue(i));
+        text += number;
+    }
+    return env->NewStringUTF(text.c_str());
+}
@@ -0,0 +1,530 @@
+#include "pose_tracker.h"
+
+#include <algorithm>
+#include <time.h>
+
+#include <opencv2/calib3d.hpp>
+#include <opencv2/imgproc.hpp>
+#include <opencv2/video/tracking.hpp>
+
+// ORB settings for camera frames until setFeatureBudget() is called. Shared with FeatureBudget.DEFAULT_STEP.
+static const int FRAME_ORB_FEATURES = 500;
+static const int FRAME_ORB_PYRAMID_LEVELS = 8;
+
+// Keypoint grid until setKeypointGrid() is called. Shared with PoseEngine.DEFAULT_GRID_COLUMNS and _ROWS.
+static const int FRAME_GRID_COLUMNS = 6;
+static const int FRAME_GRID_ROWS = 4;
+
+// Lowe's ratio test threshold for the two nearest reference descriptors
+static const float MATCH_RATIO = 0.75f;
+
+// LSH sometimes finds only one neighbour, in which case the match is kept only if it is this close (in bits)
+static const float MAX_SINGLE_MATCH_DISTANCE = 40.0f;
+
+// RANSAC settings for detection
+static const int RANSAC_ITERATIONS = 100;
+static const float RANSAC_REPROJECTION_ERROR = 8.0f;
+static const double RANSAC_CONFIDENCE = 0.99;
+
+// Padding around the target's projected corners for detection in a region, as a fraction of the larger side of their
+// bounding box, and at least ROI_MIN_PADDING pixels so ORB's edge threshold doesn't cut into the target
+static const float ROI_PADDING = 0.25f;
+static const int ROI_MIN_PADDING = 64;
+// Regions covering more of the frame than this aren't worth the risk of missing part of the target
+static const float ROI_MAX_AREA = 0.6f;
+
+// Lucas-Kanade settings for tracking
+static const cv::Size FLOW_WINDOW(21, 21);
+static const int FLOW_PYRAMID_LEVELS = 3;
+
+/*
+ The best match for one frame descriptor if it is distinctive enough to trust, or NULL. With two neighbours this is
+ Lowe's ratio test. Both neighbours may belong to different targets, in which case an ambiguous descriptor is dropped
+ just like an ambiguous descriptor within a single target.
+ */
+static const cv::DMatch *goodMatch(const std::vector<cv::DMatch> &neighbours) {
+    if (neighbours.size() >= 2) {
+        return neighbours[0].distance < MATCH_RATIO * neighbours[1].distance ? &neighbours[0] : NULL;
+    }
+    if (neighbours.size() == 1) {
+        return neighbours[0].distance <= MAX_SINGLE_MATCH_DISTANCE ? &neighbours[0] : NULL;
+    }
+    return NULL;
+}
+
+static double elapsedMillis(int64 startTicks) {
+    return (cv::getTickCount() - startTicks) * 1000.0 / cv::getTickFrequency();
+}
+
+int64_t monotonicNanos() {
+    timespec now;
+    clock_gettime(CLOCK_MONOTONIC, &now);
+    return (int64_t) now.tv_sec * 1000000000LL + now.tv_nsec;
+}
+
+PoseTracker::PoseTracker()
+        : myOrbGeneration(0),
+          myExtractPyramid(true),
+          myExtractKeypoints(true),
+          myRoiMisses(0),
+          myHasPose(false),
+          myTargetIndex(-1),
+          myHasPrevPyramid(false) {
+    myParams.trackingEnabled = true;
+    myParams.minTrackedInliers = 15;
+    myParams.maxReprojectionError = 3.0f;
+    myParams.minDetectionInliers = 12;
+    myParams.roiSearchEnabled = true;
+    myParams.roiMaxMisses = 3;
+
+    myOrbSettings.features = FRAME_ORB_FEATURES;
+    myOrbSettings.pyramidLevels = FRAME_ORB_PYRAMID_LEVELS;
+    myOrbSettings.downscale = 1.0f;
+    myOrbSettings.gridColumns = FRAME_GRID_COLUMNS;
+    myOrbSettings.gridRows = FRAME_GRID_ROWS;
+    OrbRunner *runners[] = {&mySolveOrb, &myExtractOrb};
+    for (int i = 0; i < 2; i++) {
+        runners[i]->orb = cv::ORB::create(FRAME_ORB_FEATURES, 1.2f, FRAME_ORB_PYRAMID_LEVELS);
+        runners[i]->grid.setGrid(FRAME_GRID_COLUMNS, FRAME_GRID_ROWS);
+        runners[i]->settings = myOrbSettings;
+        runners[i]->generation = 0;
+    }
+}
+
+void PoseTracker::setFeatureBudget(int features, int pyramidLevels, float downscale) {
+    std::lock_guard<std::mutex> lock(myOrbSettingsMutex);
+    myOrbSettings.features = features;
+    myOrbSettings.pyramidLevels = pyramidLevels;
+    myOrbSettings.downscale = downscale;
+    myOrbGeneration++;
+}
+
+void PoseTracker::setKeypointGrid(int columns, int rows) {
+    std::lock_guard<std::mutex> lock(myOrbSettingsMutex);
+    myOrbSettings.gridColumns = columns;
+    myOrbSettings.gridRows = rows;
+    myOrbGeneration++;
+}
+
+/*
+ Detect ORB keypoints and descriptors in features.gray with the runner's ORB, or its grid when there is one, after
+ bringing it up to date with the latest settings. When solve() has predicted where the target is, only that region
+ is searched. Keypoints found in a region or on a downscaled frame are mapped back to frame coordinates, so matching,
+ PnP and tracking never see either.
+ */
+void PoseTracker::runOrb(OrbRunner &runner, FrameFeatures &features) {
+    if (runner.generation != myOrbGeneration.load()) {
+        std::lock_guard<std::mutex> lock(myOrbSettingsMutex);
+        runner.settings = myOrbSettings;
+        runner.generation = myOrbGeneration.load();
+        runner.orb->setMaxFeatures(runner.settings.features);
+        runner.orb->setNLevels(runner.settings.pyramidLevels);
+        runner.grid.setGrid(runner.settings.gridColumns, runner.settings.gridRows);
+    }
+
+    // The region is a header into the frame's pixels, nothing is copied
+    cv::Rect roi = detectionRoi() & cv::Rect(0, 0, features.gray.cols, features.gray.rows);
+    cv::Mat region = features.gray;
+    if (roi.area() > 0) {
+        region = features.gray(roi);
+        features.metrics->flags |= FRAME_FLAG_ROI_DETECTION;
+    }
+
+    float scale = runner.settings.downscale;
+    const cv::Mat *image = &region;
+    if (scale < 1.0f) {
+        cv::resize(region, runner.scaled, cv::Size(), scale, scale, cv::INTER_AREA);
+        image = &runner.scaled;
+    }
+    if (runner.settings.gridColumns > 0) {
+        runner.grid.detectAndCompute(*image, *runner.orb, features.keypoints, features.descriptors);
+    } else {
+        runner.orb->detectAndCompute(*image, cv::noArray(), features.keypoints, features.descriptors);
+    }
+    if (scale >= 1.0f && roi.area() == 0) {
+        return;
+    }
+    float inverse = 1.0f / std::min(scale, 1.0f);
+    for (size_t i = 0; i < features.keypoints.size(); i++) {
+        cv::KeyPoint &keypoint = features.keypoints[i];
+        // Pixel centers: pixel x of the scaled frame covers frame pixels x / scale to (x + 1) / scale
+        keypoint.pt.x = (keypoint.pt.x + 0.5f) * inverse - 0.5f + roi.x;
+        keypoint.pt.y = (keypoint.pt.y + 0.5f) * inverse - 0.5f + roi.y;
+        keypoint.size *= inverse;
+    }
+}
+
+// Where the next detection should look, empty for the whole frame. Called by both threads.
+cv::Rect PoseTracker::detectionRoi() {
+    std::lock_guard<std::mutex> lock(myDetectionRoiMutex);
+    return myDetectionRoi;
+}
+
+void PoseTracker::setDetectionRoi(const cv::Rect &roi) {
+    std::lock_guard<std::mutex> lock(myDetectionRoiMutex);
+    myDetectionRoi = roi;
+}
+
+/*
+ Decide where the next detection looks, once solve() knows how this frame went. A frame with a pose puts the region
+ around the target's corners projected with that pose, padded for the motion until the next detection. A failed
+ detection leaves the region where it was, the target has probably just been blurred or covered for a moment, until
+ roiMaxMisses of them in a row give up on it and search the whole frame.
+ */
+void PoseTracker::updateDetectionRoi(PoseMode mode, const TargetRegistry &registry) {
+    if (!myParams.roiSearchEnabled) {
+        setDetectionRoi(cv::Rect());
+        return;
+    }
+    if (mode == POSE_MODE_LOST) {
+        myRoiMisses = std::min(myRoiMisses + 1, myParams.roiMaxMisses);
+        if (myRoiMisses >= myParams.roiMaxMisses) {
+            setDetectionRoi(cv::Rect());
+        }
+        return;
+    }
+    myRoiMisses = 0;
+
+    // Object coordinates are in units of the longer side of the reference image
+    cv::Size imageSize = registry.target(myTargetIndex).imageSize;
+    float unit = 1.0f / std::max(imageSize.width, imageSize.height);
+    float width = imageSize.width * unit;
+    float height = imageSize.height * unit;
+    myTargetCorners.clear();
+    myTargetCorners.push_back(cv::Point3f(0.0f, 0.0f, 0.0f));
+    myTargetCorners.push_back(cv::Point3f(width, 0.0f, 0.0f));
+    myTargetCorners.push_back(cv::Point3f(width, height, 0.0f));
+    myTargetCorners.push_back(cv::Point3f(0.0f, height, 0.0f));
+    cv::projectPoints(myTargetCorners, myRvec, myTvec, myCameraMatrix, cv::noArray(), myProjectedCorners);
+
+    cv::Rect box = cv::boundingRect(myProjectedCorners);
+    int padding = std::max(ROI_MIN_PADDING, (int) (ROI_PADDING * std::max(box.width, box.height)));
+    box = cv::Rect(box.x - padding, box.y - padding, box.width + 2 * padding, box.height + 2 * padding)
+          & cv::Rect(0, 0, myFrameSize.width, myFrameSize.height);
+    // A target behind the camera or filling the frame projects to nothing useful
+    bool useful = myTvec.at<double>(2) > 0.0 && box.area() > 0
+                  && box.area() <= ROI_MAX_AREA * myFrameSize.width * myFrameSize.height;
+    setDetectionRoi(useful ? box : cv::Rect());
+}
+
+void PoseTracker::setParams(const PoseTrackerParams &params) {
+    myParams = params;
+    if (!myParams.trackingEnabled) {
+        reset();
+    }
+    if (!myParams.roiSearchEnabled) {
+        setDetectionRoi(cv::Rect());
+    }
+    updateExtractionHints();
+}
+
+void PoseTracker::reset() {
+    myHasPose = false;
+    myTargetIndex = -1;
+    myTrackedObjectPoints.clear();
+    myTrackedImagePoints.clear();
+    updateExtractionHints();
+}
+
+/*
+ Tell extract() what the next frame will probably need. The pyramid is needed whenever tracking is enabled, to track
+ into the frame or out of it. Keypoints are only needed when there is no pose to track. With pipelining the next frame
+ may already have been extracted by the time a frame loses tracking, in which case solve() runs ORB itself.
+ */
+void PoseTracker::updateExtractionHints() {
+    myExtractPyramid = myParams.trackingEnabled;
+    myExtractKeypoints = !myParams.trackingEnabled || !myHasPose;
+}
+
+/*
+ There is no calibration for the camera, so approximate the intrinsics from the frame size: principal point in the
+ center and a focal length equal to the larger frame dimension, which is close to the ~53 degree field of view of most
+ phone cameras. Lens distortion is ignored.
+ */
+void PoseTracker::updateCameraMatrix(const cv::Size &frameSize) {
+    if (frameSize == myFrameSize && !myCameraMatrix.empty()) {
+        return;
+    }
+    myFrameSize = frameSize;
+    double focal = std::max(frameSize.width, frameSize.height);
+    myCameraMatrix = (cv::Mat_<double>(3, 3) << focal, 0, frameSize.width / 2.0,
+                                                0, focal, frameSize.height / 2.0,
+                                                0, 0, 1);
+    // A different frame size means the tracked points and the detection region no longer line up
+    myHasPrevPyramid = false;
+    setDetectionRoi(cv::Rect());
+    reset();
+}
+
+void PoseTracker::process(const cv::Mat &gray, const TargetRegistry &registry, PoseResult &result) {
+    myFrame.gray = gray;
+    myFrame.metrics->extractEntryNanos = monotonicNanos();
+    myFrame.metrics->solveEntryNanos = myFrame.metrics->extractEntryNanos;
+    extract(myFrame);
+    solve(myFrame, registry, result);
+}
+
+void PoseTracker::extract(FrameFeatures &features) {
+    features.hasPyramid = false;
+    features.pyramidMillis = 0.0;
+    features.hasKeypoints = false;
+    features.keypointMillis = 0.0;
+
+    // The entry times were set by the caller, everything else starts over for this frame
+    FrameMetrics &metrics = *features.metrics;
+    metrics.orbNanos = 0;
+    metrics.matchNanos = 0;
+    metrics.pnpNanos = 0;
+    metrics.flags = 0;
+
+    // The current frame's pyramid is needed to track into this frame, and to track out of it on the next one
+    if (myExtractPyramid) {
+        int64 start = cv::getTickCount();
+        cv::buildOpticalFlowPyramid(features.gray, features.pyramid, FLOW_WINDOW, FLOW_PYRAMID_LEVELS);
+        features.hasPyramid = true;
+        features.pyramidMillis = elapsedMillis(start);
+    }
+
+    if (myExtractKeypoints) {
+        int64 start = cv::getTickCount();
+        int64_t orbStart = monotonicNanos();
+        runOrb(myExtractOrb, features);
+        metrics.orbNanos = monotonicNanos() - orbStart;
+        features.hasKeypoints = true;
+        features.keypointMillis = elapsedMillis(start);
+    }
+}
+
+void PoseTracker::solve(FrameFeatures &features, const TargetRegistry &registry, PoseResult &result) {
+    updateCameraMatrix(features.gray.size());
+
+    result.mode = POSE_MODE_LOST;
+    result.targetIndex = -1;
+    result.inlierCount = 0;
+    result.reprojectionError = 0.0f;
+    std::fill(result.covariance, result.covariance + POSE_COVARIANCE_SIZE, 0.0f);
+    result.detectMillis = 0.0;
+    result.trackMillis = 0.0;
+    FrameMetrics &metrics = *features.metrics;
+
+    // Tracking needs this frame's pyramid and the previous frame's, which are only there if tracking was already
+    // enabled when both were extracted
+    bool canTrack = myParams.trackingEnabled && features.hasPyramid;
+    if (canTrack) {
+        int64 start = cv::getTickCount();
+        if (myHasPose && myHasPrevPyramid) {
+            if (track(features.pyramid, metrics)) {
+                result.mode = POSE_MODE_TRACKED;
+            } else {
+                metrics.flags |= FRAME_FLAG_TRACKING_LOST;
+            }
+        }
+        result.trackMillis = features.pyramidMillis + elapsedMillis(start);
+    }
+
+    if (result.mode != POSE_MODE_TRACKED) {
+        int64 start = cv::getTickCount();
+        double keypointMillis = features.keypointMillis;
+        if (!features.hasKeypoints) {
+            int64_t orbStart = monotonicNanos();
+            runOrb(mySolveOrb, features);
+            metrics.orbNanos += monotonicNanos() - orbStart;
+            features.hasKeypoints = true;
+        }
+        if (detect(features.keypoints, features.descriptors, registry, metrics)) {
+            result.mode = POSE_MODE_DETECTED;
+        } else {
+            metrics.flags |= FRAME_FLAG_DETECTION_FAILED;
+        }
+        result.detectMillis = keypointMillis + elapsedMillis(start);
+    }
+
+    // The frame's pixels aren't needed anymore, and may belong to a camera buffer that is about to be given back
+    features.gray.release();
+
+    updateDetectionRoi(result.mode, registry);
+    if (result.mode == POSE_MODE_LOST) {
+        reset();
+        return;
+    }
+
+    myHasPose = true;
+    updateExtractionHints();
+
+    // This frame becomes the previous frame for the next one. The old previous pyramid goes back to features, so its
+    // memory is reused when the next frame is extracted into it.
+    myHasPrevPyramid = canTrack;
+    if (canTrack) {
+        std::swap(myPrevPyramid, features.pyramid);
+    }
+
+    for (int i = 0; i < 3; i++) {
+        result.rvec[i] = (float) myRvec.at<double>(i);
+        result.tvec[i] = (float) myTvec.at<double>(i);
+    }
+    result.targetIndex = myTargetIndex;
+    result.inlierCount = (int) myTrackedImagePoints.size();
+    result.reprojectionError = reprojectionError(myTrackedObjectPoints, myTrackedImagePoints);
+    poseCovariance(myTrackedObjectPoints, myTrackedImagePoints, result.covariance);
+}
+
+bool PoseTracker::detect(const std::vector<cv::KeyPoint> &keypoints, const cv::Mat &descriptors,
+                         const TargetRegistry &registry, FrameMetrics &metrics) {
+    if (descriptors.rows < 2) {
+        return false;
+    }
+
+    // One pass over the whole registry, then let every match that passes the ratio test vote for its target
+    int64_t matchStart = monotonicNanos();
+    registry.knnMatch(descriptors, myKnnMatches);
+    myTargetVotes.assign(registry.size(), 0);
+    for (size_t i = 0; i < myKnnMatches.size(); i++) {
+        const cv::DMatch *match = goodMatch(myKnnMatches[i]);
+        if (match != NULL) {
+            myTargetVotes[match->imgIdx]++;
+        }
+    }
+
+    int target = -1;
+    for (int i = 0; i < registry.size(); i++) {
+        if (target < 0 || myTargetVotes[i] > myTargetVotes[target]) {
+            target = i;
+        }
+    }
+    if (target < 0 || myTargetVotes[target] < myParams.minDetectionInliers) {
+        metrics.matchNanos = monotonicNanos() - matchStart;
+        return false;
+    }
+
+    // Only the winning target's matches go into RANSAC
+    const TargetModel &model = registry.target(target);
+    myMatchedObjectPoints.clear();
+    myMatchedImagePoints.clear();
+    for (size_t i = 0; i < myKnnMatches.size(); i++) {
+        const cv::DMatch *match = goodMatch(myKnnMatches[i]);
+        if (match == NULL || match->imgIdx != target) {
+            continue;
+        }
+        const cv::Vec3f &object = model.objectPoints.at<cv::Vec3f>(match->trainIdx);
+        myMatchedObjectPoints.push_back(cv::Point3f(object[0], object[1], object[2]));
+        myMatchedImagePoints.push_back(keypoints[match->queryIdx].pt);
+    }
+    metrics.matchNanos = monotonicNanos() - matchStart;
+
+    int64_t pnpStart = monotonicNanos();
+    bool found = cv::solvePnPRansac(myMatchedObjectPoints, myMatchedImagePoints, myCameraMatrix, cv::noArray(),
+                                    myRvec, myTvec, false, RANSAC_ITERATIONS, RANSAC_REPROJECTION_ERROR,
+                                    RANSAC_CONFIDENCE, myInliers, cv::SOLVEPNP_ITERATIVE);
+    metrics.pnpNanos += monotonicNanos() - pnpStart;
+    if (!found || myInliers.rows < myParams.minDetectionInliers) {
+        return false;
+    }
+
+    // Only the RANSAC inliers are worth tracking
+    myTrackedObjectPoints.clear();
+    myTrackedImagePoints.clear();
+    for (int i = 0; i < myInliers.rows; i++) {
+        int index = myInliers.at<int>(i);
+        myTrackedObjectPoints.push_back(myMatchedObjectPoints[index]);
+        myTrackedImagePoints.push_back(myMatchedImagePoints[index]);
+    }
+    myTargetIndex = target;
+    return true;
+}
+
+bool PoseTracker::track(const std::vector<cv::Mat> &pyramid, FrameMetrics &metrics) {
+    if ((int) myTrackedImagePoints.size() < myParams.minTrackedInliers) {
+        return false;
+    }
+
+    cv::calcOpticalFlowPyrLK(myPrevPyramid, pyramid, myTrackedImagePoints, myNextPoints, myFlowStatus,
+                             myFlowError, FLOW_WINDOW, FLOW_PYRAMID_LEVELS);
+
+    // Keep only the points LK found, compacting both lists in place
+    cv::Rect2f bounds(0.0f, 0.0f, (float) myFrameSize.width, (float) myFrameSize.height);
+    size_t kept = 0;
+    for (size_t i = 0; i < myNextPoints.size(); i++) {
+        if (!myFlowStatus[i] || !bounds.contains(myNextPoints[i])) {
+            continue;
+        }
+        myTrackedObjectPoints[kept] = myTrackedObjectPoints[i];
+        myTrackedImagePoints[kept] = myNextPoints[i];
+        kept++;
+    }
+    myTrackedObjectPoints.resize(kept);
+    myTrackedImagePoints.resize(kept);
+    if ((int) kept < myParams.minTrackedInliers) {
+        return false;
+    }
+
+    // Start from the previous pose, the target can only have moved a little since then
+    int64_t pnpStart = monotonicNanos();
+    bool solved = cv::solvePnP(myTrackedObjectPoints, myTrackedImagePoints, myCameraMatrix, cv::noArray(), myRvec,
+                               myTvec, true, cv::SOLVEPNP_ITERATIVE);
+    metrics.pnpNanos += monotonicNanos() - pnpStart;
+    if (!solved) {
+        return false;
+    }
+
+    if (reprojectionError(myTrackedObjectPoints, myTrackedImagePoints) > myParams.maxReprojectionError) {
+        return false;
+    }
+
+    // Drop points that drifted away from the pose, so they don't drag the next frame's refinement with them
+    kept = 0;
+    for (size_t i = 0; i < myProjectedPoints.size(); i++) {
+        cv::Point2f delta = myProjectedPoints[i] - myTrackedImagePoints[i];
+        if (delta.dot(delta) > myParams.maxReprojectionError * myParams.maxReprojectionError * 4.0f) {
+            continue;
+        }
+        myTrackedObjectPoints[kept] = myTrackedObjectPoints[i];
+        myTrackedImagePoints[kept] = myTrackedImagePoints[i];
+        kept++;
+    }
+    myTrackedObjectPoints.resize(kept);
+    myTrackedImagePoints.resize(kept);
+    return (int) kept >= myParams.minTrackedInliers;
+}
+
+// Mean distance in pixels between the image points and the object points projected with the current pose
+float PoseTracker::reprojectionError(const std::vector<cv::Point3f> &objectPoints,
+                                     const std::vector<cv::Point2f> &imagePoints) {
+    if (objectPoints.empty()) {
+        return 0.0f;
+    }
+    cv::projectPoints(objectPoints, myRvec, myTvec, myCameraMatrix, cv::noArray(), myProjectedPoints);
+    double total = 0.0;
+    for (size_t i = 0; i < imagePoints.size(); i++) {
+        total += cv::norm(myProjectedPoints[i] - imagePoints[i]);
+    }
+    return (float) (total / imagePoints.size());
+}
+
+// Covariance of the current pose from how well the inliers pin it down, see PoseResult. Left at 0 when there are too
+// few points or they are degenerate, for example all on one line.
+void PoseTracker::poseCovariance(const std::vector<cv::Point3f> &objectPoints,
+                                 const std::vector<cv::Point2f> &imagePoints,
+                                 float covariance[POSE_COVARIANCE_SIZE]) {
+    int residuals = (int) imagePoints.size() * 2;
+    if (residuals <= 6) {
+        return;
+    }
+    // The first 6 columns of the Jacobian are the derivatives by rvec and tvec, the rest are by the intrinsics
+    cv::projectPoints(objectPoints, myRvec, myTvec, myCameraMatrix, cv::noArray(), myProjectedPoints, myJacobian);
+    double squared = 0.0;
+    for (size_t i = 0; i < imagePoints.size(); i++) {
+        cv::Point2f delta = myProjectedPoints[i] - imagePoints[i];
+        squared += delta.dot(delta);
+    }
+    cv::mulTransposed(myJacobian.colRange(0, 6), myNormalMatrix, true);
+    if (cv::invert(myNormalMatrix, myCovariance, cv::DECOMP_CHOLESKY) == 0.0) {
+        return;
+    }
+    double variance = squared / (residuals - 6);
+    int k = 0;
+    for (int i = 0; i < 6; i++) {
+        for (int j = i; j < 6; j++) {
+            covariance[k++] = (float) (myCovariance.at<double>(i, j) * variance);
+        }
+    }
+}
@@ -0,0 +1,248 @@
+#ifndef ASUFORIA_POSE_TRACKER_H
+#define ASUFORIA_POSE_TRACKER_H
+
+#include <atomic>
+#include <mutex>
+#include <stdint.h>
+#include <vector>
+
+#include <opencv2/core.hpp>
+#include <opencv2/features2d.hpp>
+
+#include "keypoint_grid.h"
+#include "target_registry.h"
+
+/*
+ Which path produced the pose for a frame. Values are shared with ASUForia.java, keep them in sync.
+ */
+enum PoseMode {
+    POSE_MODE_LOST = 0,      // no pose for this frame
+    POSE_MODE_DETECTED = 1,  // full ORB detection, descriptor matching and solvePnPRansac
+    POSE_MODE_TRACKED = 2    // KLT tracking of the previous inliers and solvePnP from the previous pose
+};
+
+// Floats in the upper triangle of the 6x6 pose covariance, see PoseResult
+const int POSE_COVARIANCE_SIZE = 21;
+
+/*
+ Per-frame output of PoseTracker::process(). The times are for the work actually done on this frame, so a frame where
+ tracking was lost and detection ran instead reports both.
+
+ The covariance is that of (rvec, tvec) as estimated from the inliers: the inverse of J^T J, with J the Jacobian of
+ their projections with respect to the pose, scaled by the variance of their reprojection residuals. Only the upper
+ triangle is kept, row by row, so element (i, j) with i <= j is at i * 6 - i * (i - 1) / 2 + j - i. All 0 when the
+ pose is lost or the inliers don't constrain it.
+ */
+struct PoseResult {
+    PoseMode mode;
+    int targetIndex;          // index of the recognized target in the TargetRegistry, -1 when lost
+    float rvec[3];
+    float tvec[3];
+    float covariance[POSE_COVARIANCE_SIZE];
+    int inlierCount;
+    float reprojectionError;  // mean, in pixels, over the inliers
+    double detectMillis;
+    double trackMillis;
+};
+
+/*
+ Where each frame's time went, written by the native pipeline stages as they run and read from Java once the frame
+ has been solved. Lives in a direct ByteBuffer owned by Java, so the layout is shared with the FRAME_ constants in
+ PoseMetrics.java, keep them in sync. Durations are nanoseconds, 0 when that step didn't run on the frame.
+ */
+struct FrameMetrics {
+    int64_t extractEntryNanos;   // monotonicNanos() on entering nativeExtractFeatures()
+    int64_t solveEntryNanos;     // monotonicNanos() on entering nativePoseEstimation()
+    int64_t orbNanos;
+    int64_t matchNanos;
+    int64_t pnpNanos;
+    int64_t flags;               // FrameMetricsFlag bits
+};
+
+enum FrameMetricsFlag {
+    FRAME_FLAG_DETECTION_FAILED = 1,   // full detection ran and found no target
+    FRAME_FLAG_TRACKING_LOST = 2,      // a tracked target was lost on this frame
+    FRAME_FLAG_ROI_DETECTION = 4       // ORB only ran on the region where the last pose predicts the target
+};
+
+// CLOCK_MONOTONIC in nanoseconds, the same clock as System.nanoTime() on Android
+int64_t monotonicNanos();
+
+/*
+ Everything PoseTracker::extract() works out from one frame before the pose is solved: the optical flow pyramid used to
+ track into this frame, and the ORB keypoints and descriptors used to detect a target in it. Keeping these per frame
+ lets extraction of the next frame run on another thread while the pose of this one is being solved. The vectors and
+ Mats are reused, so a FrameFeatures should be kept and handed back in for later frames.
+ */
+struct FrameFeatures {
+    cv::Mat gray;              // the frame itself, may point at camera memory that is only valid until solve()
+    cv::Mat lumaScratch;       // backing store for gray when the camera luma plane couldn't be used in place
+
+    bool hasPyramid;
+    std::vector<cv::Mat> pyramid;
+    double pyramidMillis;
+
+    bool hasKeypoints;
+    std::vector<cv::KeyPoint> keypoints;
+    cv::Mat descriptors;
+    double keypointMillis;
+
+    // Where the timings for this frame go, normally memory shared with Java. Points at ownMetrics when there is none.
+    FrameMetrics *metrics;
+    FrameMetrics ownMetrics;
+
+    FrameFeatures() : hasPyramid(false), pyramidMillis(0.0), hasKeypoints(false), keypointMillis(0.0),
+                      metrics(&ownMetrics), ownMetrics() {}
+
+private:
+    // metrics may point into this object
+    FrameFeatures(const FrameFeatures &);
+    FrameFeatures &operator=(const FrameFeatures &);
+};
+
+/*
+ How much work ORB does on a detection frame, picked by FeatureBudget.java to hold a target frame time, and how the
+ keypoints are picked. With a downscale below 1, ORB runs on a smaller copy of the frame and the keypoints are scaled
+ back to frame coordinates. With a grid, the keypoints are spread over the frame by KeypointGrid.
+ */
+struct OrbSettings {
+    int features;
+    int pyramidLevels;
+    float downscale;
+    int gridColumns;    // 0 for plain ORB over the whole frame
+    int gridRows;
+};
+
+struct PoseTrackerParams {
+    bool trackingEnabled;
+    int minTrackedInliers;        // re-detect when fewer inliers than this survive tracking
+    float maxReprojectionError;   // re-detect when the mean reprojection error (pixels) goes above this
+    int minDetectionInliers;      // a detection with fewer RANSAC inliers than this counts as a miss
+    bool roiSearchEnabled;        // run detection ORB only around where the last pose puts the target
+    int roiMaxMisses;             // search the whole frame again after this many failed detections in a row
+};
+
+/*
+ Detect-then-track pose estimation. After a successful detection, the inlier image points are followed from frame to
+ frame with pyramidal Lucas-Kanade optical flow and the pose is refined with solvePnP starting from the previous pose,
+ which is much cheaper than running ORB, matching and RANSAC again. Full detection only runs again when tracking
+ loses too many points or the refined pose no longer explains them well.
+
+ When detection does have to run again, the target is usually still close to where the last pose put it, so ORB only
+ runs on a padded bounding box around the target's projected corners. Only after roiMaxMisses detections in a row
+ fail there is the whole frame searched again.
+
+ The per-frame work is split in two so it can be pipelined: extract() builds what a frame needs, solve() then finds
+ the pose from it. extract() may run on one thread while solve() runs on another, but each of them must always be
+ called from the same thread, and frames must be solved in the order they were extracted. process() does both at once.
+ */
+class PoseTracker {
+public:
+    PoseTracker();
+
+    void setParams(const PoseTrackerParams &params);
+    const PoseTrackerParams &params() const { return myParams; }
+
+    // Recognize a target from registry in a grayscale frame and estimate its pose. gray may point at memory that is gone
+    // after this call returns.
+    void process(const cv::Mat &gray, const TargetRegistry &registry, PoseResult &result);
+
+    // First half of process(): prepare features.gray for solve(). Only builds what the tracker expects to need, which
+    // for a frame that is currently being tracked is just the pyramid. Safe to call while another thread is in solve().
+    void extract(FrameFeatures &features);
+
+    // Second half of process(): the pose for a frame prepared by extract(). Runs ORB itself if extract() skipped it and
+    // the frame turns out to need detection after all. Releases features.gray when done.
+    void solve(FrameFeatures &features, const TargetRegistry &registry, PoseResult &result);
+
+    // Forget the current pose, so the next frame runs full detection
+    void reset();
+
+    // Change the ORB settings. Safe to call from any thread, each of extract() and solve() picks them up the next time
+    // it runs ORB.
+    void setFeatureBudget(int features, int pyramidLevels, float downscale);
+
+    // Pick keypoints per cell of a columns x rows grid, or with plain ORB when columns is 0. Safe to call from any
+    // thread, like setFeatureBudget().
+    void setKeypointGrid(int columns, int rows);
+
+private:
+    // An ORB detector for one thread and the settings it was last configured with
+    struct OrbRunner {
+        cv::Ptr<cv::ORB> orb;
+        KeypointGrid grid;
+        OrbSettings settings;
+        int generation;
+        cv::Mat scaled;        // the downscaled frame, reused between frames
+    };
+
+    void runOrb(OrbRunner &runner, FrameFeatures &features);
+    cv::Rect detectionRoi();
+    void setDetectionRoi(const cv::Rect &roi);
+    void updateDetectionRoi(PoseMode mode, const TargetRegistry &registry);
+    bool detect(const std::vector<cv::KeyPoint> &keypoints, const cv::Mat &descriptors, const TargetRegistry &registry,
+                FrameMetrics &metrics);
+    bool track(const std::vector<cv::Mat> &pyramid, FrameMetrics &metrics);
+    void updateExtractionHints();
+    float reprojectionError(const std::vector<cv::Point3f> &objectPoints, const std::vector<cv::Point2f> &imagePoints);
+    void poseCovariance(const std::vector<cv::Point3f> &objectPoints, const std::vector<cv::Point2f> &imagePoints,
+                        float covariance[POSE_COVARIANCE_SIZE]);
+    void updateCameraMatrix(const cv::Size &frameSize);
+
+    PoseTrackerParams myParams;
+
+    // One ORB per thread, extract() and solve() may run at the same time
+    OrbRunner mySolveOrb;
+    OrbRunner myExtractOrb;
+
+    // Latest ORB settings, bumping the generation whenever they change so each runner knows to pick them up
+    std::mutex myOrbSettingsMutex;
+    OrbSettings myOrbSettings;
+    std::atomic<int> myOrbGeneration;
+
+    // What extract() should build for the next frame, written by solve()
+    std::atomic<bool> myExtractPyramid;
+    std::atomic<bool> myExtractKeypoints;
+    std::mutex myDetectionRoiMutex;
+    cv::Rect myDetectionRoi;   // empty for the whole frame
+
+    // Detections in a row that failed inside the detection region
+    int myRoiMisses;
+    cv::Mat myCameraMatrix;
+    cv::Size myFrameSize;
+
+    // Pose from the last frame that had one, and which target it belongs to
+    bool myHasPose;
+    int myTargetIndex;
+    cv::Mat myRvec;
+    cv::Mat myTvec;
+
+    // Inliers being tracked, image point i corresponds to object point i
+    std::vector<cv::Point3f> myTrackedObjectPoints;
+    std::vector<cv::Point2f> myTrackedImagePoints;
+
+    // Image pyramid of the previous solved frame, swapped with the current frame's so their memory is reused
+    bool myHasPrevPyramid;
+    std::vector<cv::Mat> myPrevPyramid;
+
+    // Features of the frame being processed by process()
+    FrameFeatures myFrame;
+
+    // Scratch buffers reused between frames
+    std::vector<std::vector<cv::DMatch> > myKnnMatches;
+    std::vector<int> myTargetVotes;
+    std::vector<cv::Point3f> myMatchedObjectPoints;
+    std::vector<cv::Point2f> myMatchedImagePoints;
+    std::vector<cv::Point2f> myNextPoints;
+    std::vector<uchar> myFlowStatus;
+    std::vector<float> myFlowError;
+    std::vector<cv::Point2f> myProjectedPoints;
+    std::vector<cv::Point3f> myTargetCorners;
+    std::vector<cv::Point2f> myProjectedCorners;
+    cv::Mat myInliers;
+    cv::Mat myJacobian;
+    cv::Mat myNormalMatrix;
+    cv::Mat myCovariance;
+};
+
+#endif // ASUFORIA_POSE_TRACKER_H
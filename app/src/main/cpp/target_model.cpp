@@ -0,0 +1,90 @@
+#include "target_model.h"
+
+#include <string.h>
+#include <algorithm>
+
+#include <opencv2/features2d.hpp>
+
+// The reference image is only processed once, so it can afford more keypoints than a camera frame
+static const int REFERENCE_ORB_FEATURES = 1000;
+
+void buildTargetModel(const cv::Mat &grayReference, std::vector<uint8_t> &serialized) {
+    std::vector<cv::KeyPoint> keypoints;
+    cv::Mat descriptors;
+    cv::Ptr<cv::ORB> orb = cv::ORB::create(REFERENCE_ORB_FEATURES);
+    orb->detectAndCompute(grayReference, cv::noArray(), keypoints, descriptors);
+
+    uint32_t count = (uint32_t) keypoints.size();
+    uint32_t descriptorBytes = count > 0 ? (uint32_t) descriptors.cols : 32;
+
+    size_t keypointsOffset = sizeof(TargetModelHeader);
+    size_t objectPointsOffset = keypointsOffset + count * sizeof(TargetModelKeypoint);
+    size_t descriptorsOffset = objectPointsOffset + count * 3 * sizeof(float);
+    serialized.assign(descriptorsOffset + count * descriptorBytes, 0);
+
+    TargetModelHeader header;
+    memset(&header, 0, sizeof(header));
+    header.magic = TARGET_MODEL_MAGIC;
+    header.version = TARGET_MODEL_VERSION;
+    header.imageWidth = (uint32_t) grayReference.cols;
+    header.imageHeight = (uint32_t) grayReference.rows;
+    header.keypointCount = count;
+    header.descriptorBytes = descriptorBytes;
+    memcpy(&serialized[0], &header, sizeof(header));
+
+    // Scale so the longer side of the reference image is one unit long
+    float scale = 1.0f / (float) std::max(grayReference.cols, grayReference.rows);
+
+    TargetModelKeypoint *outKeypoints = reinterpret_cast<TargetModelKeypoint *>(&serialized[keypointsOffset]);
+    float *outObjectPoints = reinterpret_cast<float *>(&serialized[objectPointsOffset]);
+    for (uint32_t i = 0; i < count; i++) {
+        const cv::KeyPoint &kp = keypoints[i];
+        outKeypoints[i].x = kp.pt.x;
+        outKeypoints[i].y = kp.pt.y;
+        outKeypoints[i].size = kp.size;
+        outKeypoints[i].angle = kp.angle;
+        outKeypoints[i].response = kp.response;
+        outKeypoints[i].octave = kp.octave;
+
+        outObjectPoints[i * 3] = kp.pt.x * scale;
+        outObjectPoints[i * 3 + 1] = kp.pt.y * scale;
+        outObjectPoints[i * 3 + 2] = 0.0f;
+    }
+
+    for (uint32_t i = 0; i < count; i++) {
+        memcpy(&serialized[descriptorsOffset + i * descriptorBytes], descriptors.ptr<uint8_t>(i), descriptorBytes);
+    }
+}
+
+bool loadTargetModel(const uint8_t *data, size_t size, TargetModel &model) {
+    if (data == NULL || size < sizeof(TargetModelHeader)) {
+        return false;
+    }
+
+    TargetModelHeader header;
+    memcpy(&header, data, sizeof(header));
+    if (header.magic != TARGET_MODEL_MAGIC || header.version != TARGET_MODEL_VERSION || header.descriptorBytes == 0) {
+        return false;
+    }
+
+    size_t count = header.keypointCount;
+    size_t keypointsOffset = sizeof(TargetModelHeader);
+    size_t objectPointsOffset = keypointsOffset + count * sizeof(TargetModelKeypoint);
+    size_t descriptorsOffset = objectPointsOffset + count * 3 * sizeof(float);
+    if (size < descriptorsOffset + count * header.descriptorBytes) {
+        return false;
+    }
+
+    uint8_t *base = const_cast<uint8_t *>(data);
+    model.imageSize = cv::Size((int) header.imageWidth, (int) header.imageHeight);
+    model.keypoints = reinterpret_cast<const TargetModelKeypoint *>(base + keypointsOffset);
+    model.keypointCount = (int) count;
+    if (count > 0) {
+        model.objectPoints = cv::Mat((int) count, 1, CV_32FC3, base + objectPointsOffset);
+        model.descriptors = cv::Mat((int) count, (int) header.descriptorBytes, CV_8UC1, base + descriptorsOffset);
+    } else {
+        model.objectPoints = cv::Mat();
+        model.descriptors = cv::Mat();
+    }
+    return true;
+}
@@ -0,0 +1,65 @@
+#ifndef ASUFORIA_TARGET_MODEL_H
+#define ASUFORIA_TARGET_MODEL_H
+
+#include <stdint.h>
+#include <vector>
+
+#include <opencv2/core.hpp>
+
+/*
+ A reference target model holds everything pose estimation needs to know about the reference image: its ORB keypoints
+ and descriptors, the image size, and the 3D object coordinates of every keypoint. The model is stored in a compact
+ binary file so it can be memory-mapped on later launches instead of running ORB on the reference image again.
+
+ File layout, all values little-endian (native byte order on every ABI we build for):
+
+     TargetModelHeader                     32 bytes
+     TargetModelKeypoint[keypointCount]    24 bytes each
+     float[keypointCount][3]               object coordinates (x, y, z) of every keypoint
+     uint8_t[keypointCount][descriptorBytes] ORB descriptors, one row per keypoint
+
+ Object coordinates lie on the z = 0 plane, in units where the longer side of the reference image is 1.0, with the
+ origin at the top left corner of the image.
+ */
+
+static const uint32_t TARGET_MODEL_MAGIC = 0x54555341; // "ASUT"
+static const uint32_t TARGET_MODEL_VERSION = 1;
+
+struct TargetModelHeader {
+    uint32_t magic;
+    uint32_t version;
+    uint32_t imageWidth;
+    uint32_t imageHeight;
+    uint32_t keypointCount;
+    uint32_t descriptorBytes;
+    uint32_t reserved[2];
+};
+
+struct TargetModelKeypoint {
+    float x;
+    float y;
+    float size;
+    float angle;
+    float response;
+    int32_t octave;
+};
+
+/*
+ A loaded target model. The Mats point straight into the buffer the model was loaded from (normally a memory-mapped
+ file), so that buffer must stay alive for as long as the model is in use.
+ */
+struct TargetModel {
+    cv::Size imageSize;
+    const TargetModelKeypoint *keypoints;
+    int keypointCount;
+    cv::Mat objectPoints;   // keypointCount x 1, CV_32FC3
+    cv::Mat descriptors;    // keypointCount x descriptorBytes, CV_8UC1
+};
+
+// Run ORB on a grayscale reference image and serialize the result in the layout above
+void buildTargetModel(const cv::Mat &grayReference, std::vector<uint8_t> &serialized);
+
+// Wrap a serialized model without copying it. Returns false if the data is truncated or from another format version.
+bool loadTargetModel(const uint8_t *data, size_t size, TargetModel &model);
+
+#endif // ASUFORIA_TARGET_MODEL_H
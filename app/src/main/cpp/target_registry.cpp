@@ -0,0 +1,57 @@
+#include "target_registry.h"
+
+#include <opencv2/flann.hpp>
+
+// LSH index settings. 6 hash tables of 12 bit keys, probing neighbouring buckets one bit flip away, is the usual
+// starting point for 256 bit ORB descriptors.
+static const int LSH_TABLES = 6;
+static const int LSH_KEY_BITS = 12;
+static const int LSH_MULTI_PROBE_LEVEL = 1;
+static const int LSH_SEARCH_CHECKS = 50;
+
+TargetRegistry::TargetRegistry(const std::vector<TargetModel> &targets, IndexType indexType)
+        : myTargets(targets) {
+    int totalDescriptors = 0;
+    for (size_t i = 0; i < myTargets.size(); i++) {
+        totalDescriptors += myTargets[i].descriptors.rows;
+    }
+
+    myUsesLsh = indexType == INDEX_LSH || (indexType == INDEX_AUTO && totalDescriptors >= LSH_MIN_DESCRIPTORS);
+    if (myUsesLsh) {
+        myMatcher = cv::makePtr<cv::FlannBasedMatcher>(
+                cv::makePtr<cv::flann::LshIndexParams>(LSH_TABLES, LSH_KEY_BITS, LSH_MULTI_PROBE_LEVEL),
+                cv::makePtr<cv::flann::SearchParams>(LSH_SEARCH_CHECKS));
+    } else {
+        myMatcher = cv::makePtr<cv::BFMatcher>(cv::NORM_HAMMING);
+    }
+
+    // Targets without descriptors can't be matched and would trip up the matchers, so leave them out and remember
+    // which target each of the matcher's train images is
+    std::vector<cv::Mat> descriptors;
+    for (size_t i = 0; i < myTargets.size(); i++) {
+        if (!myTargets[i].descriptors.empty()) {
+            descriptors.push_back(myTargets[i].descriptors);
+            myTrainImageTargets.push_back((int) i);
+        }
+    }
+    if (!descriptors.empty()) {
+        myMatcher->add(descriptors);
+        // Build the index now rather than on the first camera frame
+        myMatcher->train();
+    }
+}
+
+void TargetRegistry::knnMatch(const cv::Mat &query, std::vector<std::vector<cv::DMatch> > &matches) const {
+    matches.clear();
+    if (query.empty() || myMatcher->empty()) {
+        return;
+    }
+    myMatcher->knnMatch(query, matches, 2);
+
+    // Report target indices rather than the matcher's train image indices
+    for (size_t i = 0; i < matches.size(); i++) {
+        for (size_t j = 0; j < matches[i].size(); j++) {
+            matches[i][j].imgIdx = myTrainImageTargets[matches[i][j].imgIdx];
+        }
+    }
+}
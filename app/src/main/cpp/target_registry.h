@@ -0,0 +1,51 @@
+#ifndef ASUFORIA_TARGET_REGISTRY_H
+#define ASUFORIA_TARGET_REGISTRY_H
+
+#include <vector>
+
+#include <opencv2/core.hpp>
+#include <opencv2/features2d.hpp>
+
+#include "target_model.h"
+
+/*
+ All reference targets known to a pose tracker, with one descriptor index over every target's ORB descriptors. A camera
+ frame's descriptors are matched against the whole registry in one pass, and DMatch::imgIdx says which target each
+ match belongs to.
+
+ Small registries use an exact brute-force Hamming matcher. Once the registry holds more descriptors than
+ LSH_MIN_DESCRIPTORS, it switches to a FLANN multi-probe LSH index, which hashes binary descriptors into buckets so a
+ query only compares against the few descriptors that share a bucket with it. That keeps per-frame matching cost
+ growing much more slowly than the number of targets, at the price of sometimes missing the true nearest neighbour.
+
+ The registry copies the TargetModel headers, but not the descriptor data they point to, so the buffers the models were
+ loaded from must outlive the registry.
+ */
+class TargetRegistry {
+public:
+    // Registries with at least this many reference descriptors in total are indexed with LSH
+    static const int LSH_MIN_DESCRIPTORS = 20000;
+
+    enum IndexType {
+        INDEX_AUTO,
+        INDEX_BRUTE_FORCE,
+        INDEX_LSH
+    };
+
+    explicit TargetRegistry(const std::vector<TargetModel> &targets, IndexType indexType = INDEX_AUTO);
+
+    int size() const { return (int) myTargets.size(); }
+    const TargetModel &target(int index) const { return myTargets[index]; }
+    bool usesLsh() const { return myUsesLsh; }
+
+    // Up to two nearest reference descriptors for every row of query, over all targets. LSH may return fewer than two.
+    void knnMatch(const cv::Mat &query, std::vector<std::vector<cv::DMatch> > &matches) const;
+
+private:
+    std::vector<TargetModel> myTargets;
+    std::vector<int> myTrainImageTargets;
+    cv::Ptr<cv::DescriptorMatcher> myMatcher;
+    bool myUsesLsh;
+};
+
+#endif // ASUFORIA_TARGET_REGISTRY_H
@@ -3,6 +3,8 @@ package edu.something.ar_framework;
 import android.app.Activity;
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.ImageFormat;
+import android.graphics.Matrix;
 import android.graphics.SurfaceTexture;
 import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCaptureSession;
@@ -15,6 +17,7 @@ import android.media.Image;
 import android.media.ImageReader;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.v7.app.AppCompatActivity;
 import android.util.Size;
@@ -24,13 +27,21 @@ import android.view.Surface;
 import android.view.TextureView;
 import android.widget.Toast;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import org.opencv.*;
+import org.opencv.android.FrameStats;
+import org.opencv.core.MatPool;
 import org.opencv.features2d.FeatureDetector;
 import org.opencv.features2d.ORB;
 
@@ -52,13 +63,336 @@ public class ASUForia {
     private Activity myAct;
     /*************************************** ASUForia Constructor ***************************************/
     ASUForia(PoseListener listener_arg, Bitmap referenceImage, Surface cameraSurface, Activity act) {
+        this(listener_arg, new Bitmap[]{referenceImage}, cameraSurface, act);
+    }
+
+    /**
+     * Create an ASUForia that recognizes any of several reference targets. PoseListener.onPose() is told the index in
+     * referenceImages of the target it found. The Bitmaps are only needed during construction.
+     */
+    ASUForia(PoseListener listener_arg, Bitmap[] referenceImages, Surface cameraSurface, Activity act) {
+        if (referenceImages == null || referenceImages.length == 0) {
+            throw new IllegalArgumentException("At least one reference image is needed");
+        }
         mylistener = listener_arg;
         myAct = act;
+        myTargetSizes = new int[referenceImages.length][];
+        for (int i = 0; i < referenceImages.length; i++) {
+            myTargetSizes[i] = new int[]{referenceImages[i].getWidth(), referenceImages[i].getHeight()};
+        }
+
+        // Load the reference target models (ORB features of the reference images) into the native pose engine, which
+        // also keeps the detect-then-track state. nativeFeatureDetection() only has to run the first time a particular
+        // reference image is seen, after that the model is mapped from the cache.
+        myPoseEngine = new PoseEngine(loadTargetModels(referenceImages));
+    }
+
+
+    /*************************************** Begin Reference Target Model ***********************************/
+
+    /**
+     * Running ORB on a large reference image takes a noticeable amount of time, and the result is the same every time
+     * for the same image. So the serialized target model (keypoints, descriptors, image size and 3D object coordinates)
+     * is kept in the app's cache directory under a hash of the Bitmap's pixels. When the file already exists, it is
+     * memory-mapped and native code uses the descriptors in place. All targets' descriptors are then put in a single
+     * native TargetRegistry, which indexes them (with LSH once there are many) so a camera frame is matched against
+     * every target in one pass. The PoseEngine keeps the mapped buffers, because the registry points into them. The
+     * same cached files can be given to PoseReplay to run recorded frames against these targets off the device.
+     */
+    private static final String TARGET_MODEL_DIRECTORY = "target_models";
+
+    // Native pose estimation core: the target registry and the detect-then-track state
+    private PoseEngine myPoseEngine;
+
+    private ByteBuffer[] loadTargetModels(Bitmap[] referenceImages) {
+        TargetModelCache cache = new TargetModelCache(new File(myAct.getCacheDir(), TARGET_MODEL_DIRECTORY));
+        ByteBuffer[] buffers = new ByteBuffer[referenceImages.length];
+        for (int i = 0; i < referenceImages.length; i++) {
+            buffers[i] = loadTargetModel(cache, referenceImages[i]);
+        }
+        return buffers;
+    }
+
+    // Returns a buffer holding a valid serialized model for referenceImage, from the cache when possible
+    private ByteBuffer loadTargetModel(TargetModelCache cache, Bitmap referenceImage) {
+        String key = contentHash(referenceImage);
+
+        try {
+            // Fast path: the model for this exact image was built on a previous launch
+            MappedByteBuffer buffer = cache.map(key);
+            if (buffer != null) {
+                if (PoseEngine.isValidTargetModel(buffer)) {
+                    return buffer;
+                }
+                // Corrupt or written by an older version of the format, build it again
+                cache.invalidate(key);
+            }
+        } catch (IOException e) {
+            // An unreadable cache file is as good as none
+            e.printStackTrace();
+        }
 
-        // Call nativeFeatureDetection() to get features for reference image. Returned reference points need to be saved
-        nativeFeatureDetection(referenceImage);
+        byte[] model = nativeFeatureDetection(referenceImage);
+        ByteBuffer buffer;
+        try {
+            buffer = cache.store(key, model);
+        } catch (IOException e) {
+            // The cache is only an optimization. If it can't be written, use the model straight from memory.
+            e.printStackTrace();
+            buffer = ByteBuffer.allocateDirect(model.length);
+            buffer.put(model);
+        }
+        if (!PoseEngine.isValidTargetModel(buffer)) {
+            // Building it again wouldn't help, and the next launch shouldn't map it either
+            cache.invalidate(key);
+            throw new IllegalStateException("nativeFeatureDetection() built a target model native-lib can't load, "
+                    + model.length + " bytes");
+        }
+        return buffer;
+    }
 
+    /**
+     * Free the native target registry and tracker. Call once the ASUForia object is no longer needed (after
+     * endEstimation()), for example from the Activity's onDestroy().
+     */
+    public void release() {
+        myPoseEngine.release();
+        myMatPool.trim();
+    }
 
+    // Rows of the reference image hashed at a time
+    private static final int HASH_BAND_ROWS = 64;
+
+    /**
+     * Cache key of a Bitmap: its size and config, and a 64-bit hash of its pixels. Any change to the reference image
+     * gives a new cache file. This runs on the caller's thread, usually the UI thread, on every launch, so the pixels
+     * are read a band of rows at a time into one small buffer and mixed with a multiply-xorshift hash, rather than
+     * copied whole onto the heap and run through a cryptographic digest. The key only has to tell a few reference
+     * images apart, not stand up to an attacker.
+     */
+    private static String contentHash(Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int[] band = new int[width * Math.min(HASH_BAND_ROWS, height)];
+
+        long hash = 0xcbf29ce484222325L;
+        for (int y = 0; y < height; y += HASH_BAND_ROWS) {
+            int rows = Math.min(HASH_BAND_ROWS, height - y);
+            bitmap.getPixels(band, 0, width, 0, y, width, rows);
+            for (int i = 0; i < width * rows; i++) {
+                hash = (hash ^ band[i]) * 0x100000001b3L;
+                hash ^= hash >>> 29;
+            }
+        }
+        // Final avalanche, so every pixel affects every bit of the key
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+
+        return width + "x" + height + "_" + bitmap.getConfig() + "_" + String.format("%016x", hash);
+    }
+
+    /*************************************** End Reference Target Model *************************************/
+
+
+    /**
+     * Set how many Images the ImageReader is allowed to hold at once. Must be called before startEstimation(). Each
+     * Image is a full YUV frame, so this trades memory for headroom. Every frame in the pipeline holds its Image until
+     * it has been delivered, every PoseResult the PoseListener holds keeps its Image open until release(), and one more
+     * can be waiting in the FrameGate, so this should be at least the pipeline depth + setMaxHeldPoses() + 2. With
+     * fewer, the camera thread skips frames whenever the pipeline is full.
+     */
+    public void setMaxImages(int maxImages) {
+        if (maxImages < 2) {
+            throw new IllegalArgumentException("maxImages must be at least 2 to drain the reader, was " + maxImages);
+        }
+        myMaxImages = maxImages;
+    }
+
+    /**
+     * Set how many PoseResults the PoseListener can hold at once, that is delivered but not yet released. Must be
+     * called before startEstimation(). A pose that arrives while all of them are held is dropped, see
+     * PoseMetrics.getHeldPoseDrops(). Raise setMaxImages() along with it.
+     */
+    public void setMaxHeldPoses(int maxHeldPoses) {
+        if (maxHeldPoses < 1) {
+            throw new IllegalArgumentException("At least one pose must be holdable, was " + maxHeldPoses);
+        }
+        myMaxHeldPoses = maxHeldPoses;
+    }
+
+    /**
+     * Set how many frames can be in the pose pipeline at once. Must be called before startEstimation(). With one frame,
+     * extraction, pose solving and delivery run strictly one after the other. With as many frames as there are stages,
+     * every stage can work on a different frame at the same time. Raise setMaxImages() along with it.
+     */
+    public void setPipelineDepth(int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Pipeline depth must be at least 1, was " + depth);
+        }
+        myPipelineDepth = depth;
+    }
+
+    // Set which frame gets dropped when pose estimation falls behind the camera. Must be called before startEstimation().
+    public void setDropPolicy(FrameGate.DropPolicy dropPolicy) {
+        if (dropPolicy == null) {
+            throw new IllegalArgumentException("dropPolicy must not be null");
+        }
+        myDropPolicy = dropPolicy;
+    }
+
+    /**
+     * Configure detect-then-track. When tracking is enabled, the inliers of a successful detection are followed into the
+     * next frames with optical flow, and full ORB detection only runs again when fewer than minTrackedInliers points
+     * survive or their mean reprojection error goes above maxReprojectionError pixels. Can be called at any time, the
+     * new settings are picked up by the pose thread before the next frame.
+     */
+    public void setTracking(boolean enabled, int minTrackedInliers, float maxReprojectionError) {
+        if (minTrackedInliers < 4) {
+            throw new IllegalArgumentException("solvePnP needs at least 4 points, was " + minTrackedInliers);
+        }
+        if (maxReprojectionError <= 0) {
+            throw new IllegalArgumentException("maxReprojectionError must be positive, was " + maxReprojectionError);
+        }
+        myPoseEngine.setTracking(enabled, minTrackedInliers, maxReprojectionError);
+    }
+
+    /**
+     * Configure detection in the predicted region. When enabled, a frame that needs full detection shortly after a pose
+     * was found only runs ORB on a padded box around where that pose puts the target's corners, which is much less
+     * work than the whole frame when the target covers a small part of it. After maxMisses detections in a row find
+     * nothing there, the whole frame is searched again. Enabled with 3 misses by default. Can be called at any time,
+     * the new settings are picked up by the pose thread before the next frame.
+     */
+    public void setRoiSearch(boolean enabled, int maxMisses) {
+        if (maxMisses < 1) {
+            throw new IllegalArgumentException("maxMisses must be at least 1, was " + maxMisses);
+        }
+        myPoseEngine.setRoiSearch(enabled, maxMisses);
+    }
+
+    /**
+     * Set the time a detection frame may take to extract and solve. The number of ORB keypoints, pyramid levels and
+     * the resolution ORB runs at are adapted to hold it, trading accuracy for speed on slow devices and the other way
+     * around on fast ones. The settings in use are reported by getPoseMetrics(). 0 turns adaptation off and goes back
+     * to the default settings. The default target is 33 ms. Can be called at any time.
+     */
+    public void setTargetFrameTime(float millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Target frame time must not be negative, was " + millis);
+        }
+        long nanos = (long) (millis * 1000000L);
+        myPoseEngine.setTargetFrameTime(nanos);
+        myPoseMetrics.recordTargetFrameNanos(nanos);
+    }
+
+    /**
+     * Spread the keypoints detection uses over a columns x rows grid, keeping the strongest corners of every cell
+     * rather than of the whole frame. This keeps the number of keypoints, and so the cost of matching, fixed, and
+     * gives the pose points from all over the target instead of only its most textured part. 0 columns and rows go
+     * back to plain ORB. The default grid is 6 x 4. Can be called at any time until release().
+     */
+    public void setKeypointGrid(int columns, int rows) {
+        if (columns < 0 || rows < 0 || (columns == 0) != (rows == 0)) {
+            throw new IllegalArgumentException("Grid must be 0 x 0 or at least 1 x 1, was " + columns + " x " + rows);
+        }
+        myPoseEngine.setKeypointGrid(columns, rows);
+    }
+
+    /**
+     * Configure the filter between the pose pipeline and PoseListener.onPose(). When enabled, poses are smoothed with
+     * a One-Euro filter, whose cutoff is minCutoffHz while the target is still and rises by beta Hz per unit of speed
+     * (rad/s, or lengths of the reference image's longer side per second), and then extrapolated at the filtered
+     * velocity to the time they will be shown, see setDisplayLatency(). This hides the jitter of per-frame PnP and the
+     * latency of the pipeline. Enabled with a 1 Hz cutoff and a beta of 0.5 by default. Can be called at any time.
+     */
+    public void setPoseFilter(boolean enabled, float minCutoffHz, float beta) {
+        myPoseFilter.setParameters(minCutoffHz, beta);
+        myPoseFilterEnabled = enabled;
+    }
+
+    /**
+     * Set how long after PoseListener.onPose() is called the pose will be on the screen, for example one frame of
+     * display refresh. The pose filter extrapolates to that time rather than to the call. 0 by default.
+     */
+    public void setDisplayLatency(float millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Display latency must not be negative, was " + millis);
+        }
+        myDisplayLatencyNanos = (long) (millis * 1000000L);
+    }
+
+    /**
+     * Draw the cube into overlay, a PoseOverlay laid over the preview TextureView, on every pose, and clear it when the
+     * target is lost. The preview keeps streaming from the camera at the sensor frame rate, only the overlay is redrawn
+     * at the pose rate, whether or not the PoseListener still holds earlier results. null stops drawing. Can be called
+     * at any time.
+     */
+    public void setPoseOverlay(PoseOverlay overlay) {
+        PoseOverlay previous = myOverlay;
+        myOverlay = overlay;
+        if (previous != null && previous != overlay) {
+            previous.clearCube();
+        }
+    }
+
+    // Which pose path ran on each frame, and what it cost
+    public TrackingStats getTrackingStats() {
+        return myTrackingStats;
+    }
+
+    /**
+     * Latency histograms (camera exposure to PoseListener, JNI entry, ORB, matching, PnP and the listener itself) and
+     * counters for dropped frames, failed detections and lost tracking, plus the ORB settings picked for
+     * setTargetFrameTime(). Read them with PoseMetrics.snapshot(), which doesn't allocate and can be called from any
+     * thread. Unlike the other counters here, these keep counting across camera sessions until PoseMetrics.reset().
+     */
+    public PoseMetrics getPoseMetrics() {
+        return myPoseMetrics;
+    }
+
+    /**
+     * Rolling rate and frame-time percentiles of the frames leaving the pose pipeline, i.e. how smoothly poses reach
+     * the PoseListener, with or without a target in view. Restarts whenever the camera is opened.
+     */
+    public FrameStats getPoseFrameStats() {
+        return myPoseFrameStats;
+    }
+
+    /**
+     * The pool the Java side of the delivery thread leases its per-pose Mats from. Once the first poses have warmed it
+     * up, getAllocationCount() stays flat and getHitRate() approaches 1, i.e. delivering a pose does no native
+     * allocations.
+     */
+    public MatPool getMatPool() {
+        return myMatPool;
+    }
+
+    // Number of camera frames that entered the pose pipeline since the camera was last opened
+    public long getDeliveredFrameCount() {
+        ImageFrameSource source = myFrameSource;
+        return source == null ? 0 : source.getDeliveredCount();
+    }
+
+    // Number of camera frames that were dropped because pose estimation was still busy with an earlier frame
+    public long getDroppedFrameCount() {
+        ImageFrameSource source = myFrameSource;
+        return source == null ? 0 : source.getDroppedCount();
+    }
+
+    // Number of frames between entering the pose pipeline and being delivered to the PoseListener right now
+    public int getFramesInFlight() {
+        PosePipeline<ImageFrameSource.ImageFrame> pipeline = myPipeline;
+        return pipeline == null ? 0 : pipeline.getFramesInFlight();
+    }
+
+    /**
+     * Queue depth and latency of one pipeline stage, STAGE_EXTRACT, STAGE_SOLVE or STAGE_DELIVER. Returns null before
+     * the camera has been opened. The metrics start over every time the camera is.
+     */
+    public FramePipeline.StageMetrics getStageMetrics(int stage) {
+        PosePipeline<ImageFrameSource.ImageFrame> pipeline = myPipeline;
+        return pipeline == null ? null : pipeline.getStageMetrics(stage);
     }
 
 
@@ -72,6 +406,15 @@ public class ASUForia {
     private HandlerThread myBackgroundHandlerThread;
     private Handler myBackgroundHandler;
 
+    // One Handler and HandlerThread per pipeline stage, so a slow frame never holds up the camera callbacks and
+    // consecutive frames can be in different stages at the same time
+    private HandlerThread myExtractHandlerThread;
+    private Handler myExtractHandler;
+    private HandlerThread myPoseHandlerThread;
+    private Handler myPoseHandler;
+    private HandlerThread myDeliveryHandlerThread;
+    private Handler myDeliveryHandler;
+
     // Initialize string to contain CameraID when returned from CameraManager
     private String myCameraID;
 
@@ -87,6 +430,68 @@ public class ASUForia {
     // Instantiate TextureView object
     private TextureView myTextureView;
 
+    // ImageReader that receives a YUV_420_888 copy of every preview frame for pose estimation
+    private ImageReader myImageReader;
+
+    // Stages of the pose pipeline, in order. See getStageMetrics().
+    public static final int STAGE_EXTRACT = PosePipeline.STAGE_EXTRACT;
+    public static final int STAGE_SOLVE = PosePipeline.STAGE_SOLVE;
+    public static final int STAGE_DELIVER = PosePipeline.STAGE_DELIVER;
+
+    // Number of frames that may be in the pose pipeline at once, one per stage by default
+    private int myPipelineDepth = DEFAULT_PIPELINE_DEPTH;
+    static final int DEFAULT_PIPELINE_DEPTH = PosePipeline.DEFAULT_DEPTH;
+
+    // Number of PoseResults the PoseListener may hold at once, one to draw with and one on its way there
+    private int myMaxHeldPoses = DEFAULT_MAX_HELD_POSES;
+    static final int DEFAULT_MAX_HELD_POSES = 2;
+
+    // Number of Images the ImageReader may hold at once: every frame in the pipeline, every PoseResult the listener
+    // holds, one waiting in the gate and one to drain the reader with
+    private int myMaxImages = DEFAULT_MAX_IMAGES;
+    static final int DEFAULT_MAX_IMAGES = DEFAULT_PIPELINE_DEPTH + DEFAULT_MAX_HELD_POSES + 2;
+
+    // What to do with a frame that arrives while the pipeline is full and another frame is already waiting
+    private FrameGate.DropPolicy myDropPolicy = FrameGate.DropPolicy.DROP_OLDEST;
+
+    // The ImageReader's frames, behind the gate that drops them when the pose pipeline can't keep up, and the pose
+    // pipeline they run through. Both are recreated every time the ImageReader is.
+    private ImageFrameSource myFrameSource;
+    private PosePipeline<ImageFrameSource.ImageFrame> myPipeline;
+
+    private final TrackingStats myTrackingStats = new TrackingStats();
+    private final PoseMetrics myPoseMetrics = new PoseMetrics();
+    private final FrameStats myPoseFrameStats = new FrameStats();
+
+    // Whether Image.getTimestamp() is on the SystemClock.elapsedRealtimeNanos() clock rather than System.nanoTime()
+    private boolean myCameraTimestampIsRealtime;
+
+    // The pose of the frame being delivered, on its way through the pose filter into a PoseResult
+    private final float[] myRvec = new float[3];
+    private final float[] myTvec = new float[3];
+
+    // Results handed to the PoseListener, recreated with the pipeline
+    private PoseResult.Pool myPoseResults;
+    // The result mySink filled in, between taking the frame over and calling the PoseListener
+    private PoseResult myTakenPose;
+
+    // Smooths the poses on the delivery thread and moves them on to when they will be shown, see setPoseFilter()
+    private final PoseFilter myPoseFilter = new PoseFilter(PoseFilter.DEFAULT_MIN_CUTOFF_HZ, PoseFilter.DEFAULT_BETA);
+    private volatile boolean myPoseFilterEnabled = true;
+    private volatile long myDisplayLatencyNanos;
+
+    // Where the cube is drawn, see setPoseOverlay(). The projector is only used on the delivery thread, which creates
+    // it when first needed, and is freed with the pipeline once that thread has been joined.
+    private volatile PoseOverlay myOverlay;
+    private final int[][] myTargetSizes;
+    private CubeProjector myCubeProjector;
+    private final MatPool myMatPool = new MatPool();
+    private final float[] myCubeCorners = new float[CubeProjector.CORNERS * 2];
+    // How far the camera's buffer transform turns the frame clockwise, in degrees
+    private volatile int mySensorOrientation;
+    // How far the preview turns the camera frame clockwise on the screen, in degrees, see configureTransform()
+    private volatile int myFrameRotation;
+
 
 
     /*************************************** Begin startEstimation() ************************************/
@@ -123,33 +528,116 @@ public class ASUForia {
     //TODO: Create onImageAvailable() which will be used to pass the image to nativePoseEstimation()
 
     /**
-     * The ImageReader class is a class that allows applications to directly access image data that is rendered to a
-     * surface, in this case our SurfaceTexture defined in our TextureView. As with all listeners, the nested public
-     * class ImageReader.OnImageAvailableListener acts as the interface between the Android HAL and our application.
-     * The listener is used to define the callback function that occurs when a new image is available from the camera2
-     * device we're using. In this case, the callback fires every time a new frame is available from the device camera.
-     * For example, if the camera is capturing frames at 30 FPS, this callback will fire 30 times/sec. For our purposes,
-     * we want to take the image from the camera, and estimate the camera pose based on the features OpenCV detects in
-     * the image. Therefore, when a new frame (image) is available, we want to pass it to nativePoseEstimation() where
-     * OpenCV will be used to determine the pose and compare this frames points against the reference points. It will
-     * then return a rotation and translation vector, that we will then pass to the PoseListener defined in MainActivity.
-     * The PoseListener callback method onPose() will then use these vectors to draw a cube on the camera image.
+     * The ImageReader hands every preview frame to an ImageFrameSource, its OnImageAvailableListener, which keeps the
+     * newest one waiting in a FrameGate until the pose pipeline is ready for it. The PosePipeline then extracts the
+     * frame's features, solves its pose in native code and, on the delivery thread, calls mySink with the rotation
+     * and translation vectors. mySink projects the cube into the PoseOverlay, if there is one, and passes the pose on
+     * in a pooled PoseResult, which also takes over the Image, to the PoseListener defined in MainActivity, whose
+     * onPose() releases the result when it is done with it.
      */
-    // Instantiate ImageReader.OnImageAvailableListener object
-    private final ImageReader.OnImageAvailableListener myImageAvailableListener
-            = new ImageReader.OnImageAvailableListener() {
-
-        // Define what happens when a new (preview) frame is available from the camera
+    private final PosePipeline.PoseSink<ImageFrameSource.ImageFrame> mySink =
+            new PosePipeline.PoseSink<ImageFrameSource.ImageFrame>() {
         @Override
-        public void onImageAvailable(ImageReader imageReader) {
+        public boolean onPose(ImageFrameSource.ImageFrame frame, int mode, FloatBuffer result) {
+            PoseOverlay overlay = myOverlay;
+            if (mode == TrackingStats.MODE_LOST) {
+                if (overlay != null) {
+                    overlay.clearCube();
+                }
+                return false;
+            }
+            // Read straight out of the block native code wrote the pose to, nothing is allocated or copied across JNI
+            int target = (int) result.get(PoseEngine.RESULT_TARGET);
+            for (int i = 0; i < 3; i++) {
+                myRvec[i] = result.get(PoseEngine.RESULT_RVEC + i);
+                myTvec[i] = result.get(PoseEngine.RESULT_TVEC + i);
+            }
 
-            //TODO: Call nativePoseEstimation() to get rotation and translation (R and T) vectors
+            long now = myCameraTimestampIsRealtime ? SystemClock.elapsedRealtimeNanos() : System.nanoTime();
+            myPoseMetrics.recordLatency(PoseMetrics.CAMERA_TO_LISTENER, now - frame.getTimestamp());
 
-            //TODO: Call PoseListeners callback function, onPose(), passing the R and T vectors
+            // Smooth the pose, and move it on from when the frame was exposed to when it will be on the screen
+            boolean filtered = myPoseFilterEnabled;
+            if (filtered) {
+                myPoseFilter.update(target, frame.getTimestamp(), myRvec, myTvec);
+                myPoseFilter.predict(now + myDisplayLatencyNanos, myRvec, myTvec);
+            } else {
+                myPoseFilter.reset();
+            }
+
+            // The overlay follows every pose, even those the listener doesn't get because it holds too many results
+            if (overlay != null) {
+                if (myCubeProjector == null) {
+                    myCubeProjector = new CubeProjector(myTargetSizes, myMatPool);
+                }
+                int width = frame.getWidth();
+                int height = frame.getHeight();
+                myCubeProjector.project(target, myRvec, myTvec, width, height, myCubeCorners);
+                overlay.setCube(myCubeCorners, width, height, myFrameRotation);
+            }
+
+            // The listener still holds every result, so it can't take another Image either. Dropping the pose lets the
+            // pipeline close this one and keep the ImageReader going.
+            PoseResult pose = myPoseResults.acquire();
+            if (pose == null) {
+                myPoseMetrics.recordHeldPoseDrop();
+                return false;
+            }
+            pose.set(frame, mode, result, myRvec, myTvec);
+            if (filtered) {
+                pose.setVelocity(myPoseFilter);
+            }
+            // From here on the Image belongs to the result, and is closed when the listener releases it
+            myTakenPose = pose;
+            return true;
+        }
 
+        @Override
+        public void onFrameTaken(ImageFrameSource.ImageFrame frame) {
+            // The pipeline has let go of the frame, so even if the listener throws, only the result will close it
+            PoseResult pose = myTakenPose;
+            myTakenPose = null;
+            long start = System.nanoTime();
+            mylistener.onPose(frame.getImage(), pose);
+            myPoseMetrics.recordLatency(PoseMetrics.CALLBACK_DISPATCH, System.nanoTime() - start);
         }
     };
 
+    // Runs a pipeline stage on a HandlerThread
+    private static Executor handlerExecutor(final Handler handler) {
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                handler.post(command);
+            }
+        };
+    }
+
+    // Set up the frame source and pose pipeline for a new ImageReader. The stage threads must already be running.
+    private void createPipeline() {
+        myFrameSource = new ImageFrameSource(myMaxImages, myDropPolicy, myPoseMetrics);
+        myPoseResults = new PoseResult.Pool(myMaxHeldPoses);
+        myPipeline = new PosePipeline<ImageFrameSource.ImageFrame>(myPoseEngine, myFrameSource, myPipelineDepth,
+                handlerExecutor(myExtractHandler), handlerExecutor(myPoseHandler), handlerExecutor(myDeliveryHandler),
+                mySink, myPoseMetrics, myTrackingStats, myPoseFrameStats);
+        myPipeline.start();
+    }
+
+    // Close every frame still waiting for or in the pipeline. The stage threads must already be stopped.
+    private void releasePipeline() {
+        if (myFrameSource != null) {
+            myFrameSource.clear();
+        }
+        if (myPipeline != null) {
+            myPipeline.release();
+            myPipeline = null;
+        }
+        if (myCubeProjector != null) {
+            myCubeProjector.release();
+            myCubeProjector = null;
+        }
+    }
+
 
     /*************************************** End onImageAvailable() *************************************/
 
@@ -163,6 +651,10 @@ public class ASUForia {
         stopBackgroundThread();
         // Close the camera being used
         closeCamera();
+        PoseOverlay overlay = myOverlay;
+        if (overlay != null) {
+            overlay.clearCube();
+        }
 
     }
     /*************************************** End endEstimation() ****************************************/
@@ -201,7 +693,7 @@ public class ASUForia {
         // Callback that defines what happens when the SurfaceTexture size is changed. In this case, rotation.
         @Override
         public void onSurfaceTextureSizeChanged(SurfaceTexture surfaceTexture, int width, int height) {
-
+            configureTransform(width, height);
         }
 
         // Callback that defines what happens when the SurfaceTexture is closed
@@ -326,6 +818,15 @@ public class ASUForia {
                 // If cameraID is rear facing, then set current cameraID to our cameraId for use
                 // and return out of method
                 myCameraID = cameraID;
+                mySensorOrientation = cameraCharacteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+
+                // Frame timestamps are only comparable to elapsedRealtimeNanos() on REALTIME cameras. The others
+                // report an unspecified clock, which in practice is the monotonic clock behind System.nanoTime().
+                Integer timestampSource = cameraCharacteristics.get(
+                        CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+                myCameraTimestampIsRealtime = timestampSource != null
+                        && timestampSource == CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME;
+                configureTransform(width, height);
                 return;
             }
         } catch (CameraAccessException e) {
@@ -359,6 +860,12 @@ public class ASUForia {
             // set the camera device to null so that it can be assigned a new CameraDevice in the future
             myCameraDevice = null;
         }
+        // Close any frame still waiting for or in the pipeline before the ImageReader that owns it goes away
+        releasePipeline();
+        if (myImageReader != null) {
+            myImageReader.close();
+            myImageReader = null;
+        }
     }
 
 
@@ -414,12 +921,21 @@ public class ASUForia {
         // Create surface object to display data
         Surface previewSurface = new Surface(surfaceTexture);
 
+        // Create the ImageReader that feeds pose estimation. It gets the same size as the preview so the pose we
+        // compute lines up with what the user sees, and its own gate so counters start fresh for every session.
+        createPipeline();
+        myImageReader = ImageReader.newInstance(myPreviewSize.getWidth(), myPreviewSize.getHeight(),
+                ImageFormat.YUV_420_888, myMaxImages);
+        myImageReader.setOnImageAvailableListener(myFrameSource, myBackgroundHandler);
+        Surface imageReaderSurface = myImageReader.getSurface();
+
         // setup capture request builder
         try {
             myCaptureRequestBuilder = myCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
             myCaptureRequestBuilder.addTarget(previewSurface);
+            myCaptureRequestBuilder.addTarget(imageReaderSurface);
 
-            myCameraDevice.createCaptureSession(Arrays.asList(previewSurface),
+            myCameraDevice.createCaptureSession(Arrays.asList(previewSurface, imageReaderSurface),
                     new CameraCaptureSession.StateCallback() {
                         @Override
                         public void onConfigured(@NonNull CameraCaptureSession cameraCaptureSession) {
@@ -446,6 +962,24 @@ public class ASUForia {
     }
 
 
+    /**
+     * The camera's buffer transform only turns the frame by the sensor orientation, which is upright in the device's
+     * natural orientation. Turn the preview back by the display rotation, so it stays upright when the display is
+     * rotated too, and stretch it to fill the view again, then keep the rotation PoseOverlay needs to match it.
+     */
+    private void configureTransform(int viewWidth, int viewHeight) {
+        int displayRotation = Orientations.get(myAct.getWindowManager().getDefaultDisplay().getRotation());
+        float centerX = viewWidth / 2f;
+        float centerY = viewHeight / 2f;
+        Matrix matrix = new Matrix();
+        matrix.setRotate(-displayRotation, centerX, centerY);
+        if (displayRotation == 90 || displayRotation == 270) {
+            matrix.postScale((float) viewWidth / viewHeight, (float) viewHeight / viewWidth, centerX, centerY);
+        }
+        myTextureView.setTransform(matrix);
+        myFrameRotation = OverlayTransform.frameToScreenRotation(mySensorOrientation, displayRotation);
+    }
+
     private static int sensorToDeviceRotation(CameraCharacteristics cameraCharacteristics, int deviceOrientation) {
         int sensorOrientation = cameraCharacteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
         deviceOrientation = Orientations.get(deviceOrientation);
@@ -475,6 +1009,17 @@ public class ASUForia {
         // Handler is needed to send and process objects associated with a thread.
         // Associate our BackgroundHandler with the Looper of our BackgroundHandlerThread
         myBackgroundHandler = new Handler(myBackgroundHandlerThread.getLooper());
+
+        // Every stage of the pose pipeline gets its own thread. Frames enter the pipeline through the FrameGate.
+        myExtractHandlerThread = new HandlerThread("FeatureExtraction");
+        myExtractHandlerThread.start();
+        myExtractHandler = new Handler(myExtractHandlerThread.getLooper());
+        myPoseHandlerThread = new HandlerThread("PoseEstimation");
+        myPoseHandlerThread.start();
+        myPoseHandler = new Handler(myPoseHandlerThread.getLooper());
+        myDeliveryHandlerThread = new HandlerThread("PoseDelivery");
+        myDeliveryHandlerThread.start();
+        myDeliveryHandler = new Handler(myDeliveryHandlerThread.getLooper());
     }
 
     // Method to stop the background thread
@@ -482,12 +1027,24 @@ public class ASUForia {
         /* Terminate our thread's looper as soon as all remaining messages in the que that are already due to be
         delivered have been processed, as opposed to just terminating the looper immediately. */
         myBackgroundHandlerThread.quitSafely();
+        myExtractHandlerThread.quitSafely();
+        myPoseHandlerThread.quitSafely();
+        myDeliveryHandlerThread.quitSafely();
         // Try-catch statement added per Android Studio's request.
         try {
             // Set the thread and handler to null so they can be reassigned in the future
             myBackgroundHandlerThread.join();
             myBackgroundHandlerThread = null;
             myBackgroundHandler = null;
+            myExtractHandlerThread.join();
+            myExtractHandlerThread = null;
+            myExtractHandler = null;
+            myPoseHandlerThread.join();
+            myPoseHandlerThread = null;
+            myPoseHandler = null;
+            myDeliveryHandlerThread.join();
+            myDeliveryHandlerThread = null;
+            myDeliveryHandler = null;
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
@@ -504,21 +1061,26 @@ public class ASUForia {
 
     /*************************************** PoseListener Definition ************************************/
     interface PoseListener {
-        public void onPose(Image cameraFrame, float[] rvec, float[] tvec);
+        /**
+         * Called on the delivery thread for every frame a target was found in. pose says which target (the index in
+         * the reference images given to the constructor) and where, with rvec and tvec through the pose filter unless
+         * setPoseFilter() turned it off. The listener owns pose and must call pose.release() exactly once when it is
+         * done with it, here or later on another thread. cameraFrame stays open until then, and must not be used
+         * afterwards.
+         */
+        public void onPose(Image cameraFrame, PoseResult pose);
     }
 
 
 
-    /*************************************** nativePoseEstimation Definition ****************************/
+    /*************************************** nativeFeatureDetection Definition *************************/
     /**
      * A native method that is implemented by the 'native-lib' native library,
-     * which is packaged with this application. CALL THESE FUNCTIONS ABOVE
+     * which is packaged with this application. CALL THESE FUNCTIONS ABOVE. The pose estimation natives are in
+     * PoseEngine, which doesn't depend on Android.
      */
-    // Native method for pose estimation in OpenCV
-    public native String nativePoseEstimation();
-
-    // Native method for getting ORB features in OpenCV
-    public native String nativeFeatureDetection(Bitmap referenceImage);
+    // Native method for getting ORB features in OpenCV. Returns the serialized target model for the reference image.
+    public native byte[] nativeFeatureDetection(Bitmap referenceImage);
 
 
 }
@@ -0,0 +1,33 @@
+package edu.something.ar_framework;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One frame as the pose pipeline sees it: a luma (gray) plane plus the time it was captured. Pose estimation only ever
+ * looks at intensity, so this is all a frame source has to provide, whether the frame comes from the camera (see
+ * ImageFrameSource) or from a recording on disk (see RecordedFrameSource).
+ *
+ * The luma buffer must be a direct ByteBuffer. Native code wraps it as a cv::Mat in place, so it has to stay valid
+ * until the frame is closed, and closing it hands the memory back to whoever owns it.
+ */
+public interface CameraFrame {
+
+    int getWidth();
+
+    int getHeight();
+
+    // Direct buffer with the luma plane, starting at the first pixel of the first row
+    ByteBuffer getLumaBuffer();
+
+    // Bytes from the start of one row to the start of the next, at least width
+    int getLumaRowStride();
+
+    // Bytes between neighbouring pixels in a row, 1 unless the luma is interleaved with other samples
+    int getLumaPixelStride();
+
+    // Capture time in nanoseconds. Only differences between frames of the same source mean anything.
+    long getTimestamp();
+
+    // Give the frame's memory back. The frame must not be used afterwards.
+    void close();
+}
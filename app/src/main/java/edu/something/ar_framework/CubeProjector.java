@@ -0,0 +1,118 @@
+package edu.something.ar_framework;
+
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDouble;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.MatOfPoint3f;
+import org.opencv.core.MatPool;
+
+/**
+ * Projects a cube standing on a recognized target into the camera frame, for PoseOverlay to draw. The cube sits in the
+ * middle of the target, as wide as the target's shorter side, and rises towards the camera. Its corners go through
+ * Calib3d.projectPoints() with the intrinsics PoseTracker::updateCameraMatrix() assumes: focal length equal to the
+ * larger frame side, principal point in the center, no lens distortion.
+ *
+ * The camera matrix and pose vectors of each projection are leased from a MatPool for the duration of the call, so
+ * once the pool is warm, projecting a pose allocates nothing and the pool's counters show it. The cubes and the output
+ * points, whose types projectPoints() fixes, are allocated up front and reused. Not thread safe: ASUForia uses one
+ * from the delivery thread only.
+ */
+final class CubeProjector {
+
+    static {
+        // Calib3d and the Mats live in OpenCV's own JNI library, which native-lib only links against
+        System.loadLibrary("opencv_java3");
+    }
+
+    static final int CORNERS = 8;
+
+    // The cube's 12 edges as pairs of corner indices: the base on the target, the top, and the 4 sides
+    static final int[] EDGES = {
+            0, 1, 1, 2, 2, 3, 3, 0,
+            4, 5, 5, 6, 6, 7, 7, 4,
+            0, 4, 1, 5, 2, 6, 3, 7
+    };
+
+    // One cube per target, since targets differ in aspect ratio
+    private final MatOfPoint3f[] myCubes;
+    private final MatOfDouble myDistortion = new MatOfDouble();
+    private final MatOfPoint2f myCorners = new MatOfPoint2f();
+    private final MatPool.Arena myArena;
+    private final double[] myVector = new double[3];
+
+    /**
+     * @param targetSizes width and height of each reference image, in pixels, in the order of the target indices
+     * @param pool where each projection leases its Mats from
+     */
+    CubeProjector(int[][] targetSizes, MatPool pool) {
+        myArena = pool.newArena();
+        myCubes = new MatOfPoint3f[targetSizes.length];
+        float[] x = new float[CORNERS];
+        float[] y = new float[CORNERS];
+        float[] z = new float[CORNERS];
+        for (int i = 0; i < targetSizes.length; i++) {
+            cubeCorners(targetSizes[i][0], targetSizes[i][1], x, y, z);
+            myCubes[i] = new MatOfPoint3f();
+            myCubes[i].fromArrays(CORNERS, x, y, z);
+        }
+    }
+
+    /**
+     * Project the cube on target, seen with pose rvec and tvec in a frameWidth x frameHeight frame, into corners as
+     * CORNERS interleaved x, y pairs in frame pixels.
+     */
+    void project(int target, float[] rvec, float[] tvec, int frameWidth, int frameHeight, float[] corners) {
+        try (MatPool.Arena pose = myArena.open()) {
+            Mat cameraMatrix = pose.acquire(3, 3, CvType.CV_64F);
+            double focal = Math.max(frameWidth, frameHeight);
+            cameraMatrix.put(0, 0,
+                    focal, 0, frameWidth / 2.0,
+                    0, focal, frameHeight / 2.0,
+                    0, 0, 1);
+            Mat rvecMat = pose.acquire(3, 1, CvType.CV_64F);
+            for (int i = 0; i < 3; i++) {
+                myVector[i] = rvec[i];
+            }
+            rvecMat.put(0, 0, myVector);
+            Mat tvecMat = pose.acquire(3, 1, CvType.CV_64F);
+            for (int i = 0; i < 3; i++) {
+                myVector[i] = tvec[i];
+            }
+            tvecMat.put(0, 0, myVector);
+
+            Calib3d.projectPoints(myCubes[target], rvecMat, tvecMat, cameraMatrix, myDistortion, myCorners);
+            myCorners.toInterleaved(corners);
+        }
+    }
+
+    // Free the Mats. The projector can't be used afterwards; the leased ones are back in the pool already.
+    void release() {
+        for (MatOfPoint3f cube : myCubes) {
+            cube.release();
+        }
+        myDistortion.release();
+        myCorners.release();
+    }
+
+    /**
+     * Corners of the cube on a width x height reference image, in the target's object coordinates: units of the
+     * image's longer side, x to the right, y down and z away from the camera, so the top of the cube has negative z.
+     * Base corners first, then the top ones above them, see EDGES.
+     */
+    static void cubeCorners(int width, int height, float[] x, float[] y, float[] z) {
+        float unit = 1.0f / Math.max(width, height);
+        float targetWidth = width * unit;
+        float targetHeight = height * unit;
+        float side = Math.min(targetWidth, targetHeight);
+        float left = (targetWidth - side) / 2;
+        float top = (targetHeight - side) / 2;
+        for (int i = 0; i < CORNERS; i++) {
+            int corner = i % 4;
+            x[i] = corner == 1 || corner == 2 ? left + side : left;
+            y[i] = corner >= 2 ? top + side : top;
+            z[i] = i < 4 ? 0.0f : -side;
+        }
+    }
+}
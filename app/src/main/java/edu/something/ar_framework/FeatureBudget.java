@@ -0,0 +1,132 @@
+package edu.something.ar_framework;
+
+/**
+ * Closed-loop control of how much work ORB does on a detection frame, so that detection holds a target frame time on
+ * whatever device it runs on. The settings form a ladder of steps, from few features on a downscaled frame with a
+ * shallow pyramid up to many features at full resolution. After every frame that ran ORB, update() is given what the
+ * frame cost, and moves one step down when the smoothed frame time is over the target, or one step up when it has been
+ * well under the target for a while.
+ *
+ * Hysteresis keeps the settings from oscillating between two steps: there is a dead band between UPGRADE_RATIO of the
+ * target and the target itself in which nothing changes, stepping up waits longer than stepping down, and after every
+ * change the frame time is measured afresh before the next decision.
+ *
+ * Tracked frames don't run ORB, so they don't tell the controller anything and aren't passed in. update() must always
+ * be called from the same thread. setTargetFrameNanos() can be called from any thread.
+ */
+final class FeatureBudget {
+
+    // The steps, cheapest first. Step DEFAULT_STEP is what PoseTracker runs with when nothing adapts.
+    static final int[] FEATURES =       {150,  250,  300,  400,  400,  500,  750,  1000};
+    static final int[] PYRAMID_LEVELS = {3,    4,    4,    6,    6,    8,    8,    8};
+    static final float[] DOWNSCALE =    {0.5f, 0.5f, 0.7f, 0.7f, 1.0f, 1.0f, 1.0f, 1.0f};
+    static final int DEFAULT_STEP = 5;
+
+    static final long DEFAULT_TARGET_FRAME_NANOS = 33000000L;
+
+    // Step up only when the frame time is below this fraction of the target, so the next step up still fits
+    static final double UPGRADE_RATIO = 0.6;
+    // Frames measured after a change before the next decision, and before stepping up
+    static final int SETTLE_FRAMES = 5;
+    static final int UPGRADE_FRAMES = 30;
+    // Weight of the newest frame in the smoothed frame time
+    static final double SMOOTHING = 0.25;
+
+    // 0 when adaptation is off
+    private volatile long myTargetFrameNanos;
+    private volatile int myStep = DEFAULT_STEP;
+    private volatile long mySmoothedFrameNanos;
+    private volatile long myChanges;
+
+    // Frames measured since the last change of step or target, and the target they were measured against
+    private int myFramesAtStep;
+    private long myMeasuredTargetNanos;
+
+    FeatureBudget(long targetFrameNanos) {
+        setTargetFrameNanos(targetFrameNanos);
+    }
+
+    // Frame time to hold, or 0 to stay at DEFAULT_STEP. Picked up by the next update().
+    void setTargetFrameNanos(long targetFrameNanos) {
+        if (targetFrameNanos < 0) {
+            throw new IllegalArgumentException("Target frame time must not be negative, was " + targetFrameNanos);
+        }
+        myTargetFrameNanos = targetFrameNanos;
+    }
+
+    long getTargetFrameNanos() {
+        return myTargetFrameNanos;
+    }
+
+    /**
+     * Record the processing time of a frame that ran ORB with the current settings. Returns true if the settings
+     * changed, in which case they should be applied before the next frame.
+     */
+    boolean update(long frameNanos) {
+        long target = myTargetFrameNanos;
+        if (target != myMeasuredTargetNanos) {
+            // What was measured only counts towards the old target, start settling over against the new one
+            myMeasuredTargetNanos = target;
+            myFramesAtStep = 0;
+        }
+        if (target == 0) {
+            return moveTo(DEFAULT_STEP);
+        }
+
+        myFramesAtStep++;
+        long smoothed = myFramesAtStep == 1 ? frameNanos
+                : (long) (SMOOTHING * frameNanos + (1 - SMOOTHING) * mySmoothedFrameNanos);
+        mySmoothedFrameNanos = smoothed;
+        if (myFramesAtStep < SETTLE_FRAMES) {
+            return false;
+        }
+
+        if (smoothed > target) {
+            return moveTo(myStep - 1);
+        }
+        if (smoothed < target * UPGRADE_RATIO && myFramesAtStep >= UPGRADE_FRAMES) {
+            return moveTo(myStep + 1);
+        }
+        return false;
+    }
+
+    // Index of the current step, 0 is the cheapest
+    int getStep() {
+        return myStep;
+    }
+
+    int getFeatures() {
+        return FEATURES[myStep];
+    }
+
+    int getPyramidLevels() {
+        return PYRAMID_LEVELS[myStep];
+    }
+
+    // Scale ORB runs at relative to the camera frame, 1 for full resolution
+    float getDownscale() {
+        return DOWNSCALE[myStep];
+    }
+
+    // Smoothed processing time of the frames measured at the current step, 0 before the first one
+    long getSmoothedFrameNanos() {
+        return mySmoothedFrameNanos;
+    }
+
+    // Number of times the settings changed
+    long getChanges() {
+        return myChanges;
+    }
+
+    private boolean moveTo(int step) {
+        step = Math.max(0, Math.min(FEATURES.length - 1, step));
+        if (step == myStep) {
+            return false;
+        }
+        myStep = step;
+        myFramesAtStep = 0;
+        mySmoothedFrameNanos = 0;
+        myChanges++;
+        return true;
+    }
+}
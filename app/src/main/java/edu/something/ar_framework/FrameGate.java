@@ -0,0 +1,64 @@
+package edu.something.ar_framework;
+
+/**
+ * A FrameGate sits between the thread that receives camera frames (the ImageReader callback) and the thread that
+ * runs pose estimation on them. The producer offers every frame it acquires, and the consumer polls for the next
+ * frame whenever it is ready for more work. The gate decides which frames are dropped when the consumer can't keep
+ * up, so that a slow nativePoseEstimation() call never blocks the camera or lets old frames pile up behind it.
+ * Frames that are dropped are handed back to a FrameRecycler, which for camera2 Images simply closes them.
+ */
+interface FrameGate<F> {
+
+    // Hand a newly acquired frame to the gate. Returns true if the consumer needs to be woken up to drain it.
+    boolean offer(F frame);
+
+    /**
+     * Take every frame waiting in queue and offer the newest one. The older ones are recycled as dropped on the way, so
+     * frames the producer passes over are counted like the ones the gate drops. Returns what offer() returned, or false
+     * if nothing was waiting.
+     */
+    boolean offerLatest(FrameQueue<F> queue);
+
+    // Take the pending frame, or null if there is none. The caller now owns the frame and must recycle it.
+    F poll();
+
+    // Recycle any pending frame, e.g. when estimation is stopped
+    void clear();
+
+    // Number of frames that were handed to the consumer through poll()
+    long getDeliveredCount();
+
+    // Number of frames that were recycled by the gate without ever reaching the consumer
+    long getDroppedCount();
+
+
+    /**
+     * Callback used to give a frame back to whoever owns its memory. Dropped camera frames must be closed right away,
+     * or the ImageReader will run out of buffers after maxImages frames.
+     */
+    interface FrameRecycler<F> {
+        void recycle(F frame);
+    }
+
+
+    /**
+     * Frames that queued up before the producer got to them, like the Images waiting in an ImageReader when its
+     * callback runs late.
+     */
+    interface FrameQueue<F> {
+        // The oldest waiting frame, or null if there is none or none can be taken right now
+        F next();
+    }
+
+
+    /**
+     * Which frame to throw away when a new frame arrives while another one is still waiting for the consumer.
+     * DROP_OLDEST keeps latency as low as possible, since the consumer always gets the newest frame. DROP_NEWEST keeps
+     * the frame that has been waiting, which is only useful when every frame costs the same and ordering matters more
+     * than freshness.
+     */
+    enum DropPolicy {
+        DROP_OLDEST,
+        DROP_NEWEST
+    }
+}
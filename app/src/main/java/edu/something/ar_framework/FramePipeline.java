@@ -0,0 +1,246 @@
+package edu.something.ar_framework;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs camera frames through a fixed sequence of stages, each on its own worker, so that different frames can be in
+ * different stages at the same time. While one worker solves the pose of frame N, another is already extracting the
+ * features of frame N+1.
+ *
+ * The first stage pulls frames from a Source whenever fewer than maxInFlight frames are in the pipeline, and every
+ * later stage takes its frames from a bounded FrameRing filled by the stage before it. Every ring can hold maxInFlight
+ * frames, so a stage never has to wait to hand a frame on, and because every stage runs on a single serial worker and
+ * its ring is FIFO, frames leave the pipeline in the order they entered it. When the last stage is done with a frame,
+ * it goes to the FrameRecycler and the first stage may admit another one.
+ *
+ * Workers are plain Executors that must run one task at a time in order, such as a Handler on a HandlerThread or a
+ * single-threaded ExecutorService. A stage is only scheduled when there is work for it, and then drains everything it
+ * can in one go.
+ */
+final class FramePipeline<F> {
+
+    // Where the first stage gets its frames from. Only called on the first stage's worker.
+    interface Source<F> {
+        // Returns the next frame to process, or null if there is none right now
+        F next();
+    }
+
+    interface Stage<F> {
+        void process(F frame);
+    }
+
+    private final Source<F> mySource;
+    private final FrameGate.FrameRecycler<F> myRecycler;
+    private final int myMaxInFlight;
+    private final ArrayList<StageRunner> myStages = new ArrayList<StageRunner>();
+
+    // Frames taken from the source that haven't been recycled yet
+    private final AtomicInteger myInFlight = new AtomicInteger();
+
+    FramePipeline(Source<F> source, FrameGate.FrameRecycler<F> recycler, int maxInFlight) {
+        if (source == null || recycler == null) {
+            throw new IllegalArgumentException("source and recycler must not be null");
+        }
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1, was " + maxInFlight);
+        }
+        mySource = source;
+        myRecycler = recycler;
+        myMaxInFlight = maxInFlight;
+    }
+
+    // Append a stage. All stages must be added before the first call to signal().
+    void addStage(String name, Executor worker, Stage<F> stage) {
+        if (name == null || worker == null || stage == null) {
+            throw new IllegalArgumentException("name, worker and stage must not be null");
+        }
+        FrameRing<F> input = myStages.isEmpty() ? null : new FrameRing<F>(myMaxInFlight);
+        StageRunner runner = new StageRunner(name, worker, stage, input);
+        if (!myStages.isEmpty()) {
+            myStages.get(myStages.size() - 1).myNext = runner;
+        }
+        myStages.add(runner);
+    }
+
+    // Tell the pipeline the source may have a new frame. Safe to call from any thread.
+    void signal() {
+        if (myStages.isEmpty()) {
+            throw new IllegalStateException("The pipeline has no stages");
+        }
+        myStages.get(0).schedule();
+    }
+
+    /**
+     * Recycle every frame that is waiting between stages. Only call this once no worker can run anymore (their
+     * threads have been stopped), since the rings are single-consumer.
+     */
+    void clear() {
+        for (int i = 0; i < myStages.size(); i++) {
+            FrameRing<F> input = myStages.get(i).myInput;
+            if (input == null) {
+                continue;
+            }
+            F frame;
+            while ((frame = input.poll()) != null) {
+                finish(frame);
+            }
+        }
+    }
+
+    // Number of frames that have been admitted and not yet recycled
+    int getFramesInFlight() {
+        return myInFlight.get();
+    }
+
+    int getMaxInFlight() {
+        return myMaxInFlight;
+    }
+
+    int getStageCount() {
+        return myStages.size();
+    }
+
+    StageMetrics getStageMetrics(int stage) {
+        return myStages.get(stage).myMetrics;
+    }
+
+    private void finish(F frame) {
+        myRecycler.recycle(frame);
+        // If the pipeline was full, the first stage may have left a frame in the source, so let it look again
+        if (myInFlight.getAndDecrement() == myMaxInFlight) {
+            signal();
+        }
+    }
+
+
+    /**
+     * What one stage has been doing, for finding the bottleneck. Written only by the stage's own worker, so a snapshot
+     * taken from another thread can be a frame out of date, but never torn.
+     */
+    public static final class StageMetrics {
+        private final String myName;
+        private final FrameRing<?> myInput;
+
+        private volatile long myProcessedCount;
+        private volatile long myTotalNanos;
+        private volatile long myLastNanos;
+        private volatile long myMaxNanos;
+
+        StageMetrics(String name, FrameRing<?> input) {
+            myName = name;
+            myInput = input;
+        }
+
+        void record(long nanos) {
+            myProcessedCount++;
+            myTotalNanos += nanos;
+            myLastNanos = nanos;
+            if (nanos > myMaxNanos) {
+                myMaxNanos = nanos;
+            }
+        }
+
+        public String getName() {
+            return myName;
+        }
+
+        // Frames waiting for this stage. Always 0 for the first stage, whose frames wait in the Source instead.
+        public int getQueueDepth() {
+            return myInput == null ? 0 : myInput.size();
+        }
+
+        public long getProcessedCount() {
+            return myProcessedCount;
+        }
+
+        // Mean time one frame spends in this stage's process(), in milliseconds
+        public double getAverageLatencyMillis() {
+            long count = myProcessedCount;
+            return count == 0 ? 0 : myTotalNanos / 1e6 / count;
+        }
+
+        public double getLastLatencyMillis() {
+            return myLastNanos / 1e6;
+        }
+
+        public double getMaxLatencyMillis() {
+            return myMaxNanos / 1e6;
+        }
+    }
+
+
+    // Schedules and runs one stage on its worker
+    private final class StageRunner implements Runnable {
+        private final Executor myWorker;
+        private final Stage<F> myStage;
+        private final FrameRing<F> myInput;
+        private final StageMetrics myMetrics;
+        private final AtomicBoolean myScheduled = new AtomicBoolean();
+
+        // Stage that gets the frames after this one, or null for the last stage
+        private StageRunner myNext;
+
+        StageRunner(String name, Executor worker, Stage<F> stage, FrameRing<F> input) {
+            myWorker = worker;
+            myStage = stage;
+            myInput = input;
+            myMetrics = new StageMetrics(name, input);
+        }
+
+        // Make sure the stage runs at least once more, without piling up tasks on its worker
+        void schedule() {
+            if (myScheduled.compareAndSet(false, true)) {
+                myWorker.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            // Cleared before draining, so a frame that arrives while we drain schedules another run
+            myScheduled.set(false);
+
+            F frame;
+            while ((frame = take()) != null) {
+                long start = System.nanoTime();
+                boolean processed = false;
+                try {
+                    myStage.process(frame);
+                    processed = true;
+                } finally {
+                    myMetrics.record(System.nanoTime() - start);
+                    if (!processed) {
+                        // The exception goes to the worker, but the frame must not leak
+                        finish(frame);
+                    }
+                }
+
+                if (myNext == null) {
+                    finish(frame);
+                } else {
+                    // Can't fail, every ring has room for every frame that can be in flight
+                    myNext.myInput.offer(frame);
+                    myNext.schedule();
+                }
+            }
+        }
+
+        private F take() {
+            if (myInput != null) {
+                return myInput.poll();
+            }
+            // First stage: only admit a new frame while there is room for it. The count only grows on this worker,
+            // so it can't go over the limit between the check and the increment.
+            if (myInFlight.get() >= myMaxInFlight) {
+                return null;
+            }
+            F frame = mySource.next();
+            if (frame != null) {
+                myInFlight.incrementAndGet();
+            }
+            return frame;
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package edu.something.ar_framework;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A sequence of recorded camera frames in one file, read back memory-mapped so replaying it costs page-ins rather than
+ * reads and copies. Every frame has a timestamp and may have a ground truth pose, so a replay can measure how far the
+ * estimated pose is off. Frames are written with a Writer.
+ *
+ * The file is little-endian:
+ *   header     HEADER_SIZE bytes: MAGIC, VERSION, width, height, rowStride, format, frameCount, 0, indexOffset
+ *   frames     frameCount frames of getFrameSize() bytes each, starting at HEADER_SIZE
+ *   index      at indexOffset, INDEX_ENTRY_SIZE bytes per frame: timestamp (long), ground truth target (int), 0,
+ *              ground truth rvec and tvec (3 floats each)
+ *
+ * A FORMAT_GRAY8 frame is the luma plane alone, height rows of rowStride bytes. A FORMAT_YUV420 frame is the luma
+ * plane followed by the U and V planes at half resolution (I420), each with rows of rowStride / 2 bytes.
+ */
+public final class FrameRecording implements Closeable {
+
+    public static final int FORMAT_GRAY8 = 1;
+    public static final int FORMAT_YUV420 = 2;
+
+    // Ground truth target of a frame nobody labelled
+    public static final int TARGET_UNKNOWN = -2;
+    // Ground truth target of a frame that doesn't show any target
+    public static final int TARGET_NONE = -1;
+
+    static final int MAGIC = 0x52465341;  // "ASFR"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int INDEX_ENTRY_SIZE = 40;
+    // The index is read into a single ByteBuffer, which caps a recording at about 53 million frames, 20 days at 30 FPS
+    static final int MAX_FRAMES = Integer.MAX_VALUE / INDEX_ENTRY_SIZE;
+
+    // A MappedByteBuffer can't be larger than 2 GB, so longer recordings are mapped in several chunks of whole frames
+    static final long MAX_CHUNK_BYTES = Integer.MAX_VALUE;
+
+    private final RandomAccessFile myFile;
+    private final int myWidth;
+    private final int myHeight;
+    private final int myRowStride;
+    private final int myFormat;
+    private final int myFrameCount;
+
+    // Per frame: the luma plane within its mapped chunk, the timestamp, and the ground truth
+    private final ByteBuffer[] myLumaBuffers;
+    private final long[] myTimestamps;
+    private final int[] myTargets;
+    private final float[] myPoses;
+
+    private FrameRecording(RandomAccessFile file, ByteBuffer header, long maxChunkBytes) throws IOException {
+        myFile = file;
+        myWidth = header.getInt(8);
+        myHeight = header.getInt(12);
+        myRowStride = header.getInt(16);
+        myFormat = header.getInt(20);
+        myFrameCount = header.getInt(24);
+        long indexOffset = header.getLong(32);
+        checkGeometry(myWidth, myHeight, myRowStride, myFormat);
+
+        long frameSize = getFrameSize();
+        if (myFrameCount > MAX_FRAMES) {
+            throw new IOException("Recording has too many frames, " + myFrameCount + ", at most " + MAX_FRAMES
+                    + " are supported");
+        }
+        if (myFrameCount < 0 || indexOffset != HEADER_SIZE + myFrameCount * frameSize
+                || file.length() < indexOffset + (long) myFrameCount * INDEX_ENTRY_SIZE) {
+            throw new IOException("Recording is truncated or its header is corrupt");
+        }
+
+        FileChannel channel = file.getChannel();
+        myLumaBuffers = new ByteBuffer[myFrameCount];
+        int lumaSize = myRowStride * myHeight;
+        int framesPerChunk = (int) Math.max(1, Math.min(myFrameCount, maxChunkBytes / frameSize));
+        for (int first = 0; first < myFrameCount; first += framesPerChunk) {
+            int count = Math.min(framesPerChunk, myFrameCount - first);
+            MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + first * frameSize,
+                    count * frameSize);
+            for (int i = 0; i < count; i++) {
+                chunk.limit((int) (i * frameSize) + lumaSize).position((int) (i * frameSize));
+                myLumaBuffers[first + i] = chunk.slice();
+                chunk.clear();
+            }
+        }
+
+        ByteBuffer index = ByteBuffer.allocate(myFrameCount * INDEX_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, index, indexOffset);
+        myTimestamps = new long[myFrameCount];
+        myTargets = new int[myFrameCount];
+        myPoses = new float[myFrameCount * 6];
+        for (int i = 0; i < myFrameCount; i++) {
+            myTimestamps[i] = index.getLong();
+            myTargets[i] = index.getInt();
+            index.getInt();
+            for (int j = 0; j < 6; j++) {
+                myPoses[i * 6 + j] = index.getFloat();
+            }
+        }
+    }
+
+    // Open and map a recording written by a Writer
+    public static FrameRecording open(File file) throws IOException {
+        return open(file, MAX_CHUNK_BYTES);
+    }
+
+    static FrameRecording open(File file, long maxChunkBytes) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(randomAccessFile.getChannel(), header, 0);
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException(file + " is not a frame recording");
+            }
+            if (header.getInt(4) != VERSION) {
+                throw new IOException(file + " is a frame recording of unsupported version " + header.getInt(4));
+            }
+            return new FrameRecording(randomAccessFile, header, maxChunkBytes);
+        } catch (IOException e) {
+            randomAccessFile.close();
+            throw e;
+        } catch (RuntimeException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+    }
+
+    public int getWidth() {
+        return myWidth;
+    }
+
+    public int getHeight() {
+        return myHeight;
+    }
+
+    public int getRowStride() {
+        return myRowStride;
+    }
+
+    // FORMAT_GRAY8 or FORMAT_YUV420
+    public int getFormat() {
+        return myFormat;
+    }
+
+    public int getFrameCount() {
+        return myFrameCount;
+    }
+
+    // Bytes per frame in the file
+    public long getFrameSize() {
+        return frameSize(myHeight, myRowStride, myFormat);
+    }
+
+    // Read-only direct buffer over the luma plane of frame, valid as long as the recording is reachable
+    public ByteBuffer getLumaBuffer(int frame) {
+        return myLumaBuffers[frame];
+    }
+
+    public long getTimestamp(int frame) {
+        return myTimestamps[frame];
+    }
+
+    // Index of the target in view according to the ground truth, TARGET_NONE or TARGET_UNKNOWN
+    public int getGroundTruthTarget(int frame) {
+        return myTargets[frame];
+    }
+
+    /**
+     * Copy the ground truth pose of frame into rvec and tvec, in the camera coordinates nativePoseEstimation() reports
+     * poses in. Returns false, leaving them untouched, if the frame has no ground truth pose.
+     */
+    public boolean getGroundTruthPose(int frame, float[] rvec, float[] tvec) {
+        if (myTargets[frame] < 0) {
+            return false;
+        }
+        System.arraycopy(myPoses, frame * 6, rvec, 0, 3);
+        System.arraycopy(myPoses, frame * 6 + 3, tvec, 0, 3);
+        return true;
+    }
+
+    // Close the file. Frames already handed out stay readable until they are garbage collected.
+    @Override
+    public void close() throws IOException {
+        myFile.close();
+    }
+
+    static long frameSize(int height, int rowStride, int format) {
+        long lumaSize = (long) rowStride * height;
+        if (format == FORMAT_YUV420) {
+            return lumaSize + 2L * (rowStride / 2) * ((height + 1) / 2);
+        }
+        return lumaSize;
+    }
+
+    private static void checkGeometry(int width, int height, int rowStride, int format) throws IOException {
+        if (format != FORMAT_GRAY8 && format != FORMAT_YUV420) {
+            throw new IOException("Unknown frame format " + format);
+        }
+        if (width <= 0 || height <= 0 || rowStride < width || (long) rowStride * height > Integer.MAX_VALUE
+                || (format == FORMAT_YUV420 && rowStride % 2 != 0)) {
+            throw new IOException("Invalid frame geometry " + width + "x" + height + ", row stride " + rowStride);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Recording is truncated");
+            }
+            position += read;
+        }
+        buffer.flip();
+    }
+
+
+    /**
+     * Writes a recording frame by frame. The index is kept in memory and written, together with the final header, by
+     * close(), so a recording that was never closed is rejected by open().
+     */
+    public static final class Writer implements Closeable {
+        private final RandomAccessFile myFile;
+        private final FileChannel myChannel;
+        private final int myWidth;
+        private final int myHeight;
+        private final int myRowStride;
+        private final int myFormat;
+        private final long myFrameSize;
+
+        private ByteBuffer myIndex = ByteBuffer.allocate(64 * INDEX_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private int myFrameCount;
+
+        public Writer(File file, int width, int height, int rowStride, int format) throws IOException {
+            checkGeometry(width, height, rowStride, format);
+            myWidth = width;
+            myHeight = height;
+            myRowStride = rowStride;
+            myFormat = format;
+            myFrameSize = frameSize(height, rowStride, format);
+
+            myFile = new RandomAccessFile(file, "rw");
+            myFile.setLength(0);
+            myChannel = myFile.getChannel();
+            myChannel.position(HEADER_SIZE);
+        }
+
+        // Append a frame without ground truth. frame must have exactly getFrameSize() bytes remaining.
+        public void addFrame(ByteBuffer frame, long timestampNanos) throws IOException {
+            addFrame(frame, timestampNanos, TARGET_UNKNOWN, null, null);
+        }
+
+        /**
+         * Append a frame with its ground truth: the index of the target in view, or TARGET_NONE, and for a target its
+         * pose. frame must have exactly getFrameSize() bytes remaining, and its position is left unchanged.
+         */
+        public void addFrame(ByteBuffer frame, long timestampNanos, int target, float[] rvec, float[] tvec)
+                throws IOException {
+            if (frame.remaining() != myFrameSize) {
+                throw new IllegalArgumentException("Frame has " + frame.remaining() + " bytes, expected "
+                        + myFrameSize);
+            }
+            if (target >= 0 && (rvec == null || tvec == null)) {
+                throw new IllegalArgumentException("A ground truth target needs a ground truth pose");
+            }
+            if (myFrameCount == MAX_FRAMES) {
+                throw new IllegalStateException("A recording can't hold more than " + MAX_FRAMES + " frames");
+            }
+
+            ByteBuffer data = frame.duplicate();
+            while (data.hasRemaining()) {
+                myChannel.write(data);
+            }
+
+            if (myIndex.remaining() < INDEX_ENTRY_SIZE) {
+                int capacity = (int) Math.min(2L * myIndex.capacity(), (long) MAX_FRAMES * INDEX_ENTRY_SIZE);
+                ByteBuffer larger = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+                myIndex.flip();
+                larger.put(myIndex);
+                myIndex = larger;
+            }
+            myIndex.putLong(timestampNanos).putInt(target).putInt(0);
+            for (int i = 0; i < 3; i++) {
+                myIndex.putFloat(target >= 0 ? rvec[i] : 0);
+            }
+            for (int i = 0; i < 3; i++) {
+                myIndex.putFloat(target >= 0 ? tvec[i] : 0);
+            }
+            myFrameCount++;
+        }
+
+        public long getFrameSize() {
+            return myFrameSize;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                long indexOffset = HEADER_SIZE + myFrameCount * myFrameSize;
+                myIndex.flip();
+                while (myIndex.hasRemaining()) {
+                    myChannel.write(myIndex, indexOffset + myIndex.position());
+                }
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC).putInt(VERSION).putInt(myWidth).putInt(myHeight).putInt(myRowStride)
+                        .putInt(myFormat).putInt(myFrameCount).putInt(0).putLong(indexOffset);
+                header.clear();
+                while (header.hasRemaining()) {
+                    myChannel.write(header, header.position());
+                }
+            } finally {
+                myFile.close();
+            }
+        }
+    }
+}
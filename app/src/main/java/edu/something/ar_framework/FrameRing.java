@@ -0,0 +1,71 @@
+package edu.something.ar_framework;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded single-producer, single-consumer ring buffer of frames. One thread offers and one other thread polls, and
+ * neither ever blocks or allocates: a full ring refuses the frame and an empty ring returns null. The head and tail
+ * counters only ever grow, so size() is simply their difference.
+ */
+final class FrameRing<F> {
+
+    private final AtomicReferenceArray<F> mySlots;
+    private final int myMask;
+
+    // Next slot the consumer reads, and next slot the producer writes
+    private final AtomicLong myHead = new AtomicLong();
+    private final AtomicLong myTail = new AtomicLong();
+
+    // capacity is rounded up to the next power of two
+    FrameRing(int capacity) {
+        if (capacity < 1 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Invalid ring capacity " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mySlots = new AtomicReferenceArray<F>(size);
+        myMask = size - 1;
+    }
+
+    // Producer only. Returns false if the ring is full.
+    boolean offer(F frame) {
+        if (frame == null) {
+            throw new IllegalArgumentException("frame must not be null");
+        }
+        long tail = myTail.get();
+        if (tail - myHead.get() > myMask) {
+            return false;
+        }
+        mySlots.lazySet((int) tail & myMask, frame);
+        // Publishing the new tail makes the slot write visible to the consumer
+        myTail.lazySet(tail + 1);
+        return true;
+    }
+
+    // Consumer only. Returns null if the ring is empty.
+    F poll() {
+        long head = myHead.get();
+        if (head == myTail.get()) {
+            return null;
+        }
+        int index = (int) head & myMask;
+        F frame = mySlots.get(index);
+        mySlots.lazySet(index, null);
+        myHead.lazySet(head + 1);
+        return frame;
+    }
+
+    // Number of frames waiting. Exact when called from the producer or the consumer, a snapshot from anywhere else.
+    int size() {
+        // Read head first, the tail can only have moved further ahead of it since
+        long head = myHead.get();
+        return (int) (myTail.get() - head);
+    }
+
+    int capacity() {
+        return myMask + 1;
+    }
+}
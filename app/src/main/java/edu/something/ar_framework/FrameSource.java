@@ -0,0 +1,27 @@
+package edu.something.ar_framework;
+
+/**
+ * Where the pose pipeline gets its frames from. The pipeline pulls frames with acquireFrame() whenever it has room for
+ * one, so a source that produces frames on its own schedule (the camera) keeps at most one waiting and drops the rest,
+ * while a source that can produce frames on demand (a recording) simply hands out the next one, and the pipeline runs
+ * as fast as pose estimation allows.
+ */
+interface FrameSource<F extends CameraFrame> {
+
+    // Next frame, or null if there is none right now. The caller owns the frame and must close() it.
+    F acquireFrame();
+
+    // Close any frame that is waiting to be acquired, e.g. when estimation is stopped
+    void clear();
+
+    /**
+     * Set who to tell that acquireFrame() may have a frame again after it returned null. Called from whatever thread
+     * the source produces frames on. A source that never runs dry until it is finished doesn't need to call it.
+     */
+    void setListener(Listener listener);
+
+
+    interface Listener {
+        void onFrameAvailable();
+    }
+}
@@ -0,0 +1,166 @@
+package edu.something.ar_framework;
+
+import android.media.Image;
+import android.media.ImageReader;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * FrameSource over a camera2 ImageReader producing YUV_420_888 Images. Register it as the reader's
+ * OnImageAvailableListener. The camera runs on its own schedule, so every new Image goes into a FrameGate, which keeps
+ * at most one frame waiting for the pipeline and closes the ones it drops right away, before the ImageReader runs out
+ * of buffers. Images that queued up in the reader behind a newer one are closed and counted as dropped the same way.
+ *
+ * Acquired Images are handed out wrapped in ImageFrames, which are pooled, so no garbage is created per frame.
+ */
+final class ImageFrameSource implements FrameSource<ImageFrameSource.ImageFrame>,
+        ImageReader.OnImageAvailableListener {
+
+    private final FrameGate<Image> myGate;
+    private final ReaderQueue myReaderQueue = new ReaderQueue();
+    private final ArrayBlockingQueue<ImageFrame> myFreeFrames;
+    private volatile Listener myListener;
+
+    /**
+     * maxImages is the reader's limit on open Images, which is also the most ImageFrames that can be out at once.
+     * Dropped frames are counted in metrics.
+     */
+    ImageFrameSource(int maxImages, FrameGate.DropPolicy dropPolicy, final PoseMetrics metrics) {
+        myGate = new LatestFrameGate<Image>(new FrameGate.FrameRecycler<Image>() {
+            @Override
+            public void recycle(Image frame) {
+                frame.close();
+                metrics.recordDroppedFrame();
+            }
+        }, dropPolicy);
+
+        myFreeFrames = new ArrayBlockingQueue<ImageFrame>(maxImages);
+        for (int i = 0; i < maxImages; i++) {
+            myFreeFrames.offer(new ImageFrame(this));
+        }
+    }
+
+    // Runs on the camera's background thread every time the reader has a new frame
+    @Override
+    public void onImageAvailable(ImageReader imageReader) {
+        // Drain the reader ourselves rather than with acquireLatestImage(), which closes the older frames without
+        // telling us, so every frame the camera got ahead with is counted as dropped. This never blocks, so the camera
+        // thread is free again right away. We only need to wake the pipeline if no frame was already waiting for it.
+        myReaderQueue.myReader = imageReader;
+        Listener listener = myListener;
+        if (myGate.offerLatest(myReaderQueue) && listener != null) {
+            listener.onFrameAvailable();
+        }
+    }
+
+    @Override
+    public ImageFrame acquireFrame() {
+        Image image = myGate.poll();
+        if (image == null) {
+            return null;
+        }
+        ImageFrame frame = myFreeFrames.poll();
+        if (frame == null) {
+            // Only if the reader allows more Images than we were told about
+            frame = new ImageFrame(this);
+        }
+        frame.myImage = image;
+        frame.myLumaPlane = image.getPlanes()[0];
+        return frame;
+    }
+
+    @Override
+    public void clear() {
+        myGate.clear();
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        myListener = listener;
+    }
+
+    // Number of camera frames that were handed to the pipeline
+    long getDeliveredCount() {
+        return myGate.getDeliveredCount();
+    }
+
+    // Number of camera frames that were closed because the pipeline was still busy with earlier ones, or newer ones
+    // were already waiting in the reader
+    long getDroppedCount() {
+        return myGate.getDroppedCount();
+    }
+
+
+    // The Images waiting in the ImageReader whose callback is running, so the gate can drain them
+    private static final class ReaderQueue implements FrameGate.FrameQueue<Image> {
+        private ImageReader myReader;
+
+        @Override
+        public Image next() {
+            try {
+                return myReader.acquireNextImage();
+            } catch (IllegalStateException e) {
+                // All maxImages buffers are held, so the rest stays in the reader until a later callback drains it
+                return null;
+            }
+        }
+    }
+
+
+    // A camera2 Image as a CameraFrame. The luma is the Image's Y plane, used in place.
+    static final class ImageFrame implements CameraFrame {
+        private final ImageFrameSource mySource;
+        private Image myImage;
+        // getPlanes() copies its array, so look the Y plane up once per frame
+        private Image.Plane myLumaPlane;
+
+        private ImageFrame(ImageFrameSource source) {
+            mySource = source;
+        }
+
+        // The Image behind this frame, valid until close()
+        Image getImage() {
+            return myImage;
+        }
+
+        @Override
+        public int getWidth() {
+            return myImage.getWidth();
+        }
+
+        @Override
+        public int getHeight() {
+            return myImage.getHeight();
+        }
+
+        @Override
+        public ByteBuffer getLumaBuffer() {
+            return myLumaPlane.getBuffer();
+        }
+
+        @Override
+        public int getLumaRowStride() {
+            return myLumaPlane.getRowStride();
+        }
+
+        @Override
+        public int getLumaPixelStride() {
+            return myLumaPlane.getPixelStride();
+        }
+
+        @Override
+        public long getTimestamp() {
+            return myImage.getTimestamp();
+        }
+
+        // Give the buffer back to the ImageReader so the camera can keep writing frames
+        @Override
+        public void close() {
+            myImage.close();
+            myImage = null;
+            myLumaPlane = null;
+            mySource.myFreeFrames.offer(this);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package edu.something.ar_framework;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram in the style of HdrHistogram. Values are nanoseconds, counted in log-linear buckets: every
+ * power of two is split into SUB_BUCKET_COUNT / 2 equal buckets, so any recorded value is known to within about 3% no
+ * matter whether it is a few microseconds or several seconds. The buckets are fixed when the histogram is created, so
+ * recording is a couple of shifts and an atomic increment, with no locks and no allocation, and any number of threads
+ * may record at once.
+ *
+ * Percentiles are read from a Snapshot, which the reader allocates once and refills with snapshot() as often as it
+ * likes. Since recording never stops for a snapshot, the copy may straddle a value being recorded, but every count in
+ * it is a real count from some moment during the copy.
+ */
+public final class LatencyHistogram {
+
+    // Each power of two above SUB_BUCKET_COUNT is split into SUB_BUCKET_COUNT / 2 buckets
+    static final int SUB_BUCKET_BITS = 6;
+    static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    // Longest latency told apart from longer ones, about 68 seconds. Anything above counts as this.
+    public static final long MAX_TRACKABLE_NANOS = (1L << 36) - 1;
+
+    static final int BUCKET_COUNT = bucketIndex(MAX_TRACKABLE_NANOS) + 1;
+
+    private final AtomicLongArray myCounts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong myTotalCount = new AtomicLong();
+    private final AtomicLong myTotalNanos = new AtomicLong();
+    private final AtomicLong myMaxNanos = new AtomicLong();
+
+    // Record one latency. Negative values, which can only come from mismatched clocks, count as 0.
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        } else if (nanos > MAX_TRACKABLE_NANOS) {
+            nanos = MAX_TRACKABLE_NANOS;
+        }
+        myCounts.incrementAndGet(bucketIndex(nanos));
+        myTotalCount.incrementAndGet();
+        myTotalNanos.addAndGet(nanos);
+
+        long max = myMaxNanos.get();
+        while (nanos > max && !myMaxNanos.compareAndSet(max, nanos)) {
+            max = myMaxNanos.get();
+        }
+    }
+
+    public long getCount() {
+        return myTotalCount.get();
+    }
+
+    // Forget everything recorded so far. Values recorded during the reset may or may not survive it.
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            myCounts.set(i, 0);
+        }
+        myTotalCount.set(0);
+        myTotalNanos.set(0);
+        myMaxNanos.set(0);
+    }
+
+    // Copy the current counts into snapshot, which is overwritten. Does not allocate.
+    public void snapshot(Snapshot snapshot) {
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long bucket = myCounts.get(i);
+            snapshot.myCounts[i] = bucket;
+            count += bucket;
+        }
+        // Use the bucket total rather than myTotalCount, so the percentiles always add up
+        snapshot.myCount = count;
+        snapshot.myTotalNanos = myTotalNanos.get();
+        snapshot.myMaxNanos = myMaxNanos.get();
+    }
+
+    static int bucketIndex(long nanos) {
+        if (nanos < SUB_BUCKET_COUNT) {
+            return (int) nanos;
+        }
+        // shift >= 1 here, and (nanos >>> shift) is in [SUB_BUCKET_COUNT / 2, SUB_BUCKET_COUNT)
+        int shift = 64 - Long.numberOfLeadingZeros(nanos) - SUB_BUCKET_BITS;
+        return shift * (SUB_BUCKET_COUNT / 2) + (int) (nanos >>> shift);
+    }
+
+    // Largest value that falls into bucket index
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / (SUB_BUCKET_COUNT / 2) - 1;
+        long sub = index - shift * (SUB_BUCKET_COUNT / 2);
+        return ((sub + 1) << shift) - 1;
+    }
+
+
+    /**
+     * Point-in-time copy of a LatencyHistogram. Allocate one per reader with new Snapshot() and reuse it. All queries
+     * are computed from the copied counts without allocating.
+     */
+    public static final class Snapshot {
+        private final long[] myCounts = new long[BUCKET_COUNT];
+        private long myCount;
+        private long myTotalNanos;
+        private long myMaxNanos;
+
+        public long getCount() {
+            return myCount;
+        }
+
+        public double getMeanMillis() {
+            return myCount == 0 ? 0 : myTotalNanos / 1e6 / myCount;
+        }
+
+        // Exact maximum, not rounded to a bucket
+        public double getMaxMillis() {
+            return myMaxNanos / 1e6;
+        }
+
+        /**
+         * Latency that percentile percent of the recorded values are at or below, e.g. 99 for p99. The result is the
+         * upper end of the bucket the value fell in, so it overstates the real value by at most about 3%. Returns 0 for
+         * an empty snapshot.
+         */
+        public double getPercentileMillis(double percentile) {
+            return getPercentileNanos(percentile) / 1e6;
+        }
+
+        public long getPercentileNanos(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("percentile must be between 0 and 100, was " + percentile);
+            }
+            if (myCount == 0) {
+                return 0;
+            }
+            // Rank of the value we are looking for, 1-based, so p0 is the smallest value and p100 the largest
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * myCount));
+            long seen = 0;
+            for (int i = 0; i < myCounts.length; i++) {
+                seen += myCounts[i];
+                if (seen >= rank) {
+                    return Math.min(bucketUpperBound(i), myMaxNanos);
+                }
+            }
+            return myMaxNanos;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package edu.something.ar_framework;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Single-slot FrameGate. At most one frame is ever waiting for the consumer, so the consumer is never more than one
+ * frame behind the camera. When a frame arrives while the slot is full, the DropPolicy decides which of the two is
+ * recycled. Everything is done with atomics, so neither the camera thread nor the pose thread ever blocks on the other.
+ */
+class LatestFrameGate<F> implements FrameGate<F> {
+
+    private final AtomicReference<F> myPendingFrame = new AtomicReference<F>();
+    private final AtomicLong myDeliveredCount = new AtomicLong();
+    private final AtomicLong myDroppedCount = new AtomicLong();
+
+    private final FrameRecycler<F> myRecycler;
+    private final DropPolicy myDropPolicy;
+
+    LatestFrameGate(FrameRecycler<F> recycler, DropPolicy dropPolicy) {
+        if (recycler == null || dropPolicy == null) {
+            throw new IllegalArgumentException("recycler and dropPolicy must not be null");
+        }
+        myRecycler = recycler;
+        myDropPolicy = dropPolicy;
+    }
+
+    @Override
+    public boolean offer(F frame) {
+        if (frame == null) {
+            return false;
+        }
+
+        if (myDropPolicy == DropPolicy.DROP_NEWEST) {
+            // Only take the frame if the slot is empty, otherwise the incoming frame is the one thrown away
+            if (myPendingFrame.compareAndSet(null, frame)) {
+                return true;
+            }
+            drop(frame);
+            return false;
+        }
+
+        // DROP_OLDEST: the new frame always replaces whatever is waiting
+        F previous = myPendingFrame.getAndSet(frame);
+        if (previous == null) {
+            // Slot was empty, so nobody has been told about a pending frame yet
+            return true;
+        }
+        // A drain is already scheduled for the previous frame, and it will pick up this one instead
+        drop(previous);
+        return false;
+    }
+
+    @Override
+    public boolean offerLatest(FrameQueue<F> queue) {
+        F latest = queue.next();
+        if (latest == null) {
+            return false;
+        }
+        for (F next = queue.next(); next != null; next = queue.next()) {
+            drop(latest);
+            latest = next;
+        }
+        return offer(latest);
+    }
+
+    @Override
+    public F poll() {
+        F frame = myPendingFrame.getAndSet(null);
+        if (frame != null) {
+            myDeliveredCount.incrementAndGet();
+        }
+        return frame;
+    }
+
+    @Override
+    public void clear() {
+        F frame = myPendingFrame.getAndSet(null);
+        if (frame != null) {
+            drop(frame);
+        }
+    }
+
+    @Override
+    public long getDeliveredCount() {
+        return myDeliveredCount.get();
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return myDroppedCount.get();
+    }
+
+    DropPolicy getDropPolicy() {
+        return myDropPolicy;
+    }
+
+    private void drop(F frame) {
+        myDroppedCount.incrementAndGet();
+        myRecycler.recycle(frame);
+    }
+}
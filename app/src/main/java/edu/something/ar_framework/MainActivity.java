@@ -78,10 +78,12 @@ public class MainActivity extends AppCompatActivity {
         final ASUForia.PoseListener myPoseListener = new ASUForia.PoseListener() {
 
             //TODO: Define PoseListener callback function, onPose() which will use OpenCV to draw cube on image
-            public void onPose(Image cameraFrame, float[] rvec, float[] tvec) {
+            public void onPose(Image cameraFrame, PoseResult pose) {
 
-                //TODO: Paint cameraSurface with a cube as an overlay on the marker in the image using OpenCV.
+                // The cube itself is drawn by ASUForia into the PoseOverlay above the preview, see setPoseOverlay()
 
+                // Give the Image back to the camera and the result back to ASUForia's pool
+                pose.release();
             }
 
         };
@@ -97,6 +99,7 @@ public class MainActivity extends AppCompatActivity {
 
         //TODO: Create an ASUForia object
        asuforia = new ASUForia(myPoseListener, bmpIn, cameraSurface, this);
+       asuforia.setPoseOverlay((PoseOverlay) findViewById(R.id.poseOverlay));
        /*
        This function is going to pass bitmap to ASUForia, then ASUForia is linked to native-lib through line at bottom
        "public native String nativeFeatureDetection();". Then, once in C++, Bitmap can be converted to Mat. OpenCV will
@@ -134,6 +137,16 @@ public class MainActivity extends AppCompatActivity {
 
     }
 
+
+    // Define what happens when the Activity is destroyed for good (or recreated, e.g. on rotation)
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        // Free the native reference target model held by ASUForia
+        asuforia.release();
+    }
+
     /********************************* End of Activity Lifecycle *******************************************/
 
 }
\ No newline at end of file
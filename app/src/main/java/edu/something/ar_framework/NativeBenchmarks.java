@@ -0,0 +1,59 @@
+package edu.something.ar_framework;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Entry points into native-lib that time parts of the native pose path on synthetic data. They are only meant to be
+ * called from the instrumented benchmarks in androidTest, never from the app itself.
+ */
+final class NativeBenchmarks {
+
+    static {
+        System.loadLibrary("native-lib");
+    }
+
+    private NativeBenchmarks() {
+    }
+
+    /**
+     * Average time in milliseconds for one frame's knnMatch against a TargetRegistry of targetCount synthetic targets,
+     * using either the LSH index or brute force. Returns -1 if the registry no longer recognizes the right target.
+     */
+    static native double nativeRegistryMatchMillis(int targetCount, int descriptorsPerTarget, int queryDescriptors,
+                                                   int iterations, boolean useLsh);
+
+    /**
+     * Average time in milliseconds for ORB keypoints and descriptors of one width x height frame with texture bunched
+     * up in one corner, picked on a gridColumns x gridRows KeypointGrid, or with plain ORB when gridColumns is 0.
+     * Returns -1 if more than features keypoints came out.
+     */
+    static native double nativeKeypointMillis(int width, int height, int features, int gridColumns, int gridRows,
+                                              int iterations);
+
+    /**
+     * Detect keypoints once on the same frame as nativeKeypointMillis() and count how many fall in each cell of a
+     * coverage grid cellColumns wide and cells.length / cellColumns high, row by row into cells. Returns the number of
+     * keypoints.
+     */
+    static native int nativeKeypointCells(int width, int height, int features, int gridColumns, int gridRows,
+                                          int[] cells, int cellColumns);
+
+    // Native method that does nothing, for the bare cost of a call into native code
+    static native void nativeEmptyCall();
+
+    // Address of the first float of a direct buffer, for nativeWriteResultBlock()
+    static native long nativeWrapResultBlock(ByteBuffer block);
+
+    // Native methods that hand count floats of a made-up pose result to Java, element i being i * 0.5: through a
+    // direct buffer wrapped once like the frame block, by copying into a float[], in a new float[], one call per
+    // float, or as a String of space separated numbers. JniCrossingBenchmark compares them.
+    static native void nativeWriteResultBlock(long block, int count);
+
+    static native void nativeWriteResultArray(float[] result);
+
+    static native float[] nativeNewResultArray(int count);
+
+    static native float nativeResultField(int index);
+
+    static native String nativeResultString(int count);
+}
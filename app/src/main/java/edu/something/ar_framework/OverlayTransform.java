@@ -0,0 +1,71 @@
+package edu.something.ar_framework;
+
+/**
+ * Maps points from camera frame pixels to the pixels of a view that shows the frame the way ASUForia's TextureView
+ * preview does: turned clockwise by the sensor orientation, which the camera's buffer transform does for the preview,
+ * turned back by the display rotation, which ASUForia's TextureView transform does, and then stretched to fill the
+ * view.
+ */
+final class OverlayTransform {
+
+    private OverlayTransform() {
+    }
+
+    /**
+     * Clockwise rotation from the frame to the screen, for a camera whose sensor is turned sensorOrientation degrees
+     * from the device's natural orientation, on a display turned displayRotation degrees from it, both 0, 90, 180 or
+     * 270. The display turns counterclockwise to keep the UI upright as the device turns, so the frame has to turn
+     * back by as much.
+     */
+    static int frameToScreenRotation(int sensorOrientation, int displayRotation) {
+        checkRotation(sensorOrientation);
+        checkRotation(displayRotation);
+        return (sensorOrientation - displayRotation + 360) % 360;
+    }
+
+    private static void checkRotation(int rotation) {
+        if (rotation != 0 && rotation != 90 && rotation != 180 && rotation != 270) {
+            throw new IllegalArgumentException("Rotation must be 0, 90, 180 or 270, was " + rotation);
+        }
+    }
+
+    /**
+     * Map count interleaved x, y points in place.
+     *
+     * @param rotation clockwise rotation from the frame to the screen in degrees, 0, 90, 180 or 270
+     */
+    static void frameToView(float[] points, int count, int frameWidth, int frameHeight, int rotation, int viewWidth,
+                            int viewHeight) {
+        boolean swap = rotation == 90 || rotation == 270;
+        float scaleX = (float) viewWidth / (swap ? frameHeight : frameWidth);
+        float scaleY = (float) viewHeight / (swap ? frameWidth : frameHeight);
+        for (int i = 0; i < count; i++) {
+            float x = points[2 * i];
+            float y = points[2 * i + 1];
+            float rotatedX;
+            float rotatedY;
+            switch (rotation) {
+                case 90:
+                    rotatedX = frameHeight - y;
+                    rotatedY = x;
+                    break;
+                case 180:
+                    rotatedX = frameWidth - x;
+                    rotatedY = frameHeight - y;
+                    break;
+                case 270:
+                    rotatedX = y;
+                    rotatedY = frameWidth - x;
+                    break;
+                case 0:
+                    rotatedX = x;
+                    rotatedY = y;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Rotation must be 0, 90, 180 or 270, was " + rotation);
+            }
+            points[2 * i] = rotatedX * scaleX;
+            points[2 * i + 1] = rotatedY * scaleY;
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package edu.something.ar_framework;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * The native pose estimation core: a TargetRegistry with the ORB descriptors of every reference target, and the
+ * detect-then-track state kept between frames. It has no Android dependencies, so besides backing ASUForia it can run
+ * headless on a desktop JVM (see PoseReplay), as long as native-lib was built for the host.
+ *
+ * A frame goes through two steps, extract() and then solve(), which may run on different threads as long as each
+ * step is only ever called from one thread at a time and frames are solved in the order they were extracted. The
+ * native per-frame state lives in frame features created with createFrameFeatures(), one per frame that can be
+ * between the two steps at once.
+ */
+final class PoseEngine {
+
+    static {
+        System.loadLibrary("native-lib");
+    }
+
+    // Layout of the pose result floats solve() writes into the frame block. Shared with native-lib.cpp, keep them in
+    // sync.
+    static final int RESULT_RVEC = 0;
+    static final int RESULT_TVEC = 3;
+    static final int RESULT_INLIERS = 6;
+    static final int RESULT_REPROJECTION_ERROR = 7;
+    static final int RESULT_DETECT_MILLIS = 8;
+    static final int RESULT_TRACK_MILLIS = 9;
+    static final int RESULT_TARGET = 10;
+    static final int RESULT_MODE = 11;
+    static final int RESULT_COVARIANCE = 12;
+    static final int RESULT_SIZE = 33;
+
+    // Upper triangle of the 6x6 covariance of (rvec, tvec) at RESULT_COVARIANCE, row by row, see PoseResult in
+    // pose_tracker.h
+    static final int COVARIANCE_SIZE = 21;
+
+    // Layout of a frame block in bytes: the PoseMetrics.FRAME_ longs native code writes while it works on the frame,
+    // followed by the RESULT_ floats it writes once the frame is solved
+    static final int FRAME_BLOCK_RESULT_OFFSET = PoseMetrics.FRAME_SIZE * 8;
+    static final int FRAME_BLOCK_SIZE = FRAME_BLOCK_RESULT_OFFSET + RESULT_SIZE * 4;
+
+    // Keypoint grid native-lib starts with, see setKeypointGrid()
+    static final int DEFAULT_GRID_COLUMNS = 6;
+    static final int DEFAULT_GRID_ROWS = 4;
+
+    // Buffers backing the registry, normally mapped model files. Must stay reachable while the registry is in use.
+    private ByteBuffer[] myTargetModelBuffers;
+
+    // Native TargetRegistry and PoseTracker, 0 once released
+    private long myTargetRegistryHandle;
+    private long myTrackerHandle;
+
+    // Detect-then-track settings, applied by the solving thread whenever myTrackerParamsChanged is set
+    private volatile boolean myTrackingEnabled = true;
+    private volatile int myMinTrackedInliers = 15;
+    private volatile float myMaxReprojectionError = 3.0f;
+    private volatile boolean myRoiSearchEnabled = true;
+    private volatile int myRoiMaxMisses = 3;
+    private volatile boolean myTrackerParamsChanged = true;
+
+    // ORB settings for detection frames, adapted to the frame time by the solving thread
+    private final FeatureBudget myFeatureBudget = new FeatureBudget(FeatureBudget.DEFAULT_TARGET_FRAME_NANOS);
+
+    /**
+     * Create an engine that recognizes the given serialized target models (see target_model.h), for example files
+     * written by TargetModelCache. The models are used in place, so the engine keeps the buffers until release().
+     * Throws IllegalArgumentException if any of them is not a valid model.
+     */
+    PoseEngine(ByteBuffer[] targetModels) {
+        if (targetModels == null || targetModels.length == 0) {
+            throw new IllegalArgumentException("At least one target model is needed");
+        }
+
+        long[] modelHandles = new long[targetModels.length];
+        try {
+            for (int i = 0; i < targetModels.length; i++) {
+                modelHandles[i] = nativeLoadTargetModel(targetModels[i]);
+                if (modelHandles[i] == 0) {
+                    throw new IllegalArgumentException("Target model " + i + " is not valid");
+                }
+            }
+            myTargetRegistryHandle = nativeCreateTargetRegistry(modelHandles);
+            myTargetModelBuffers = targetModels.clone();
+        } finally {
+            // The registry has its own copy of every model, only the buffers behind them have to stay
+            for (long handle : modelHandles) {
+                if (handle != 0) {
+                    nativeReleaseTargetModel(handle);
+                }
+            }
+        }
+        myTrackerHandle = nativeCreateTracker();
+        applyFeatureBudget();
+    }
+
+    // Whether model holds a serialized target model this version of native-lib can load
+    static boolean isValidTargetModel(ByteBuffer model) {
+        long handle = nativeLoadTargetModel(model);
+        if (handle == 0) {
+            return false;
+        }
+        nativeReleaseTargetModel(handle);
+        return true;
+    }
+
+    /**
+     * Build the serialized target model of a grayscale reference image, the same model ASUForia builds from a Bitmap.
+     * gray is a direct buffer holding height rows of rowStride bytes each.
+     */
+    static byte[] buildTargetModel(ByteBuffer gray, int width, int height, int rowStride) {
+        return nativeBuildTargetModel(gray, width, height, rowStride);
+    }
+
+    /**
+     * Configure detect-then-track, see ASUForia.setTracking(). Can be called from any thread, the settings are picked
+     * up by the next solve().
+     */
+    void setTracking(boolean enabled, int minTrackedInliers, float maxReprojectionError) {
+        myTrackingEnabled = enabled;
+        myMinTrackedInliers = minTrackedInliers;
+        myMaxReprojectionError = maxReprojectionError;
+        myTrackerParamsChanged = true;
+    }
+
+    /**
+     * Configure detection in the region the last pose predicts, see ASUForia.setRoiSearch(). Can be called from any
+     * thread, the settings are picked up by the next solve().
+     */
+    void setRoiSearch(boolean enabled, int maxMisses) {
+        myRoiSearchEnabled = enabled;
+        myRoiMaxMisses = maxMisses;
+        myTrackerParamsChanged = true;
+    }
+
+    /**
+     * Set the processing time per detection frame the feature budget should hold, see FeatureBudget. 0 turns adaptation
+     * off and goes back to the default ORB settings. Can be called from any thread.
+     */
+    void setTargetFrameTime(long nanos) {
+        myFeatureBudget.setTargetFrameNanos(nanos);
+    }
+
+    /**
+     * Pick detection keypoints per cell of a columns x rows grid, or over the whole frame like plain ORB when columns
+     * is 0. Can be called from any thread until release(), the grid is picked up the next time ORB runs.
+     */
+    void setKeypointGrid(int columns, int rows) {
+        nativeSetKeypointGrid(myTrackerHandle, columns, rows);
+    }
+
+    // Current ORB settings. Only changes on the solving thread.
+    FeatureBudget getFeatureBudget() {
+        return myFeatureBudget;
+    }
+
+    /**
+     * Tell the feature budget what a frame that ran ORB cost to extract and solve. Must be called from the solving
+     * thread. Returns true if the ORB settings changed, starting with the next frame either thread works on.
+     */
+    boolean recordDetectionFrame(long frameNanos) {
+        if (!myFeatureBudget.update(frameNanos)) {
+            return false;
+        }
+        applyFeatureBudget();
+        return true;
+    }
+
+    private void applyFeatureBudget() {
+        nativeSetFeatureBudget(myTrackerHandle, myFeatureBudget.getFeatures(), myFeatureBudget.getPyramidLevels(),
+                myFeatureBudget.getDownscale());
+    }
+
+    /**
+     * Create the native state for one frame between extract() and solve(). frameBlock is where native code writes the
+     * frame's timings and pose, a direct buffer of FRAME_BLOCK_SIZE bytes in native byte order from
+     * allocateFrameBlock(), which must stay reachable until releaseFrameFeatures().
+     */
+    long createFrameFeatures(ByteBuffer frameBlock) {
+        return nativeCreateFrameFeatures(frameBlock);
+    }
+
+    // A direct, suitably aligned buffer for createFrameFeatures()
+    static ByteBuffer allocateFrameBlock() {
+        return ByteBuffer.allocateDirect(FRAME_BLOCK_SIZE).order(ByteOrder.nativeOrder());
+    }
+
+    // The RESULT_ floats of a frame block, as a view that reads them in place
+    static FloatBuffer resultView(ByteBuffer frameBlock) {
+        ByteBuffer result = frameBlock.duplicate();
+        result.position(FRAME_BLOCK_RESULT_OFFSET);
+        return result.slice().order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    void releaseFrameFeatures(long frameFeatures) {
+        nativeReleaseFrameFeatures(frameFeatures);
+    }
+
+    /**
+     * Build the optical flow pyramid and ORB features of frame that solve() is expected to need. The luma buffer is
+     * used in place, so frame must not be closed until solve() has returned for these features.
+     */
+    void extract(long frameFeatures, CameraFrame frame) {
+        nativeExtractFeatures(myTrackerHandle, frameFeatures, frame.getLumaBuffer(), frame.getWidth(),
+                frame.getHeight(), frame.getLumaRowStride(), frame.getLumaPixelStride());
+    }
+
+    /**
+     * Recognize a target in the extracted features and estimate its pose. Returns one of the TrackingStats.MODE_
+     * constants, and writes the pose and what it cost into the frame block the features were created with.
+     */
+    int solve(long frameFeatures) {
+        if (myTrackerParamsChanged) {
+            myTrackerParamsChanged = false;
+            nativeSetTrackerParams(myTrackerHandle, myTrackingEnabled, myMinTrackedInliers, myMaxReprojectionError,
+                    myRoiSearchEnabled, myRoiMaxMisses);
+        }
+        return nativePoseEstimation(myTrackerHandle, myTargetRegistryHandle, frameFeatures);
+    }
+
+    // Free the native registry and tracker. Frame features must be released separately.
+    void release() {
+        if (myTrackerHandle != 0) {
+            nativeReleaseTracker(myTrackerHandle);
+            myTrackerHandle = 0;
+        }
+        if (myTargetRegistryHandle != 0) {
+            nativeReleaseTargetRegistry(myTargetRegistryHandle);
+            myTargetRegistryHandle = 0;
+        }
+        myTargetModelBuffers = null;
+    }
+
+
+    /**
+     * Native method for the extraction stage. Prepares the frame features (from nativeCreateFrameFeatures()) that
+     * nativePoseEstimation() needs, using the detect-then-track state from nativeCreateTracker(). Takes a luma plane,
+     * which must be a direct ByteBuffer such as the one returned by Image.Plane.getBuffer(). rowStride may be larger
+     * than width when the camera pads its rows.
+     */
+    private static native void nativeExtractFeatures(long tracker, long frameFeatures, ByteBuffer yPlane, int width,
+                                                     int height, int rowStride, int pixelStride);
+
+    // Native method for pose estimation in OpenCV. Recognizes a target from nativeCreateTargetRegistry() in features
+    // prepared by nativeExtractFeatures(), and writes everything about the frame into its frame block in one call.
+    private static native int nativePoseEstimation(long tracker, long targetRegistry, long frameFeatures);
+
+    // Native methods that create and free the per-frame features of one pipeline slot
+    private static native long nativeCreateFrameFeatures(ByteBuffer frameBlock);
+
+    private static native void nativeReleaseFrameFeatures(long frameFeatures);
+
+    // Native methods that create, configure and free the detect-then-track state kept between frames
+    private static native long nativeCreateTracker();
+
+    private static native void nativeSetTrackerParams(long tracker, boolean trackingEnabled, int minTrackedInliers,
+                                                      float maxReprojectionError, boolean roiSearchEnabled,
+                                                      int roiMaxMisses);
+
+    private static native void nativeReleaseTracker(long tracker);
+
+    // Native method that changes the ORB settings of both threads. Safe to call while a frame is being extracted.
+    private static native void nativeSetFeatureBudget(long tracker, int features, int pyramidLevels, float downscale);
+
+    // Native method that switches between grid-bucketed and plain ORB keypoints. Safe to call from any thread.
+    private static native void nativeSetKeypointGrid(long tracker, int columns, int rows);
+
+    // Native method that runs ORB on a grayscale reference image. Returns the serialized target model.
+    private static native byte[] nativeBuildTargetModel(ByteBuffer grayImage, int width, int height, int rowStride);
+
+    // Native method that wraps a serialized target model in place. Returns 0 if the buffer isn't a valid model.
+    private static native long nativeLoadTargetModel(ByteBuffer model);
+
+    // Native method that frees a model returned by nativeLoadTargetModel()
+    private static native void nativeReleaseTargetModel(long targetModel);
+
+    // Native method that indexes the descriptors of several target models for recognition. Returns a registry handle.
+    private static native long nativeCreateTargetRegistry(long[] targetModels);
+
+    // Native method that frees a registry returned by nativeCreateTargetRegistry()
+    private static native void nativeReleaseTargetRegistry(long targetRegistry);
+}
@@ -0,0 +1,258 @@
+package edu.something.ar_framework;
+
+/**
+ * One-Euro filter for the poses of one target, with constant-velocity extrapolation. Raw poses from PnP jitter from
+ * frame to frame, and by the time one reaches the screen it shows where the target was when the frame was exposed, a
+ * full pipeline latency ago. update() smooths each new pose with a low-pass whose cutoff rises with the speed of the
+ * motion, so a still target stops shaking while a moving one lags less. predict() then moves the filtered pose
+ * forward by the filtered velocity to whatever time it is going to be shown at, plus the time the low-pass itself lags
+ * behind a steady motion, so neither the pipeline nor the filter shows up as lag on the screen.
+ *
+ * Rotation is filtered on the unit quaternion, not component-wise on rvec: each update moves the filtered orientation
+ * part of the way along the shortest rotation towards the measured one, so it stays a rotation and behaves the same
+ * everywhere, including around a half turn where rvec flips. Angular velocity is about the target's own axes, i.e. the
+ * orientation t seconds later is q * exp(t * w), and linear velocity is the rate of change of tvec, in target units
+ * (see target_model.h) per second.
+ *
+ * A pose for another target, or one more than RESET_GAP_NANOS after the last, starts the filter over rather than
+ * smoothing across the change. Nothing allocates after construction. update(), predict() and the getters must be called
+ * from the same thread, setParameters() can be called from any thread.
+ */
+final class PoseFilter {
+
+    static final float DEFAULT_MIN_CUTOFF_HZ = 1.0f;
+    static final float DEFAULT_BETA = 0.5f;
+
+    // Cutoff of the low-pass on the speed that drives the adaptive cutoff
+    static final double DERIVATIVE_CUTOFF_HZ = 1.0;
+    // Cutoff of the low-pass on the velocity predict() extrapolates with, lower because noise in it is multiplied by
+    // the whole prediction time
+    static final double VELOCITY_CUTOFF_HZ = 0.5;
+    // A pose this much newer than the last one starts the filter over
+    static final long RESET_GAP_NANOS = 250000000L;
+    // predict() never extrapolates further than this past the last pose, so a stalled pipeline doesn't fling the
+    // target off the screen
+    static final long MAX_PREDICTION_NANOS = 100000000L;
+
+    // Cutoff in Hz when still, and how much it rises per unit of speed (rad/s for rotation, target units/s for
+    // position)
+    private volatile double myMinCutoffHz;
+    private volatile double myBeta;
+
+    private boolean myHasPose;
+    private int myTarget = -1;
+    private long myTimestampNanos;
+    // Filtered orientation as a unit quaternion (w, x, y, z), and filtered tvec
+    private final double[] myRotation = new double[4];
+    private final double[] myTranslation = new double[3];
+    // Low-passed rate of change of the raw poses relative to the filtered ones, which sets the cutoff
+    private final double[] myRotationSpeed = new double[3];
+    private final double[] myTranslationSpeed = new double[3];
+    // Low-passed rate of change of the filtered pose, and how far in seconds the filtered pose trails a steady motion
+    private final double[] myAngularVelocity = new double[3];
+    private final double[] myLinearVelocity = new double[3];
+    private double myRotationLag;
+    private double myTranslationLag;
+
+    // Scratch space, so nothing allocates per frame
+    private final double[] myMeasured = new double[4];
+    private final double[] myDelta = new double[4];
+    private final double[] myProduct = new double[4];
+    private final double[] myStep = new double[3];
+
+    PoseFilter(double minCutoffHz, double beta) {
+        setParameters(minCutoffHz, beta);
+    }
+
+    void setParameters(double minCutoffHz, double beta) {
+        if (minCutoffHz <= 0 || beta < 0) {
+            throw new IllegalArgumentException("Cutoff must be positive and beta not negative, were " + minCutoffHz
+                    + " and " + beta);
+        }
+        myMinCutoffHz = minCutoffHz;
+        myBeta = beta;
+    }
+
+    // Forget the pose, the next update() starts over
+    void reset() {
+        myHasPose = false;
+        myTarget = -1;
+    }
+
+    /**
+     * Filter the pose of target measured on a frame exposed at timestampNanos. Poses must come in timestamp order, one
+     * that isn't newer than the last starts the filter over.
+     */
+    void update(int target, long timestampNanos, float[] rvec, float[] tvec) {
+        quaternion(rvec, myMeasured);
+        long elapsed = timestampNanos - myTimestampNanos;
+        myTimestampNanos = timestampNanos;
+        if (!myHasPose || target != myTarget || elapsed <= 0 || elapsed > RESET_GAP_NANOS) {
+            myHasPose = true;
+            myTarget = target;
+            System.arraycopy(myMeasured, 0, myRotation, 0, 4);
+            for (int i = 0; i < 3; i++) {
+                myTranslation[i] = tvec[i];
+                myRotationSpeed[i] = 0;
+                myTranslationSpeed[i] = 0;
+                myAngularVelocity[i] = 0;
+                myLinearVelocity[i] = 0;
+            }
+            myRotationLag = 0;
+            myTranslationLag = 0;
+            return;
+        }
+        double dt = elapsed / 1e9;
+        double minCutoff = myMinCutoffHz;
+        double beta = myBeta;
+        double velocityAlpha = alpha(VELOCITY_CUTOFF_HZ, dt);
+
+        // Rotation: move part of the way from the filtered orientation to the measured one, the short way round
+        conjugateMultiply(myRotation, myMeasured, myDelta);
+        log(myDelta, myStep);
+        double alpha = adaptiveAlpha(myRotationSpeed, myStep, dt, minCutoff, beta);
+        for (int i = 0; i < 3; i++) {
+            myStep[i] *= alpha;
+        }
+        exp(myStep, myDelta);
+        multiply(myRotation, myDelta, myProduct);
+        normalize(myProduct, myRotation);
+        // myStep is now the step the filtered orientation took
+        for (int i = 0; i < 3; i++) {
+            myAngularVelocity[i] += velocityAlpha * (myStep[i] / dt - myAngularVelocity[i]);
+        }
+        myRotationLag = lag(alpha, dt);
+
+        // Position, the same way
+        for (int i = 0; i < 3; i++) {
+            myStep[i] = tvec[i] - myTranslation[i];
+        }
+        alpha = adaptiveAlpha(myTranslationSpeed, myStep, dt, minCutoff, beta);
+        for (int i = 0; i < 3; i++) {
+            myTranslation[i] += alpha * myStep[i];
+            myLinearVelocity[i] += velocityAlpha * (alpha * myStep[i] / dt - myLinearVelocity[i]);
+        }
+        myTranslationLag = lag(alpha, dt);
+    }
+
+    /**
+     * The pose at timeNanos (on the clock of the update() timestamps): the filtered pose moved on at the filtered
+     * velocity, for the time since the last update plus the time the filter trails the motion by. Written into rvec
+     * and tvec. Returns false, leaving them alone, when there is no pose yet.
+     */
+    boolean predict(long timeNanos, float[] rvec, float[] tvec) {
+        if (!myHasPose) {
+            return false;
+        }
+        double dt = Math.max(0, Math.min(MAX_PREDICTION_NANOS, timeNanos - myTimestampNanos)) / 1e9;
+        for (int i = 0; i < 3; i++) {
+            myStep[i] = myAngularVelocity[i] * (dt + myRotationLag);
+            tvec[i] = (float) (myTranslation[i] + myLinearVelocity[i] * (dt + myTranslationLag));
+        }
+        exp(myStep, myDelta);
+        multiply(myRotation, myDelta, myProduct);
+        log(myProduct, myStep);
+        for (int i = 0; i < 3; i++) {
+            rvec[i] = (float) myStep[i];
+        }
+        return true;
+    }
+
+    // The target the filtered pose belongs to, -1 when there is none
+    int getTarget() {
+        return myHasPose ? myTarget : -1;
+    }
+
+    // Filtered angular velocity in rad/s about the target's axes, into velocity
+    void getAngularVelocity(float[] velocity) {
+        for (int i = 0; i < 3; i++) {
+            velocity[i] = (float) myAngularVelocity[i];
+        }
+    }
+
+    // Filtered rate of change of tvec in target units per second, into velocity
+    void getLinearVelocity(float[] velocity) {
+        for (int i = 0; i < 3; i++) {
+            velocity[i] = (float) myLinearVelocity[i];
+        }
+    }
+
+    /**
+     * The One-Euro core for one 3-vector quantity: low-pass the rate of the step from the filtered value to the raw one
+     * into speed, and return the fraction of step the value should move, from a cutoff that grows with that speed.
+     */
+    private static double adaptiveAlpha(double[] speed, double[] step, double dt, double minCutoff, double beta) {
+        double derivativeAlpha = alpha(DERIVATIVE_CUTOFF_HZ, dt);
+        double squared = 0;
+        for (int i = 0; i < 3; i++) {
+            speed[i] += derivativeAlpha * (step[i] / dt - speed[i]);
+            squared += speed[i] * speed[i];
+        }
+        return alpha(minCutoff + beta * Math.sqrt(squared), dt);
+    }
+
+    // Seconds a low-pass with this alpha, for samples dt seconds apart, trails a value changing at a steady rate
+    private static double lag(double alpha, double dt) {
+        return (1 - alpha) / alpha * dt;
+    }
+
+    // Smoothing factor of a first-order low-pass with the given cutoff, for samples dt seconds apart
+    private static double alpha(double cutoffHz, double dt) {
+        double tau = 1 / (2 * Math.PI * cutoffHz);
+        return 1 / (1 + tau / dt);
+    }
+
+    // Unit quaternion of a Rodrigues rotation vector, whose length is the angle around its direction
+    private static void quaternion(float[] rvec, double[] q) {
+        double angle = Math.sqrt(rvec[0] * rvec[0] + rvec[1] * rvec[1] + rvec[2] * rvec[2]);
+        double s = angle < 1e-12 ? 0.5 : Math.sin(angle / 2) / angle;
+        q[0] = Math.cos(angle / 2);
+        q[1] = rvec[0] * s;
+        q[2] = rvec[1] * s;
+        q[3] = rvec[2] * s;
+    }
+
+    // Rotation vector of a unit quaternion, the shorter of the two rotations it stands for
+    private static void log(double[] q, double[] v) {
+        double sign = q[0] < 0 ? -1 : 1;
+        double sine = Math.sqrt(q[1] * q[1] + q[2] * q[2] + q[3] * q[3]);
+        double scale = sine < 1e-12 ? 2 * sign : 2 * Math.atan2(sine, sign * q[0]) / sine * sign;
+        v[0] = q[1] * scale;
+        v[1] = q[2] * scale;
+        v[2] = q[3] * scale;
+    }
+
+    // Unit quaternion of a rotation vector
+    private static void exp(double[] v, double[] q) {
+        double angle = Math.sqrt(v[0] * v[0] + v[1] * v[1] + v[2] * v[2]);
+        double s = angle < 1e-12 ? 0.5 : Math.sin(angle / 2) / angle;
+        q[0] = Math.cos(angle / 2);
+        q[1] = v[0] * s;
+        q[2] = v[1] * s;
+        q[3] = v[2] * s;
+    }
+
+    // out = a * b, out must be neither of them
+    private static void multiply(double[] a, double[] b, double[] out) {
+        out[0] = a[0] * b[0] - a[1] * b[1] - a[2] * b[2] - a[3] * b[3];
+        out[1] = a[0] * b[1] + a[1] * b[0] + a[2] * b[3] - a[3] * b[2];
+        out[2] = a[0] * b[2] - a[1] * b[3] + a[2] * b[0] + a[3] * b[1];
+        out[3] = a[0] * b[3] + a[1] * b[2] - a[2] * b[1] + a[3] * b[0];
+    }
+
+    // out = conj(a) * b, the rotation from a to b, out must be neither of them
+    private static void conjugateMultiply(double[] a, double[] b, double[] out) {
+        out[0] = a[0] * b[0] + a[1] * b[1] + a[2] * b[2] + a[3] * b[3];
+        out[1] = a[0] * b[1] - a[1] * b[0] - a[2] * b[3] + a[3] * b[2];
+        out[2] = a[0] * b[2] + a[1] * b[3] - a[2] * b[0] - a[3] * b[1];
+        out[3] = a[0] * b[3] - a[1] * b[2] + a[2] * b[1] - a[3] * b[0];
+    }
+
+    // Rounding drifts the product of unit quaternions off unit length over many frames
+    private static void normalize(double[] q, double[] out) {
+        double length = Math.sqrt(q[0] * q[0] + q[1] * q[1] + q[2] * q[2] + q[3] * q[3]);
+        for (int i = 0; i < 4; i++) {
+            out[i] = q[i] / length;
+        }
+    }
+}
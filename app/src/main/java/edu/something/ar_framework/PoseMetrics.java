@@ -0,0 +1,268 @@
+package edu.something.ar_framework;
+
+import java.nio.LongBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency histograms and event counters for the pose pipeline, from the moment the camera exposed a frame to the
+ * moment its pose was handed to the PoseListener, and the ORB settings the feature budget currently runs with.
+ * Everything is recorded lock-free and without allocation, and can be read from any thread at any time by filling a
+ * Snapshot.
+ *
+ * The native stages don't call back into Java to report their timings. Every pipeline slot has a small block of
+ * native-order longs in a direct ByteBuffer (FRAME_ layout below, shared with FrameMetrics in pose_tracker.h), which
+ * native code fills in while it works on the frame, and which recordNativeFrame() reads once the frame has been solved.
+ */
+public final class PoseMetrics {
+
+    // Latency histograms, see getHistogram()
+    public static final int CAMERA_TO_LISTENER = 0;  // Image.getTimestamp() to the start of PoseListener.onPose()
+    public static final int JNI_ENTRY = 1;           // from calling a native pipeline method to its first native line
+    public static final int ORB_DETECT = 2;          // ORB keypoints and descriptors, for frames that needed them
+    public static final int DESCRIPTOR_MATCH = 3;    // matching against the target registry and voting on a target
+    public static final int PNP = 4;                 // solvePnPRansac after detection, or solvePnP while tracking
+    public static final int CALLBACK_DISPATCH = 5;   // time spent inside PoseListener.onPose()
+    public static final int HISTOGRAM_COUNT = 6;
+
+    // Layout of the per-frame block written by native code, in longs. Shared with FrameMetrics in pose_tracker.h.
+    static final int FRAME_EXTRACT_ENTRY_NANOS = 0;  // monotonic clock on entering nativeExtractFeatures()
+    static final int FRAME_SOLVE_ENTRY_NANOS = 1;    // monotonic clock on entering nativePoseEstimation()
+    static final int FRAME_ORB_NANOS = 2;            // 0 when ORB didn't run
+    static final int FRAME_MATCH_NANOS = 3;          // 0 when no matching was done
+    static final int FRAME_PNP_NANOS = 4;            // 0 when no PnP was solved
+    static final int FRAME_FLAGS = 5;
+    static final int FRAME_SIZE = 6;
+
+    // Bits of FRAME_FLAGS. Shared with pose_tracker.h.
+    static final long FLAG_DETECTION_FAILED = 1;     // full detection ran and found no target
+    static final long FLAG_TRACKING_LOST = 2;        // a tracked target was lost on this frame
+    static final long FLAG_ROI_DETECTION = 4;        // ORB only ran on the region the last pose predicted
+
+    private final LatencyHistogram[] myHistograms = new LatencyHistogram[HISTOGRAM_COUNT];
+
+    private final AtomicLong myDroppedFrames = new AtomicLong();
+    private final AtomicLong myDetectionFailures = new AtomicLong();
+    private final AtomicLong myTrackingLosses = new AtomicLong();
+    private final AtomicLong myRoiDetections = new AtomicLong();
+    private final AtomicLong myHeldPoseDrops = new AtomicLong();
+
+    // ORB settings the feature budget currently runs detection with, see FeatureBudget
+    private volatile int myOrbFeatures;
+    private volatile int myOrbPyramidLevels;
+    private volatile float myOrbDownscale;
+    private volatile long myTargetFrameNanos;
+    private final AtomicLong myFeatureBudgetChanges = new AtomicLong();
+
+    PoseMetrics() {
+        for (int i = 0; i < HISTOGRAM_COUNT; i++) {
+            myHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+    // One of the histogram constants above
+    public LatencyHistogram getHistogram(int histogram) {
+        return myHistograms[histogram];
+    }
+
+    // Camera frames thrown away because the pipeline was full
+    public long getDroppedFrames() {
+        return myDroppedFrames.get();
+    }
+
+    // Frames on which full detection ran without finding a target
+    public long getDetectionFailures() {
+        return myDetectionFailures.get();
+    }
+
+    // Times a target that was being tracked was lost
+    public long getTrackingLosses() {
+        return myTrackingLosses.get();
+    }
+
+    // Frames on which ORB only searched the region around the last pose, see ASUForia.setRoiSearch()
+    public long getRoiDetections() {
+        return myRoiDetections.get();
+    }
+
+    // Poses that were never delivered because the PoseListener still held every PoseResult
+    public long getHeldPoseDrops() {
+        return myHeldPoseDrops.get();
+    }
+
+    // Maximum number of ORB keypoints per detection frame
+    public int getOrbFeatures() {
+        return myOrbFeatures;
+    }
+
+    // Number of ORB pyramid levels on detection frames
+    public int getOrbPyramidLevels() {
+        return myOrbPyramidLevels;
+    }
+
+    // Scale detection frames are shrunk to before ORB runs, 1 for full resolution
+    public float getOrbDownscale() {
+        return myOrbDownscale;
+    }
+
+    // Processing time per detection frame the ORB settings are adapted to hold, 0 when they are fixed
+    public long getTargetFrameNanos() {
+        return myTargetFrameNanos;
+    }
+
+    // Times the feature budget changed the ORB settings
+    public long getFeatureBudgetChanges() {
+        return myFeatureBudgetChanges.get();
+    }
+
+    // Copy every histogram and counter into snapshot. Does not allocate.
+    public void snapshot(Snapshot snapshot) {
+        for (int i = 0; i < HISTOGRAM_COUNT; i++) {
+            myHistograms[i].snapshot(snapshot.myHistograms[i]);
+        }
+        snapshot.myDroppedFrames = myDroppedFrames.get();
+        snapshot.myDetectionFailures = myDetectionFailures.get();
+        snapshot.myTrackingLosses = myTrackingLosses.get();
+        snapshot.myRoiDetections = myRoiDetections.get();
+        snapshot.myHeldPoseDrops = myHeldPoseDrops.get();
+        snapshot.myOrbFeatures = myOrbFeatures;
+        snapshot.myOrbPyramidLevels = myOrbPyramidLevels;
+        snapshot.myOrbDownscale = myOrbDownscale;
+        snapshot.myTargetFrameNanos = myTargetFrameNanos;
+        snapshot.myFeatureBudgetChanges = myFeatureBudgetChanges.get();
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : myHistograms) {
+            histogram.reset();
+        }
+        myDroppedFrames.set(0);
+        myDetectionFailures.set(0);
+        myTrackingLosses.set(0);
+        myRoiDetections.set(0);
+        myHeldPoseDrops.set(0);
+        myFeatureBudgetChanges.set(0);
+    }
+
+    void recordDroppedFrame() {
+        myDroppedFrames.incrementAndGet();
+    }
+
+    void recordHeldPoseDrop() {
+        myHeldPoseDrops.incrementAndGet();
+    }
+
+    /**
+     * Record what native code reported for one solved frame. extractCallNanos and solveCallNanos are System.nanoTime()
+     * right before calling nativeExtractFeatures() and nativePoseEstimation(). Both sides use the monotonic clock, so
+     * the difference to the entry times in the block is the cost of crossing into native code.
+     */
+    void recordNativeFrame(LongBuffer frame, long extractCallNanos, long solveCallNanos) {
+        myHistograms[JNI_ENTRY].record(frame.get(FRAME_EXTRACT_ENTRY_NANOS) - extractCallNanos);
+        myHistograms[JNI_ENTRY].record(frame.get(FRAME_SOLVE_ENTRY_NANOS) - solveCallNanos);
+        recordIfRan(ORB_DETECT, frame.get(FRAME_ORB_NANOS));
+        recordIfRan(DESCRIPTOR_MATCH, frame.get(FRAME_MATCH_NANOS));
+        recordIfRan(PNP, frame.get(FRAME_PNP_NANOS));
+
+        long flags = frame.get(FRAME_FLAGS);
+        if ((flags & FLAG_DETECTION_FAILED) != 0) {
+            myDetectionFailures.incrementAndGet();
+        }
+        if ((flags & FLAG_TRACKING_LOST) != 0) {
+            myTrackingLosses.incrementAndGet();
+        }
+        if ((flags & FLAG_ROI_DETECTION) != 0) {
+            myRoiDetections.incrementAndGet();
+        }
+    }
+
+    // Record the settings of budget, and whether they just changed. Called by the solving thread.
+    void recordFeatureBudget(FeatureBudget budget, boolean changed) {
+        myOrbFeatures = budget.getFeatures();
+        myOrbPyramidLevels = budget.getPyramidLevels();
+        myOrbDownscale = budget.getDownscale();
+        if (changed) {
+            myFeatureBudgetChanges.incrementAndGet();
+        }
+    }
+
+    // Record the target frame time as soon as it is set, the settings only follow once the budget changes step
+    void recordTargetFrameNanos(long nanos) {
+        myTargetFrameNanos = nanos;
+    }
+
+    void recordLatency(int histogram, long nanos) {
+        myHistograms[histogram].record(nanos);
+    }
+
+    private void recordIfRan(int histogram, long nanos) {
+        if (nanos > 0) {
+            myHistograms[histogram].record(nanos);
+        }
+    }
+
+
+    // Point-in-time copy of a PoseMetrics. Allocate one per reader and refill it with PoseMetrics.snapshot().
+    public static final class Snapshot {
+        private final LatencyHistogram.Snapshot[] myHistograms = new LatencyHistogram.Snapshot[HISTOGRAM_COUNT];
+        private long myDroppedFrames;
+        private long myDetectionFailures;
+        private long myTrackingLosses;
+        private long myRoiDetections;
+        private long myHeldPoseDrops;
+        private int myOrbFeatures;
+        private int myOrbPyramidLevels;
+        private float myOrbDownscale;
+        private long myTargetFrameNanos;
+        private long myFeatureBudgetChanges;
+
+        public Snapshot() {
+            for (int i = 0; i < HISTOGRAM_COUNT; i++) {
+                myHistograms[i] = new LatencyHistogram.Snapshot();
+            }
+        }
+
+        public LatencyHistogram.Snapshot getHistogram(int histogram) {
+            return myHistograms[histogram];
+        }
+
+        public long getDroppedFrames() {
+            return myDroppedFrames;
+        }
+
+        public long getDetectionFailures() {
+            return myDetectionFailures;
+        }
+
+        public long getTrackingLosses() {
+            return myTrackingLosses;
+        }
+
+        public long getRoiDetections() {
+            return myRoiDetections;
+        }
+
+        public long getHeldPoseDrops() {
+            return myHeldPoseDrops;
+        }
+
+        public int getOrbFeatures() {
+            return myOrbFeatures;
+        }
+
+        public int getOrbPyramidLevels() {
+            return myOrbPyramidLevels;
+        }
+
+        public float getOrbDownscale() {
+            return myOrbDownscale;
+        }
+
+        public long getTargetFrameNanos() {
+            return myTargetFrameNanos;
+        }
+
+        public long getFeatureBudgetChanges() {
+            return myFeatureBudgetChanges;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package edu.something.ar_framework;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * A transparent view to put on top of the camera preview TextureView, which ASUForia draws the cube into, see
+ * ASUForia.setPoseOverlay(). The preview keeps streaming straight from the camera at the sensor frame rate. Only this
+ * layer is redrawn, once per pose, and only with the cube's 12 edges, so no camera frame is ever copied or redrawn to
+ * show a pose.
+ *
+ * ASUForia hands in the projected cube corners from its delivery thread. They are copied under a lock and mapped to
+ * view coordinates when the view draws on the UI thread.
+ */
+public class PoseOverlay extends View {
+
+    private static final float STROKE_WIDTH = 6.0f;
+
+    private final Paint myPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+    // Written by setCube() and clearCube() on any thread, read by onDraw()
+    private final Object myLock = new Object();
+    private final float[] myPendingCorners = new float[CubeProjector.CORNERS * 2];
+    private int myFrameWidth;
+    private int myFrameHeight;
+    private int myRotation;
+    private boolean myHasCube;
+
+    // UI thread only
+    private final float[] myCorners = new float[CubeProjector.CORNERS * 2];
+    private final float[] myLines = new float[CubeProjector.EDGES.length * 2];
+
+    public PoseOverlay(Context context) {
+        super(context);
+        init();
+    }
+
+    public PoseOverlay(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init();
+    }
+
+    private void init() {
+        myPaint.setColor(Color.GREEN);
+        myPaint.setStyle(Paint.Style.STROKE);
+        myPaint.setStrokeWidth(STROKE_WIDTH);
+    }
+
+    /**
+     * Show the cube with the given corners (CubeProjector.CORNERS interleaved x, y pairs in the pixels of a frameWidth
+     * x frameHeight camera frame) the next time the view draws. rotation is how far the preview turns the frame
+     * clockwise, in degrees. Can be called from any thread.
+     */
+    void setCube(float[] corners, int frameWidth, int frameHeight, int rotation) {
+        synchronized (myLock) {
+            System.arraycopy(corners, 0, myPendingCorners, 0, myPendingCorners.length);
+            myFrameWidth = frameWidth;
+            myFrameHeight = frameHeight;
+            myRotation = rotation;
+            myHasCube = true;
+        }
+        postInvalidateOnAnimation();
+    }
+
+    // Stop showing the cube, e.g. when the target is lost. Can be called from any thread.
+    void clearCube() {
+        synchronized (myLock) {
+            if (!myHasCube) {
+                return;
+            }
+            myHasCube = false;
+        }
+        postInvalidateOnAnimation();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        int frameWidth;
+        int frameHeight;
+        int rotation;
+        synchronized (myLock) {
+            if (!myHasCube) {
+                return;
+            }
+            System.arraycopy(myPendingCorners, 0, myCorners, 0, myCorners.length);
+            frameWidth = myFrameWidth;
+            frameHeight = myFrameHeight;
+            rotation = myRotation;
+        }
+
+        OverlayTransform.frameToView(myCorners, CubeProjector.CORNERS, frameWidth, frameHeight, rotation, getWidth(),
+                getHeight());
+        for (int i = 0; i < CubeProjector.EDGES.length; i++) {
+            int corner = CubeProjector.EDGES[i];
+            myLines[2 * i] = myCorners[2 * corner];
+            myLines[2 * i + 1] = myCorners[2 * corner + 1];
+        }
+        canvas.drawLines(myLines, myPaint);
+    }
+}
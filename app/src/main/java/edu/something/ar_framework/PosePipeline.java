@@ -0,0 +1,229 @@
+package edu.something.ar_framework;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+
+import org.opencv.android.FrameStats;
+
+/**
+ * Pose estimation as a pipeline of three stages, each on its own worker: extraction builds the optical flow pyramid
+ * and ORB features of a frame, solving matches them against the targets and runs PnP (or tracks the previous pose),
+ * and delivery hands the result to a PoseSink. While frame N is being solved, frame N+1 can already be extracted and
+ * frame N-1 delivered. Frames move through the stages in PoseFrame slots, which carry the CameraFrame and the native
+ * features and result for it, and are closed in the order they arrived.
+ *
+ * The pipeline doesn't care where frames come from, so ASUForia runs it on camera2 Images and PoseReplay runs it on
+ * recorded frames, with the same PoseEngine doing the work.
+ */
+final class PosePipeline<F extends CameraFrame> {
+
+    // Stages, in order. See getStageMetrics().
+    static final int STAGE_EXTRACT = 0;
+    static final int STAGE_SOLVE = 1;
+    static final int STAGE_DELIVER = 2;
+
+    // One frame per stage, so every stage can be busy at once
+    static final int DEFAULT_DEPTH = 3;
+
+    /**
+     * Receives every frame once it has been solved, on the delivery worker, in the order frames entered the pipeline.
+     * mode is one of the TrackingStats.MODE_ constants and result holds the RESULT_ floats described in PoseEngine,
+     * read in place from the memory native code wrote them to. result may not be used after onPose() returns. Neither
+     * may the frame, unless onPose() returns true: then the sink has taken the frame over, and closes it itself
+     * whenever it is done with it, while the pipeline slot moves on to the next frame.
+     */
+    interface PoseSink<F extends CameraFrame> {
+        boolean onPose(F frame, int mode, FloatBuffer result);
+
+        /**
+         * Called right after onPose() returned true, once the pipeline has let go of frame. Work that may throw, such
+         * as calling application code, belongs here: the frame is the sink's already, so an exception can't make the
+         * pipeline close it a second time.
+         */
+        void onFrameTaken(F frame);
+    }
+
+    private final PoseEngine myEngine;
+    private final FrameSource<F> mySource;
+    private final PoseSink<F> mySink;
+    private final PoseMetrics myPoseMetrics;
+    private final TrackingStats myTrackingStats;
+    private final FrameStats myFrameStats;
+
+    private final FramePipeline<PoseFrame<F>> myPipeline;
+    private final PoseFrame<F>[] myPoseFrames;
+    private final ArrayBlockingQueue<PoseFrame<F>> myFreePoseFrames;
+
+    /**
+     * Set up depth PoseFrame slots and the stages on the given workers, which must each run one task at a time in
+     * order. Nothing runs until start(). Native timings go to poseMetrics and trackingStats, and every frame leaving
+     * the pipeline is counted in frameStats.
+     */
+    @SuppressWarnings("unchecked")
+    PosePipeline(PoseEngine engine, FrameSource<F> source, int depth, Executor extractWorker, Executor solveWorker,
+                 Executor deliverWorker, PoseSink<F> sink, PoseMetrics poseMetrics, TrackingStats trackingStats,
+                 FrameStats frameStats) {
+        myEngine = engine;
+        mySource = source;
+        mySink = sink;
+        myPoseMetrics = poseMetrics;
+        myTrackingStats = trackingStats;
+        myFrameStats = frameStats;
+
+        myPoseFrames = (PoseFrame<F>[]) new PoseFrame<?>[depth];
+        myFreePoseFrames = new ArrayBlockingQueue<PoseFrame<F>>(depth);
+        for (int i = 0; i < depth; i++) {
+            myPoseFrames[i] = new PoseFrame<F>();
+            myPoseFrames[i].features = engine.createFrameFeatures(myPoseFrames[i].block);
+            myFreePoseFrames.offer(myPoseFrames[i]);
+        }
+
+        myPoseMetrics.recordFeatureBudget(engine.getFeatureBudget(), false);
+        myPoseMetrics.recordTargetFrameNanos(engine.getFeatureBudget().getTargetFrameNanos());
+
+        myPipeline = new FramePipeline<PoseFrame<F>>(myPoseFrameSource, myPoseFrameRecycler, depth);
+        myPipeline.addStage("extract", extractWorker, myExtractStage);
+        myPipeline.addStage("solve", solveWorker, mySolveStage);
+        myPipeline.addStage("deliver", deliverWorker, myDeliverStage);
+    }
+
+    // Start pulling frames from the source, now and whenever it says it has a new one
+    void start() {
+        myFrameStats.reset();
+        mySource.setListener(new FrameSource.Listener() {
+            @Override
+            public void onFrameAvailable() {
+                myPipeline.signal();
+            }
+        });
+        myPipeline.signal();
+    }
+
+    /**
+     * Close every frame still in the pipeline and free the slots. The workers must already be stopped, and the
+     * pipeline can't be started again.
+     */
+    void release() {
+        mySource.setListener(null);
+        myPipeline.clear();
+        for (PoseFrame<F> frame : myPoseFrames) {
+            myEngine.releaseFrameFeatures(frame.features);
+        }
+    }
+
+    // Number of frames between entering the pipeline and being closed right now
+    int getFramesInFlight() {
+        return myPipeline.getFramesInFlight();
+    }
+
+    // Queue depth and latency of STAGE_EXTRACT, STAGE_SOLVE or STAGE_DELIVER
+    FramePipeline.StageMetrics getStageMetrics(int stage) {
+        return myPipeline.getStageMetrics(stage);
+    }
+
+
+    private static final class PoseFrame<F> {
+        // Timings and pose native code writes for this slot's frame, see PoseEngine.FRAME_BLOCK_SIZE, and views that
+        // read them in place. Must stay reachable as long as features.
+        final ByteBuffer block;
+        final LongBuffer metrics;
+        final FloatBuffer result;
+        // Native FrameFeatures for this slot, from PoseEngine.createFrameFeatures()
+        long features;
+        F frame;
+        int mode;
+
+        // System.nanoTime() right before each native call, for the JNI entry latency
+        long extractCallNanos;
+        long solveCallNanos;
+        // How long extraction took, for the feature budget
+        long extractNanos;
+
+        PoseFrame() {
+            block = PoseEngine.allocateFrameBlock();
+            metrics = block.asLongBuffer();
+            result = PoseEngine.resultView(block);
+        }
+    }
+
+    // Admits the next frame of the source into a free PoseFrame. Runs on the extraction worker.
+    private final FramePipeline.Source<PoseFrame<F>> myPoseFrameSource = new FramePipeline.Source<PoseFrame<F>>() {
+        @Override
+        public PoseFrame<F> next() {
+            // The pipeline never asks for more frames than there are slots, so a free one is always there
+            PoseFrame<F> poseFrame = myFreePoseFrames.peek();
+            F frame = poseFrame == null ? null : mySource.acquireFrame();
+            if (frame == null) {
+                return null;
+            }
+            poseFrame = myFreePoseFrames.poll();
+            poseFrame.frame = frame;
+            return poseFrame;
+        }
+    };
+
+    // Extraction stage: wrap the luma plane and build the features the tracker will need for this frame
+    private final FramePipeline.Stage<PoseFrame<F>> myExtractStage = new FramePipeline.Stage<PoseFrame<F>>() {
+        @Override
+        public void process(PoseFrame<F> poseFrame) {
+            // The luma buffer is passed straight through and wrapped as a cv::Mat in place. The frame stays open
+            // until it has been delivered, so the pixels remain valid for the following stages.
+            poseFrame.extractCallNanos = System.nanoTime();
+            myEngine.extract(poseFrame.features, poseFrame.frame);
+            poseFrame.extractNanos = System.nanoTime() - poseFrame.extractCallNanos;
+        }
+    };
+
+    // Solving stage: detect or track the target and estimate its pose
+    private final FramePipeline.Stage<PoseFrame<F>> mySolveStage = new FramePipeline.Stage<PoseFrame<F>>() {
+        @Override
+        public void process(PoseFrame<F> poseFrame) {
+            poseFrame.solveCallNanos = System.nanoTime();
+            poseFrame.mode = myEngine.solve(poseFrame.features);
+            myTrackingStats.record(poseFrame.mode, poseFrame.result.get(PoseEngine.RESULT_DETECT_MILLIS),
+                    poseFrame.result.get(PoseEngine.RESULT_TRACK_MILLIS));
+            myPoseMetrics.recordNativeFrame(poseFrame.metrics, poseFrame.extractCallNanos, poseFrame.solveCallNanos);
+
+            // Only frames that ran ORB on the whole frame say anything about the ORB settings. A search of the region
+            // around the last pose is much cheaper, and would talk the budget into settings the next full search
+            // can't afford.
+            boolean fullFrame = (poseFrame.metrics.get(PoseMetrics.FRAME_FLAGS) & PoseMetrics.FLAG_ROI_DETECTION) == 0;
+            if (poseFrame.metrics.get(PoseMetrics.FRAME_ORB_NANOS) > 0 && fullFrame) {
+                long frameNanos = poseFrame.extractNanos + System.nanoTime() - poseFrame.solveCallNanos;
+                if (myEngine.recordDetectionFrame(frameNanos)) {
+                    myPoseMetrics.recordFeatureBudget(myEngine.getFeatureBudget(), true);
+                }
+            }
+        }
+    };
+
+    // Delivery stage: hand the pose to the sink while the frame is still open
+    private final FramePipeline.Stage<PoseFrame<F>> myDeliverStage = new FramePipeline.Stage<PoseFrame<F>>() {
+        @Override
+        public void process(PoseFrame<F> poseFrame) {
+            myFrameStats.frame();
+            if (mySink.onPose(poseFrame.frame, poseFrame.mode, poseFrame.result)) {
+                F frame = poseFrame.frame;
+                poseFrame.frame = null;
+                mySink.onFrameTaken(frame);
+            }
+        }
+    };
+
+    // Called once a frame has left the pipeline (or been thrown out of it): close the frame so its source can reuse
+    // the memory, unless the sink took it over, and give the slot back to the free list
+    private final FrameGate.FrameRecycler<PoseFrame<F>> myPoseFrameRecycler =
+            new FrameGate.FrameRecycler<PoseFrame<F>>() {
+        @Override
+        public void recycle(PoseFrame<F> poseFrame) {
+            if (poseFrame.frame != null) {
+                poseFrame.frame.close();
+                poseFrame.frame = null;
+            }
+            myFreePoseFrames.offer(poseFrame);
+        }
+    };
+}
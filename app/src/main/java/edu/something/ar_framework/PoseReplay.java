@@ -0,0 +1,534 @@
+package edu.something.ar_framework;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.android.FrameStats;
+
+/**
+ * Runs a FrameRecording through the pose pipeline headless, on a desktop JVM, and reports throughput, latency
+ * percentiles, and pose error and jitter against the recording's ground truth. Nothing here touches Android, so pose
+ * regressions can be caught in CI with native-lib built for the host (see app/CMakeLists.txt). The replay module builds
+ * it with the rest of the pose classes for a desktop JVM and runs it:
+ *
+ *   ./gradlew :replay:replay -Preplay='[--depth N] [--no-tracking] [--no-roi] [--target-ms T] [--grid CxR] [--filter]
+ *       recording.asfr target.asut|target.pgm ...'
+ *
+ * Targets are serialized models, such as the .asut files ASUForia caches on the device, or binary (P5) PGM reference
+ * images, which are run through ORB first. The pipeline is the same PosePipeline ASUForia uses, with a plain thread
+ * per stage, and is fed frames as fast as it takes them. The ORB settings stay fixed, so runs are comparable, unless
+ * --target-ms asks the feature budget to adapt them to a target frame time like it does on the device. Detection picks
+ * its keypoints on the same grid as on the device unless --grid says otherwise, --grid 0x0 being plain ORB, so running
+ * a recording with both compares what the grid does to frame time and pose stability. --no-roi makes every detection
+ * search the whole frame instead of the region around the last pose. --filter runs the poses through the same
+ * PoseFilter as ASUForia before they are scored, and reports how well it predicts each frame's pose from the ones
+ * before.
+ */
+public final class PoseReplay {
+
+    // Give up when no frame has made it through the pipeline for this long
+    private static final long STALL_TIMEOUT_SECONDS = 30;
+
+    private PoseReplay() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Options options = new Options();
+        int arg = 0;
+        for (; arg < args.length && args[arg].startsWith("--"); arg++) {
+            if (args[arg].equals("--depth") && arg + 1 < args.length) {
+                options.depth = Integer.parseInt(args[++arg]);
+            } else if (args[arg].equals("--no-tracking")) {
+                options.tracking = false;
+            } else if (args[arg].equals("--no-roi")) {
+                options.roiSearch = false;
+            } else if (args[arg].equals("--target-ms") && arg + 1 < args.length) {
+                options.targetFrameNanos = (long) (Float.parseFloat(args[++arg]) * 1000000L);
+            } else if (args[arg].equals("--grid") && arg + 1 < args.length) {
+                int[] grid = parseGrid(args[++arg]);
+                options.gridColumns = grid[0];
+                options.gridRows = grid[1];
+            } else if (args[arg].equals("--filter")) {
+                options.poseFilter = true;
+            } else {
+                arg = args.length;
+            }
+        }
+        if (args.length - arg < 2) {
+            System.err.println("Usage: PoseReplay [--depth N] [--no-tracking] [--no-roi] [--target-ms T] "
+                    + "[--grid CxR] [--filter] <recording> <target model or PGM>...");
+            System.exit(2);
+        }
+
+        FrameRecording recording = FrameRecording.open(new File(args[arg]));
+        try {
+            List<ByteBuffer> targets = new ArrayList<ByteBuffer>();
+            for (int i = arg + 1; i < args.length; i++) {
+                targets.add(loadTarget(new File(args[i])));
+            }
+            Report report = run(recording, targets.toArray(new ByteBuffer[targets.size()]), options);
+            System.out.println(report);
+        } finally {
+            recording.close();
+        }
+    }
+
+    /**
+     * Replay every frame of recording against the given serialized target models, and wait for the last one to be
+     * delivered. Throws IllegalStateException if the pipeline stops making progress.
+     */
+    static Report run(FrameRecording recording, ByteBuffer[] targetModels, Options options)
+            throws InterruptedException {
+        PoseEngine engine = new PoseEngine(targetModels);
+        ExecutorService extractWorker = Executors.newSingleThreadExecutor();
+        ExecutorService solveWorker = Executors.newSingleThreadExecutor();
+        ExecutorService deliverWorker = Executors.newSingleThreadExecutor();
+        PosePipeline<RecordedFrameSource.RecordedFrame> pipeline = null;
+        try {
+            engine.setTracking(options.tracking, 15, 3.0f);
+            engine.setRoiSearch(options.roiSearch, 3);
+            engine.setTargetFrameTime(options.targetFrameNanos);
+            engine.setKeypointGrid(options.gridColumns, options.gridRows);
+            RecordedFrameSource source = new RecordedFrameSource(recording);
+            Report report = new Report(recording.getFrameCount(), options);
+            pipeline = new PosePipeline<RecordedFrameSource.RecordedFrame>(engine, source, options.depth, extractWorker,
+                    solveWorker, deliverWorker, report, report.myPoseMetrics, report.myTrackingStats,
+                    report.myFrameStats);
+
+            long start = System.nanoTime();
+            pipeline.start();
+            long remaining = source.getRemainingFrames();
+            while (!source.awaitFinished(STALL_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                if (source.getRemainingFrames() == remaining) {
+                    throw new IllegalStateException("Replay stalled with " + remaining + " frames left");
+                }
+                remaining = source.getRemainingFrames();
+            }
+            report.myWallNanos = System.nanoTime() - start;
+            return report;
+        } finally {
+            // Also when the replay stalled: the stages have to stop before their frames' native features are freed
+            shutdown(extractWorker, solveWorker, deliverWorker);
+            if (pipeline != null) {
+                pipeline.release();
+            }
+            engine.release();
+        }
+    }
+
+    // How to run a replay, the defaults are what ASUForia does on the device except for the fixed ORB settings
+    static final class Options {
+        int depth = PosePipeline.DEFAULT_DEPTH;
+        boolean tracking = true;
+        // Let detection search only around the last pose
+        boolean roiSearch = true;
+        // Passed to the feature budget, 0 keeps the default ORB settings
+        long targetFrameNanos;
+        // Grid detection keypoints are picked on, 0 x 0 for plain ORB
+        int gridColumns = PoseEngine.DEFAULT_GRID_COLUMNS;
+        int gridRows = PoseEngine.DEFAULT_GRID_ROWS;
+        // Run the poses through a PoseFilter before scoring them
+        boolean poseFilter;
+    }
+
+    // A grid argument such as 6x4, 0x0 for plain ORB
+    static int[] parseGrid(String grid) {
+        int x = grid.indexOf('x');
+        int[] size = x < 0 ? null
+                : new int[]{Integer.parseInt(grid.substring(0, x)), Integer.parseInt(grid.substring(x + 1))};
+        if (size == null || size[0] < 0 || size[1] < 0 || (size[0] == 0) != (size[1] == 0)) {
+            throw new IllegalArgumentException("Grid must be COLUMNSxROWS, 0x0 for plain ORB, was " + grid);
+        }
+        return size;
+    }
+
+    // A .pgm file is a reference image to build the model from, anything else a serialized model, which is mapped
+    static ByteBuffer loadTarget(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            ByteBuffer contents = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (!file.getName().endsWith(".pgm")) {
+                return contents;
+            }
+            int[] header = new int[3];
+            int pixelOffset = parsePgmHeader(contents, header);
+            contents.position(pixelOffset);
+            byte[] model = PoseEngine.buildTargetModel(contents.slice(), header[0], header[1], header[0]);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(model.length);
+            buffer.put(model);
+            return buffer;
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Read the header of a binary 8-bit PGM image into size (width, height, maximum value) and return the offset of
+     * the first pixel. Throws IOException for anything but a P5 image with a maximum value below 256.
+     */
+    static int parsePgmHeader(ByteBuffer pgm, int[] size) throws IOException {
+        if (pgm.limit() < 2 || pgm.get(0) != 'P' || pgm.get(1) != '5') {
+            throw new IOException("Only binary (P5) PGM reference images are supported");
+        }
+        int position = 2;
+        for (int field = 0; field < 3; field++) {
+            // Skip whitespace and comments, which run to the end of the line
+            while (position < pgm.limit()) {
+                byte c = pgm.get(position);
+                if (c == '#') {
+                    while (position < pgm.limit() && pgm.get(position) != '\n') {
+                        position++;
+                    }
+                } else if (c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+                    position++;
+                } else {
+                    break;
+                }
+            }
+            int value = 0;
+            int digits = 0;
+            while (position < pgm.limit() && pgm.get(position) >= '0' && pgm.get(position) <= '9') {
+                value = value * 10 + pgm.get(position++) - '0';
+                digits++;
+            }
+            if (digits == 0) {
+                throw new IOException("Malformed PGM header");
+            }
+            size[field] = value;
+        }
+        // Exactly one whitespace character separates the header from the pixels
+        position++;
+        if (size[0] <= 0 || size[1] <= 0 || size[2] <= 0 || size[2] > 255
+                || pgm.limit() - position < (long) size[0] * size[1]) {
+            throw new IOException("PGM image must be 8 bit and hold width x height pixels");
+        }
+        return position;
+    }
+
+    // Angle in degrees of the rotation between two Rodrigues rotation vectors
+    static double rotationErrorDegrees(float[] rvec, float[] expected) {
+        double[] q = quaternion(rvec);
+        double[] e = quaternion(expected);
+        // Rotation from expected to rvec, conj(e) * q. Its angle is taken with atan2 rather than acos(w), which loses
+        // all precision for the small errors we care about most.
+        double w = e[0] * q[0] + e[1] * q[1] + e[2] * q[2] + e[3] * q[3];
+        double x = e[0] * q[1] - q[0] * e[1] - (e[2] * q[3] - e[3] * q[2]);
+        double y = e[0] * q[2] - q[0] * e[2] - (e[3] * q[1] - e[1] * q[3]);
+        double z = e[0] * q[3] - q[0] * e[3] - (e[1] * q[2] - e[2] * q[1]);
+        return Math.toDegrees(2 * Math.atan2(Math.sqrt(x * x + y * y + z * z), Math.abs(w)));
+    }
+
+    /**
+     * Jitter in degrees between two consecutive poses: how far the rotation from previous to current differs from the
+     * ground truth rotation between the same frames. Motion the camera really made doesn't count, only noise in the
+     * estimate does.
+     */
+    static double rotationJitterDegrees(float[] previous, float[] current, float[] expectedPrevious,
+                                        float[] expectedCurrent) {
+        double[] motion = multiply(conjugate(quaternion(previous)), quaternion(current));
+        double[] expectedMotion = multiply(conjugate(quaternion(expectedPrevious)), quaternion(expectedCurrent));
+        double[] difference = multiply(conjugate(expectedMotion), motion);
+        double sine = Math.sqrt(difference[1] * difference[1] + difference[2] * difference[2]
+                + difference[3] * difference[3]);
+        return Math.toDegrees(2 * Math.atan2(sine, Math.abs(difference[0])));
+    }
+
+    // The same for translation: how far the change in tvec differs from the change in the ground truth tvec
+    static double translationJitter(float[] previous, float[] current, float[] expectedPrevious,
+                                    float[] expectedCurrent) {
+        double dx = (current[0] - previous[0]) - (expectedCurrent[0] - expectedPrevious[0]);
+        double dy = (current[1] - previous[1]) - (expectedCurrent[1] - expectedPrevious[1]);
+        double dz = (current[2] - previous[2]) - (expectedCurrent[2] - expectedPrevious[2]);
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    // Distance between two translation vectors, in the units of the target's object coordinates
+    static double translationError(float[] tvec, float[] expected) {
+        double dx = tvec[0] - expected[0];
+        double dy = tvec[1] - expected[1];
+        double dz = tvec[2] - expected[2];
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    // Unit quaternion (w, x, y, z) of a Rodrigues rotation vector, whose length is the angle around its direction
+    private static double[] quaternion(float[] rvec) {
+        double angle = Math.sqrt(rvec[0] * rvec[0] + rvec[1] * rvec[1] + rvec[2] * rvec[2]);
+        if (angle < 1e-12) {
+            return new double[]{1, 0, 0, 0};
+        }
+        double s = Math.sin(angle / 2) / angle;
+        return new double[]{Math.cos(angle / 2), rvec[0] * s, rvec[1] * s, rvec[2] * s};
+    }
+
+    private static double[] conjugate(double[] q) {
+        return new double[]{q[0], -q[1], -q[2], -q[3]};
+    }
+
+    // Hamilton product a * b of two quaternions (w, x, y, z)
+    private static double[] multiply(double[] a, double[] b) {
+        return new double[]{
+                a[0] * b[0] - a[1] * b[1] - a[2] * b[2] - a[3] * b[3],
+                a[0] * b[1] + a[1] * b[0] + a[2] * b[3] - a[3] * b[2],
+                a[0] * b[2] - a[1] * b[3] + a[2] * b[0] + a[3] * b[1],
+                a[0] * b[3] + a[1] * b[2] - a[2] * b[1] + a[3] * b[0]};
+    }
+
+    private static void shutdown(ExecutorService... workers) throws InterruptedException {
+        for (ExecutorService worker : workers) {
+            worker.shutdown();
+        }
+        for (ExecutorService worker : workers) {
+            worker.awaitTermination(STALL_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+
+    /**
+     * What a replay measured. Filled in by the pipeline's delivery worker while the replay runs, and complete once
+     * run() has returned it.
+     */
+    static final class Report implements PosePipeline.PoseSink<RecordedFrameSource.RecordedFrame> {
+        final PoseMetrics myPoseMetrics = new PoseMetrics();
+        final TrackingStats myTrackingStats = new TrackingStats();
+        final FrameStats myFrameStats;
+        // From the pipeline taking a frame to delivering its pose
+        final LatencyHistogram myEndToEnd = new LatencyHistogram();
+
+        final int myFrameCount;
+        final Options myOptions;
+        long myWallNanos;
+
+        // Frames with a ground truth pose that were solved, and how far off they were
+        int myScoredFrames;
+        double myTotalRotationError;
+        double myMaxRotationError;
+        double myTotalTranslationError;
+        double myMaxTranslationError;
+        // What the PnP covariance said the error of the scored frames would be, as standard deviations
+        double myTotalRotationDeviation;
+        double myTotalTranslationDeviation;
+        // Frames that showed a target but were lost, found a target where there was none, or found the wrong one
+        int myMissedFrames;
+        int myFalsePositiveFrames;
+        int myWrongTargetFrames;
+        // Scored frames the pose filter had a prediction for from the frames before, and how far off it was
+        int myPredictedFrames;
+        double myTotalPredictionRotationError;
+        double myTotalPredictionTranslationError;
+        // Pairs of consecutive scored frames, and how much their poses jittered between them
+        int myJitterPairs;
+        double myTotalRotationJitter;
+        double myTotalTranslationJitter;
+
+        private final float[] myRvec = new float[3];
+        private final float[] myTvec = new float[3];
+        private final float[] myExpectedRvec = new float[3];
+        private final float[] myExpectedTvec = new float[3];
+
+        // Null when the poses aren't filtered
+        private final PoseFilter myPoseFilter;
+        private boolean myHasPrediction;
+        private final float[] myPredictedRvec = new float[3];
+        private final float[] myPredictedTvec = new float[3];
+
+        // The last scored frame, for jitter
+        private int myPreviousIndex = -1;
+        private int myPreviousTarget;
+        private final float[] myPreviousRvec = new float[3];
+        private final float[] myPreviousTvec = new float[3];
+        private final float[] myPreviousExpectedRvec = new float[3];
+        private final float[] myPreviousExpectedTvec = new float[3];
+
+        Report(int frameCount, Options options) {
+            myFrameCount = frameCount;
+            myOptions = options;
+            myFrameStats = new FrameStats(Math.max(2, frameCount));
+            myPoseFilter = options.poseFilter
+                    ? new PoseFilter(PoseFilter.DEFAULT_MIN_CUTOFF_HZ, PoseFilter.DEFAULT_BETA) : null;
+        }
+
+        // Score the pose, the pipeline closes the frame once it has been
+        @Override
+        public boolean onPose(RecordedFrameSource.RecordedFrame frame, int mode, FloatBuffer result) {
+            score(frame, mode, result);
+            return false;
+        }
+
+        @Override
+        public void onFrameTaken(RecordedFrameSource.RecordedFrame frame) {
+            // never called, onPose() leaves every frame to the pipeline
+        }
+
+        private void score(RecordedFrameSource.RecordedFrame frame, int mode, FloatBuffer result) {
+            myEndToEnd.record(System.nanoTime() - frame.getAcquireNanos());
+
+            FrameRecording recording = frame.getRecording();
+            boolean solved = mode != TrackingStats.MODE_LOST;
+            int target = (int) result.get(PoseEngine.RESULT_TARGET);
+            if (solved) {
+                for (int i = 0; i < 3; i++) {
+                    myRvec[i] = result.get(PoseEngine.RESULT_RVEC + i);
+                    myTvec[i] = result.get(PoseEngine.RESULT_TVEC + i);
+                }
+                if (myPoseFilter != null) {
+                    filterPose(target, recording.getTimestamp(frame.getIndex()));
+                }
+            }
+
+            int expectedTarget = recording.getGroundTruthTarget(frame.getIndex());
+            if (expectedTarget == FrameRecording.TARGET_UNKNOWN) {
+                return;
+            }
+            if (expectedTarget == FrameRecording.TARGET_NONE) {
+                if (solved) {
+                    myFalsePositiveFrames++;
+                }
+            } else if (!solved) {
+                myMissedFrames++;
+            } else if (target != expectedTarget) {
+                myWrongTargetFrames++;
+            } else {
+                recording.getGroundTruthPose(frame.getIndex(), myExpectedRvec, myExpectedTvec);
+                double rotationError = rotationErrorDegrees(myRvec, myExpectedRvec);
+                double translationError = translationError(myTvec, myExpectedTvec);
+                myScoredFrames++;
+                myTotalRotationError += rotationError;
+                myMaxRotationError = Math.max(myMaxRotationError, rotationError);
+                myTotalTranslationError += translationError;
+                myMaxTranslationError = Math.max(myMaxTranslationError, translationError);
+                myTotalRotationDeviation += Math.toDegrees(Math.sqrt(covarianceTrace(result, 0)));
+                myTotalTranslationDeviation += Math.sqrt(covarianceTrace(result, 3));
+                recordJitter(frame.getIndex(), target);
+                if (myHasPrediction) {
+                    myPredictedFrames++;
+                    myTotalPredictionRotationError += rotationErrorDegrees(myPredictedRvec, myExpectedRvec);
+                    myTotalPredictionTranslationError += translationError(myPredictedTvec, myExpectedTvec);
+                }
+            }
+        }
+
+        /**
+         * Replace the pose in myRvec and myTvec with the filtered one, like ASUForia does before the PoseListener sees
+         * it. What the filter predicted for this frame from the frames before is kept to score too.
+         */
+        private void filterPose(int target, long timestampNanos) {
+            myHasPrediction = myPoseFilter.getTarget() == target
+                    && myPoseFilter.predict(timestampNanos, myPredictedRvec, myPredictedTvec);
+            myPoseFilter.update(target, timestampNanos, myRvec, myTvec);
+            myPoseFilter.predict(timestampNanos, myRvec, myTvec);
+        }
+
+        // Sum of the variances of the three pose parameters from first on, rvec for 0 and tvec for 3
+        static float covarianceTrace(FloatBuffer result, int first) {
+            float trace = 0;
+            for (int i = first; i < first + 3; i++) {
+                // Diagonal element (i, i) of the upper triangle, see PoseEngine.RESULT_COVARIANCE
+                trace += result.get(PoseEngine.RESULT_COVARIANCE + i * 6 - i * (i - 1) / 2);
+            }
+            return trace;
+        }
+
+        // Compare the pose just scored with the one of the frame before, if that was scored against the same target
+        private void recordJitter(int index, int target) {
+            if (myPreviousIndex == index - 1 && myPreviousTarget == target) {
+                myJitterPairs++;
+                myTotalRotationJitter += rotationJitterDegrees(myPreviousRvec, myRvec, myPreviousExpectedRvec,
+                        myExpectedRvec);
+                myTotalTranslationJitter += translationJitter(myPreviousTvec, myTvec, myPreviousExpectedTvec,
+                        myExpectedTvec);
+            }
+            myPreviousIndex = index;
+            myPreviousTarget = target;
+            System.arraycopy(myRvec, 0, myPreviousRvec, 0, 3);
+            System.arraycopy(myTvec, 0, myPreviousTvec, 0, 3);
+            System.arraycopy(myExpectedRvec, 0, myPreviousExpectedRvec, 0, 3);
+            System.arraycopy(myExpectedTvec, 0, myPreviousExpectedTvec, 0, 3);
+        }
+
+        // Frames per second through the whole pipeline
+        double getThroughputFps() {
+            return myWallNanos == 0 ? 0 : myFrameCount * 1e9 / myWallNanos;
+        }
+
+        double getMeanRotationErrorDegrees() {
+            return myScoredFrames == 0 ? 0 : myTotalRotationError / myScoredFrames;
+        }
+
+        double getMeanTranslationError() {
+            return myScoredFrames == 0 ? 0 : myTotalTranslationError / myScoredFrames;
+        }
+
+        double getMeanRotationJitterDegrees() {
+            return myJitterPairs == 0 ? 0 : myTotalRotationJitter / myJitterPairs;
+        }
+
+        double getMeanTranslationJitter() {
+            return myJitterPairs == 0 ? 0 : myTotalTranslationJitter / myJitterPairs;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder out = new StringBuilder();
+            out.append(String.format("frames            %d in %.2f s, %.1f FPS%n", myFrameCount, myWallNanos / 1e9,
+                    getThroughputFps()));
+            out.append(String.format("modes             %d detected, %d tracked, %d lost%n",
+                    myTrackingStats.getDetectedFrames(), myTrackingStats.getTrackedFrames(),
+                    myTrackingStats.getLostFrames()));
+            PoseMetrics.Snapshot metrics = new PoseMetrics.Snapshot();
+            myPoseMetrics.snapshot(metrics);
+            out.append(String.format("detection         %d failed, %d in the predicted region only%n",
+                    metrics.getDetectionFailures(), metrics.getRoiDetections()));
+            out.append(String.format("frame time        p50 %.2f  p95 %.2f  p99 %.2f ms, %d jank%n",
+                    myFrameStats.getFrameTimePercentileMillis(50), myFrameStats.getFrameTimePercentileMillis(95),
+                    myFrameStats.getFrameTimePercentileMillis(99), myFrameStats.getJankCount()));
+
+            LatencyHistogram.Snapshot snapshot = new LatencyHistogram.Snapshot();
+            myEndToEnd.snapshot(snapshot);
+            appendLatency(out, "end to end", snapshot);
+            appendLatency(out, "jni entry", metrics.getHistogram(PoseMetrics.JNI_ENTRY));
+            appendLatency(out, "orb", metrics.getHistogram(PoseMetrics.ORB_DETECT));
+            appendLatency(out, "match", metrics.getHistogram(PoseMetrics.DESCRIPTOR_MATCH));
+            appendLatency(out, "pnp", metrics.getHistogram(PoseMetrics.PNP));
+            out.append(String.format("orb settings      %d features, %d levels, %.2fx scale, %d changes%n",
+                    metrics.getOrbFeatures(), metrics.getOrbPyramidLevels(), metrics.getOrbDownscale(),
+                    metrics.getFeatureBudgetChanges()));
+            out.append(myOptions.gridColumns == 0 ? String.format("keypoint grid     off, plain ORB%n")
+                    : String.format("keypoint grid     %d x %d%n", myOptions.gridColumns, myOptions.gridRows));
+
+            out.append(String.format("ground truth      %d scored, %d missed, %d false positives, %d wrong target%n",
+                    myScoredFrames, myMissedFrames, myFalsePositiveFrames, myWrongTargetFrames));
+            out.append(String.format("rotation error    mean %.3f  max %.3f deg%n", getMeanRotationErrorDegrees(),
+                    myMaxRotationError));
+            out.append(String.format("translation error mean %.3f  max %.3f%n", getMeanTranslationError(),
+                    myMaxTranslationError));
+            out.append(String.format("pnp deviation     mean %.3f deg, %.4f%n",
+                    myScoredFrames == 0 ? 0 : myTotalRotationDeviation / myScoredFrames,
+                    myScoredFrames == 0 ? 0 : myTotalTranslationDeviation / myScoredFrames));
+            out.append(String.format("jitter            mean %.3f deg, %.4f over %d frame pairs%n",
+                    getMeanRotationJitterDegrees(), getMeanTranslationJitter(), myJitterPairs));
+            if (myPoseFilter != null) {
+                out.append(String.format("prediction error  mean %.3f deg, %.4f over %d frames%n",
+                        myPredictedFrames == 0 ? 0 : myTotalPredictionRotationError / myPredictedFrames,
+                        myPredictedFrames == 0 ? 0 : myTotalPredictionTranslationError / myPredictedFrames,
+                        myPredictedFrames));
+            }
+            return out.toString();
+        }
+
+        private static void appendLatency(StringBuilder out, String name, LatencyHistogram.Snapshot snapshot) {
+            out.append(String.format("%-17s p50 %.2f  p95 %.2f  p99 %.2f  max %.2f ms (%d)%n", name,
+                    snapshot.getPercentileMillis(50), snapshot.getPercentileMillis(95),
+                    snapshot.getPercentileMillis(99), snapshot.getMaxMillis(), snapshot.getCount()));
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package edu.something.ar_framework;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The pose of one camera frame as handed to ASUForia.PoseListener.onPose(), together with a lease on the frame it was
+ * found in. Results come from a small fixed Pool and are reused, and the frame stays open, holding one of the
+ * ImageReader's maxImages buffers, until release() is called. The listener owns the result from the moment onPose() is
+ * called, so it can draw with it right away and release it before returning, or pass it on (for example to a render
+ * thread) and release it there. Either way release() must be called exactly once, and nothing in the result or its
+ * frame may be used afterwards.
+ *
+ * While every result of the pool is still held, new poses have nowhere to go and are dropped, with their frames closed
+ * straight away (see PoseMetrics.getHeldPoseDrops()), so a listener that is slow to release makes the poses stutter
+ * but can never starve the ImageReader.
+ */
+public final class PoseResult {
+
+    private final Pool myPool;
+    // Set while the result is out with a listener, cleared by release()
+    private final AtomicBoolean myHeld = new AtomicBoolean();
+
+    private CameraFrame myFrame;
+    private int myTargetIndex;
+    private int myMode;
+    private long myTimestamp;
+    private final float[] myRvec = new float[3];
+    private final float[] myTvec = new float[3];
+    private final float[] myCovariance = new float[PoseEngine.COVARIANCE_SIZE];
+    private boolean myHasVelocity;
+    private final float[] myAngularVelocity = new float[3];
+    private final float[] myLinearVelocity = new float[3];
+
+    private PoseResult(Pool pool) {
+        myPool = pool;
+    }
+
+    // Index of the recognized target in the reference images given to ASUForia's constructor
+    public int getTargetIndex() {
+        return myTargetIndex;
+    }
+
+    // TrackingStats.MODE_DETECTED or MODE_TRACKED, whichever produced the pose
+    public int getMode() {
+        return myMode;
+    }
+
+    // Capture time of the frame, see Image.getTimestamp()
+    public long getTimestamp() {
+        return myTimestamp;
+    }
+
+    /**
+     * Rotation vector of the target in camera coordinates. The array belongs to the result and is reused for later
+     * poses once the result is released, so copy it to keep it longer.
+     */
+    public float[] getRvec() {
+        return myRvec;
+    }
+
+    // Translation of the target in camera coordinates, in the same way as getRvec()
+    public float[] getTvec() {
+        return myTvec;
+    }
+
+    /**
+     * How uncertain the pose is: the upper triangle of the 6x6 covariance of (rvec, tvec) as PnP estimated it from the
+     * inliers, row by row, into covariance (at least 21 long). This is the covariance of the measured pose, before the
+     * pose filter.
+     */
+    public void getCovariance(float[] covariance) {
+        System.arraycopy(myCovariance, 0, covariance, 0, PoseEngine.COVARIANCE_SIZE);
+    }
+
+    /**
+     * The filtered velocity of the pose: angular velocity in rad/s about the target's axes into angularVelocity, and
+     * the rate of change of tvec per second into linearVelocity. Returns false, leaving both alone, when the pose
+     * filter is disabled.
+     */
+    public boolean getVelocity(float[] angularVelocity, float[] linearVelocity) {
+        if (!myHasVelocity) {
+            return false;
+        }
+        System.arraycopy(myAngularVelocity, 0, angularVelocity, 0, 3);
+        System.arraycopy(myLinearVelocity, 0, linearVelocity, 0, 3);
+        return true;
+    }
+
+    // The frame the pose was found in, open until release()
+    public CameraFrame getFrame() {
+        return myFrame;
+    }
+
+    /**
+     * Close the frame, giving its buffer back to the ImageReader, and hand the result back to the pool. Can be called
+     * from any thread. Throws IllegalStateException if the result was already released.
+     */
+    public void release() {
+        if (!myHeld.compareAndSet(true, false)) {
+            throw new IllegalStateException("PoseResult released twice");
+        }
+        CameraFrame frame = myFrame;
+        myFrame = null;
+        frame.close();
+        myPool.myFree.offer(this);
+    }
+
+    // Fill in the pose from the native result block and filtered rvec and tvec. Called by the delivery thread.
+    void set(CameraFrame frame, int mode, FloatBuffer result, float[] rvec, float[] tvec) {
+        myFrame = frame;
+        myMode = mode;
+        myTimestamp = frame.getTimestamp();
+        myTargetIndex = (int) result.get(PoseEngine.RESULT_TARGET);
+        System.arraycopy(rvec, 0, myRvec, 0, 3);
+        System.arraycopy(tvec, 0, myTvec, 0, 3);
+        for (int i = 0; i < PoseEngine.COVARIANCE_SIZE; i++) {
+            myCovariance[i] = result.get(PoseEngine.RESULT_COVARIANCE + i);
+        }
+        myHasVelocity = false;
+    }
+
+    // Attach the pose filter's velocity, see getVelocity()
+    void setVelocity(PoseFilter filter) {
+        filter.getAngularVelocity(myAngularVelocity);
+        filter.getLinearVelocity(myLinearVelocity);
+        myHasVelocity = true;
+    }
+
+
+    /**
+     * A fixed number of PoseResults, allocated up front. acquire() and release() don't allocate, and acquire() returns
+     * null rather than growing when every result is held.
+     */
+    static final class Pool {
+        private final ArrayBlockingQueue<PoseResult> myFree;
+
+        Pool(int size) {
+            if (size < 1) {
+                throw new IllegalArgumentException("A pose result pool needs at least one result, was " + size);
+            }
+            myFree = new ArrayBlockingQueue<PoseResult>(size);
+            for (int i = 0; i < size; i++) {
+                myFree.offer(new PoseResult(this));
+            }
+        }
+
+        // A free result, now held until its release(), or null if every result is held
+        PoseResult acquire() {
+            PoseResult result = myFree.poll();
+            if (result != null) {
+                result.myHeld.set(true);
+            }
+            return result;
+        }
+
+        // Number of results that are not held right now
+        int getFreeCount() {
+            return myFree.size();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package edu.something.ar_framework;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FrameSource that plays a FrameRecording once, front to back. A frame is handed out as soon as the pipeline has room
+ * for it, so a replay runs as fast as pose estimation allows and no frame is ever dropped. The luma of every frame is
+ * the recording's mapped buffer, used in place.
+ */
+final class RecordedFrameSource implements FrameSource<RecordedFrameSource.RecordedFrame> {
+
+    private final FrameRecording myRecording;
+    private final RecordedFrame[] myFrames;
+    private final CountDownLatch myOpenFrames;
+
+    // Only touched by the pipeline's extraction worker
+    private int myNextFrame;
+
+    RecordedFrameSource(FrameRecording recording) {
+        myRecording = recording;
+        myFrames = new RecordedFrame[recording.getFrameCount()];
+        for (int i = 0; i < myFrames.length; i++) {
+            myFrames[i] = new RecordedFrame(this, i);
+        }
+        myOpenFrames = new CountDownLatch(myFrames.length);
+    }
+
+    @Override
+    public RecordedFrame acquireFrame() {
+        if (myNextFrame == myFrames.length) {
+            return null;
+        }
+        RecordedFrame frame = myFrames[myNextFrame++];
+        frame.myAcquireNanos = System.nanoTime();
+        return frame;
+    }
+
+    // Frames are only produced when asked for, so none are ever waiting
+    @Override
+    public void clear() {
+    }
+
+    // The source only runs dry once it is finished, so it never has to wake anyone up
+    @Override
+    public void setListener(Listener listener) {
+    }
+
+    // Number of frames that haven't been acquired and closed yet
+    long getRemainingFrames() {
+        return myOpenFrames.getCount();
+    }
+
+    // Wait until every frame of the recording has been closed. Returns false if that didn't happen within timeout.
+    boolean awaitFinished(long timeout, TimeUnit unit) throws InterruptedException {
+        return myOpenFrames.await(timeout, unit);
+    }
+
+
+    static final class RecordedFrame implements CameraFrame {
+        private final RecordedFrameSource mySource;
+        private final int myIndex;
+        private long myAcquireNanos;
+
+        private RecordedFrame(RecordedFrameSource source, int index) {
+            mySource = source;
+            myIndex = index;
+        }
+
+        FrameRecording getRecording() {
+            return mySource.myRecording;
+        }
+
+        // Position of this frame in the recording
+        int getIndex() {
+            return myIndex;
+        }
+
+        // System.nanoTime() when the pipeline took the frame, for measuring how long it spent in there
+        long getAcquireNanos() {
+            return myAcquireNanos;
+        }
+
+        @Override
+        public int getWidth() {
+            return mySource.myRecording.getWidth();
+        }
+
+        @Override
+        public int getHeight() {
+            return mySource.myRecording.getHeight();
+        }
+
+        @Override
+        public ByteBuffer getLumaBuffer() {
+            return mySource.myRecording.getLumaBuffer(myIndex);
+        }
+
+        @Override
+        public int getLumaRowStride() {
+            return mySource.myRecording.getRowStride();
+        }
+
+        @Override
+        public int getLumaPixelStride() {
+            return 1;
+        }
+
+        @Override
+        public long getTimestamp() {
+            return mySource.myRecording.getTimestamp(myIndex);
+        }
+
+        @Override
+        public void close() {
+            mySource.myOpenFrames.countDown();
+        }
+    }
+}
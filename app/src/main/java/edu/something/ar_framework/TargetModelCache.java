@@ -0,0 +1,78 @@
+package edu.something.ar_framework;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Keeps serialized reference target models (ORB keypoints, descriptors, image size and object coordinates, see
+ * target_model.h) on disk, one file per reference image, named after a hash of the image's content. Models are
+ * handed out as read-only memory-mapped buffers, so loading one costs a page-in of the pages native code actually
+ * touches rather than a read and a copy of the whole file.
+ */
+class TargetModelCache {
+
+    private static final String MODEL_SUFFIX = ".asut";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File myDirectory;
+
+    TargetModelCache(File directory) {
+        myDirectory = directory;
+    }
+
+    /**
+     * Map the model stored under key, or return null if there isn't one. The returned buffer stays valid after the
+     * file is closed, and must be kept reachable for as long as native code uses the model loaded from it.
+     */
+    MappedByteBuffer map(String key) throws IOException {
+        File modelFile = modelFile(key);
+        if (!modelFile.isFile() || modelFile.length() == 0) {
+            return null;
+        }
+        RandomAccessFile file = new RandomAccessFile(modelFile, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Write a serialized model under key and map it. The file is written next to its final name and renamed into
+     * place, so a crash halfway through never leaves a truncated model behind for the next launch.
+     */
+    MappedByteBuffer store(String key, byte[] model) throws IOException {
+        if (!myDirectory.isDirectory() && !myDirectory.mkdirs()) {
+            throw new IOException("Unable to create target model directory " + myDirectory);
+        }
+        File modelFile = modelFile(key);
+        File tempFile = new File(myDirectory, key + TEMP_SUFFIX);
+
+        FileOutputStream out = new FileOutputStream(tempFile);
+        try {
+            out.write(model);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tempFile.renameTo(modelFile)) {
+            tempFile.delete();
+            throw new IOException("Unable to move target model into place at " + modelFile);
+        }
+        return map(key);
+    }
+
+    // Remove the model stored under key, e.g. when native code rejects it as corrupt or from an older version
+    void invalidate(String key) {
+        modelFile(key).delete();
+    }
+
+    private File modelFile(String key) {
+        return new File(myDirectory, key + MODEL_SUFFIX);
+    }
+}
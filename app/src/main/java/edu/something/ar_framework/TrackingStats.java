@@ -0,0 +1,89 @@
+package edu.something.ar_framework;
+
+/**
+ * Per-frame record of which pose path ran (full detection or KLT tracking) and how long each took, as reported by
+ * nativePoseEstimation(). Written only from the pose estimation thread, and safe to read from any other thread,
+ * although a reader may see counters from two neighbouring frames at once.
+ */
+public class TrackingStats {
+
+    // Modes returned by nativePoseEstimation(). Shared with PoseMode in pose_tracker.h, keep them in sync.
+    public static final int MODE_LOST = 0;
+    public static final int MODE_DETECTED = 1;
+    public static final int MODE_TRACKED = 2;
+
+    private volatile int myLastMode = MODE_LOST;
+    private volatile float myLastDetectMillis;
+    private volatile float myLastTrackMillis;
+
+    private volatile long myDetectedFrames;
+    private volatile long myTrackedFrames;
+    private volatile long myLostFrames;
+
+    // Frames in which detection or tracking ran at all, and the total time spent in each
+    private volatile long myDetectRuns;
+    private volatile long myTrackRuns;
+    private volatile double myTotalDetectMillis;
+    private volatile double myTotalTrackMillis;
+
+    // Called by the pose estimation thread once per frame. A cost of 0 means that path didn't run.
+    void record(int mode, float detectMillis, float trackMillis) {
+        myLastMode = mode;
+        myLastDetectMillis = detectMillis;
+        myLastTrackMillis = trackMillis;
+
+        if (mode == MODE_DETECTED) {
+            myDetectedFrames++;
+        } else if (mode == MODE_TRACKED) {
+            myTrackedFrames++;
+        } else {
+            myLostFrames++;
+        }
+
+        if (detectMillis > 0) {
+            myDetectRuns++;
+            myTotalDetectMillis += detectMillis;
+        }
+        if (trackMillis > 0) {
+            myTrackRuns++;
+            myTotalTrackMillis += trackMillis;
+        }
+    }
+
+    // Mode that produced the most recent pose, one of the MODE_ constants
+    public int getLastMode() {
+        return myLastMode;
+    }
+
+    public float getLastDetectMillis() {
+        return myLastDetectMillis;
+    }
+
+    public float getLastTrackMillis() {
+        return myLastTrackMillis;
+    }
+
+    public long getDetectedFrames() {
+        return myDetectedFrames;
+    }
+
+    public long getTrackedFrames() {
+        return myTrackedFrames;
+    }
+
+    public long getLostFrames() {
+        return myLostFrames;
+    }
+
+    // Average time of a frame that ran full detection
+    public double getAverageDetectMillis() {
+        long runs = myDetectRuns;
+        return runs == 0 ? 0 : myTotalDetectMillis / runs;
+    }
+
+    // Average time of a frame that tried tracking, including building the frame's image pyramid
+    public double getAverageTrackMillis() {
+        long runs = myTrackRuns;
+        return runs == 0 ? 0 : myTotalTrackMillis / runs;
+    }
+}
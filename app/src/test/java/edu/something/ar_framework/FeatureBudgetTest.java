@@ -0,0 +1,132 @@
+package edu.something.ar_framework;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host tests for FeatureBudget, fed synthetic frame times instead of measured ones.
+ */
+public class FeatureBudgetTest {
+
+    private static final long MS = 1000000L;
+    private static final long TARGET = 33 * MS;
+
+    // Feed frames of the given time until the budget changes, and return how many it took, or -1 if it never did
+    private static int framesUntilChange(FeatureBudget budget, long frameNanos, int maxFrames) {
+        for (int i = 1; i <= maxFrames; i++) {
+            if (budget.update(frameNanos)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    public void update_overTarget_stepsDownOnceSettled() {
+        FeatureBudget budget = new FeatureBudget(TARGET);
+        assertEquals(FeatureBudget.DEFAULT_STEP, budget.getStep());
+
+        assertEquals(FeatureBudget.SETTLE_FRAMES, framesUntilChange(budget, 40 * MS, 100));
+        assertEquals(FeatureBudget.DEFAULT_STEP - 1, budget.getStep());
+        assertEquals(1, budget.getChanges());
+        assertEquals(FeatureBudget.FEATURES[FeatureBudget.DEFAULT_STEP - 1], budget.getFeatures());
+        assertEquals(FeatureBudget.PYRAMID_LEVELS[FeatureBudget.DEFAULT_STEP - 1], budget.getPyramidLevels());
+        assertEquals(FeatureBudget.DOWNSCALE[FeatureBudget.DEFAULT_STEP - 1], budget.getDownscale(), 0);
+    }
+
+    @Test
+    public void update_wellUnderTarget_stepsUpOnlyAfterUpgradeFrames() {
+        FeatureBudget budget = new FeatureBudget(TARGET);
+
+        assertEquals(FeatureBudget.UPGRADE_FRAMES, framesUntilChange(budget, 5 * MS, 100));
+        assertEquals(FeatureBudget.DEFAULT_STEP + 1, budget.getStep());
+    }
+
+    @Test
+    public void update_insideDeadBand_neverChanges() {
+        FeatureBudget budget = new FeatureBudget(TARGET);
+
+        assertEquals(-1, framesUntilChange(budget, 25 * MS, 1000));
+        assertEquals(FeatureBudget.DEFAULT_STEP, budget.getStep());
+        assertEquals(25 * MS, budget.getSmoothedFrameNanos());
+    }
+
+    @Test
+    public void update_singleSlowFrame_isSmoothedAway() {
+        FeatureBudget budget = new FeatureBudget(TARGET);
+        for (int i = 0; i < 20; i++) {
+            assertFalse(budget.update(20 * MS));
+        }
+        // One GC pause or thermal hiccup doesn't cost the user any features
+        assertFalse(budget.update(60 * MS));
+        assertEquals(FeatureBudget.DEFAULT_STEP, budget.getStep());
+    }
+
+    @Test
+    public void update_frameTimeFollowsStep_settlesWithoutOscillating() {
+        // A device where every step costs about 30% more than the one below, with +-10% noise per frame
+        double[] stepMillis = new double[FeatureBudget.FEATURES.length];
+        stepMillis[0] = 12;
+        for (int i = 1; i < stepMillis.length; i++) {
+            stepMillis[i] = stepMillis[i - 1] * 1.3;
+        }
+        Random random = new Random(1);
+        FeatureBudget budget = new FeatureBudget(TARGET);
+
+        for (int i = 0; i < 500; i++) {
+            double noise = 1 + (random.nextDouble() - 0.5) * 0.2;
+            budget.update((long) (stepMillis[budget.getStep()] * noise * MS));
+        }
+        long changes = budget.getChanges();
+        int step = budget.getStep();
+        assertTrue("Settled over budget at step " + step, stepMillis[step] * 1.1 <= 33);
+
+        for (int i = 0; i < 5000; i++) {
+            double noise = 1 + (random.nextDouble() - 0.5) * 0.2;
+            budget.update((long) (stepMillis[budget.getStep()] * noise * MS));
+        }
+        assertEquals(changes, budget.getChanges());
+        assertEquals(step, budget.getStep());
+    }
+
+    @Test
+    public void update_atCheapestStep_staysThere() {
+        FeatureBudget budget = new FeatureBudget(TARGET);
+        for (int i = 0; i < 1000; i++) {
+            budget.update(100 * MS);
+        }
+        assertEquals(0, budget.getStep());
+        assertEquals(FeatureBudget.DEFAULT_STEP, budget.getChanges());
+    }
+
+    @Test
+    public void setTargetFrameNanos_zero_returnsToDefaultStep() {
+        FeatureBudget budget = new FeatureBudget(TARGET);
+        framesUntilChange(budget, 40 * MS, 100);
+        assertEquals(FeatureBudget.DEFAULT_STEP - 1, budget.getStep());
+
+        budget.setTargetFrameNanos(0);
+        assertTrue(budget.update(100 * MS));
+        assertEquals(FeatureBudget.DEFAULT_STEP, budget.getStep());
+        assertEquals(-1, framesUntilChange(budget, 100 * MS, 100));
+    }
+
+    @Test
+    public void setTargetFrameNanos_newTarget_settlesAgainBeforeChanging() {
+        FeatureBudget budget = new FeatureBudget(TARGET);
+        // Long enough in the dead band that a step up would be due right away if the frames kept counting
+        assertEquals(-1, framesUntilChange(budget, 25 * MS, FeatureBudget.UPGRADE_FRAMES));
+
+        budget.setTargetFrameNanos(50 * MS);
+        assertEquals(FeatureBudget.UPGRADE_FRAMES, framesUntilChange(budget, 25 * MS, 100));
+        assertEquals(FeatureBudget.DEFAULT_STEP + 1, budget.getStep());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setTargetFrameNanos_negative_throws() {
+        new FeatureBudget(TARGET).setTargetFrameNanos(-1);
+    }
+}
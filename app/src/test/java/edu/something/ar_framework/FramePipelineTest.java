@@ -0,0 +1,238 @@
+package edu.something.ar_framework;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host tests for FramePipeline and FrameRing, with single-threaded executors standing in for the HandlerThreads and
+ * Integer frames standing in for camera Images.
+ */
+public class FramePipelineTest {
+
+    private final List<ExecutorService> myWorkers = new ArrayList<ExecutorService>();
+
+    @After
+    public void stopWorkers() throws Exception {
+        for (ExecutorService worker : myWorkers) {
+            worker.shutdownNow();
+            worker.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    private ExecutorService newWorker() {
+        ExecutorService worker = Executors.newSingleThreadExecutor();
+        myWorkers.add(worker);
+        return worker;
+    }
+
+    // Hands out the frames 0..count-1, one per call
+    private static class CountingSource implements FramePipeline.Source<Integer> {
+        private final int myCount;
+        private int myNext;
+
+        CountingSource(int count) {
+            myCount = count;
+        }
+
+        @Override
+        public Integer next() {
+            return myNext < myCount ? myNext++ : null;
+        }
+    }
+
+    // Records recycled frames and lets a test wait for a number of them
+    private static class RecordingRecycler implements FrameGate.FrameRecycler<Integer> {
+        final List<Integer> recycled = new ArrayList<Integer>();
+        final CountDownLatch done;
+
+        RecordingRecycler(int expected) {
+            done = new CountDownLatch(expected);
+        }
+
+        @Override
+        public synchronized void recycle(Integer frame) {
+            recycled.add(frame);
+            done.countDown();
+        }
+    }
+
+    // Stage that sleeps a little to let frames pile up, and checks the in-flight limit on every frame
+    private static class SlowStage implements FramePipeline.Stage<Integer> {
+        private final long mySleepMillis;
+        private final AtomicInteger myConcurrentMax;
+        private final AtomicInteger myActive;
+        FramePipeline<Integer> pipeline;
+        volatile int maxInFlightSeen;
+
+        SlowStage(long sleepMillis, AtomicInteger active, AtomicInteger concurrentMax) {
+            mySleepMillis = sleepMillis;
+            myActive = active;
+            myConcurrentMax = concurrentMax;
+        }
+
+        @Override
+        public void process(Integer frame) {
+            int active = myActive.incrementAndGet();
+            while (true) {
+                int max = myConcurrentMax.get();
+                if (active <= max || myConcurrentMax.compareAndSet(max, active)) {
+                    break;
+                }
+            }
+            maxInFlightSeen = Math.max(maxInFlightSeen, pipeline.getFramesInFlight());
+            try {
+                Thread.sleep(mySleepMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                myActive.decrementAndGet();
+            }
+        }
+    }
+
+    @Test
+    public void framesLeaveInOrder_andStagesOverlap() throws Exception {
+        final int frames = 60;
+        final int maxInFlight = 3;
+        RecordingRecycler recycler = new RecordingRecycler(frames);
+        final CountingSource source = new CountingSource(frames);
+        final FramePipeline<Integer> pipeline = new FramePipeline<Integer>(source, recycler, maxInFlight);
+
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger concurrentMax = new AtomicInteger();
+        SlowStage[] stages = new SlowStage[3];
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = new SlowStage(2, active, concurrentMax);
+            stages[i].pipeline = pipeline;
+            pipeline.addStage("stage" + i, newWorker(), stages[i]);
+        }
+
+        // Every completion re-signals the source once the pipeline was full, one signal is enough to drain it all
+        pipeline.signal();
+        assertTrue("Pipeline stalled", recycler.done.await(10, TimeUnit.SECONDS));
+
+        for (int i = 0; i < frames; i++) {
+            assertEquals(Integer.valueOf(i), recycler.recycled.get(i));
+        }
+        assertTrue("Stages never ran at the same time", concurrentMax.get() > 1);
+        for (SlowStage stage : stages) {
+            assertTrue(stage.maxInFlightSeen <= maxInFlight);
+        }
+        assertEquals(0, pipeline.getFramesInFlight());
+        for (int i = 0; i < stages.length; i++) {
+            FramePipeline.StageMetrics metrics = pipeline.getStageMetrics(i);
+            assertEquals(frames, metrics.getProcessedCount());
+            assertEquals(0, metrics.getQueueDepth());
+            assertTrue(metrics.getAverageLatencyMillis() > 0);
+            assertTrue(metrics.getMaxLatencyMillis() >= metrics.getAverageLatencyMillis());
+        }
+    }
+
+    @Test
+    public void failingStage_stillRecyclesFrame() throws Exception {
+        RecordingRecycler recycler = new RecordingRecycler(3);
+        FramePipeline<Integer> pipeline = new FramePipeline<Integer>(new CountingSource(3), recycler, 1);
+
+        // A throwing stage stops its drain, so run everything inline to see exactly which frames made it through
+        Executor inline = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                try {
+                    command.run();
+                } catch (IllegalStateException e) {
+                    // Frame 1 fails on purpose
+                }
+            }
+        };
+        final List<Integer> delivered = new ArrayList<Integer>();
+        pipeline.addStage("fails on 1", inline, new FramePipeline.Stage<Integer>() {
+            @Override
+            public void process(Integer frame) {
+                if (frame == 1) {
+                    throw new IllegalStateException("boom");
+                }
+            }
+        });
+        pipeline.addStage("deliver", inline, new FramePipeline.Stage<Integer>() {
+            @Override
+            public void process(Integer frame) {
+                delivered.add(frame);
+            }
+        });
+
+        pipeline.signal();
+        pipeline.signal();
+        assertTrue(recycler.done.await(1, TimeUnit.SECONDS));
+
+        assertEquals(3, recycler.recycled.size());
+        assertEquals(0, pipeline.getFramesInFlight());
+        assertFalse(delivered.contains(1));
+        assertTrue(delivered.contains(0));
+        assertTrue(delivered.contains(2));
+    }
+
+    @Test
+    public void clear_recyclesWaitingFrames() throws Exception {
+        RecordingRecycler recycler = new RecordingRecycler(2);
+        FramePipeline<Integer> pipeline = new FramePipeline<Integer>(new CountingSource(2), recycler, 2);
+
+        // The second stage's worker never runs anything, like a HandlerThread that has already quit
+        Executor inline = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        Executor stopped = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+            }
+        };
+        FramePipeline.Stage<Integer> nothing = new FramePipeline.Stage<Integer>() {
+            @Override
+            public void process(Integer frame) {
+            }
+        };
+        pipeline.addStage("first", inline, nothing);
+        pipeline.addStage("stopped", stopped, nothing);
+
+        pipeline.signal();
+        assertEquals(2, pipeline.getFramesInFlight());
+        assertEquals(2, pipeline.getStageMetrics(1).getQueueDepth());
+        assertTrue(recycler.recycled.isEmpty());
+
+        pipeline.clear();
+        assertEquals(0, pipeline.getFramesInFlight());
+        assertEquals(2, recycler.recycled.size());
+    }
+
+    @Test
+    public void ring_isBoundedFifo() throws Exception {
+        FrameRing<Integer> ring = new FrameRing<Integer>(3);
+        assertEquals(4, ring.capacity());
+
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 4; i++) {
+                assertTrue(ring.offer(i));
+            }
+            assertFalse(ring.offer(4));
+            assertEquals(4, ring.size());
+            for (int i = 0; i < 4; i++) {
+                assertEquals(Integer.valueOf(i), ring.poll());
+            }
+            assertNull(ring.poll());
+            assertEquals(0, ring.size());
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package edu.something.ar_framework;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host tests for FrameRecording and RecordedFrameSource.
+ */
+public class FrameRecordingTest {
+
+    private File myFile;
+
+    @Before
+    public void setUp() throws Exception {
+        myFile = File.createTempFile("recording", ".asfr");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        myFile.delete();
+    }
+
+    // Every pixel of frame i has a value that depends on i, row and column, so mixed-up frames or rows show
+    private static ByteBuffer frame(FrameRecording.Writer writer, int index, int rowStride) {
+        ByteBuffer frame = ByteBuffer.allocate((int) writer.getFrameSize());
+        for (int i = 0; i < frame.capacity(); i++) {
+            frame.put(i, (byte) (index * 7 + (i / rowStride) * 3 + i % rowStride));
+        }
+        return frame;
+    }
+
+    private void writeRecording(int frames, int width, int height, int rowStride, int format) throws IOException {
+        FrameRecording.Writer writer = new FrameRecording.Writer(myFile, width, height, rowStride, format);
+        try {
+            for (int i = 0; i < frames; i++) {
+                long timestamp = 1000000000L + i * 33333333L;
+                if (i % 3 == 0) {
+                    writer.addFrame(frame(writer, i, rowStride), timestamp);
+                } else if (i % 3 == 1) {
+                    writer.addFrame(frame(writer, i, rowStride), timestamp, FrameRecording.TARGET_NONE, null, null);
+                } else {
+                    writer.addFrame(frame(writer, i, rowStride), timestamp, i % 2,
+                            new float[]{0.1f * i, 0.2f, 0.3f}, new float[]{1, 2, 10f + i});
+                }
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test
+    public void open_afterWrite_readsGeometryTimestampsAndGroundTruth() throws Exception {
+        writeRecording(6, 10, 4, 16, FrameRecording.FORMAT_GRAY8);
+
+        FrameRecording recording = FrameRecording.open(myFile);
+        try {
+            assertEquals(10, recording.getWidth());
+            assertEquals(4, recording.getHeight());
+            assertEquals(16, recording.getRowStride());
+            assertEquals(FrameRecording.FORMAT_GRAY8, recording.getFormat());
+            assertEquals(6, recording.getFrameCount());
+
+            float[] rvec = new float[3];
+            float[] tvec = new float[3];
+            for (int i = 0; i < 6; i++) {
+                assertEquals(1000000000L + i * 33333333L, recording.getTimestamp(i));
+                if (i % 3 == 0) {
+                    assertEquals(FrameRecording.TARGET_UNKNOWN, recording.getGroundTruthTarget(i));
+                    assertFalse(recording.getGroundTruthPose(i, rvec, tvec));
+                } else if (i % 3 == 1) {
+                    assertEquals(FrameRecording.TARGET_NONE, recording.getGroundTruthTarget(i));
+                    assertFalse(recording.getGroundTruthPose(i, rvec, tvec));
+                } else {
+                    assertEquals(i % 2, recording.getGroundTruthTarget(i));
+                    assertTrue(recording.getGroundTruthPose(i, rvec, tvec));
+                    assertArrayEquals(new float[]{0.1f * i, 0.2f, 0.3f}, rvec, 0);
+                    assertArrayEquals(new float[]{1, 2, 10f + i}, tvec, 0);
+                }
+            }
+        } finally {
+            recording.close();
+        }
+    }
+
+    @Test
+    public void getLumaBuffer_paddedYuvFrames_returnsDirectLumaPlaneOnly() throws Exception {
+        writeRecording(3, 6, 5, 8, FrameRecording.FORMAT_YUV420);
+
+        FrameRecording recording = FrameRecording.open(myFile);
+        try {
+            // Luma, then two 4 x 3 chroma planes
+            assertEquals(8 * 5 + 2 * 4 * 3, recording.getFrameSize());
+            for (int i = 0; i < 3; i++) {
+                ByteBuffer luma = recording.getLumaBuffer(i);
+                assertTrue(luma.isDirect());
+                assertEquals(8 * 5, luma.remaining());
+                for (int j = 0; j < luma.remaining(); j++) {
+                    assertEquals((byte) (i * 7 + (j / 8) * 3 + j % 8), luma.get(j));
+                }
+            }
+        } finally {
+            recording.close();
+        }
+    }
+
+    @Test
+    public void open_smallChunks_mapsEveryFrameCorrectly() throws Exception {
+        writeRecording(7, 4, 4, 4, FrameRecording.FORMAT_GRAY8);
+
+        // Two frames per mapping, so frames come from four different chunks
+        FrameRecording recording = FrameRecording.open(myFile, 2 * 16 + 5);
+        try {
+            for (int i = 0; i < 7; i++) {
+                assertEquals(16, recording.getLumaBuffer(i).remaining());
+                assertEquals((byte) (i * 7), recording.getLumaBuffer(i).get(0));
+                assertEquals((byte) (i * 7 + 3 * 3 + 3), recording.getLumaBuffer(i).get(15));
+            }
+        } finally {
+            recording.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void open_unclosedRecording_isRejected() throws Exception {
+        try (FrameRecording.Writer writer = new FrameRecording.Writer(myFile, 4, 4, 4, FrameRecording.FORMAT_GRAY8)) {
+            writer.addFrame(frame(writer, 0, 4), 0);
+            // Simulate a crash before close(): frame data is there, header and index are not
+            try (RandomAccessFile file = new RandomAccessFile(myFile, "rw")) {
+                file.setLength(FrameRecording.HEADER_SIZE + 16);
+            }
+
+            FrameRecording.open(myFile);
+        }
+    }
+
+    @Test
+    public void open_frameCountBeyondIndexLimit_isRejected() throws Exception {
+        writeRecording(2, 4, 4, 4, FrameRecording.FORMAT_GRAY8);
+        try (RandomAccessFile file = new RandomAccessFile(myFile, "rw")) {
+            // frameCount is the little-endian int at offset 24 of the header
+            file.seek(24);
+            file.writeInt(Integer.reverseBytes(FrameRecording.MAX_FRAMES + 1));
+        }
+
+        try {
+            FrameRecording.open(myFile);
+            fail("A recording too long for its index was opened");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("too many frames"));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void addFrame_wrongSize_throws() throws Exception {
+        FrameRecording.Writer writer = new FrameRecording.Writer(myFile, 4, 4, 4, FrameRecording.FORMAT_GRAY8);
+        try {
+            writer.addFrame(ByteBuffer.allocate(15), 0);
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test
+    public void recordedFrameSource_handsOutFramesInOrderAndFinishesWhenAllClosed() throws Exception {
+        writeRecording(4, 4, 2, 4, FrameRecording.FORMAT_GRAY8);
+        FrameRecording recording = FrameRecording.open(myFile);
+        try {
+            RecordedFrameSource source = new RecordedFrameSource(recording);
+            RecordedFrameSource.RecordedFrame[] frames = new RecordedFrameSource.RecordedFrame[4];
+            for (int i = 0; i < 4; i++) {
+                frames[i] = source.acquireFrame();
+                assertEquals(i, frames[i].getIndex());
+                assertEquals(recording.getTimestamp(i), frames[i].getTimestamp());
+                assertEquals(4, frames[i].getLumaRowStride());
+                assertEquals(1, frames[i].getLumaPixelStride());
+            }
+            assertNull(source.acquireFrame());
+
+            for (int i = 0; i < 3; i++) {
+                frames[i].close();
+            }
+            assertEquals(1, source.getRemainingFrames());
+            assertFalse(source.awaitFinished(10, TimeUnit.MILLISECONDS));
+            frames[3].close();
+            assertTrue(source.awaitFinished(0, TimeUnit.MILLISECONDS));
+        } finally {
+            recording.close();
+        }
+    }
+}
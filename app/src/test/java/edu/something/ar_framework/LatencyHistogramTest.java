@@ -0,0 +1,135 @@
+package edu.something.ar_framework;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host tests for LatencyHistogram and the way PoseMetrics reads the native per-frame block.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void buckets_coverEveryValueOnce() throws Exception {
+        // Every bucket starts right after the previous one ends, and every value lands in the bucket that contains it
+        long previousUpper = -1;
+        for (int i = 0; i < LatencyHistogram.BUCKET_COUNT; i++) {
+            long upper = LatencyHistogram.bucketUpperBound(i);
+            assertEquals(i, LatencyHistogram.bucketIndex(previousUpper + 1));
+            assertEquals(i, LatencyHistogram.bucketIndex(upper));
+            previousUpper = upper;
+        }
+        assertEquals(LatencyHistogram.MAX_TRACKABLE_NANOS, previousUpper);
+    }
+
+    @Test
+    public void percentiles_withinBucketPrecision() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        // 1..10000 microseconds, so p50 is 5 ms and p99 is 9.9 ms
+        for (int i = 1; i <= 10000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram.Snapshot();
+        histogram.snapshot(snapshot);
+        assertEquals(10000, snapshot.getCount());
+        assertEquals(5.0005, snapshot.getMeanMillis(), 1e-9);
+        assertEquals(10.0, snapshot.getMaxMillis(), 1e-9);
+        assertPercentile(5.0, snapshot.getPercentileMillis(50));
+        assertPercentile(9.5, snapshot.getPercentileMillis(95));
+        assertPercentile(9.9, snapshot.getPercentileMillis(99));
+        assertEquals(10.0, snapshot.getPercentileMillis(100), 1e-9);
+        assertPercentile(0.001, snapshot.getPercentileMillis(0));
+    }
+
+    // Bucket upper bounds may only ever overstate the real value, by at most one bucket width
+    private static void assertPercentile(double expectedMillis, double actualMillis) {
+        assertTrue("Expected about " + expectedMillis + " but was " + actualMillis,
+                actualMillis >= expectedMillis && actualMillis <= expectedMillis * 1.032);
+    }
+
+    @Test
+    public void snapshot_isReusableAndResetClears() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram.Snapshot();
+        histogram.snapshot(snapshot);
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getPercentileNanos(99));
+
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        histogram.snapshot(snapshot);
+        assertEquals(2, snapshot.getCount());
+        assertEquals(0, snapshot.getPercentileNanos(50));
+        assertEquals(LatencyHistogram.MAX_TRACKABLE_NANOS, snapshot.getPercentileNanos(100));
+
+        histogram.reset();
+        histogram.snapshot(snapshot);
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, histogram.getCount());
+    }
+
+    @Test
+    public void concurrentRecording_losesNothing() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final int perThread = 100000;
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        histogram.record(1000 + offset * 1000 + (i & 1023));
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram.Snapshot();
+        histogram.snapshot(snapshot);
+        assertEquals(threads.length * perThread, snapshot.getCount());
+        assertEquals(4000 + 1023, (long) (snapshot.getMaxMillis() * 1e6 + 0.5));
+    }
+
+    @Test
+    public void poseMetrics_readsNativeFrameBlock() throws Exception {
+        PoseMetrics metrics = new PoseMetrics();
+        LongBuffer frame = ByteBuffer.allocateDirect(PoseMetrics.FRAME_SIZE * 8).order(ByteOrder.nativeOrder())
+                .asLongBuffer();
+
+        // A tracked frame that lost its target and then failed detection, without PnP
+        frame.put(PoseMetrics.FRAME_EXTRACT_ENTRY_NANOS, 1500);
+        frame.put(PoseMetrics.FRAME_SOLVE_ENTRY_NANOS, 9000);
+        frame.put(PoseMetrics.FRAME_ORB_NANOS, 4000000);
+        frame.put(PoseMetrics.FRAME_MATCH_NANOS, 2000000);
+        frame.put(PoseMetrics.FRAME_PNP_NANOS, 0);
+        frame.put(PoseMetrics.FRAME_FLAGS, PoseMetrics.FLAG_TRACKING_LOST | PoseMetrics.FLAG_DETECTION_FAILED);
+        metrics.recordNativeFrame(frame, 1000, 8000);
+        metrics.recordDroppedFrame();
+
+        PoseMetrics.Snapshot snapshot = new PoseMetrics.Snapshot();
+        metrics.snapshot(snapshot);
+        assertEquals(2, snapshot.getHistogram(PoseMetrics.JNI_ENTRY).getCount());
+        assertEquals(1000, snapshot.getHistogram(PoseMetrics.JNI_ENTRY).getPercentileNanos(100));
+        assertEquals(1, snapshot.getHistogram(PoseMetrics.ORB_DETECT).getCount());
+        assertEquals(1, snapshot.getHistogram(PoseMetrics.DESCRIPTOR_MATCH).getCount());
+        assertEquals(0, snapshot.getHistogram(PoseMetrics.PNP).getCount());
+        assertEquals(1, snapshot.getDetectionFailures());
+        assertEquals(1, snapshot.getTrackingLosses());
+        assertEquals(1, snapshot.getDroppedFrames());
+
+        metrics.reset();
+        metrics.snapshot(snapshot);
+        assertEquals(0, snapshot.getHistogram(PoseMetrics.JNI_ENTRY).getCount());
+        assertEquals(0, snapshot.getTrackingLosses());
+    }
+}
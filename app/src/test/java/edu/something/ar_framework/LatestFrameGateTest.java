@@ -0,0 +1,238 @@
+package edu.something.ar_framework;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host tests for LatestFrameGate, driven with synthetic Integer frames instead of camera2 Images.
+ */
+public class LatestFrameGateTest {
+
+    // Records every frame the gate gives back, standing in for Image.close()
+    private static class RecordingRecycler implements FrameGate.FrameRecycler<Integer> {
+        final List<Integer> recycled = new ArrayList<Integer>();
+
+        @Override
+        public synchronized void recycle(Integer frame) {
+            recycled.add(frame);
+        }
+    }
+
+    // Frames queued up in the producer, standing in for the Images waiting in an ImageReader
+    private static class QueuedFrames implements FrameGate.FrameQueue<Integer> {
+        final ArrayDeque<Integer> waiting = new ArrayDeque<Integer>();
+        // How many more frames can be taken before next() refuses, like acquireNextImage() with all buffers held
+        int available = Integer.MAX_VALUE;
+
+        void produce(int first, int last) {
+            for (int frame = first; frame <= last; frame++) {
+                waiting.add(frame);
+            }
+        }
+
+        @Override
+        public Integer next() {
+            if (available == 0) {
+                return null;
+            }
+            available--;
+            return waiting.poll();
+        }
+    }
+
+    @Test
+    public void dropOldest_keepsNewestFrame() throws Exception {
+        RecordingRecycler recycler = new RecordingRecycler();
+        LatestFrameGate<Integer> gate = new LatestFrameGate<Integer>(recycler, FrameGate.DropPolicy.DROP_OLDEST);
+
+        assertTrue(gate.offer(1));
+        assertFalse(gate.offer(2));
+        assertFalse(gate.offer(3));
+
+        assertEquals(Integer.valueOf(3), gate.poll());
+        assertNull(gate.poll());
+        assertEquals(1, gate.getDeliveredCount());
+        assertEquals(2, gate.getDroppedCount());
+        assertEquals(2, recycler.recycled.size());
+        assertEquals(Integer.valueOf(1), recycler.recycled.get(0));
+        assertEquals(Integer.valueOf(2), recycler.recycled.get(1));
+    }
+
+    @Test
+    public void dropNewest_keepsWaitingFrame() throws Exception {
+        RecordingRecycler recycler = new RecordingRecycler();
+        LatestFrameGate<Integer> gate = new LatestFrameGate<Integer>(recycler, FrameGate.DropPolicy.DROP_NEWEST);
+
+        assertTrue(gate.offer(1));
+        assertFalse(gate.offer(2));
+
+        assertEquals(Integer.valueOf(1), gate.poll());
+        assertEquals(1, gate.getDeliveredCount());
+        assertEquals(1, gate.getDroppedCount());
+        assertEquals(Integer.valueOf(2), recycler.recycled.get(0));
+    }
+
+    @Test
+    public void offerAfterPoll_requestsNewDrain() throws Exception {
+        LatestFrameGate<Integer> gate = new LatestFrameGate<Integer>(new RecordingRecycler(),
+                FrameGate.DropPolicy.DROP_OLDEST);
+
+        assertTrue(gate.offer(1));
+        assertEquals(Integer.valueOf(1), gate.poll());
+        assertTrue(gate.offer(2));
+    }
+
+    @Test
+    public void clear_recyclesPendingFrame() throws Exception {
+        RecordingRecycler recycler = new RecordingRecycler();
+        LatestFrameGate<Integer> gate = new LatestFrameGate<Integer>(recycler, FrameGate.DropPolicy.DROP_OLDEST);
+
+        gate.offer(7);
+        gate.clear();
+
+        assertNull(gate.poll());
+        assertEquals(0, gate.getDeliveredCount());
+        assertEquals(1, gate.getDroppedCount());
+        assertEquals(Integer.valueOf(7), recycler.recycled.get(0));
+    }
+
+    @Test
+    public void slowConsumer_everyFrameDeliveredOrDroppedExactlyOnce() throws Exception {
+        final int frames = 20000;
+        final RecordingRecycler recycler = new RecordingRecycler();
+        final LatestFrameGate<Integer> gate = new LatestFrameGate<Integer>(recycler, FrameGate.DropPolicy.DROP_OLDEST);
+        final AtomicLong consumed = new AtomicLong();
+        final CountDownLatch producerDone = new CountDownLatch(1);
+        // A failed assertion would only end the consumer thread, so it is handed back to this one
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    consume();
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            }
+
+            private void consume() {
+                int last = -1;
+                while (true) {
+                    // Read the flag before polling, so an empty poll after it means nothing else is coming
+                    boolean done = producerDone.getCount() == 0;
+                    Integer frame = gate.poll();
+                    if (frame == null) {
+                        if (done) {
+                            return;
+                        }
+                        continue;
+                    }
+                    // Frames must never go backwards in time
+                    assertTrue("frame " + frame + " delivered after " + last, frame > last);
+                    last = frame;
+                    consumed.incrementAndGet();
+                }
+            }
+        });
+        consumer.start();
+
+        for (int i = 0; i < frames; i++) {
+            gate.offer(i);
+        }
+        producerDone.countDown();
+        consumer.join();
+        if (failure.get() != null) {
+            throw new AssertionError("Consumer failed", failure.get());
+        }
+        gate.clear();
+
+        assertEquals(consumed.get(), gate.getDeliveredCount());
+        assertEquals(frames, gate.getDeliveredCount() + gate.getDroppedCount());
+        assertEquals(gate.getDroppedCount(), recycler.recycled.size());
+    }
+
+    @Test
+    public void offerLatest_queuedFrames_offersNewestAndDropsTheRest() throws Exception {
+        RecordingRecycler recycler = new RecordingRecycler();
+        LatestFrameGate<Integer> gate = new LatestFrameGate<Integer>(recycler, FrameGate.DropPolicy.DROP_OLDEST);
+        QueuedFrames queue = new QueuedFrames();
+
+        queue.produce(1, 4);
+        assertTrue(gate.offerLatest(queue));
+        assertTrue(queue.waiting.isEmpty());
+        assertEquals(Integer.valueOf(4), gate.poll());
+        assertEquals(1, gate.getDeliveredCount());
+        assertEquals(3, gate.getDroppedCount());
+        assertEquals(3, recycler.recycled.size());
+        assertEquals(Integer.valueOf(1), recycler.recycled.get(0));
+        assertEquals(Integer.valueOf(3), recycler.recycled.get(2));
+    }
+
+    @Test
+    public void offerLatest_emptyQueue_offersNothing() throws Exception {
+        LatestFrameGate<Integer> gate = new LatestFrameGate<Integer>(new RecordingRecycler(),
+                FrameGate.DropPolicy.DROP_OLDEST);
+
+        assertFalse(gate.offerLatest(new QueuedFrames()));
+        assertNull(gate.poll());
+        assertEquals(0, gate.getDroppedCount());
+    }
+
+    @Test
+    public void offerLatest_framesQueueUp_everyFrameDeliveredOrDropped() throws Exception {
+        RecordingRecycler recycler = new RecordingRecycler();
+        LatestFrameGate<Integer> gate = new LatestFrameGate<Integer>(recycler, FrameGate.DropPolicy.DROP_OLDEST);
+        QueuedFrames queue = new QueuedFrames();
+
+        // Bursts of frames queue up between callbacks, and the consumer only gets to every other one
+        int produced = 0;
+        for (int burst = 1; burst <= 10; burst++) {
+            queue.produce(produced + 1, produced + burst);
+            produced += burst;
+            gate.offerLatest(queue);
+            if (burst % 2 == 0) {
+                assertEquals(Integer.valueOf(produced), gate.poll());
+            }
+        }
+        // All buffers are held, so the callback can't take the last frames until a later one
+        queue.produce(produced + 1, produced + 3);
+        produced += 3;
+        queue.available = 1;
+        gate.offerLatest(queue);
+        assertEquals(2, queue.waiting.size());
+        queue.available = Integer.MAX_VALUE;
+        gate.offerLatest(queue);
+        assertEquals(Integer.valueOf(produced), gate.poll());
+
+        assertEquals(produced, gate.getDeliveredCount() + gate.getDroppedCount());
+        assertEquals(gate.getDroppedCount(), recycler.recycled.size());
+    }
+
+    @Test
+    public void offerLatest_dropNewest_keepsWaitingFrame() throws Exception {
+        RecordingRecycler recycler = new RecordingRecycler();
+        LatestFrameGate<Integer> gate = new LatestFrameGate<Integer>(recycler, FrameGate.DropPolicy.DROP_NEWEST);
+        QueuedFrames queue = new QueuedFrames();
+
+        gate.offer(0);
+        queue.produce(1, 3);
+        assertFalse(gate.offerLatest(queue));
+        assertEquals(Integer.valueOf(0), gate.poll());
+        assertEquals(1, gate.getDeliveredCount());
+        assertEquals(3, gate.getDroppedCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nullPolicy_isRejected() throws Exception {
+        new LatestFrameGate<Integer>(new RecordingRecycler(), null);
+    }
+}
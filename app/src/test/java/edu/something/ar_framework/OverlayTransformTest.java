@@ -0,0 +1,80 @@
+package edu.something.ar_framework;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host tests for OverlayTransform, mapping the corners of a 640x480 frame onto views of twice its size.
+ */
+public class OverlayTransformTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+
+    // Top left, top right and bottom left corners of the frame
+    private static float[] frameCorners() {
+        return new float[]{0, 0, WIDTH, 0, 0, HEIGHT};
+    }
+
+    @Test
+    public void frameToView_noRotation_onlyScales() {
+        float[] points = frameCorners();
+        OverlayTransform.frameToView(points, 3, WIDTH, HEIGHT, 0, 2 * WIDTH, 2 * HEIGHT);
+        assertArrayEquals(new float[]{0, 0, 2 * WIDTH, 0, 0, 2 * HEIGHT}, points, 1e-3f);
+    }
+
+    @Test
+    public void frameToView_portraitSensor_turnsFrameClockwise() {
+        float[] points = frameCorners();
+        OverlayTransform.frameToView(points, 3, WIDTH, HEIGHT, 90, 2 * HEIGHT, 2 * WIDTH);
+        // The frame's top left ends up at the top right of the view, its bottom left at the top left
+        assertArrayEquals(new float[]{2 * HEIGHT, 0, 2 * HEIGHT, 2 * WIDTH, 0, 0}, points, 1e-3f);
+    }
+
+    @Test
+    public void frameToView_upsideDown_mirrorsBothAxes() {
+        float[] points = frameCorners();
+        OverlayTransform.frameToView(points, 3, WIDTH, HEIGHT, 180, 2 * WIDTH, 2 * HEIGHT);
+        assertArrayEquals(new float[]{2 * WIDTH, 2 * HEIGHT, 0, 2 * HEIGHT, 2 * WIDTH, 0}, points, 1e-3f);
+    }
+
+    @Test
+    public void frameToView_reversePortrait_turnsFrameCounterclockwise() {
+        float[] points = frameCorners();
+        OverlayTransform.frameToView(points, 3, WIDTH, HEIGHT, 270, 2 * HEIGHT, 2 * WIDTH);
+        assertArrayEquals(new float[]{0, 2 * WIDTH, 0, 0, 2 * HEIGHT, 2 * WIDTH}, points, 1e-3f);
+    }
+
+    @Test
+    public void frameToView_viewOfOtherAspect_stretchesEachAxis() {
+        float[] points = {WIDTH / 2, HEIGHT / 4};
+        OverlayTransform.frameToView(points, 1, WIDTH, HEIGHT, 90, 1080, 1920);
+        assertArrayEquals(new float[]{1080 * 0.75f, 1920 * 0.5f}, points, 1e-3f);
+    }
+
+    @Test
+    public void frameToScreenRotation_naturalDisplay_isSensorOrientation() {
+        assertEquals(90, OverlayTransform.frameToScreenRotation(90, 0));
+        assertEquals(270, OverlayTransform.frameToScreenRotation(270, 0));
+    }
+
+    @Test
+    public void frameToScreenRotation_rotatedDisplay_turnsFrameBack() {
+        // A portrait sensor on a phone held in landscape, either way round
+        assertEquals(0, OverlayTransform.frameToScreenRotation(90, 90));
+        assertEquals(180, OverlayTransform.frameToScreenRotation(90, 270));
+        assertEquals(270, OverlayTransform.frameToScreenRotation(90, 180));
+        assertEquals(180, OverlayTransform.frameToScreenRotation(0, 180));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void frameToScreenRotation_oddDisplayRotation_throws() {
+        OverlayTransform.frameToScreenRotation(90, 45);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void frameToView_oddRotation_throws() {
+        OverlayTransform.frameToView(frameCorners(), 3, WIDTH, HEIGHT, 45, WIDTH, HEIGHT);
+    }
+}
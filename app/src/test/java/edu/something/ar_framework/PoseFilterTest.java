@@ -0,0 +1,143 @@
+package edu.something.ar_framework;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host tests for PoseFilter, fed synthetic poses at 30 FPS.
+ */
+public class PoseFilterTest {
+
+    private static final long FRAME_NANOS = 33333333L;
+
+    private final float[] myRvec = new float[3];
+    private final float[] myTvec = new float[3];
+
+    private static PoseFilter filter() {
+        return new PoseFilter(PoseFilter.DEFAULT_MIN_CUTOFF_HZ, PoseFilter.DEFAULT_BETA);
+    }
+
+    @Test
+    public void update_firstPose_isPassedThrough() {
+        PoseFilter filter = filter();
+        assertFalse(filter.predict(0, myRvec, myTvec));
+        assertEquals(-1, filter.getTarget());
+
+        filter.update(2, 1000, new float[]{0.1f, -0.2f, 0.3f}, new float[]{0.5f, 0.25f, 2});
+        assertTrue(filter.predict(1000, myRvec, myTvec));
+        assertEquals(2, filter.getTarget());
+        assertArrayEquals(new float[]{0.1f, -0.2f, 0.3f}, myRvec, 1e-6f);
+        assertArrayEquals(new float[]{0.5f, 0.25f, 2}, myTvec, 1e-6f);
+    }
+
+    @Test
+    public void update_noisyStillTarget_removesMostOfTheNoise() {
+        float[] rvec = {0.3f, 0.2f, 0.1f};
+        float[] tvec = {0.1f, -0.1f, 1.5f};
+        float[] noisyRvec = new float[3];
+        float[] noisyTvec = new float[3];
+        Random random = new Random(3);
+        PoseFilter filter = filter();
+
+        double rawRotationError = 0;
+        double rotationError = 0;
+        double rawTranslationError = 0;
+        double translationError = 0;
+        for (int frame = 0; frame < 300; frame++) {
+            for (int i = 0; i < 3; i++) {
+                noisyRvec[i] = rvec[i] + (float) (random.nextGaussian() * 0.01);
+                noisyTvec[i] = tvec[i] + (float) (random.nextGaussian() * 0.005);
+            }
+            filter.update(0, frame * FRAME_NANOS, noisyRvec, noisyTvec);
+            filter.predict(frame * FRAME_NANOS, myRvec, myTvec);
+            // Once settled
+            if (frame >= 100) {
+                rawRotationError += PoseReplay.rotationErrorDegrees(noisyRvec, rvec);
+                rotationError += PoseReplay.rotationErrorDegrees(myRvec, rvec);
+                rawTranslationError += PoseReplay.translationError(noisyTvec, tvec);
+                translationError += PoseReplay.translationError(myTvec, tvec);
+            }
+        }
+        assertTrue("Rotation error " + rotationError + " vs raw " + rawRotationError,
+                rotationError < rawRotationError / 2);
+        assertTrue("Translation error " + translationError + " vs raw " + rawTranslationError,
+                translationError < rawTranslationError / 2);
+    }
+
+    @Test
+    public void predict_constantMotion_extrapolatesAlongIt() {
+        // Turning about z at 1 rad/s while moving along x at 0.5 units/s
+        PoseFilter filter = filter();
+        float[] rvec = new float[3];
+        float[] tvec = new float[3];
+        for (int frame = 0; frame < 90; frame++) {
+            double seconds = frame * FRAME_NANOS / 1e9;
+            rvec[2] = (float) seconds;
+            tvec[0] = (float) (0.5 * seconds);
+            tvec[2] = 2;
+            filter.update(0, frame * FRAME_NANOS, rvec, tvec);
+        }
+
+        float[] velocity = new float[3];
+        filter.getAngularVelocity(velocity);
+        assertArrayEquals(new float[]{0, 0, 1}, velocity, 0.02f);
+        filter.getLinearVelocity(velocity);
+        assertArrayEquals(new float[]{0.5f, 0, 0}, velocity, 0.01f);
+
+        // 50 ms past the last frame, where a raw pose would be 50 ms plus its own lag behind
+        long last = 89 * FRAME_NANOS;
+        long display = last + 50000000L;
+        double displaySeconds = display / 1e9;
+        filter.predict(display, myRvec, myTvec);
+        assertEquals(0, PoseReplay.rotationErrorDegrees(myRvec, new float[]{0, 0, (float) displaySeconds}), 0.5);
+        assertEquals(0, PoseReplay.translationError(myTvec, new float[]{(float) (0.5 * displaySeconds), 0, 2}), 0.005);
+    }
+
+    @Test
+    public void predict_farAhead_isCappedAtMaxPrediction() {
+        PoseFilter filter = filter();
+        float[] tvec = new float[3];
+        for (int frame = 0; frame < 90; frame++) {
+            tvec[0] = (float) (frame * FRAME_NANOS / 1e9);
+            filter.update(0, frame * FRAME_NANOS, new float[3], tvec);
+        }
+        float[] capped = new float[3];
+        filter.predict(89 * FRAME_NANOS + PoseFilter.MAX_PREDICTION_NANOS, myRvec, capped);
+        filter.predict(89 * FRAME_NANOS + 10 * PoseFilter.MAX_PREDICTION_NANOS, myRvec, myTvec);
+        assertArrayEquals(capped, myTvec, 0);
+    }
+
+    @Test
+    public void update_otherTargetOrAfterGap_startsOver() {
+        PoseFilter filter = filter();
+        filter.update(0, 0, new float[3], new float[]{0, 0, 1});
+        filter.update(0, FRAME_NANOS, new float[3], new float[]{0, 0, 1});
+
+        filter.update(1, 2 * FRAME_NANOS, new float[3], new float[]{1, 0, 1});
+        filter.predict(2 * FRAME_NANOS, myRvec, myTvec);
+        assertArrayEquals(new float[]{1, 0, 1}, myTvec, 0);
+
+        long later = 2 * FRAME_NANOS + PoseFilter.RESET_GAP_NANOS + 1;
+        filter.update(1, later, new float[3], new float[]{-1, 0, 1});
+        filter.predict(later + FRAME_NANOS, myRvec, myTvec);
+        assertArrayEquals(new float[]{-1, 0, 1}, myTvec, 0);
+    }
+
+    @Test
+    public void update_acrossHalfTurn_takesTheShortWay() {
+        // rvec flips from just under pi about x to just under pi about -x, which is a turn of only 0.2 rad
+        PoseFilter filter = filter();
+        filter.update(0, 0, new float[]{(float) (Math.PI - 0.1), 0, 0}, new float[]{0, 0, 1});
+        filter.update(0, FRAME_NANOS, new float[]{(float) -(Math.PI - 0.1), 0, 0}, new float[]{0, 0, 1});
+        filter.predict(FRAME_NANOS, myRvec, myTvec);
+        assertTrue(PoseReplay.rotationErrorDegrees(myRvec, new float[]{(float) Math.PI, 0, 0}) < Math.toDegrees(0.1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setParameters_zeroCutoff_throws() {
+        new PoseFilter(0, PoseFilter.DEFAULT_BETA);
+    }
+}
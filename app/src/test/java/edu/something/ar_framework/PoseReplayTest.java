@@ -0,0 +1,101 @@
+package edu.something.ar_framework;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host tests for the parts of PoseReplay that don't need native code: pose error and jitter, and parsing its
+ * arguments and targets.
+ */
+public class PoseReplayTest {
+
+    @Test
+    public void rotationErrorDegrees_isTheAngleBetweenRotations() {
+        float[] aboutZ = {0, 0, (float) Math.toRadians(30)};
+        float[] aboutZMore = {0, 0, (float) Math.toRadians(40)};
+        assertEquals(0, PoseReplay.rotationErrorDegrees(aboutZ, aboutZ), 1e-3);
+        assertEquals(10, PoseReplay.rotationErrorDegrees(aboutZ, aboutZMore), 1e-3);
+        assertEquals(30, PoseReplay.rotationErrorDegrees(new float[3], aboutZ), 1e-3);
+
+        // A rotation by pi + x about an axis is the same as one by pi - x about the opposite axis
+        float[] almostHalfTurn = {(float) (Math.PI - 0.1), 0, 0};
+        float[] almostHalfTurnBack = {(float) -(Math.PI - 0.1), 0, 0};
+        assertEquals(Math.toDegrees(0.2), PoseReplay.rotationErrorDegrees(almostHalfTurn, almostHalfTurnBack), 1e-3);
+    }
+
+    @Test
+    public void translationError_isEuclideanDistance() {
+        assertEquals(5, PoseReplay.translationError(new float[]{3, 4, 10}, new float[]{0, 0, 10}), 1e-6);
+    }
+
+    @Test
+    public void rotationJitterDegrees_followingGroundTruth_isZero() {
+        float[] previous = {0.1f, 0.2f, 0.3f};
+        float[] current = {0.15f, 0.1f, 0.35f};
+        assertEquals(0, PoseReplay.rotationJitterDegrees(previous, current, previous, current), 1e-3);
+
+        // Off by a constant rotation on both frames is an error, but no jitter
+        float[] offset = {0, 0, (float) Math.toRadians(5)};
+        float[] z30 = {0, 0, (float) Math.toRadians(30)};
+        float[] z40 = {0, 0, (float) Math.toRadians(40)};
+        float[] z45 = {0, 0, (float) Math.toRadians(45)};
+        assertEquals(0, PoseReplay.rotationJitterDegrees(offset, z40, new float[3], new float[]{0, 0,
+                (float) Math.toRadians(35)}), 1e-3);
+        // Turning 15 degrees while the camera turned 10 is 5 degrees of jitter
+        assertEquals(5, PoseReplay.rotationJitterDegrees(z30, z45, z30, z40), 1e-3);
+    }
+
+    @Test
+    public void translationJitter_ignoresConstantOffset() {
+        float[] expectedPrevious = {0, 0, 10};
+        float[] expectedCurrent = {1, 0, 10};
+        assertEquals(0, PoseReplay.translationJitter(new float[]{0, 1, 10}, new float[]{1, 1, 10}, expectedPrevious,
+                expectedCurrent), 1e-6);
+        assertEquals(5, PoseReplay.translationJitter(new float[]{0, 0, 10}, new float[]{4, 4, 10}, expectedPrevious,
+                expectedCurrent), 1e-6);
+    }
+
+    @Test
+    public void covarianceTrace_addsTheDiagonalOfRotationOrTranslation() {
+        FloatBuffer result = FloatBuffer.allocate(PoseEngine.RESULT_SIZE);
+        // Upper triangle row by row, with the diagonal element (i, i) set to i + 1 and the rest to 100
+        for (int i = 0, k = PoseEngine.RESULT_COVARIANCE; i < 6; i++) {
+            for (int j = i; j < 6; j++) {
+                result.put(k++, i == j ? i + 1 : 100);
+            }
+        }
+        assertEquals(1 + 2 + 3, PoseReplay.Report.covarianceTrace(result, 0), 0);
+        assertEquals(4 + 5 + 6, PoseReplay.Report.covarianceTrace(result, 3), 0);
+    }
+
+    @Test
+    public void parseGrid_columnsByRows() {
+        assertArrayEquals(new int[]{6, 4}, PoseReplay.parseGrid("6x4"));
+        assertArrayEquals(new int[]{0, 0}, PoseReplay.parseGrid("0x0"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseGrid_zeroColumnsOnly_isRejected() {
+        PoseReplay.parseGrid("0x4");
+    }
+
+    @Test
+    public void parsePgmHeader_withComment_findsSizeAndPixels() throws Exception {
+        byte[] header = "P5\n# reference\n3 2\n255\n".getBytes("US-ASCII");
+        ByteBuffer pgm = ByteBuffer.allocate(header.length + 6);
+        pgm.put(header);
+        int[] size = new int[3];
+        assertEquals(header.length, PoseReplay.parsePgmHeader(pgm, size));
+        assertArrayEquals(new int[]{3, 2, 255}, size);
+    }
+
+    @Test(expected = IOException.class)
+    public void parsePgmHeader_asciiPgm_isRejected() throws Exception {
+        PoseReplay.parsePgmHeader(ByteBuffer.wrap("P2\n3 2\n255\n".getBytes("US-ASCII")), new int[3]);
+    }
+}
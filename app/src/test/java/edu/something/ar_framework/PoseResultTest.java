@@ -0,0 +1,136 @@
+package edu.something.ar_framework;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host tests for PoseResult and its Pool, with frames that only count how often they are closed.
+ */
+public class PoseResultTest {
+
+    // Stands in for an ImageFrame, whose close() hands the Image back to the ImageReader
+    private static class CountingFrame implements CameraFrame {
+        int closed;
+
+        @Override
+        public int getWidth() {
+            return 4;
+        }
+
+        @Override
+        public int getHeight() {
+            return 4;
+        }
+
+        @Override
+        public ByteBuffer getLumaBuffer() {
+            return ByteBuffer.allocateDirect(16);
+        }
+
+        @Override
+        public int getLumaRowStride() {
+            return 4;
+        }
+
+        @Override
+        public int getLumaPixelStride() {
+            return 1;
+        }
+
+        @Override
+        public long getTimestamp() {
+            return 1234;
+        }
+
+        @Override
+        public void close() {
+            closed++;
+        }
+    }
+
+    private static FloatBuffer nativeResult(int target) {
+        FloatBuffer result = FloatBuffer.allocate(PoseEngine.RESULT_SIZE);
+        result.put(PoseEngine.RESULT_TARGET, target);
+        for (int i = 0; i < PoseEngine.COVARIANCE_SIZE; i++) {
+            result.put(PoseEngine.RESULT_COVARIANCE + i, i);
+        }
+        return result;
+    }
+
+    @Test
+    public void set_copiesPoseAndTakesOverFrame() {
+        PoseResult.Pool pool = new PoseResult.Pool(1);
+        PoseResult pose = pool.acquire();
+        CountingFrame frame = new CountingFrame();
+        pose.set(frame, TrackingStats.MODE_TRACKED, nativeResult(2), new float[]{1, 2, 3}, new float[]{4, 5, 6});
+
+        assertSame(frame, pose.getFrame());
+        assertEquals(2, pose.getTargetIndex());
+        assertEquals(TrackingStats.MODE_TRACKED, pose.getMode());
+        assertEquals(1234, pose.getTimestamp());
+        assertArrayEquals(new float[]{1, 2, 3}, pose.getRvec(), 0);
+        assertArrayEquals(new float[]{4, 5, 6}, pose.getTvec(), 0);
+        float[] covariance = new float[PoseEngine.COVARIANCE_SIZE];
+        pose.getCovariance(covariance);
+        assertEquals(20, covariance[20], 0);
+        assertFalse(pose.getVelocity(new float[3], new float[3]));
+        assertEquals(0, frame.closed);
+    }
+
+    @Test
+    public void release_closesFrameOnceAndReturnsResultToPool() {
+        PoseResult.Pool pool = new PoseResult.Pool(2);
+        PoseResult first = pool.acquire();
+        PoseResult second = pool.acquire();
+        assertNotNull(second);
+        // Both held, a third pose has nowhere to go
+        assertNull(pool.acquire());
+
+        CountingFrame frame = new CountingFrame();
+        first.set(frame, TrackingStats.MODE_DETECTED, nativeResult(0), new float[3], new float[3]);
+        first.release();
+        assertEquals(1, frame.closed);
+        assertNull(first.getFrame());
+        assertEquals(1, pool.getFreeCount());
+
+        // The same object comes back, so steady-state delivery allocates nothing
+        assertSame(first, pool.acquire());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void release_twice_throws() {
+        PoseResult pose = new PoseResult.Pool(1).acquire();
+        pose.set(new CountingFrame(), TrackingStats.MODE_DETECTED, nativeResult(0), new float[3], new float[3]);
+        pose.release();
+        pose.release();
+    }
+
+    @Test
+    public void release_fromAnotherThread_isSeenByTheDeliveryThread() throws Exception {
+        final PoseResult.Pool pool = new PoseResult.Pool(1);
+        final CountingFrame frame = new CountingFrame();
+        for (int i = 0; i < 1000; i++) {
+            final PoseResult pose = pool.acquire();
+            assertNotNull("Result " + i + " was not back in the pool", pose);
+            pose.set(frame, TrackingStats.MODE_TRACKED, nativeResult(0), new float[3], new float[3]);
+            Thread renderer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    pose.release();
+                }
+            });
+            renderer.start();
+            renderer.join();
+        }
+        assertEquals(1000, frame.closed);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void pool_empty_isRejected() {
+        new PoseResult.Pool(0);
+    }
+}
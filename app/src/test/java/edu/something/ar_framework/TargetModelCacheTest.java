@@ -0,0 +1,73 @@
+package edu.something.ar_framework;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host tests for TargetModelCache. The cache doesn't interpret the model bytes, so arbitrary data stands in for a
+ * serialized target model.
+ */
+public class TargetModelCacheTest {
+
+    private File myDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+        myDirectory = Files.createTempDirectory("target_models").toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        File[] files = myDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        myDirectory.delete();
+    }
+
+    @Test
+    public void map_missingModel_returnsNull() throws Exception {
+        TargetModelCache cache = new TargetModelCache(myDirectory);
+        assertNull(cache.map("missing"));
+    }
+
+    @Test
+    public void store_thenMap_returnsSameBytes() throws Exception {
+        byte[] model = new byte[4096];
+        for (int i = 0; i < model.length; i++) {
+            model[i] = (byte) (i * 31);
+        }
+
+        TargetModelCache cache = new TargetModelCache(new File(myDirectory, "nested"));
+        MappedByteBuffer stored = cache.store("abc", model);
+        assertTrue(stored.isDirect());
+        assertEquals(model.length, stored.capacity());
+
+        // A later launch only has the file to go on
+        MappedByteBuffer mapped = new TargetModelCache(new File(myDirectory, "nested")).map("abc");
+        assertNotNull(mapped);
+        byte[] read = new byte[mapped.capacity()];
+        mapped.get(read);
+        assertArrayEquals(model, read);
+
+        new File(myDirectory, "nested/abc.asut").delete();
+        new File(myDirectory, "nested").delete();
+    }
+
+    @Test
+    public void invalidate_removesModel() throws Exception {
+        TargetModelCache cache = new TargetModelCache(myDirectory);
+        cache.store("abc", new byte[]{1, 2, 3});
+        cache.invalidate("abc");
+        assertNull(cache.map("abc"));
+    }
+}
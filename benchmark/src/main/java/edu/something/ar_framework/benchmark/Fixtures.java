@@ -0,0 +1,134 @@
+package edu.something.ar_framework.benchmark;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.features2d.ORB;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The checked-in images every benchmark runs on, and the ground truth they were made with.
+ *
+ * The reference is the app's own reference image. The scenes in benchmark/fixtures show it under GROUND_TRUTH_RVEC at
+ * GROUND_TRUTH_DEPTH, seen through cameraMatrix(), in front of a cluttered background so matching has distractors to
+ * reject. They were made by GenerateFixtures and are checked in rather than generated on the fly, so results stay
+ * comparable between commits even if the generator changes.
+ *
+ * Paths are relative to the repository root, which the benchmark task passes in the benchmark.rootDir system property.
+ */
+final class Fixtures {
+
+    static final String REFERENCE_IMAGE = "app/src/main/res/drawable/referenceimage.png";
+
+    // Scene sizes, as used by the @Param of the benchmarks
+    static final String SCENE_VGA = "640x480";
+    static final String SCENE_HD = "1280x720";
+
+    // Pose of the reference in the scenes. Object coordinates are the ones target_model.cpp uses: reference pixels
+    // scaled so its longer side is one unit long, on the z = 0 plane.
+    static final double[] GROUND_TRUTH_RVEC = {0.35, -0.3, 0.1};
+    static final double GROUND_TRUTH_DEPTH = 1.6;
+
+    private static boolean ourNativeLibrariesLoaded;
+
+    private Fixtures() {
+    }
+
+    // Load the desktop OpenCV Java library. libopencv_direct, for the direct buffer transfers, loads itself on first use.
+    static synchronized void loadNativeLibraries() {
+        if (!ourNativeLibrariesLoaded) {
+            System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+            ourNativeLibrariesLoaded = true;
+        }
+    }
+
+    static File file(String path) {
+        return new File(System.getProperty("benchmark.rootDir", "."), path);
+    }
+
+    static File sceneFile(String size) {
+        return file("benchmark/fixtures/scene_" + size + ".png");
+    }
+
+    // Width and height of a scene size such as SCENE_VGA
+    static int[] parseSize(String size) {
+        int x = size.indexOf('x');
+        return new int[]{Integer.parseInt(size.substring(0, x)), Integer.parseInt(size.substring(x + 1))};
+    }
+
+    static Mat loadReference() throws IOException {
+        return loadGray(file(REFERENCE_IMAGE));
+    }
+
+    static Mat loadScene(String size) throws IOException {
+        return loadGray(sceneFile(size));
+    }
+
+    private static Mat loadGray(File file) throws IOException {
+        Mat image = Imgcodecs.imread(file.getPath(), Imgcodecs.IMREAD_GRAYSCALE);
+        if (image.empty()) {
+            throw new IOException("Can't read " + file.getAbsolutePath()
+                    + ", run from the repository root or set -Dbenchmark.rootDir");
+        }
+        return image;
+    }
+
+    // ORB with OpenCV's defaults for everything but the number of features and pyramid levels, which the Java
+    // bindings can only set together with all the others
+    static ORB createOrb(int nfeatures, int nlevels) {
+        return ORB.create(nfeatures, 1.2f, nlevels, 31, 0, 2, ORB.HARRIS_SCORE, 31, 20);
+    }
+
+    /**
+     * Same approximate intrinsics as PoseTracker uses for an uncalibrated camera: principal point in the center and a
+     * focal length equal to the larger frame dimension.
+     */
+    static Mat cameraMatrix(int width, int height) {
+        double[] k = intrinsics(width, height);
+        Mat cameraMatrix = new Mat(3, 3, CvType.CV_64F);
+        cameraMatrix.put(0, 0, k);
+        return cameraMatrix;
+    }
+
+    static double[] intrinsics(int width, int height) {
+        double focal = Math.max(width, height);
+        return new double[]{focal, 0, width / 2.0, 0, focal, height / 2.0, 0, 0, 1};
+    }
+
+    // Scale from reference pixels to object coordinates
+    static double objectScale(int referenceWidth, int referenceHeight) {
+        return 1.0 / Math.max(referenceWidth, referenceHeight);
+    }
+
+    /**
+     * Translation of the ground truth pose, chosen so the center of the reference lands on the principal point
+     * GROUND_TRUTH_DEPTH away from the camera.
+     */
+    static double[] groundTruthTvec(int referenceWidth, int referenceHeight) {
+        double scale = objectScale(referenceWidth, referenceHeight);
+        double cx = referenceWidth * scale / 2;
+        double cy = referenceHeight * scale / 2;
+        double[] r = rodrigues(GROUND_TRUTH_RVEC);
+        return new double[]{
+                -(r[0] * cx + r[1] * cy),
+                -(r[3] * cx + r[4] * cy),
+                GROUND_TRUTH_DEPTH - (r[6] * cx + r[7] * cy)};
+    }
+
+    // Row-major rotation matrix of a rotation vector
+    static double[] rodrigues(double[] rvec) {
+        double theta = Math.sqrt(rvec[0] * rvec[0] + rvec[1] * rvec[1] + rvec[2] * rvec[2]);
+        if (theta < 1e-12) {
+            return new double[]{1, 0, 0, 0, 1, 0, 0, 0, 1};
+        }
+        double x = rvec[0] / theta, y = rvec[1] / theta, z = rvec[2] / theta;
+        double c = Math.cos(theta), s = Math.sin(theta), t = 1 - c;
+        return new double[]{
+                t * x * x + c, t * x * y - s * z, t * x * z + s * y,
+                t * x * y + s * z, t * y * y + c, t * y * z - s * x,
+                t * x * z - s * y, t * y * z + s * x, t * z * z + c};
+    }
+}
@@ -0,0 +1,153 @@
+package edu.something.ar_framework.benchmark;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Renders the scene images in benchmark/fixtures from the reference image and the ground truth in Fixtures. Only
+ * needed when the fixtures change, which makes earlier benchmark results incomparable. Uses Java2D only, no OpenCV:
+ *
+ *   java -cp benchmark/build/classes/java/main edu.something.ar_framework.benchmark.GenerateFixtures
+ */
+public final class GenerateFixtures {
+
+    // Fixed seeds, so the scenes come out the same every time
+    private static final long BACKGROUND_SEED = 42;
+    private static final long NOISE_SEED = 7;
+
+    private static final int BACKGROUND_SHAPES = 80;
+    private static final double NOISE_SIGMA = 3.0;
+
+    private GenerateFixtures() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        BufferedImage reference = ImageIO.read(Fixtures.file(Fixtures.REFERENCE_IMAGE));
+        if (reference == null) {
+            throw new IOException("Can't read " + Fixtures.file(Fixtures.REFERENCE_IMAGE).getAbsolutePath());
+        }
+        for (String size : new String[]{Fixtures.SCENE_VGA, Fixtures.SCENE_HD}) {
+            int[] dimensions = Fixtures.parseSize(size);
+            File out = Fixtures.sceneFile(size);
+            ImageIO.write(renderScene(reference, dimensions[0], dimensions[1]), "png", out);
+            System.out.println("Wrote " + out);
+        }
+    }
+
+    static BufferedImage renderScene(BufferedImage reference, int width, int height) {
+        int refWidth = reference.getWidth();
+        int refHeight = reference.getHeight();
+        float[] luma = luma(reference);
+
+        // Homography from object coordinates on the z = 0 plane to scene pixels is K [r1 r2 t], so invert it to find
+        // where every scene pixel comes from
+        double[] k = Fixtures.intrinsics(width, height);
+        double[] r = Fixtures.rodrigues(Fixtures.GROUND_TRUTH_RVEC);
+        double[] t = Fixtures.groundTruthTvec(refWidth, refHeight);
+        double[] rt = {r[0], r[1], t[0], r[3], r[4], t[1], r[6], r[7], t[2]};
+        double[] inverse = invert(multiply(k, rt));
+        double scale = Fixtures.objectScale(refWidth, refHeight);
+
+        BufferedImage scene = background(width, height);
+        byte[] pixels = new byte[width * height];
+        scene.getRaster().getDataElements(0, 0, width, height, pixels);
+        Random noise = new Random(NOISE_SEED);
+        for (int v = 0; v < height; v++) {
+            for (int u = 0; u < width; u++) {
+                double w = inverse[6] * u + inverse[7] * v + inverse[8];
+                double x = (inverse[0] * u + inverse[1] * v + inverse[2]) / w / scale;
+                double y = (inverse[3] * u + inverse[4] * v + inverse[5]) / w / scale;
+
+                double value = pixels[v * width + u] & 0xff;
+                if (w > 0 && x >= 0 && y >= 0 && x < refWidth - 1 && y < refHeight - 1) {
+                    value = bilinear(luma, refWidth, x, y);
+                }
+                value += noise.nextGaussian() * NOISE_SIGMA;
+                pixels[v * width + u] = (byte) Math.max(0, Math.min(255, (int) Math.round(value)));
+            }
+        }
+        scene.getRaster().setDataElements(0, 0, width, height, pixels);
+        return scene;
+    }
+
+    // Random boxes and ellipses, for corners and edges that don't belong to the target
+    private static BufferedImage background(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = image.createGraphics();
+        try {
+            Random random = new Random(BACKGROUND_SEED);
+            g.setColor(new Color(120, 120, 120));
+            g.fillRect(0, 0, width, height);
+            for (int i = 0; i < BACKGROUND_SHAPES; i++) {
+                int gray = random.nextInt(256);
+                g.setColor(new Color(gray, gray, gray));
+                int w = (int) (width * (0.02 + 0.15 * random.nextDouble()));
+                int h = (int) (height * (0.02 + 0.15 * random.nextDouble()));
+                int x = random.nextInt(width) - w / 2;
+                int y = random.nextInt(height) - h / 2;
+                if (random.nextBoolean()) {
+                    g.fillRect(x, y, w, h);
+                } else {
+                    g.fillOval(x, y, w, h);
+                }
+            }
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+    private static float[] luma(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] rgb = image.getRGB(0, 0, width, height, null, 0, width);
+        float[] luma = new float[rgb.length];
+        for (int i = 0; i < rgb.length; i++) {
+            luma[i] = 0.299f * ((rgb[i] >> 16) & 0xff) + 0.587f * ((rgb[i] >> 8) & 0xff) + 0.114f * (rgb[i] & 0xff);
+        }
+        return luma;
+    }
+
+    private static double bilinear(float[] image, int width, double x, double y) {
+        int x0 = (int) x;
+        int y0 = (int) y;
+        double fx = x - x0;
+        double fy = y - y0;
+        int i = y0 * width + x0;
+        double top = image[i] * (1 - fx) + image[i + 1] * fx;
+        double bottom = image[i + width] * (1 - fx) + image[i + width + 1] * fx;
+        return top * (1 - fy) + bottom * fy;
+    }
+
+    // Product of two row-major 3x3 matrices
+    private static double[] multiply(double[] a, double[] b) {
+        double[] product = new double[9];
+        for (int row = 0; row < 3; row++) {
+            for (int col = 0; col < 3; col++) {
+                for (int i = 0; i < 3; i++) {
+                    product[row * 3 + col] += a[row * 3 + i] * b[i * 3 + col];
+                }
+            }
+        }
+        return product;
+    }
+
+    // Inverse of a row-major 3x3 matrix
+    private static double[] invert(double[] m) {
+        double[] inverse = {
+                m[4] * m[8] - m[5] * m[7], m[2] * m[7] - m[1] * m[8], m[1] * m[5] - m[2] * m[4],
+                m[5] * m[6] - m[3] * m[8], m[0] * m[8] - m[2] * m[6], m[2] * m[3] - m[0] * m[5],
+                m[3] * m[7] - m[4] * m[6], m[1] * m[6] - m[0] * m[7], m[0] * m[4] - m[1] * m[3]};
+        double determinant = m[0] * inverse[0] + m[1] * inverse[3] + m[2] * inverse[6];
+        for (int i = 0; i < 9; i++) {
+            inverse[i] /= determinant;
+        }
+        return inverse;
+    }
+}
@@ -0,0 +1,81 @@
+package edu.something.ar_framework.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bulk transfers of a luma frame between Java and a Mat: the byte[] put/get overloads, which go through JNI array
+ * pinning, the direct ByteBuffer overloads, which are a memcpy, and asByteBuffer(), which doesn't copy at all. The
+ * same comparison as the instrumented MatTransferBenchmark in the app, on a desktop JVM.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class MatTransferBenchmark {
+
+    @Param({"640x480", "1920x1080"})
+    public String size;
+
+    private Mat myMat;
+    private byte[] myArray;
+    private ByteBuffer myDirect;
+
+    @Setup
+    public void setUp() {
+        Fixtures.loadNativeLibraries();
+        int[] dimensions = Fixtures.parseSize(size);
+        myMat = new Mat(dimensions[1], dimensions[0], CvType.CV_8UC1);
+        myArray = new byte[dimensions[0] * dimensions[1]];
+        myDirect = ByteBuffer.allocateDirect(myArray.length);
+    }
+
+    @TearDown
+    public void tearDown() {
+        myMat.close();
+    }
+
+    @Benchmark
+    public int putArray() {
+        return myMat.put(0, 0, myArray);
+    }
+
+    @Benchmark
+    public int getArray() {
+        return myMat.get(0, 0, myArray);
+    }
+
+    @Benchmark
+    public int putDirect() {
+        myDirect.clear();
+        return myMat.put(0, 0, myDirect);
+    }
+
+    @Benchmark
+    public int getDirect() {
+        myDirect.clear();
+        return myMat.get(0, 0, myDirect);
+    }
+
+    @Benchmark
+    public ByteBuffer asByteBuffer() {
+        return myMat.asByteBuffer();
+    }
+}
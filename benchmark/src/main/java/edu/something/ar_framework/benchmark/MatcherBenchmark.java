@@ -0,0 +1,164 @@
+package edu.something.ar_framework.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDMatch;
+import org.opencv.core.MatOfKeyPoint;
+import org.opencv.features2d.BFMatcher;
+import org.opencv.features2d.DescriptorMatcher;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * knnMatch() with k = 2 of a scene's ORB descriptors against the reference's, the matching step of detection. Compares
+ * a brute force Hamming BFMatcher with a FlannBasedMatcher on an LSH index, the two matchers TargetRegistry picks from.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class MatcherBenchmark {
+
+    static final String MATCHER_BRUTE_FORCE = "bruteForce";
+    static final String MATCHER_LSH = "lsh";
+
+    // Same as target_model.cpp, which can afford more keypoints for the reference than for a camera frame
+    private static final int REFERENCE_FEATURES = 1000;
+
+    // Same LSH settings as target_registry.cpp
+    private static final int LSH_TABLES = 6;
+    private static final int LSH_KEY_BITS = 12;
+    private static final int LSH_MULTI_PROBE_LEVEL = 1;
+    private static final int LSH_SEARCH_CHECKS = 50;
+
+    // FLANN_INDEX_LSH in flann/defines.h
+    private static final int FLANN_INDEX_LSH = 6;
+
+    @Param({MATCHER_BRUTE_FORCE, MATCHER_LSH})
+    public String matcher;
+
+    // Descriptors in the query, i.e. ORB features asked for in the scene
+    @Param({"500", "2000"})
+    public int queryFeatures;
+
+    private DescriptorMatcher myMatcher;
+    private Mat myTrainDescriptors;
+    private Mat myQueryDescriptors;
+    private final List<MatOfDMatch> myMatches = new ArrayList<MatOfDMatch>();
+
+    @Setup
+    public void setUp() throws IOException {
+        Fixtures.loadNativeLibraries();
+        myTrainDescriptors = describe(Fixtures.loadReference(), REFERENCE_FEATURES);
+        myQueryDescriptors = describe(Fixtures.loadScene(Fixtures.SCENE_VGA), queryFeatures);
+
+        myMatcher = MATCHER_LSH.equals(matcher) ? createLshMatcher() : BFMatcher.create(Core.NORM_HAMMING, false);
+        myMatcher.add(Collections.singletonList(myTrainDescriptors));
+        // Build the index now rather than in the first measured call
+        myMatcher.train();
+    }
+
+    @TearDown
+    public void tearDown() {
+        closeMatches();
+        myTrainDescriptors.close();
+        myQueryDescriptors.close();
+    }
+
+    // Closing the per-query Mats the Java wrapper creates is part of what a match costs from Java
+    @Benchmark
+    public List<MatOfDMatch> knnMatch() {
+        closeMatches();
+        myMatcher.knnMatch(myQueryDescriptors, myMatches, 2);
+        return myMatches;
+    }
+
+    private void closeMatches() {
+        for (MatOfDMatch matches : myMatches) {
+            matches.close();
+        }
+        myMatches.clear();
+    }
+
+    // ORB descriptors of image, which is closed afterwards
+    private static Mat describe(Mat image, int features) {
+        MatOfKeyPoint keypoints = new MatOfKeyPoint();
+        Mat mask = new Mat();
+        Mat descriptors = new Mat();
+        try {
+            Fixtures.createOrb(features, 8).detectAndCompute(image, mask, keypoints, descriptors);
+        } finally {
+            keypoints.close();
+            mask.close();
+            image.close();
+        }
+        return descriptors;
+    }
+
+    /**
+     * The Java bindings can't pass index parameters to FlannBasedMatcher, so the LSH settings go in through read(). The
+     * type code FLANN uses for the algorithm entry differs between OpenCV versions, so take it from what the library
+     * itself writes for its default matcher.
+     */
+    private static DescriptorMatcher createLshMatcher() throws IOException {
+        DescriptorMatcher matcher = DescriptorMatcher.create(DescriptorMatcher.FLANNBASED);
+        File file = File.createTempFile("flann", ".yml");
+        try {
+            matcher.write(file.getPath());
+            String defaults = new String(Files.readAllBytes(file.toPath()), Charset.forName("UTF-8"));
+            Matcher algorithm = Pattern.compile("name:\\s*algorithm\\s+type:\\s*(\\d+)").matcher(defaults);
+            if (!algorithm.find()) {
+                throw new IOException("Unexpected FlannBasedMatcher parameters:\n" + defaults);
+            }
+
+            Writer writer = new OutputStreamWriter(new FileOutputStream(file), Charset.forName("UTF-8"));
+            try {
+                writer.write("%YAML:1.0\n"
+                        + "indexParams:\n"
+                        + parameter("algorithm", Integer.parseInt(algorithm.group(1)), FLANN_INDEX_LSH)
+                        + parameter("table_number", 4, LSH_TABLES)
+                        + parameter("key_size", 4, LSH_KEY_BITS)
+                        + parameter("multi_probe_level", 4, LSH_MULTI_PROBE_LEVEL)
+                        + "searchParams:\n"
+                        + parameter("checks", 4, LSH_SEARCH_CHECKS));
+            } finally {
+                writer.close();
+            }
+            matcher.read(file.getPath());
+        } finally {
+            file.delete();
+        }
+        return matcher;
+    }
+
+    // One FLANN parameter entry. Type 4 is CV_32S.
+    private static String parameter(String name, int type, int value) {
+        return "   -\n      name: " + name + "\n      type: " + type + "\n      value: " + value + "\n";
+    }
+}
@@ -0,0 +1,72 @@
+package edu.something.ar_framework.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfKeyPoint;
+import org.opencv.features2d.ORB;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ORB.detectAndCompute() on a camera-sized scene, which is what every detection frame of the pose tracker starts with.
+ * PoseTracker uses 500 features and the default 8 pyramid levels, the other settings show what changing them would buy.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class OrbBenchmark {
+
+    @Param({Fixtures.SCENE_VGA, Fixtures.SCENE_HD})
+    public String scene;
+
+    @Param({"250", "500", "1000", "2000"})
+    public int nfeatures;
+
+    @Param({"4", "8"})
+    public int nlevels;
+
+    private Mat myImage;
+    private Mat myMask;
+    private ORB myOrb;
+    private MatOfKeyPoint myKeypoints;
+    private Mat myDescriptors;
+
+    @Setup
+    public void setUp() throws IOException {
+        Fixtures.loadNativeLibraries();
+        myImage = Fixtures.loadScene(scene);
+        myMask = new Mat();
+        myOrb = Fixtures.createOrb(nfeatures, nlevels);
+        myKeypoints = new MatOfKeyPoint();
+        myDescriptors = new Mat();
+    }
+
+    @TearDown
+    public void tearDown() {
+        myImage.close();
+        myMask.close();
+        myKeypoints.close();
+        myDescriptors.close();
+    }
+
+    @Benchmark
+    public Mat detectAndCompute() {
+        myOrb.detectAndCompute(myImage, myMask, myKeypoints, myDescriptors);
+        return myDescriptors;
+    }
+}
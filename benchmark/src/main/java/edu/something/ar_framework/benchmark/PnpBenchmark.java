@@ -0,0 +1,212 @@
+package edu.something.ar_framework.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.DMatch;
+import org.opencv.core.KeyPoint;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDMatch;
+import org.opencv.core.MatOfDouble;
+import org.opencv.core.MatOfKeyPoint;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.MatOfPoint3f;
+import org.opencv.core.Point;
+import org.opencv.core.Point3;
+import org.opencv.features2d.BFMatcher;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pose from 2D-3D correspondences, the last step of both tracker modes. Detection runs solvePnPRansac() on every
+ * match that passes the ratio test, outliers included. Tracking runs iterative solvePnP() on the previous inliers,
+ * starting from the previous pose. Plain iterative solvePnP() on the inliers without a starting pose is in between.
+ *
+ * The correspondences come from matching the scene against the reference with the tracker's own settings. Setup
+ * checks the RANSAC pose against the ground truth, so a broken fixture fails instead of timing garbage.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class PnpBenchmark {
+
+    // Same settings as pose_tracker.cpp and target_model.cpp
+    private static final int FRAME_FEATURES = 500;
+    private static final int REFERENCE_FEATURES = 1000;
+    private static final float MATCH_RATIO = 0.75f;
+    private static final int RANSAC_ITERATIONS = 100;
+    private static final float RANSAC_REPROJECTION_ERROR = 8.0f;
+    private static final double RANSAC_CONFIDENCE = 0.99;
+
+    // How far the RANSAC pose may be from the ground truth before the fixtures are considered broken
+    private static final double MAX_RVEC_ERROR = 0.02;
+    private static final double MAX_TVEC_ERROR = 0.05;
+
+    @Param({Fixtures.SCENE_VGA, Fixtures.SCENE_HD})
+    public String scene;
+
+    private Mat myCameraMatrix;
+    private MatOfDouble myDistCoeffs;
+
+    private MatOfPoint3f myMatchedObjectPoints;
+    private MatOfPoint2f myMatchedImagePoints;
+    private MatOfPoint3f myInlierObjectPoints;
+    private MatOfPoint2f myInlierImagePoints;
+
+    private Mat myRvec;
+    private Mat myTvec;
+    private Mat myInliers;
+    private final double[] myPreviousRvec = new double[3];
+    private final double[] myPreviousTvec = new double[3];
+
+    @Setup
+    public void setUp() throws IOException {
+        Fixtures.loadNativeLibraries();
+        int[] size = Fixtures.parseSize(scene);
+        myCameraMatrix = Fixtures.cameraMatrix(size[0], size[1]);
+        myDistCoeffs = new MatOfDouble();
+        myRvec = new Mat(3, 1, CvType.CV_64F);
+        myTvec = new Mat(3, 1, CvType.CV_64F);
+        myInliers = new Mat();
+
+        match();
+        if (!solvePnPRansac()) {
+            throw new IllegalStateException("No pose found in " + Fixtures.sceneFile(scene));
+        }
+        checkAgainstGroundTruth();
+
+        List<Point3> objectPoints = myMatchedObjectPoints.toList();
+        List<Point> imagePoints = myMatchedImagePoints.toList();
+        List<Point3> inlierObjectPoints = new ArrayList<Point3>();
+        List<Point> inlierImagePoints = new ArrayList<Point>();
+        for (int i = 0; i < myInliers.rows(); i++) {
+            int index = (int) myInliers.get(i, 0)[0];
+            inlierObjectPoints.add(objectPoints.get(index));
+            inlierImagePoints.add(imagePoints.get(index));
+        }
+        myInlierObjectPoints = new MatOfPoint3f();
+        myInlierObjectPoints.fromList(inlierObjectPoints);
+        myInlierImagePoints = new MatOfPoint2f();
+        myInlierImagePoints.fromList(inlierImagePoints);
+
+        myRvec.get(0, 0, myPreviousRvec);
+        myTvec.get(0, 0, myPreviousTvec);
+    }
+
+    @TearDown
+    public void tearDown() {
+        myCameraMatrix.close();
+        myDistCoeffs.close();
+        myMatchedObjectPoints.close();
+        myMatchedImagePoints.close();
+        myInlierObjectPoints.close();
+        myInlierImagePoints.close();
+        myRvec.close();
+        myTvec.close();
+        myInliers.close();
+    }
+
+    @Benchmark
+    public boolean solvePnPRansac() {
+        return Calib3d.solvePnPRansac(myMatchedObjectPoints, myMatchedImagePoints, myCameraMatrix, myDistCoeffs,
+                myRvec, myTvec, false, RANSAC_ITERATIONS, RANSAC_REPROJECTION_ERROR, RANSAC_CONFIDENCE, myInliers,
+                Calib3d.SOLVEPNP_ITERATIVE);
+    }
+
+    @Benchmark
+    public boolean solvePnPIterative() {
+        return Calib3d.solvePnP(myInlierObjectPoints, myInlierImagePoints, myCameraMatrix, myDistCoeffs, myRvec,
+                myTvec, false, Calib3d.SOLVEPNP_ITERATIVE);
+    }
+
+    @Benchmark
+    public boolean solvePnPIterativeFromPreviousPose() {
+        myRvec.put(0, 0, myPreviousRvec);
+        myTvec.put(0, 0, myPreviousTvec);
+        return Calib3d.solvePnP(myInlierObjectPoints, myInlierImagePoints, myCameraMatrix, myDistCoeffs, myRvec,
+                myTvec, true, Calib3d.SOLVEPNP_ITERATIVE);
+    }
+
+    // Ratio-tested matches between the scene and the reference, as object and image points
+    private void match() throws IOException {
+        Mat reference = Fixtures.loadReference();
+        Mat image = Fixtures.loadScene(scene);
+        MatOfKeyPoint referenceKeypoints = new MatOfKeyPoint();
+        MatOfKeyPoint imageKeypoints = new MatOfKeyPoint();
+        Mat referenceDescriptors = new Mat();
+        Mat imageDescriptors = new Mat();
+        Mat mask = new Mat();
+        List<MatOfDMatch> knnMatches = new ArrayList<MatOfDMatch>();
+        try {
+            Fixtures.createOrb(REFERENCE_FEATURES, 8).detectAndCompute(reference, mask, referenceKeypoints, referenceDescriptors);
+            Fixtures.createOrb(FRAME_FEATURES, 8).detectAndCompute(image, mask, imageKeypoints, imageDescriptors);
+            BFMatcher.create(Core.NORM_HAMMING, false).knnMatch(imageDescriptors, referenceDescriptors, knnMatches, 2);
+
+            KeyPoint[] referencePoints = referenceKeypoints.toArray();
+            KeyPoint[] imagePoints = imageKeypoints.toArray();
+            double scale = Fixtures.objectScale(reference.cols(), reference.rows());
+            List<Point3> objectPoints = new ArrayList<Point3>();
+            List<Point> matchedImagePoints = new ArrayList<Point>();
+            for (MatOfDMatch candidates : knnMatches) {
+                DMatch[] pair = candidates.toArray();
+                if (pair.length == 2 && pair[0].distance < MATCH_RATIO * pair[1].distance) {
+                    Point referencePoint = referencePoints[pair[0].trainIdx].pt;
+                    objectPoints.add(new Point3(referencePoint.x * scale, referencePoint.y * scale, 0));
+                    matchedImagePoints.add(imagePoints[pair[0].queryIdx].pt);
+                }
+                candidates.close();
+            }
+            myMatchedObjectPoints = new MatOfPoint3f();
+            myMatchedObjectPoints.fromList(objectPoints);
+            myMatchedImagePoints = new MatOfPoint2f();
+            myMatchedImagePoints.fromList(matchedImagePoints);
+        } finally {
+            reference.close();
+            image.close();
+            referenceKeypoints.close();
+            imageKeypoints.close();
+            referenceDescriptors.close();
+            imageDescriptors.close();
+            mask.close();
+        }
+    }
+
+    private void checkAgainstGroundTruth() throws IOException {
+        Mat reference = Fixtures.loadReference();
+        double[] expectedTvec = Fixtures.groundTruthTvec(reference.cols(), reference.rows());
+        reference.close();
+
+        double[] rvec = new double[3];
+        double[] tvec = new double[3];
+        myRvec.get(0, 0, rvec);
+        myTvec.get(0, 0, tvec);
+        for (int i = 0; i < 3; i++) {
+            if (Math.abs(rvec[i] - Fixtures.GROUND_TRUTH_RVEC[i]) > MAX_RVEC_ERROR
+                    || Math.abs(tvec[i] - expectedTvec[i]) > MAX_TVEC_ERROR) {
+                throw new IllegalStateException("Pose found in " + Fixtures.sceneFile(scene) + " is rvec "
+                        + Arrays.toString(rvec) + ", tvec " + Arrays.toString(tvec)
+                        + ", the ground truth is rvec " + Arrays.toString(Fixtures.GROUND_TRUTH_RVEC)
+                        + ", tvec " + Arrays.toString(expectedTvec));
+            }
+        }
+    }
+}
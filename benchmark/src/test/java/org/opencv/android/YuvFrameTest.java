@@ -0,0 +1,124 @@
+package org.opencv.android;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the lazy conversions of YuvFrame against the desktop OpenCV library, on a small NV21 frame of WIDTH x
+ * HEIGHT pixels whose chroma is far from neutral, so a YUV conversion and expanding luma give different colors.
+ */
+public class YuvFrameTest {
+
+    private static final int WIDTH = 8;
+    private static final int HEIGHT = 4;
+    private static final int LUMA = 100;
+
+    private Mat mYuv;
+    private YuvFrame mFrame;
+
+    @BeforeClass
+    public static void loadOpenCV() {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    @Before
+    public void setUp() {
+        mYuv = new Mat(HEIGHT * 3 / 2, WIDTH, CvType.CV_8UC1, new Scalar(240));
+        mYuv.submat(0, HEIGHT, 0, WIDTH).setTo(new Scalar(LUMA));
+        mFrame = new YuvFrame(mYuv, WIDTH, HEIGHT);
+    }
+
+    @After
+    public void tearDown() {
+        mFrame.release();
+        mYuv.release();
+    }
+
+    // The first pixel of an RGBA Mat
+    private static byte[] firstPixel(Mat rgba) {
+        byte[] pixel = new byte[4];
+        rgba.get(0, 0, pixel);
+        return pixel;
+    }
+
+    @Test
+    public void rgba_calledTwice_convertsOnceAndKeepsChanges() {
+        mFrame.newFrame(Imgproc.COLOR_YUV2RGBA_NV21);
+        Mat first = mFrame.rgba();
+        first.put(0, 0, new byte[]{1, 2, 3, 4});
+
+        Mat second = mFrame.rgba();
+        assertSame(first, second);
+        // Converting again would have overwritten what the caller drew
+        assertArrayEquals(new byte[]{1, 2, 3, 4}, firstPixel(second));
+    }
+
+    @Test
+    public void rgba_afterNewFrame_convertsNewData() {
+        Mat expected = new Mat();
+        Imgproc.cvtColor(mYuv, expected, Imgproc.COLOR_YUV2RGBA_NV21, 4);
+        mFrame.newFrame(Imgproc.COLOR_YUV2RGBA_NV21);
+        mFrame.rgba().put(0, 0, new byte[]{1, 2, 3, 4});
+
+        mFrame.newFrame(Imgproc.COLOR_YUV2RGBA_NV21);
+        assertArrayEquals(firstPixel(expected), firstPixel(mFrame.rgba()));
+        expected.release();
+    }
+
+    @Test
+    public void rgba_grayOnly_expandsLumaWithoutChroma() {
+        mFrame.newFrame(Imgproc.COLOR_GRAY2RGBA);
+        Mat rgba = mFrame.rgba();
+        assertEquals(HEIGHT, rgba.rows());
+        assertEquals(WIDTH, rgba.cols());
+        assertArrayEquals(new byte[]{LUMA, LUMA, LUMA, (byte) 255}, firstPixel(rgba));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rgba_noConversion_throws() {
+        mFrame.newFrame(YuvFrame.NO_RGBA_CONVERSION);
+        mFrame.rgba();
+    }
+
+    @Test
+    public void gray_noConversion_isLumaInPlace() {
+        mFrame.newFrame(YuvFrame.NO_RGBA_CONVERSION);
+        Mat gray = mFrame.gray();
+        assertEquals(HEIGHT, gray.rows());
+        mYuv.put(0, 0, new byte[]{7});
+        byte[] pixel = new byte[1];
+        gray.get(0, 0, pixel);
+        assertEquals(7, pixel[0]);
+    }
+
+    @Test
+    public void grayDownscaled_cachedPerFrameAndFactor() {
+        mFrame.newFrame(Imgproc.COLOR_GRAY2RGBA);
+        Mat half = mFrame.gray(2);
+        assertEquals(HEIGHT / 2, half.rows());
+        assertEquals(WIDTH / 2, half.cols());
+        assertSame(half, mFrame.gray(2));
+        assertSame(mFrame.gray(), mFrame.gray(1));
+
+        // A new frame is shrunk again
+        mYuv.submat(0, HEIGHT, 0, WIDTH).setTo(new Scalar(LUMA / 2));
+        mFrame.newFrame(Imgproc.COLOR_GRAY2RGBA);
+        byte[] pixel = new byte[1];
+        mFrame.gray(2).get(0, 0, pixel);
+        assertEquals(LUMA / 2, pixel[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void grayDownscaled_zeroFactor_throws() {
+        mFrame.gray(0);
+    }
+}
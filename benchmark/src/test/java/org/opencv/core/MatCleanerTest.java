@@ -0,0 +1,129 @@
+package org.opencv.core;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for closing Mats, the garbage collector fallback and leak tracking, against the desktop OpenCV library. The
+ * live counters are global, and Mats other tests dropped may be freed while these run, so byte counts are compared
+ * with some slack and on Mats large enough to stand out.
+ */
+public class MatCleanerTest {
+
+    private static final int SIDE = 1000;
+    private static final long BYTES = SIDE * SIDE;
+    private static final double SLACK = 64 * 1024;
+
+    @BeforeClass
+    public static void loadOpenCV() {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    @Test
+    public void close_twice_freesNativeMatOnce() {
+        long before = Mat.getLiveNativeBytes();
+        Mat mat = new Mat(SIDE, SIDE, CvType.CV_8UC1);
+        assertEquals(before + BYTES, Mat.getLiveNativeBytes(), SLACK);
+
+        mat.close();
+        assertEquals(before, Mat.getLiveNativeBytes(), SLACK);
+        // A second delete of the native Mat would crash the VM rather than fail here
+        mat.close();
+        assertEquals(before, Mat.getLiveNativeBytes(), SLACK);
+    }
+
+    @Test
+    public void getLiveNativeBytes_openMats_countsTheirSize() {
+        long before = Mat.getLiveNativeBytes();
+        Mat gray = new Mat(SIDE, SIDE, CvType.CV_8UC1);
+        Mat color = new Mat(SIDE, SIDE, CvType.CV_32FC3);
+        assertEquals(before + BYTES + 12 * BYTES, Mat.getLiveNativeBytes(), SLACK);
+
+        // Reallocating changes the count, the Mat is the same
+        gray.create(SIDE, 2 * SIDE, CvType.CV_8UC1);
+        assertEquals(before + 2 * BYTES + 12 * BYTES, Mat.getLiveNativeBytes(), SLACK);
+
+        gray.close();
+        color.close();
+        assertEquals(before, Mat.getLiveNativeBytes(), SLACK);
+    }
+
+    @Test
+    public void leakTracking_unclosedMat_reportsAllocationSite() throws InterruptedException {
+        final AtomicReference<Throwable> site = new AtomicReference<Throwable>();
+        final CountDownLatch reported = new CountDownLatch(1);
+        long leaks = Mat.getLeakCount();
+        Mat.setLeakTracking(true);
+        Mat.setLeakListener(new Mat.LeakListener() {
+            @Override
+            public void onLeak(Throwable allocationSite) {
+                if (allocatedIn(allocationSite, "dropMat")) {
+                    site.set(allocationSite);
+                    reported.countDown();
+                }
+            }
+        });
+        try {
+            dropMat();
+            awaitCollection(reported);
+        } finally {
+            Mat.setLeakTracking(false);
+            Mat.setLeakListener(null);
+        }
+
+        assertNotNull("The unclosed Mat wasn't reported", site.get());
+        assertTrue(Mat.getLeakCount() > leaks);
+    }
+
+    @Test
+    public void leakTracking_closedMat_notReported() throws InterruptedException {
+        final CountDownLatch reported = new CountDownLatch(1);
+        Mat.setLeakTracking(true);
+        Mat.setLeakListener(new Mat.LeakListener() {
+            @Override
+            public void onLeak(Throwable allocationSite) {
+                if (allocatedIn(allocationSite, "closeMat"))
+                    reported.countDown();
+            }
+        });
+        try {
+            closeMat();
+            System.gc();
+            assertFalse(reported.await(500, TimeUnit.MILLISECONDS));
+        } finally {
+            Mat.setLeakTracking(false);
+            Mat.setLeakListener(null);
+        }
+    }
+
+    // Allocate a Mat and forget it without closing it
+    private static void dropMat() {
+        new Mat(SIDE, SIDE, CvType.CV_8UC1);
+    }
+
+    private static void closeMat() {
+        new Mat(SIDE, SIDE, CvType.CV_8UC1).close();
+    }
+
+    private static boolean allocatedIn(Throwable site, String method) {
+        for (StackTraceElement frame : site.getStackTrace()) {
+            if (frame.getMethodName().equals(method))
+                return true;
+        }
+        return false;
+    }
+
+    // Run the garbage collector until latch is counted down, for up to 10 seconds
+    static void awaitCollection(CountDownLatch latch) throws InterruptedException {
+        for (int i = 0; i < 100 && latch.getCount() > 0; i++) {
+            System.gc();
+            latch.await(100, TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package org.opencv.core;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the struct-of-arrays accessors of MatOfPoint2f, MatOfPoint3f, MatOfKeyPoint and MatOfDMatch, against the
+ * desktop OpenCV library.
+ */
+public class MatOfArraysTest {
+
+    private static final float[] X = {1.5f, -2, 3, 40};
+    private static final float[] Y = {0, 5.25f, -6, 70};
+    private static final float[] Z = {-1, 8, 9.5f, 100};
+
+    @BeforeClass
+    public static void loadOpenCV() {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    @Test
+    public void point2f_fromArraysThenToArrays_roundTrips() {
+        try (MatOfPoint2f points = new MatOfPoint2f()) {
+            points.fromArrays(X.length, X, Y);
+            assertEquals(X.length, points.total());
+
+            float[] x = new float[X.length];
+            float[] y = new float[X.length];
+            assertEquals(X.length, points.toArrays(x, y));
+            assertArrayEquals(X, x, 0);
+            assertArrayEquals(Y, y, 0);
+            // and the object accessors agree
+            assertEquals(new Point(X[1], Y[1]), points.toArray()[1]);
+        }
+    }
+
+    @Test
+    public void point2f_toInterleaved_copiesAsStored() {
+        try (MatOfPoint2f points = new MatOfPoint2f(new Point(1, 2), new Point(3, 4))) {
+            float[] coords = new float[6];
+            assertEquals(2, points.toInterleaved(coords));
+            assertArrayEquals(new float[]{1, 2, 3, 4, 0, 0}, coords, 0);
+        }
+    }
+
+    @Test
+    public void point2f_fewerPointsThanBefore_reusesLargerScratch() {
+        try (MatOfPoint2f points = new MatOfPoint2f()) {
+            points.fromArrays(X.length, X, Y);
+            points.fromArrays(2, Y, X);
+
+            float[] x = new float[2];
+            float[] y = new float[2];
+            assertEquals(2, points.toArrays(x, y));
+            assertArrayEquals(new float[]{Y[0], Y[1]}, x, 0);
+            assertArrayEquals(new float[]{X[0], X[1]}, y, 0);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void point2f_toArraysShortArray_throws() {
+        try (MatOfPoint2f points = new MatOfPoint2f()) {
+            points.fromArrays(X.length, X, Y);
+            points.toArrays(new float[X.length], new float[X.length - 1]);
+        }
+    }
+
+    @Test
+    public void point2f_empty_copiesNothing() {
+        try (MatOfPoint2f points = new MatOfPoint2f()) {
+            assertEquals(0, points.toArrays(new float[0], new float[0]));
+            assertEquals(0, points.toInterleaved(new float[0]));
+        }
+    }
+
+    @Test
+    public void point3f_fromArraysThenToArrays_roundTrips() {
+        try (MatOfPoint3f points = new MatOfPoint3f()) {
+            points.fromArrays(X.length, X, Y, Z);
+
+            float[] x = new float[X.length];
+            float[] y = new float[X.length];
+            float[] z = new float[X.length];
+            assertEquals(X.length, points.toArrays(x, y, z));
+            assertArrayEquals(X, x, 0);
+            assertArrayEquals(Y, y, 0);
+            assertArrayEquals(Z, z, 0);
+
+            float[] coords = new float[3 * X.length];
+            points.toInterleaved(coords);
+            assertEquals(Z[2], coords[3 * 2 + 2], 0);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void point3f_toInterleavedPartialPoint_throws() {
+        try (MatOfPoint3f points = new MatOfPoint3f()) {
+            points.fromArrays(1, X, Y, Z);
+            points.toInterleaved(new float[4]);
+        }
+    }
+
+    @Test
+    public void keyPoint_fromArraysWithoutOctaveAndClass_usesKeyPointDefaults() {
+        try (MatOfKeyPoint keypoints = new MatOfKeyPoint()) {
+            keypoints.fromArrays(X.length, X, Y, Z, Y, X, null, null);
+
+            KeyPoint second = keypoints.toArray()[1];
+            assertEquals(X[1], second.pt.x, 0);
+            assertEquals(Y[1], second.pt.y, 0);
+            assertEquals(Z[1], second.size, 0);
+            assertEquals(Y[1], second.angle, 0);
+            assertEquals(X[1], second.response, 0);
+            assertEquals(0, second.octave);
+            assertEquals(-1, second.class_id);
+        }
+    }
+
+    @Test
+    public void keyPoint_toArraysWithNullFields_fillsTheOthers() {
+        try (MatOfKeyPoint keypoints = new MatOfKeyPoint(
+                new KeyPoint(1, 2, 3, 4, 5, 6, 7), new KeyPoint(10, 20, 30, 40, 50, 60, 70))) {
+            float[] x = new float[2];
+            int[] octave = new int[2];
+            int[] classId = new int[2];
+            assertEquals(2, keypoints.toArrays(x, null, null, null, null, octave, classId));
+            assertArrayEquals(new float[]{1, 10}, x, 0);
+            assertArrayEquals(new int[]{6, 60}, octave);
+            assertArrayEquals(new int[]{7, 70}, classId);
+        }
+    }
+
+    @Test
+    public void dMatch_toArrays_copiesEveryField() {
+        try (MatOfDMatch matches = new MatOfDMatch(new DMatch(1, 2, 3, 0.5f), new DMatch(4, 5, 6, 7.25f))) {
+            int[] queryIdx = new int[2];
+            int[] trainIdx = new int[2];
+            int[] imgIdx = new int[2];
+            float[] distance = new float[2];
+            assertEquals(2, matches.toArrays(queryIdx, trainIdx, imgIdx, distance));
+            assertArrayEquals(new int[]{1, 4}, queryIdx);
+            assertArrayEquals(new int[]{2, 5}, trainIdx);
+            assertArrayEquals(new int[]{3, 6}, imgIdx);
+            assertArrayEquals(new float[]{0.5f, 7.25f}, distance, 0);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void checkCopied_shortCopy_throws() {
+        MatOfArrays.checkCopied(4 * 3, 4);
+    }
+}
@@ -0,0 +1,189 @@
+package org.opencv.core;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for MatPool against the desktop OpenCV library, with small 8-bit Mats of SIDE x SIDE pixels.
+ */
+public class MatPoolTest {
+
+    private static final int SIDE = 10;
+    private static final long BYTES = SIDE * SIDE;
+
+    @BeforeClass
+    public static void loadOpenCV() {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    @Test
+    public void acquire_afterClose_reusesMat() {
+        MatPool pool = new MatPool();
+        MatPool.PooledMat first = pool.acquire(SIDE, SIDE, CvType.CV_8UC1);
+        long nativeObj = first.nativeObj;
+        first.close();
+
+        MatPool.PooledMat second = pool.acquire(SIDE, SIDE, CvType.CV_8UC1);
+        assertSame(first, second);
+        assertEquals(nativeObj, second.nativeObj);
+        assertEquals(2, pool.getAcquireCount());
+        assertEquals(1, pool.getAllocationCount());
+        assertEquals(0.5, pool.getHitRate(), 1e-9);
+        second.close();
+    }
+
+    @Test
+    public void acquire_otherShape_allocates() {
+        MatPool pool = new MatPool();
+        pool.acquire(SIDE, SIDE, CvType.CV_8UC1).close();
+
+        MatPool.PooledMat wider = pool.acquire(SIDE, 2 * SIDE, CvType.CV_8UC1);
+        MatPool.PooledMat float32 = pool.acquire(SIDE, SIDE, CvType.CV_32FC1);
+        assertEquals(3, pool.getAllocationCount());
+        assertEquals(0, pool.getHitRate(), 1e-9);
+        assertEquals(BYTES + 2 * BYTES + 4 * BYTES, pool.getLiveNativeBytes());
+        wider.close();
+        float32.close();
+    }
+
+    @Test
+    public void close_twice_returnsMatOnce() {
+        MatPool pool = new MatPool();
+        MatPool.PooledMat mat = pool.acquire(SIDE, SIDE, CvType.CV_8UC1);
+        mat.close();
+        mat.close();
+        assertEquals(BYTES, pool.getIdleNativeBytes());
+
+        // Only one Mat is idle, so the second acquire has to allocate
+        MatPool.PooledMat a = pool.acquire(SIDE, SIDE, CvType.CV_8UC1);
+        MatPool.PooledMat b = pool.acquire(SIDE, SIDE, CvType.CV_8UC1);
+        assertTrue(a != b);
+        assertEquals(2, pool.getAllocationCount());
+        a.close();
+        b.close();
+    }
+
+    @Test
+    public void close_beyondShapeCap_freesMat() {
+        MatPool pool = new MatPool(2);
+        MatPool.PooledMat[] mats = new MatPool.PooledMat[3];
+        for (int i = 0; i < mats.length; i++) {
+            mats[i] = pool.acquire(SIDE, SIDE, CvType.CV_8UC1);
+        }
+        assertEquals(3 * BYTES, pool.getLiveNativeBytes());
+        for (MatPool.PooledMat mat : mats) {
+            mat.close();
+        }
+        assertEquals(2 * BYTES, pool.getIdleNativeBytes());
+        assertEquals(2 * BYTES, pool.getLiveNativeBytes());
+    }
+
+    @Test
+    public void close_beyondIdleBytes_freesMatIdleLongest() {
+        MatPool pool = new MatPool(4, 2 * BYTES);
+        MatPool.PooledMat a = pool.acquire(SIDE, SIDE, CvType.CV_8UC1);
+        MatPool.PooledMat b = pool.acquire(SIDE, SIDE, CvType.CV_8SC1);
+        MatPool.PooledMat c = pool.acquire(SIDE, SIDE, CvType.CV_8UC1);
+        a.close();
+        b.close();
+        c.close();
+        // a made room for c
+        assertEquals(2 * BYTES, pool.getIdleNativeBytes());
+        assertEquals(2 * BYTES, pool.getLiveNativeBytes());
+
+        assertSame(b, pool.acquire(SIDE, SIDE, CvType.CV_8SC1));
+        assertSame(c, pool.acquire(SIDE, SIDE, CvType.CV_8UC1));
+        assertEquals(3, pool.getAllocationCount());
+        b.close();
+        c.close();
+    }
+
+    @Test
+    public void close_largerThanIdleBytes_freesMat() {
+        MatPool pool = new MatPool(4, BYTES);
+        pool.acquire(SIDE, SIDE, CvType.CV_8UC1).close();
+        pool.acquire(SIDE, 2 * SIDE, CvType.CV_8UC1).close();
+        // the small one is still there
+        assertEquals(BYTES, pool.getIdleNativeBytes());
+        assertEquals(BYTES, pool.getLiveNativeBytes());
+    }
+
+    @Test
+    public void close_resizedAsOutput_filedUnderNewShape() {
+        MatPool pool = new MatPool();
+        pool.acquire(2 * SIDE, SIDE, CvType.CV_8UC1).close();
+        MatPool.PooledMat mat = pool.acquire(SIDE, SIDE, CvType.CV_8UC1);
+        mat.create(2 * SIDE, SIDE, CvType.CV_8UC1);
+        mat.close();
+        assertEquals(2 * 2 * BYTES, pool.getIdleNativeBytes());
+
+        // A shape that was never acquired isn't worth keeping
+        MatPool.PooledMat other = pool.acquire(SIDE, SIDE, CvType.CV_8UC1);
+        other.create(3 * SIDE, SIDE, CvType.CV_8UC1);
+        other.close();
+        assertEquals(2 * 2 * BYTES, pool.getLiveNativeBytes());
+    }
+
+    @Test
+    public void trim_freesIdleMatsOnly() {
+        MatPool pool = new MatPool();
+        MatPool.PooledMat leased = pool.acquire(SIDE, SIDE, CvType.CV_8UC1);
+        pool.acquire(SIDE, SIDE, CvType.CV_8UC1).close();
+        pool.acquire(SIDE, SIDE, CvType.CV_32FC1).close();
+
+        pool.trim();
+        assertEquals(0, pool.getIdleNativeBytes());
+        assertEquals(BYTES, pool.getLiveNativeBytes());
+        assertEquals(CvType.CV_8UC1, leased.type());
+
+        // The shapes were forgotten too, so the leased Mat is freed when it comes back
+        leased.close();
+        assertEquals(0, pool.getLiveNativeBytes());
+    }
+
+    @Test
+    public void leasedMat_garbageCollected_takenOffPoolBooks() throws InterruptedException {
+        MatPool pool = new MatPool();
+        pool.acquire(SIDE, SIDE, CvType.CV_8UC1).close();
+        dropLeasedMat(pool);
+        assertEquals(3 * BYTES, pool.getLiveNativeBytes());
+
+        for (int i = 0; i < 100 && pool.getLeakCount() == 0; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        assertEquals(1, pool.getLeakCount());
+        assertEquals(BYTES, pool.getLiveNativeBytes());
+        assertEquals(BYTES, pool.getIdleNativeBytes());
+    }
+
+    // Lease a Mat and forget it without closing it
+    private static void dropLeasedMat(MatPool pool) {
+        pool.acquire(SIDE, 2 * SIDE, CvType.CV_8UC1);
+    }
+
+    @Test
+    public void arena_close_returnsEveryMat() {
+        MatPool pool = new MatPool();
+        MatPool.Arena arena = pool.newArena();
+        for (int frame = 0; frame < 3; frame++) {
+            try (MatPool.Arena mats = arena.open()) {
+                mats.acquire(SIDE, SIDE, CvType.CV_8UC1);
+                mats.acquire(SIDE, SIDE, CvType.CV_8UC1);
+                mats.acquire(SIDE, SIDE, CvType.CV_32FC1);
+                assertEquals(3, mats.size());
+            }
+        }
+        // only the first frame allocated
+        assertEquals(3, pool.getAllocationCount());
+        assertEquals(9, pool.getAcquireCount());
+        assertEquals(pool.getLiveNativeBytes(), pool.getIdleNativeBytes());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void arena_acquireWhileClosed_throws() {
+        new MatPool().newArena().acquire(SIDE, SIDE, CvType.CV_8UC1);
+    }
+}
@@ -0,0 +1,66 @@
+#include <jni.h>
+#include <stdint.h>
+#include <string.h>
+
+/*
+ Native side of org.opencv.core.MatDirect. Mat's own JNI code in libopencv_java3.so only copies to and from Java
+ arrays, which the VM has to pin or copy. These work on direct NIO buffers instead, so a transfer is a plain memcpy,
+ or no copy at all when a buffer is wrapped around the Mat's data.
+ */
+
+// Copy count bytes between a direct buffer and a Mat, starting at element (row, col) and continuing row by row the way
+// Mat.put() and Mat.get() do. Returns the number of bytes copied, which is less than count at the end of the Mat.
+extern "C"
+JNIEXPORT jlong JNICALL
+Java_org_opencv_core_MatDirect_nCopy(JNIEnv *env, jclass, jlong dataAddr, jlong step, jint rows, jint cols,
+                                     jlong elemSize, jint row, jint col, jobject buffer, jlong bufferOffset,
+                                     jlong count, jboolean toMat) {
+    uint8_t *bufferData = static_cast<uint8_t *>(env->GetDirectBufferAddress(buffer));
+    if (bufferData == NULL || dataAddr == 0 || row < 0 || row >= rows || col < 0 || col >= cols || count <= 0) {
+        return 0;
+    }
+    bufferData += bufferOffset;
+
+    uint8_t *matData = reinterpret_cast<uint8_t *>(dataAddr);
+    size_t rowBytes = (size_t) cols * (size_t) elemSize;
+    size_t start = (size_t) row * (size_t) step + (size_t) col * (size_t) elemSize;
+    size_t remaining = (size_t) count;
+
+    if ((size_t) step == rowBytes) {
+        // Continuous Mat, a single copy
+        size_t available = (size_t) rows * rowBytes - start;
+        size_t bytes = remaining < available ? remaining : available;
+        if (toMat) {
+            memcpy(matData + start, bufferData, bytes);
+        } else {
+            memcpy(bufferData, matData + start, bytes);
+        }
+        return (jlong) bytes;
+    }
+
+    // Rows are padded (e.g. a submatrix), copy one row at a time
+    size_t copied = 0;
+    size_t offsetInRow = (size_t) col * (size_t) elemSize;
+    for (jint r = row; r < rows && copied < remaining; r++) {
+        uint8_t *rowData = matData + (size_t) r * (size_t) step + offsetInRow;
+        size_t bytes = rowBytes - offsetInRow;
+        if (bytes > remaining - copied) {
+            bytes = remaining - copied;
+        }
+        if (toMat) {
+            memcpy(rowData, bufferData + copied, bytes);
+        } else {
+            memcpy(bufferData + copied, rowData, bytes);
+        }
+        copied += bytes;
+        offsetInRow = 0;
+    }
+    return (jlong) copied;
+}
+
+// Wrap capacity bytes at address in a direct ByteBuffer without copying them
+extern "C"
+JNIEXPORT jobject JNICALL
+Java_org_opencv_core_MatDirect_nNewDirectByteBuffer(JNIEnv *env, jclass, jlong address, jlong capacity) {
+    return env->NewDirectByteBuffer(reinterpret_cast<void *>(address), capacity);
+}
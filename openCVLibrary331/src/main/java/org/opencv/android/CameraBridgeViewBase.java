@@ -36,6 +36,10 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
 
     private int mState = STOPPED;
     private Bitmap mCacheBitmap;
+    private final Rect mSrcRect = new Rect();
+    private final Rect mDstRect = new Rect();
+    private volatile int mDrawMode = DRAW_CANVAS;
+    private GLFrameRenderer mGLRenderer;
     private CvCameraViewListener2 mListener;
     private boolean mSurfaceExist;
     private final Object mSyncObject = new Object();
@@ -55,6 +59,8 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
     public static final int CAMERA_ID_FRONT = 98;
     public static final int RGBA = 1;
     public static final int GRAY = 2;
+    public static final int DRAW_CANVAS = 0;
+    public static final int DRAW_GL     = 1;
 
     public CameraBridgeViewBase(Context context, int cameraId) {
         super(context);
@@ -180,7 +186,9 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
     public interface CvCameraViewFrame {
 
         /**
-         * This method returns RGBA Mat with frame
+         * This method returns RGBA Mat with frame. It may be converted only once per frame: calling it
+         * again during the same frame returns the same Mat, with any changes made to it since. Copy it
+         * first where the frame as it came from the camera is still needed.
          */
         public Mat rgba();
 
@@ -188,6 +196,12 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
          * This method returns single channel gray scale Mat with frame
          */
         public Mat gray();
+
+        /**
+         * This method returns the gray scale frame shrunk by downscale along both axes, e.g. for a
+         * detector that doesn't need the full resolution. It is computed once per frame and downscale.
+         */
+        public Mat gray(int downscale);
     };
 
     public void surfaceChanged(SurfaceHolder arg0, int arg1, int arg2, int arg3) {
@@ -255,6 +269,15 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
             mFpsMeter = null;
     }
 
+    /**
+     * Rolling frame-time statistics of the drawn frames: FPS, percentiles and jank.
+     * @return the statistics behind the fps label, or null while the fps meter is disabled
+     */
+    public FrameStats getFrameStats() {
+        FpsMeter meter = mFpsMeter;
+        return meter == null ? null : meter.getStats();
+    }
+
     /**
      *
      * @param listener
@@ -284,6 +307,31 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
         mMaxHeight = maxHeight;
     }
 
+    /**
+     * Selects how processed frames are drawn.
+     * DRAW_CANVAS (the default) copies them into a Bitmap and draws it on a software Canvas.
+     * DRAW_GL uploads them into an OpenGL ES texture and lets the GPU draw and scale it, which avoids
+     * the CPU conversion and blit; the fps label is not drawn then, but getFrameStats() still works.
+     * A Surface can't go back to Canvas drawing once GL has drawn to it, so call this before the
+     * view is shown.
+     * @param mode - DRAW_CANVAS or DRAW_GL
+     */
+    public void setDrawMode(int mode) {
+        if (mode != DRAW_CANVAS && mode != DRAW_GL)
+            throw new IllegalArgumentException("Draw mode must be DRAW_CANVAS or DRAW_GL, was " + mode);
+        mDrawMode = mode;
+    }
+
+    public int getDrawMode() {
+        return mDrawMode;
+    }
+
+    /**
+     * Sets the format of the frames the listener works on, RGBA or GRAY. With GRAY the listener is
+     * expected to only need luma (as for tracking or pose estimation), so the views skip the color
+     * conversion of the camera frames: they draw the gray frame and rgba() only expands luma.
+     * @param format - RGBA or GRAY
+     */
     public void SetCaptureFormat(int format)
     {
         mPreviewFormat = format;
@@ -293,6 +341,13 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
         }
     }
 
+    /**
+     * @return true if the listener only needs luma, see SetCaptureFormat()
+     */
+    protected boolean isGrayOnly() {
+        return mPreviewFormat == GRAY;
+    }
+
     /**
      * Called when mSyncObject lock is held
      */
@@ -391,7 +446,13 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
         if (mListener != null) {
             modified = mListener.onCameraFrame(frame);
         } else {
-            modified = frame.rgba();
+            modified = isGrayOnly() ? frame.gray() : frame.rgba();
+        }
+
+        if (mDrawMode == DRAW_GL) {
+            if (modified != null)
+                drawFrameGL(modified);
+            return;
         }
 
         boolean bmpValid = true;
@@ -413,19 +474,20 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
                 if (BuildConfig.DEBUG)
                     Log.d(TAG, "mStretch value: " + mScale);
 
+                /* The Rects are reused, so drawing doesn't allocate per frame */
+                mSrcRect.set(0,0,mCacheBitmap.getWidth(), mCacheBitmap.getHeight());
                 if (mScale != 0) {
-                    canvas.drawBitmap(mCacheBitmap, new Rect(0,0,mCacheBitmap.getWidth(), mCacheBitmap.getHeight()),
-                         new Rect((int)((canvas.getWidth() - mScale*mCacheBitmap.getWidth()) / 2),
+                    mDstRect.set((int)((canvas.getWidth() - mScale*mCacheBitmap.getWidth()) / 2),
                          (int)((canvas.getHeight() - mScale*mCacheBitmap.getHeight()) / 2),
                          (int)((canvas.getWidth() - mScale*mCacheBitmap.getWidth()) / 2 + mScale*mCacheBitmap.getWidth()),
-                         (int)((canvas.getHeight() - mScale*mCacheBitmap.getHeight()) / 2 + mScale*mCacheBitmap.getHeight())), null);
+                         (int)((canvas.getHeight() - mScale*mCacheBitmap.getHeight()) / 2 + mScale*mCacheBitmap.getHeight()));
                 } else {
-                     canvas.drawBitmap(mCacheBitmap, new Rect(0,0,mCacheBitmap.getWidth(), mCacheBitmap.getHeight()),
-                         new Rect((canvas.getWidth() - mCacheBitmap.getWidth()) / 2,
+                    mDstRect.set((canvas.getWidth() - mCacheBitmap.getWidth()) / 2,
                          (canvas.getHeight() - mCacheBitmap.getHeight()) / 2,
                          (canvas.getWidth() - mCacheBitmap.getWidth()) / 2 + mCacheBitmap.getWidth(),
-                         (canvas.getHeight() - mCacheBitmap.getHeight()) / 2 + mCacheBitmap.getHeight()), null);
+                         (canvas.getHeight() - mCacheBitmap.getHeight()) / 2 + mCacheBitmap.getHeight());
                 }
+                canvas.drawBitmap(mCacheBitmap, mSrcRect, mDstRect, null);
 
                 if (mFpsMeter != null) {
                     mFpsMeter.measure();
@@ -436,6 +498,48 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
         }
     }
 
+    /**
+     * Draws modified with GLFrameRenderer on the thread that delivers the frames. If GL can't be
+     * set up on this Surface, falls back to the Canvas path for good.
+     */
+    private void drawFrameGL(Mat modified) {
+        if (mGLRenderer == null) {
+            GLFrameRenderer renderer = new GLFrameRenderer(getHolder());
+            try {
+                renderer.init();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "OpenGL drawing is not available, falling back to Canvas: " + e.getMessage());
+                renderer.release();
+                mDrawMode = DRAW_CANVAS;
+                AllocateCache();
+                return;
+            }
+            mGLRenderer = renderer;
+        }
+
+        try {
+            mGLRenderer.drawFrame(modified, mScale);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Mat type: " + modified);
+            Log.e(TAG, "GLFrameRenderer.drawFrame() throws an exception: " + e.getMessage());
+            return;
+        }
+
+        if (mFpsMeter != null)
+            mFpsMeter.measure();
+    }
+
+    /**
+     * Subclasses shall call this on the thread that called deliverAndDrawFrame() once it stops
+     * delivering frames, so the OpenGL context of DRAW_GL mode is freed on the thread that owns it.
+     */
+    protected void releaseFrameRenderer() {
+        if (mGLRenderer != null) {
+            mGLRenderer.release();
+            mGLRenderer = null;
+        }
+    }
+
     /**
      * This method is invoked shall perform concrete operation to initialize the camera.
      * CONTRACT: as a result of this method variables mFrameWidth and mFrameHeight MUST be
@@ -454,6 +558,9 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
     // NOTE: On Android 4.1.x the function must be called before SurfaceTexture constructor!
     protected void AllocateCache()
     {
+        /* GL drawing uploads the Mat as it is and never needs the Bitmap */
+        if (mDrawMode == DRAW_GL)
+            return;
         mCacheBitmap = Bitmap.createBitmap(mFrameWidth, mFrameHeight, Bitmap.Config.ARGB_8888);
     }
 
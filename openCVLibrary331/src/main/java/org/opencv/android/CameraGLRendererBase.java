@@ -1,12 +1,11 @@
 package org.opencv.android;
 
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
+import org.opencv.android.CameraGLSurfaceView.CameraReadbackListener;
 import org.opencv.android.CameraGLSurfaceView.CameraTextureListener;
 
 import android.annotation.TargetApi;
@@ -22,52 +21,30 @@ public abstract class CameraGLRendererBase implements GLSurfaceView.Renderer, Su
 
     protected final String LOGTAG = "CameraGLRendererBase";
 
-    // shaders
-    private final String vss = ""
-            + "attribute vec2 vPosition;\n"
-            + "attribute vec2 vTexCoord;\n" + "varying vec2 texCoord;\n"
-            + "void main() {\n" + "  texCoord = vTexCoord;\n"
-            + "  gl_Position = vec4 ( vPosition.x, vPosition.y, 0.0, 1.0 );\n"
-            + "}";
-
-    private final String fssOES = ""
-            + "#extension GL_OES_EGL_image_external : require\n"
-            + "precision mediump float;\n"
-            + "uniform samplerExternalOES sTexture;\n"
-            + "varying vec2 texCoord;\n"
-            + "void main() {\n"
-            + "  gl_FragColor = texture2D(sTexture,texCoord);\n" + "}";
-
-    private final String fss2D = ""
-            + "precision mediump float;\n"
-            + "uniform sampler2D sTexture;\n"
-            + "varying vec2 texCoord;\n"
-            + "void main() {\n"
-            + "  gl_FragColor = texture2D(sTexture,texCoord);\n" + "}";
-
-    // coord-s
-    private final float vertices[] = {
-           -1, -1,
-           -1,  1,
-            1, -1,
-            1,  1 };
-    private final float texCoordOES[] = {
-            0,  1,
-            0,  0,
-            1,  1,
-            1,  0 };
-    private final float texCoord2D[] = {
-            0,  0,
-            0,  1,
-            1,  0,
-            1,  1 };
-
     private int[] texCamera = {0}, texFBO = {0}, texDraw = {0};
     private int[] FBO = {0};
-    private int progOES = -1, prog2D = -1;
-    private int vPosOES, vTCOES, vPos2D, vTC2D;
 
-    private FloatBuffer vert, texOES, tex2D;
+    private final GLTextureDrawer mDrawer = new GLTextureDrawer();
+
+    // Frames in flight between the GPU and the readback listener: one being read while the next is written, and one
+    // spare for when the GPU runs late
+    private static final int READBACK_BUFFERS = 3;
+
+    private CameraReadbackListener mReadbackListener;
+    private int mReadbackFormat, mReadbackDownscale;
+    private boolean mReadbackChanged;
+    private boolean mHavePBO;
+    // GL thread only, created on the first frame read back
+    private GLReadbackPass mReadbackPass;
+    private PixelBufferRing mReadbackRing;
+    private final PixelBufferRing.Consumer mReadbackConsumer = new PixelBufferRing.Consumer() {
+        @Override
+        public void onPixels(ByteBuffer pixels, int width, int height, long timestamp) {
+            // gray frames come packed 4 pixels to an RGBA texel
+            int pixelWidth = mReadbackFormat == CameraBridgeViewBase.GRAY ? width * 4 : width;
+            mReadbackListener.onCameraFrameRead(pixels, pixelWidth, height, mReadbackFormat, timestamp);
+        }
+    };
 
     protected int mCameraWidth = -1, mCameraHeight = -1;
     protected int mFBOWidth = -1, mFBOHeight = -1;
@@ -90,13 +67,6 @@ public abstract class CameraGLRendererBase implements GLSurfaceView.Renderer, Su
 
     public CameraGLRendererBase(CameraGLSurfaceView view) {
         mView = view;
-        int bytes = vertices.length * Float.SIZE / Byte.SIZE;
-        vert   = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder()).asFloatBuffer();
-        texOES = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder()).asFloatBuffer();
-        tex2D  = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder()).asFloatBuffer();
-        vert.put(vertices).position(0);
-        texOES.put(texCoordOES).position(0);
-        tex2D.put(texCoord2D).position(0);
     }
 
     @Override
@@ -142,6 +112,11 @@ public abstract class CameraGLRendererBase implements GLSurfaceView.Renderer, Su
                 // texCamera(OES) -> screen
                 drawTex(texCamera[0], true, 0);
             }
+
+            if (mReadbackListener != null)
+                readback();
+            else if (mReadbackRing != null)
+                releaseReadback();
             //Log.i(LOGTAG, "onDrawFrame end");
         }
     }
@@ -157,6 +132,9 @@ public abstract class CameraGLRendererBase implements GLSurfaceView.Renderer, Su
     @Override
     public void onSurfaceCreated(GL10 gl, EGLConfig config) {
         Log.i(LOGTAG, "onSurfaceCreated");
+        // a new context, whatever was created in the old one went with it
+        mReadbackPass = null;
+        mReadbackRing = null;
         initShaders();
     }
 
@@ -164,20 +142,12 @@ public abstract class CameraGLRendererBase implements GLSurfaceView.Renderer, Su
         String strGLVersion = GLES20.glGetString(GLES20.GL_VERSION);
         if (strGLVersion != null)
             Log.i(LOGTAG, "OpenGL ES version: " + strGLVersion);
+        // setEGLContextClientVersion(2) gets a 3.x context wherever the driver has one, and only 3.0 has PBOs
+        mHavePBO = strGLVersion != null && strGLVersion.matches("OpenGL ES [3-9].*");
 
         GLES20.glClearColor(1.0f, 1.0f, 1.0f, 1.0f);
 
-        progOES = loadShader(vss, fssOES);
-        vPosOES = GLES20.glGetAttribLocation(progOES, "vPosition");
-        vTCOES  = GLES20.glGetAttribLocation(progOES, "vTexCoord");
-        GLES20.glEnableVertexAttribArray(vPosOES);
-        GLES20.glEnableVertexAttribArray(vTCOES);
-
-        prog2D  = loadShader(vss, fss2D);
-        vPos2D = GLES20.glGetAttribLocation(prog2D, "vPosition");
-        vTC2D  = GLES20.glGetAttribLocation(prog2D, "vTexCoord");
-        GLES20.glEnableVertexAttribArray(vPos2D);
-        GLES20.glEnableVertexAttribArray(vTC2D);
+        mDrawer.init();
     }
 
     private void initSurfaceTexture() {
@@ -214,59 +184,6 @@ public abstract class CameraGLRendererBase implements GLSurfaceView.Renderer, Su
         }
     }
 
-    private static int loadShader(String vss, String fss) {
-        Log.d("CameraGLRendererBase", "loadShader");
-        int vshader = GLES20.glCreateShader(GLES20.GL_VERTEX_SHADER);
-        GLES20.glShaderSource(vshader, vss);
-        GLES20.glCompileShader(vshader);
-        int[] status = new int[1];
-        GLES20.glGetShaderiv(vshader, GLES20.GL_COMPILE_STATUS, status, 0);
-        if (status[0] == 0) {
-            Log.e("CameraGLRendererBase", "Could not compile vertex shader: "+GLES20.glGetShaderInfoLog(vshader));
-            GLES20.glDeleteShader(vshader);
-            vshader = 0;
-            return 0;
-        }
-
-        int fshader = GLES20.glCreateShader(GLES20.GL_FRAGMENT_SHADER);
-        GLES20.glShaderSource(fshader, fss);
-        GLES20.glCompileShader(fshader);
-        GLES20.glGetShaderiv(fshader, GLES20.GL_COMPILE_STATUS, status, 0);
-        if (status[0] == 0) {
-            Log.e("CameraGLRendererBase", "Could not compile fragment shader:"+GLES20.glGetShaderInfoLog(fshader));
-            GLES20.glDeleteShader(vshader);
-            GLES20.glDeleteShader(fshader);
-            fshader = 0;
-            return 0;
-        }
-
-        int program = GLES20.glCreateProgram();
-        GLES20.glAttachShader(program, vshader);
-        GLES20.glAttachShader(program, fshader);
-        GLES20.glLinkProgram(program);
-        GLES20.glDeleteShader(vshader);
-        GLES20.glDeleteShader(fshader);
-        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, status, 0);
-        if (status[0] == 0) {
-            Log.e("CameraGLRendererBase", "Could not link shader program: "+GLES20.glGetProgramInfoLog(program));
-            program = 0;
-            return 0;
-        }
-        GLES20.glValidateProgram(program);
-        GLES20.glGetProgramiv(program, GLES20.GL_VALIDATE_STATUS, status, 0);
-        if (status[0] == 0)
-        {
-            Log.e("CameraGLRendererBase", "Shader program validation error: "+GLES20.glGetProgramInfoLog(program));
-            GLES20.glDeleteProgram(program);
-            program = 0;
-            return 0;
-        }
-
-        Log.d("CameraGLRendererBase", "Shader program is built OK");
-
-        return program;
-    }
-
     private void deleteFBO()
     {
         Log.d(LOGTAG, "deleteFBO("+mFBOWidth+"x"+mFBOHeight+")");
@@ -326,28 +243,53 @@ public abstract class CameraGLRendererBase implements GLSurfaceView.Renderer, Su
 
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
 
-        if(isOES) {
-            GLES20.glUseProgram(progOES);
-            GLES20.glVertexAttribPointer(vPosOES, 2, GLES20.GL_FLOAT, false, 4*2, vert);
-            GLES20.glVertexAttribPointer(vTCOES,  2, GLES20.GL_FLOAT, false, 4*2, texOES);
-        } else {
-            GLES20.glUseProgram(prog2D);
-            GLES20.glVertexAttribPointer(vPos2D, 2, GLES20.GL_FLOAT, false, 4*2, vert);
-            GLES20.glVertexAttribPointer(vTC2D,  2, GLES20.GL_FLOAT, false, 4*2, tex2D);
-        }
+        // camera frames come top down, what was rendered into our textures bottom up
+        mDrawer.draw(tex, isOES, isOES);
+        GLES20.glFlush();
+    }
 
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+    /**
+     * Set up readback of every frame for listener, or stop it if listener is null, see
+     * CameraGLSurfaceView.setCameraReadbackListener(). Takes effect with the next frame.
+     */
+    public synchronized void setReadback(CameraReadbackListener listener, int format, int downscale) {
+        if (format != CameraBridgeViewBase.RGBA && format != CameraBridgeViewBase.GRAY)
+            throw new IllegalArgumentException("Readback format must be RGBA or GRAY, was " + format);
+        if (downscale < 1)
+            throw new IllegalArgumentException("Readback downscale must be at least 1, was " + downscale);
+        mReadbackListener = listener;
+        mReadbackFormat = format;
+        mReadbackDownscale = downscale;
+        mReadbackChanged = true;
+    }
 
-        if(isOES) {
-            GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, tex);
-            GLES20.glUniform1i(GLES20.glGetUniformLocation(progOES, "sTexture"), 0);
-        } else {
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, tex);
-            GLES20.glUniform1i(GLES20.glGetUniformLocation(prog2D, "sTexture"), 0);
+    // Render the camera frame for readback, queue its read and hand the previous one to the listener. GL thread only.
+    private void readback() {
+        if (mReadbackRing == null) {
+            Log.d(LOGTAG, "readback with " + (mHavePBO ? "pixel buffer objects" : "synchronous glReadPixels()"));
+            mReadbackPass = new GLReadbackPass();
+            mReadbackPass.init();
+            PixelBufferRing.GL gl = mHavePBO ? new PixelBufferRing.Gles30() : new PixelBufferRing.Gles20();
+            mReadbackRing = new PixelBufferRing(gl, READBACK_BUFFERS);
+        } else if (mReadbackChanged) {
+            // the pending frames were read in the old format
+            mReadbackRing.clear();
         }
+        mReadbackChanged = false;
 
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
-        GLES20.glFlush();
+        mReadbackPass.draw(texCamera[0], mReadbackFormat, mCameraWidth / mReadbackDownscale,
+                mCameraHeight / mReadbackDownscale);
+        mReadbackRing.read(mReadbackPass.getReadWidth(), mReadbackPass.getReadHeight(), mSTexture.getTimestamp(),
+                mReadbackConsumer);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+    }
+
+    private void releaseReadback() {
+        Log.d(LOGTAG, "releaseReadback");
+        mReadbackRing.release();
+        mReadbackPass.release();
+        mReadbackRing = null;
+        mReadbackPass = null;
     }
 
     public synchronized void enableView() {
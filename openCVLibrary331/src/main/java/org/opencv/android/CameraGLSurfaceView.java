@@ -1,5 +1,7 @@
 package org.opencv.android;
 
+import java.nio.ByteBuffer;
+
 import org.opencv.R;
 
 import android.content.Context;
@@ -39,6 +41,20 @@ public class CameraGLSurfaceView extends GLSurfaceView {
         public boolean onCameraTexture(int texIn, int texOut, int width, int height);
     };
 
+    public interface CameraReadbackListener {
+        /**
+         * This method is invoked on the GL thread, after a preview frame has been drawn, with the pixels
+         * of an earlier frame, normally the one before, read back from the GPU without waiting for it.
+         * @param pixels - width x height pixels, RGBA or gray, rows top down and tightly packed. The buffer is only
+         *                 valid until this method returns: copy out what is needed and do the work elsewhere.
+         * @param width -  the width of the frame, a multiple of 4 for gray frames
+         * @param height - the height of the frame
+         * @param format - CameraBridgeViewBase.RGBA or CameraBridgeViewBase.GRAY
+         * @param timestamp - the SurfaceTexture timestamp of the frame, in nanoseconds
+         */
+        public void onCameraFrameRead(ByteBuffer pixels, int width, int height, int format, long timestamp);
+    };
+
     private CameraTextureListener mTexListener;
     private CameraGLRendererBase mRenderer;
 
@@ -71,6 +87,18 @@ public class CameraGLSurfaceView extends GLSurfaceView {
         return mTexListener;
     }
 
+    /**
+     * Read every preview frame back to the CPU for listener, or stop if listener is null. The frames are
+     * converted and downscaled on the GPU, so only the bytes asked for are read. On OpenGL ES 3.0 the reads
+     * go through a ring of pixel buffer objects and the GL thread never waits for them, frames are skipped
+     * instead when the GPU falls behind. On OpenGL ES 2.0 every read waits for the GPU.
+     * @param format - CameraBridgeViewBase.RGBA or CameraBridgeViewBase.GRAY (BT.601 luma)
+     * @param downscale - divides the camera frame's width and height, 1 for full resolution
+     */
+    public void setCameraReadbackListener(CameraReadbackListener listener, int format, int downscale) {
+        mRenderer.setReadback(listener, format, downscale);
+    }
+
     public void setCameraIndex(int cameraIndex) {
         mRenderer.setCameraIndex(cameraIndex);
     }
@@ -1,33 +1,39 @@
 package org.opencv.android;
 
-import java.text.DecimalFormat;
-
-import org.opencv.core.Core;
-
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
-import android.util.Log;
 
+/**
+ * On-screen frame rate label. The numbers come from a FrameStats, and the label text is only rebuilt every
+ * TEXT_INTERVAL_MS, into a reused buffer, so measuring and drawing every frame does not allocate or log anything.
+ */
 public class FpsMeter {
-    private static final String TAG               = "FpsMeter";
-    private static final int    STEP              = 20;
-    private static final DecimalFormat FPS_FORMAT = new DecimalFormat("0.00");
+    private static final long  TEXT_INTERVAL_MS  = 500;
 
-    private int                 mFramesCouner;
-    private double              mFrequency;
-    private long                mprevFrameTime;
-    private String              mStrfps;
+    private final FrameStats    mStats;
+    private final StringBuilder mText = new StringBuilder(96);
+    private char[]              mChars = new char[96];
+    private int                 mLength;
+    private long                mLastTextTime;
     Paint                       mPaint;
     boolean                     mIsInitialized = false;
     int                         mWidth = 0;
     int                         mHeight = 0;
 
+    public FpsMeter() {
+        this(new FrameStats());
+    }
+
+    /** Measure into an existing FrameStats, e.g. one shared with other code that wants the same numbers. */
+    public FpsMeter(FrameStats stats) {
+        mStats = stats;
+    }
+
     public void init() {
-        mFramesCouner = 0;
-        mFrequency = Core.getTickFrequency();
-        mprevFrameTime = Core.getTickCount();
-        mStrfps = "";
+        mStats.reset();
+        mLength = 0;
+        mLastTextTime = 0;
 
         mPaint = new Paint();
         mPaint.setColor(Color.BLUE);
@@ -38,19 +44,8 @@ public class FpsMeter {
         if (!mIsInitialized) {
             init();
             mIsInitialized = true;
-        } else {
-            mFramesCouner++;
-            if (mFramesCouner % STEP == 0) {
-                long time = Core.getTickCount();
-                double fps = STEP * mFrequency / (time - mprevFrameTime);
-                mprevFrameTime = time;
-                if (mWidth != 0 && mHeight != 0)
-                    mStrfps = FPS_FORMAT.format(fps) + " FPS@" + Integer.valueOf(mWidth) + "x" + Integer.valueOf(mHeight);
-                else
-                    mStrfps = FPS_FORMAT.format(fps) + " FPS";
-                Log.i(TAG, mStrfps);
-            }
         }
+        mStats.frame();
     }
 
     public void setResolution(int width, int height) {
@@ -58,9 +53,29 @@ public class FpsMeter {
         mHeight = height;
     }
 
+    /** The statistics behind the label, for reading frame-time percentiles and jank directly. */
+    public FrameStats getStats() {
+        return mStats;
+    }
+
     public void draw(Canvas canvas, float offsetx, float offsety) {
-        Log.d(TAG, mStrfps);
-        canvas.drawText(mStrfps, offsetx, offsety, mPaint);
+        long now = System.currentTimeMillis();
+        if (now - mLastTextTime >= TEXT_INTERVAL_MS) {
+            mLastTextTime = now;
+            updateText();
+        }
+        canvas.drawText(mChars, 0, mLength, offsetx, offsety, mPaint);
     }
 
+    private void updateText() {
+        mText.setLength(0);
+        mStats.appendSummary(mText);
+        if (mWidth != 0 && mHeight != 0)
+            mText.append("  @").append(mWidth).append('x').append(mHeight);
+
+        mLength = mText.length();
+        if (mLength > mChars.length)
+            mChars = new char[mLength];
+        mText.getChars(0, mLength, mChars, 0);
+    }
 }
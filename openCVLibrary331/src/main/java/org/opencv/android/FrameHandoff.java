@@ -0,0 +1,117 @@
+package org.opencv.android;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free handoff of the newest frame from one producer thread to one consumer thread. Frames live in buffers owned
+ * by the caller and are passed around by index. The handoff holds at most one published buffer: the producer swaps the
+ * one it just filled in, and gets back the one it replaced if the consumer hadn't taken it yet, so it can refill that
+ * one right away. The consumer swaps the published buffer out. With three buffers this is a triple buffer: one being
+ * filled, one waiting, one being processed, and neither side ever waits for the other.
+ *
+ * publish() never blocks. take() parks the consumer until a buffer is published or it is woken with wakeConsumer().
+ *
+ * The counters are written by one thread each and can be read from any thread.
+ */
+final class FrameHandoff {
+    public static final int NONE = -1;
+
+    // Index of the published buffer, NONE when the consumer took the last one
+    private final AtomicInteger mPublished = new AtomicInteger(NONE);
+    private volatile Thread     mConsumer;
+    private volatile boolean    mWoken;
+
+    private volatile long       mPublishedCount;    // written by the producer only
+    private volatile long       mOverwrittenCount;  // written by the producer only
+    private volatile long       mTakenCount;        // written by the consumer only
+
+    /**
+     * Hand buffer over to the consumer. Returns the buffer it replaces, which the consumer never saw and which belongs
+     * to the producer again, or NONE. Producer thread only.
+     */
+    public int publish(int buffer) {
+        if (buffer < 0)
+            throw new IllegalArgumentException("Buffer index must not be negative, was " + buffer);
+        int replaced = mPublished.getAndSet(buffer);
+        mPublishedCount++;
+        if (replaced != NONE) {
+            mOverwrittenCount++;
+        } else {
+            // The consumer may be parked waiting for exactly this. unpark() doesn't block.
+            Thread consumer = mConsumer;
+            if (consumer != null)
+                LockSupport.unpark(consumer);
+        }
+        return replaced;
+    }
+
+    /**
+     * Take the newest published buffer, which belongs to the consumer until it hands it back to the producer, or NONE
+     * if there is none. Never blocks. Consumer thread only.
+     */
+    public int poll() {
+        int buffer = mPublished.getAndSet(NONE);
+        if (buffer != NONE)
+            mTakenCount++;
+        return buffer;
+    }
+
+    /**
+     * Like poll(), but parks the calling thread for up to timeout until a buffer is published. Returns NONE on timeout,
+     * interruption or wakeConsumer(). Consumer thread only, and only one thread may ever call it.
+     */
+    public int take(long timeout, TimeUnit unit) {
+        int buffer = poll();
+        if (buffer != NONE)
+            return buffer;
+
+        mConsumer = Thread.currentThread();
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        try {
+            // Re-check after registering, a publish() in between would otherwise be missed until the timeout
+            while ((buffer = poll()) == NONE) {
+                long remaining = deadline - System.nanoTime();
+                if (mWoken) {
+                    mWoken = false;
+                    break;
+                }
+                if (remaining <= 0 || Thread.interrupted())
+                    break;
+                LockSupport.parkNanos(this, remaining);
+            }
+        } finally {
+            mConsumer = null;
+        }
+        return buffer;
+    }
+
+    // Make a take() that is waiting, or the next one, return NONE right away, e.g. to stop the consumer thread
+    public void wakeConsumer() {
+        mWoken = true;
+        Thread consumer = mConsumer;
+        if (consumer != null)
+            LockSupport.unpark(consumer);
+    }
+
+    // Forget the published buffer, e.g. once the producer has stopped. Returns it, or NONE.
+    public int clear() {
+        return mPublished.getAndSet(NONE);
+    }
+
+    // Buffers handed to publish()
+    public long getPublishedCount() {
+        return mPublishedCount;
+    }
+
+    // Buffers that were replaced by a newer one before the consumer took them
+    public long getOverwrittenCount() {
+        return mOverwrittenCount;
+    }
+
+    // Buffers the consumer took
+    public long getTakenCount() {
+        return mTakenCount;
+    }
+}
@@ -0,0 +1,162 @@
+package org.opencv.android;
+
+import java.util.Arrays;
+
+/**
+ * Rolling frame-time statistics: frames per second, frame-time percentiles, min/max and jank over the last few frames.
+ *
+ * Call frame() once per frame from whichever thread produces them. Recording only writes one slot of a ring of
+ * frame intervals and never allocates, so it is safe to use on a render or camera thread. The statistics are
+ * computed over the last windowSize frame intervals when they are asked for, and the percentiles are sorted into a
+ * preallocated scratch array at most once per new frame.
+ *
+ * A frame counts as jank when its interval is more than JANK_FACTOR times the average interval of the window before
+ * it, i.e. when it visibly stutters compared to the frames around it.
+ *
+ * All methods are synchronized, so frames may be recorded on one thread while another thread reads the statistics.
+ */
+public class FrameStats {
+    public static final int    DEFAULT_WINDOW_SIZE = 120;
+    public static final double JANK_FACTOR         = 2.0;
+
+    private final long[] mIntervals;
+    private final long[] mSorted;
+    private int          mCount;          // intervals in the window, up to mIntervals.length
+    private int          mNext;           // slot the next interval goes into
+    private long         mWindowSum;      // sum of the intervals in the window
+    private boolean      mSortedValid;
+
+    private long         mPrevFrameTime = -1;
+    private long         mFrameCount;
+    private long         mJankCount;
+
+    public FrameStats() {
+        this(DEFAULT_WINDOW_SIZE);
+    }
+
+    public FrameStats(int windowSize) {
+        if (windowSize < 2)
+            throw new IllegalArgumentException("windowSize must be at least 2, was " + windowSize);
+        mIntervals = new long[windowSize];
+        mSorted = new long[windowSize];
+    }
+
+    /** Record a frame now, on the System.nanoTime() clock. */
+    public void frame() {
+        frame(System.nanoTime());
+    }
+
+    /** Record a frame that happened at timestampNanos, e.g. a camera timestamp. Timestamps must not go backwards. */
+    public synchronized void frame(long timestampNanos) {
+        mFrameCount++;
+        if (mPrevFrameTime < 0) {
+            mPrevFrameTime = timestampNanos;
+            return;
+        }
+        long interval = Math.max(0, timestampNanos - mPrevFrameTime);
+        mPrevFrameTime = timestampNanos;
+
+        if (mCount > 0 && interval > JANK_FACTOR * mWindowSum / mCount)
+            mJankCount++;
+
+        if (mCount == mIntervals.length)
+            mWindowSum -= mIntervals[mNext];
+        else
+            mCount++;
+        mIntervals[mNext] = interval;
+        mWindowSum += interval;
+        mNext = (mNext + 1) % mIntervals.length;
+        mSortedValid = false;
+    }
+
+    /** Forget every frame recorded so far, e.g. after a pause, so the gap doesn't count as a frame. */
+    public synchronized void reset() {
+        mCount = 0;
+        mNext = 0;
+        mWindowSum = 0;
+        mSortedValid = false;
+        mPrevFrameTime = -1;
+        mFrameCount = 0;
+        mJankCount = 0;
+    }
+
+    /** Frames recorded since creation or the last reset(). */
+    public synchronized long getFrameCount() {
+        return mFrameCount;
+    }
+
+    /** Frames since creation or the last reset() that took more than JANK_FACTOR times the recent average. */
+    public synchronized long getJankCount() {
+        return mJankCount;
+    }
+
+    /** Frame rate over the window, 0 until two frames have been recorded. */
+    public synchronized double getFps() {
+        return mWindowSum == 0 ? 0 : mCount * 1e9 / mWindowSum;
+    }
+
+    public synchronized double getMeanFrameTimeMillis() {
+        return mCount == 0 ? 0 : mWindowSum / 1e6 / mCount;
+    }
+
+    public synchronized double getMinFrameTimeMillis() {
+        return mCount == 0 ? 0 : sorted()[0] / 1e6;
+    }
+
+    public synchronized double getMaxFrameTimeMillis() {
+        return mCount == 0 ? 0 : sorted()[mCount - 1] / 1e6;
+    }
+
+    /** Frame time that percentile percent of the frames in the window took at most, e.g. 95 for p95. */
+    public synchronized double getFrameTimePercentileMillis(double percentile) {
+        if (percentile < 0 || percentile > 100)
+            throw new IllegalArgumentException("percentile must be between 0 and 100, was " + percentile);
+        if (mCount == 0)
+            return 0;
+        // Nearest rank, so p100 is the maximum and p0 the minimum
+        int rank = (int) Math.ceil(percentile / 100.0 * mCount);
+        return sorted()[Math.max(rank, 1) - 1] / 1e6;
+    }
+
+    /**
+     * Append a one-line summary such as "29.98 FPS  p50 33.31 p95 35.10 p99 41.02 ms  jank 2" to out. Only appends
+     * integers and chars, so it doesn't allocate as long as out has room.
+     */
+    public synchronized void appendSummary(StringBuilder out) {
+        appendFixed(out, getFps());
+        out.append(" FPS  p50 ");
+        appendFixed(out, getFrameTimePercentileMillis(50));
+        out.append(" p95 ");
+        appendFixed(out, getFrameTimePercentileMillis(95));
+        out.append(" p99 ");
+        appendFixed(out, getFrameTimePercentileMillis(99));
+        out.append(" ms  jank ");
+        out.append(mJankCount);
+    }
+
+    // The window's intervals in ascending order, only the first mCount are valid
+    private long[] sorted() {
+        if (!mSortedValid) {
+            System.arraycopy(mIntervals, 0, mSorted, 0, mCount);
+            // Sorting primitives in place doesn't allocate for arrays this small
+            Arrays.sort(mSorted, 0, mCount);
+            mSortedValid = true;
+        }
+        return mSorted;
+    }
+
+    // Append value with two decimals. StringBuilder.append(double) allocates on most runtimes, this doesn't.
+    static void appendFixed(StringBuilder out, double value) {
+        if (value < 0) {
+            out.append('-');
+            value = -value;
+        }
+        long hundredths = Math.round(value * 100);
+        out.append(hundredths / 100);
+        out.append('.');
+        long fraction = hundredths % 100;
+        if (fraction < 10)
+            out.append('0');
+        out.append(fraction);
+    }
+}
@@ -0,0 +1,224 @@
+package org.opencv.android;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import android.annotation.TargetApi;
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLSurface;
+import android.opengl.GLES20;
+import android.util.Log;
+
+/**
+ * Draws Mats to a window with OpenGL ES, as the GPU counterpart of Utils.matToBitmap() followed by
+ * Canvas.drawBitmap(). The Mat's pixels are uploaded straight into a texture, gray, RGB or RGBA alike,
+ * and the GPU does the scaling, so nothing is converted or blitted on the CPU.
+ *
+ * The renderer owns its own EGL context. It is created by init(), or else by the first drawFrame(),
+ * and is current on that thread from then on, so every call, release() included, must come from
+ * the same thread.
+ */
+@TargetApi(17)
+public class GLFrameRenderer {
+
+    private static final String LOGTAG = "GLFrameRenderer";
+
+    private final Object mWindow;
+    private final int mPbufferWidth;
+    private final int mPbufferHeight;
+
+    private EGLDisplay mDisplay = EGL14.EGL_NO_DISPLAY;
+    private EGLContext mContext = EGL14.EGL_NO_CONTEXT;
+    private EGLSurface mSurface = EGL14.EGL_NO_SURFACE;
+    private final GLTextureDrawer mDrawer = new GLTextureDrawer();
+
+    private int[] mTex = {0};
+    private int mTexWidth, mTexHeight, mTexFormat;
+    private Mat mContinuous;
+    private final int[] mSurfaceSize = new int[2];
+
+    /**
+     * Draw into a window.
+     * @param window - a Surface, SurfaceHolder or SurfaceTexture, as eglCreateWindowSurface() takes them
+     */
+    public GLFrameRenderer(Object window) {
+        if (window == null)
+            throw new IllegalArgumentException("window must not be null");
+        mWindow = window;
+        mPbufferWidth = mPbufferHeight = 0;
+    }
+
+    /**
+     * Draw into an offscreen pbuffer of the given size, e.g. to measure drawing without a view.
+     */
+    public GLFrameRenderer(int width, int height) {
+        if (width < 1 || height < 1)
+            throw new IllegalArgumentException("Pbuffer size must be positive, was " + width + "x" + height);
+        mWindow = null;
+        mPbufferWidth = width;
+        mPbufferHeight = height;
+    }
+
+    /**
+     * Set up the EGL context and surface on this thread, if that hasn't been done yet. Lets a caller
+     * tell a renderer that can't work here apart from a frame it can't draw.
+     * @throws RuntimeException if EGL can't be set up on this thread
+     */
+    public void init() {
+        if (mContext == EGL14.EGL_NO_CONTEXT)
+            initEGL();
+    }
+
+    /**
+     * Draw frame centered in the window, scaled by scale, or at its own size if scale is 0, and show it.
+     * @param frame - CV_8UC1, CV_8UC3 or CV_8UC4 Mat, drawn as gray, RGB or RGBA
+     * @throws IllegalArgumentException if frame has another type
+     * @throws RuntimeException if EGL can't be set up on this thread
+     */
+    public void drawFrame(Mat frame, float scale) {
+        init();
+
+        upload(frame);
+
+        EGL14.eglQuerySurface(mDisplay, mSurface, EGL14.EGL_WIDTH, mSurfaceSize, 0);
+        EGL14.eglQuerySurface(mDisplay, mSurface, EGL14.EGL_HEIGHT, mSurfaceSize, 1);
+        float width = scale != 0 ? scale * mTexWidth : mTexWidth;
+        float height = scale != 0 ? scale * mTexHeight : mTexHeight;
+
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        GLES20.glViewport(0, 0, mSurfaceSize[0], mSurfaceSize[1]);
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        // the viewport does the centering and scaling that the Canvas path does with a destination Rect
+        GLES20.glViewport((int)((mSurfaceSize[0] - width) / 2), (int)((mSurfaceSize[1] - height) / 2),
+                (int)width, (int)height);
+        mDrawer.draw(mTex[0], false, true);
+
+        if (!EGL14.eglSwapBuffers(mDisplay, mSurface))
+            Log.e(LOGTAG, "eglSwapBuffers failed: " + EGL14.eglGetError());
+    }
+
+    /**
+     * Free the texture and the EGL context and surface. The renderer can draw again afterwards,
+     * it then sets everything up anew.
+     */
+    public void release() {
+        if (mDisplay == EGL14.EGL_NO_DISPLAY)
+            return;
+        if (mContext != EGL14.EGL_NO_CONTEXT) {
+            if (mTex[0] != 0)
+                GLES20.glDeleteTextures(1, mTex, 0);
+            mTex[0] = 0;
+            mDrawer.release();
+            EGL14.eglMakeCurrent(mDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+            EGL14.eglDestroyContext(mDisplay, mContext);
+        }
+        if (mSurface != EGL14.EGL_NO_SURFACE)
+            EGL14.eglDestroySurface(mDisplay, mSurface);
+        // no eglTerminate(): the default display is shared with every other GL user in the process
+        EGL14.eglReleaseThread();
+        mDisplay = EGL14.EGL_NO_DISPLAY;
+        mContext = EGL14.EGL_NO_CONTEXT;
+        mSurface = EGL14.EGL_NO_SURFACE;
+        mTexWidth = mTexHeight = mTexFormat = 0;
+        if (mContinuous != null) {
+            mContinuous.release();
+            mContinuous = null;
+        }
+    }
+
+    private void initEGL() {
+        Log.d(LOGTAG, "initEGL");
+        mDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+        int[] version = new int[2];
+        if (mDisplay == EGL14.EGL_NO_DISPLAY || !EGL14.eglInitialize(mDisplay, version, 0, version, 1))
+            throw eglError("eglInitialize");
+
+        int[] configAttribs = {
+                EGL14.EGL_RED_SIZE, 8,
+                EGL14.EGL_GREEN_SIZE, 8,
+                EGL14.EGL_BLUE_SIZE, 8,
+                EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+                EGL14.EGL_SURFACE_TYPE, mWindow != null ? EGL14.EGL_WINDOW_BIT : EGL14.EGL_PBUFFER_BIT,
+                EGL14.EGL_NONE };
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] numConfigs = new int[1];
+        if (!EGL14.eglChooseConfig(mDisplay, configAttribs, 0, configs, 0, 1, numConfigs, 0) || numConfigs[0] == 0)
+            throw eglError("eglChooseConfig");
+
+        int[] contextAttribs = { EGL14.EGL_CONTEXT_CLIENT_VERSION, 2, EGL14.EGL_NONE };
+        mContext = EGL14.eglCreateContext(mDisplay, configs[0], EGL14.EGL_NO_CONTEXT, contextAttribs, 0);
+        if (mContext == EGL14.EGL_NO_CONTEXT)
+            throw eglError("eglCreateContext");
+
+        if (mWindow != null) {
+            mSurface = EGL14.eglCreateWindowSurface(mDisplay, configs[0], mWindow, new int[] { EGL14.EGL_NONE }, 0);
+        } else {
+            int[] pbufferAttribs = { EGL14.EGL_WIDTH, mPbufferWidth, EGL14.EGL_HEIGHT, mPbufferHeight, EGL14.EGL_NONE };
+            mSurface = EGL14.eglCreatePbufferSurface(mDisplay, configs[0], pbufferAttribs, 0);
+        }
+        if (mSurface == EGL14.EGL_NO_SURFACE)
+            throw eglError("eglCreateSurface");
+        if (!EGL14.eglMakeCurrent(mDisplay, mSurface, mSurface, mContext))
+            throw eglError("eglMakeCurrent");
+
+        GLES20.glClearColor(0.0f, 0.0f, 0.0f, 1.0f);
+        mDrawer.init();
+    }
+
+    private RuntimeException eglError(String call) {
+        RuntimeException e = new RuntimeException(call + " failed: " + EGL14.eglGetError());
+        release();
+        return e;
+    }
+
+    private void upload(Mat frame) {
+        int format;
+        int type = frame.type();
+        if (type == CvType.CV_8UC1)
+            format = GLES20.GL_LUMINANCE;
+        else if (type == CvType.CV_8UC3)
+            format = GLES20.GL_RGB;
+        else if (type == CvType.CV_8UC4)
+            format = GLES20.GL_RGBA;
+        else
+            throw new IllegalArgumentException("Frame must be CV_8UC1, CV_8UC3 or CV_8UC4, was "
+                    + CvType.typeToString(type));
+
+        // asByteBuffer() wraps the Mat in place, which only works for continuous Mats (not for most ROIs)
+        Mat pixels = frame;
+        if (!frame.isContinuous()) {
+            if (mContinuous == null)
+                mContinuous = new Mat();
+            frame.copyTo(mContinuous);
+            pixels = mContinuous;
+        }
+
+        // rows of gray and RGB Mats are not 4-byte aligned in general
+        GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+        if (mTex[0] == 0) {
+            GLES20.glGenTextures(1, mTex, 0);
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTex[0]);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        } else {
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTex[0]);
+        }
+
+        // allocate the texture storage only when the frame size or format changes, update it in place otherwise
+        if (pixels.cols() != mTexWidth || pixels.rows() != mTexHeight || format != mTexFormat) {
+            mTexWidth = pixels.cols();
+            mTexHeight = pixels.rows();
+            mTexFormat = format;
+            GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, format, mTexWidth, mTexHeight, 0, format,
+                    GLES20.GL_UNSIGNED_BYTE, pixels.asByteBuffer());
+        } else {
+            GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, mTexWidth, mTexHeight, format,
+                    GLES20.GL_UNSIGNED_BYTE, pixels.asByteBuffer());
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package org.opencv.android;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.util.Log;
+
+/**
+ * Renders the camera's external (OES) texture into an offscreen framebuffer laid out for glReadPixels(), as RGBA or
+ * as gray, and optionally downscaled, so only the pixels the CPU wants cross the bus. Gray frames are packed 4 pixels
+ * to an RGBA texel, because RGBA is the one format every GL ES implementation can read back. Rows are flipped on the
+ * way, so glReadPixels() returns them top down like a Mat. Downscaling samples the nearest camera pixel.
+ *
+ * init() and everything after it need a current GL ES 2.0 context, the one the pass was initialized in.
+ */
+class GLReadbackPass {
+
+    private static final String LOGTAG = "GLReadbackPass";
+
+    private static final String vss = ""
+            + "attribute vec2 vPosition;\n"
+            + "varying vec2 texCoord;\n"
+            + "void main() {\n"
+            // the bottom row of the framebuffer, which glReadPixels() returns first, gets the top of the frame
+            + "  texCoord = vPosition * 0.5 + 0.5;\n"
+            + "  gl_Position = vec4 ( vPosition.x, vPosition.y, 0.0, 1.0 );\n"
+            + "}";
+
+    private static final String fssRGBA = ""
+            + "#extension GL_OES_EGL_image_external : require\n"
+            + "precision mediump float;\n"
+            + "uniform samplerExternalOES sTexture;\n"
+            + "varying vec2 texCoord;\n"
+            + "void main() {\n"
+            + "  gl_FragColor = texture2D(sTexture,texCoord);\n" + "}";
+
+    // uStep is the width of one gray pixel in texture coordinates, the texel is centered on the middle two of its four
+    private static final String fssGray = ""
+            + "#extension GL_OES_EGL_image_external : require\n"
+            + "#ifdef GL_FRAGMENT_PRECISION_HIGH\n"
+            + "precision highp float;\n"
+            + "#else\n"
+            + "precision mediump float;\n"
+            + "#endif\n"
+            + "uniform samplerExternalOES sTexture;\n"
+            + "uniform float uStep;\n"
+            + "varying vec2 texCoord;\n"
+            + "const vec3 luma = vec3(0.299, 0.587, 0.114);\n"
+            + "void main() {\n"
+            + "  gl_FragColor = vec4(\n"
+            + "      dot(texture2D(sTexture, texCoord - vec2(1.5 * uStep, 0.0)).rgb, luma),\n"
+            + "      dot(texture2D(sTexture, texCoord - vec2(0.5 * uStep, 0.0)).rgb, luma),\n"
+            + "      dot(texture2D(sTexture, texCoord + vec2(0.5 * uStep, 0.0)).rgb, luma),\n"
+            + "      dot(texture2D(sTexture, texCoord + vec2(1.5 * uStep, 0.0)).rgb, luma));\n"
+            + "}";
+
+    private static final float vertices[] = {
+           -1, -1,
+           -1,  1,
+            1, -1,
+            1,  1 };
+
+    private int progRGBA = -1, progGray = -1;
+    private int vPosRGBA, vPosGray, uStepGray;
+
+    private final FloatBuffer vert;
+
+    private int[] mTex = {0};
+    private int[] mFBO = {0};
+    private int mFormat, mWidth, mHeight;
+
+    GLReadbackPass() {
+        vert = ByteBuffer.allocateDirect(vertices.length * Float.SIZE / Byte.SIZE).order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        vert.put(vertices).position(0);
+    }
+
+    // Build the shader programs in the current context
+    void init() {
+        progRGBA = GLTextureDrawer.loadShader(vss, fssRGBA);
+        vPosRGBA = GLES20.glGetAttribLocation(progRGBA, "vPosition");
+
+        progGray = GLTextureDrawer.loadShader(vss, fssGray);
+        vPosGray = GLES20.glGetAttribLocation(progGray, "vPosition");
+        uStepGray = GLES20.glGetUniformLocation(progGray, "uStep");
+    }
+
+    // Delete the programs and the framebuffer, while their context is still current
+    void release() {
+        if (progRGBA > 0)
+            GLES20.glDeleteProgram(progRGBA);
+        if (progGray > 0)
+            GLES20.glDeleteProgram(progGray);
+        progRGBA = progGray = -1;
+        deleteFBO();
+    }
+
+    /**
+     * Draw the camera texture texOES as a width x height frame in format into the pass's framebuffer, and leave that
+     * bound for glReadPixels() of getReadWidth() x getReadHeight() RGBA pixels.
+     * @param format - CameraBridgeViewBase.RGBA or CameraBridgeViewBase.GRAY
+     * @param width - frame width, for gray frames rounded down to a multiple of 4
+     */
+    void draw(int texOES, int format, int width, int height) {
+        if (format == CameraBridgeViewBase.GRAY)
+            width &= ~3;
+        if (format != mFormat || width != mWidth || height != mHeight)
+            initFBO(format, width, height);
+
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFBO[0]);
+        GLES20.glViewport(0, 0, getReadWidth(), getReadHeight());
+
+        int vPos;
+        if (format == CameraBridgeViewBase.GRAY) {
+            GLES20.glUseProgram(progGray);
+            GLES20.glUniform1f(uStepGray, 1.0f / width);
+            vPos = vPosGray;
+        } else {
+            GLES20.glUseProgram(progRGBA);
+            vPos = vPosRGBA;
+        }
+        GLES20.glEnableVertexAttribArray(vPos);
+        GLES20.glVertexAttribPointer(vPos, 2, GLES20.GL_FLOAT, false, 4*2, vert);
+
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, texOES);
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+    }
+
+    // Size of the frame drawn last, in pixels of its format
+    int getWidth() {
+        return mWidth;
+    }
+
+    int getHeight() {
+        return mHeight;
+    }
+
+    // Size of the frame drawn last, in RGBA texels
+    int getReadWidth() {
+        return mFormat == CameraBridgeViewBase.GRAY ? mWidth / 4 : mWidth;
+    }
+
+    int getReadHeight() {
+        return mHeight;
+    }
+
+    private void initFBO(int format, int width, int height) {
+        Log.d(LOGTAG, "initFBO(" + width + "x" + height + ", format " + format + ")");
+        deleteFBO();
+        mFormat = format;
+        mWidth = width;
+        mHeight = height;
+
+        GLES20.glGenTextures(1, mTex, 0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTex[0]);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, getReadWidth(), getReadHeight(), 0,
+                GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+
+        GLES20.glGenFramebuffers(1, mFBO, 0);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFBO[0]);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0, GLES20.GL_TEXTURE_2D,
+                mTex[0], 0);
+        int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+        if (status != GLES20.GL_FRAMEBUFFER_COMPLETE)
+            Log.e(LOGTAG, "initFBO failed, status: " + status);
+    }
+
+    private void deleteFBO() {
+        if (mFBO[0] != 0) {
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+            GLES20.glDeleteFramebuffers(1, mFBO, 0);
+        }
+        if (mTex[0] != 0)
+            GLES20.glDeleteTextures(1, mTex, 0);
+        mFBO[0] = mTex[0] = 0;
+        mFormat = mWidth = mHeight = 0;
+    }
+}
@@ -1,6 +1,7 @@
 package org.opencv.android;
 
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import android.content.Context;
 import android.graphics.ImageFormat;
@@ -32,11 +33,17 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
     private static final int MAGIC_TEXTURE_ID = 10;
     private static final String TAG = "JavaCameraView";
 
-    private byte mBuffer[];
-    private Mat[] mFrameChain;
-    private int mChainIdx = 0;
+    /* One buffer being filled by the camera, one waiting for the worker and one being processed */
+    public static final int DEFAULT_CALLBACK_BUFFERS = 3;
+    /* How long the worker sleeps before it looks at mStopThread again if no frame comes */
+    private static final long WORKER_WAIT_MILLIS = 100;
+
+    private int mCallbackBufferCount = DEFAULT_CALLBACK_BUFFERS;
+    private byte mBuffers[][];
+    private final FrameHandoff mHandoff = new FrameHandoff();
+    private Mat mFrameData;
     private Thread mThread;
-    private boolean mStopThread;
+    private volatile boolean mStopThread;
 
     protected Camera mCamera;
     protected JavaCameraFrame[] mCameraFrame;
@@ -66,6 +73,32 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
         super(context, attrs);
     }
 
+    /**
+     * Sets how many preview buffers rotate between the camera and the processing thread, at least 3.
+     * The camera only drops frames when all of them are taken, so more buffers give it more slack,
+     * at the cost of one preview frame of memory each. Takes effect the next time the camera is connected.
+     */
+    public void setCallbackBufferCount(int count) {
+        if (count < 3)
+            throw new IllegalArgumentException("At least 3 callback buffers are needed, was " + count);
+        mCallbackBufferCount = count;
+    }
+
+    /**
+     * Returns how many preview frames were replaced by a newer one before the processing thread got to them,
+     * since the view was created.
+     */
+    public long getOverwrittenFrameCount() {
+        return mHandoff.getOverwrittenCount();
+    }
+
+    /**
+     * Returns how many preview frames the processing thread took and delivered, since the view was created.
+     */
+    public long getProcessedFrameCount() {
+        return mHandoff.getTakenCount();
+    }
+
     protected boolean initializeCamera(int width, int height) {
         Log.d(TAG, "Initialize java camera");
         boolean result = true;
@@ -190,20 +223,21 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
 
                     int size = mFrameWidth * mFrameHeight;
                     size  = size * ImageFormat.getBitsPerPixel(params.getPreviewFormat()) / 8;
-                    mBuffer = new byte[size];
-
-                    mCamera.addCallbackBuffer(mBuffer);
+                    mBuffers = new byte[mCallbackBufferCount][];
+                    for (int i = 0; i < mBuffers.length; i++) {
+                        mBuffers[i] = new byte[size];
+                        mCamera.addCallbackBuffer(mBuffers[i]);
+                    }
+                    mHandoff.clear();
                     mCamera.setPreviewCallbackWithBuffer(this);
 
-                    mFrameChain = new Mat[2];
-                    mFrameChain[0] = new Mat(mFrameHeight + (mFrameHeight/2), mFrameWidth, CvType.CV_8UC1);
-                    mFrameChain[1] = new Mat(mFrameHeight + (mFrameHeight/2), mFrameWidth, CvType.CV_8UC1);
+                    /* Only the processing thread copies into the frame, so one is enough */
+                    mFrameData = new Mat(mFrameHeight + (mFrameHeight/2), mFrameWidth, CvType.CV_8UC1);
 
                     AllocateCache();
 
-                    mCameraFrame = new JavaCameraFrame[2];
-                    mCameraFrame[0] = new JavaCameraFrame(mFrameChain[0], mFrameWidth, mFrameHeight);
-                    mCameraFrame[1] = new JavaCameraFrame(mFrameChain[1], mFrameWidth, mFrameHeight);
+                    mCameraFrame = new JavaCameraFrame[1];
+                    mCameraFrame[0] = new JavaCameraFrame(mFrameData, mFrameWidth, mFrameHeight);
 
                     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
                         mSurfaceTexture = new SurfaceTexture(MAGIC_TEXTURE_ID);
@@ -235,19 +269,15 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
                 mCamera.release();
             }
             mCamera = null;
-            if (mFrameChain != null) {
-                mFrameChain[0].release();
-                mFrameChain[1].release();
-            }
-            if (mCameraFrame != null) {
+            mHandoff.clear();
+            mBuffers = null;
+            if (mFrameData != null)
+                mFrameData.release();
+            if (mCameraFrame != null)
                 mCameraFrame[0].release();
-                mCameraFrame[1].release();
-            }
         }
     }
 
-    private boolean mCameraFrameReady = false;
-
     @Override
     protected boolean connectCamera(int width, int height) {
 
@@ -259,8 +289,6 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
         if (!initializeCamera(width, height))
             return false;
 
-        mCameraFrameReady = false;
-
         /* now we can start update thread */
         Log.d(TAG, "Starting processing thread");
         mStopThread = false;
@@ -279,9 +307,7 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
         try {
             mStopThread = true;
             Log.d(TAG, "Notify thread");
-            synchronized (this) {
-                this.notify();
-            }
+            mHandoff.wakeConsumer();
             Log.d(TAG, "Waiting for thread");
             if (mThread != null)
                 mThread.join();
@@ -293,57 +319,79 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
 
         /* Now release camera */
         releaseCamera();
-
-        mCameraFrameReady = false;
     }
 
     @Override
     public void onPreviewFrame(byte[] frame, Camera arg1) {
         if (BuildConfig.DEBUG)
             Log.d(TAG, "Preview Frame received. Frame size: " + frame.length);
-        synchronized (this) {
-            mFrameChain[mChainIdx].put(0, 0, frame);
-            mCameraFrameReady = true;
-            this.notify();
+        /* Never wait for the processing thread here: publish the buffer as the newest frame, and if the
+         * processing thread hasn't taken the one before yet, give that one straight back to the camera */
+        int index = bufferIndex(frame);
+        if (index < 0)
+            return;
+        int replaced = mHandoff.publish(index);
+        if (replaced != FrameHandoff.NONE && mCamera != null)
+            mCamera.addCallbackBuffer(mBuffers[replaced]);
+    }
+
+    private int bufferIndex(byte[] frame) {
+        byte[][] buffers = mBuffers;
+        if (buffers == null)
+            return -1;
+        for (int i = 0; i < buffers.length; i++) {
+            if (buffers[i] == frame)
+                return i;
         }
-        if (mCamera != null)
-            mCamera.addCallbackBuffer(mBuffer);
+        return -1;
     }
 
+    /**
+     * The current preview frame. Conversions are done by YuvFrame the first time they are asked for
+     * after newFrame() and the result is kept for the rest of the frame, so calling rgba() or gray()
+     * more than once (the listener, then the drawing code) costs nothing, and returns the Mat as the
+     * last caller left it.
+     */
     private class JavaCameraFrame implements CvCameraViewFrame {
         @Override
         public Mat gray() {
-            return mYuvFrameData.submat(0, mHeight, 0, mWidth);
+            return mFrame.gray();
         }
 
         @Override
-        public Mat rgba() {
-            if (mPreviewFormat == ImageFormat.NV21)
-                Imgproc.cvtColor(mYuvFrameData, mRgba, Imgproc.COLOR_YUV2RGBA_NV21, 4);
-            else if (mPreviewFormat == ImageFormat.YV12)
-                Imgproc.cvtColor(mYuvFrameData, mRgba, Imgproc.COLOR_YUV2RGB_I420, 4);  // COLOR_YUV2RGBA_YV12 produces inverted colors
-            else
-                throw new IllegalArgumentException("Preview Format can be NV21 or YV12");
+        public Mat gray(int downscale) {
+            return mFrame.gray(downscale);
+        }
 
-            return mRgba;
+        @Override
+        public Mat rgba() {
+            return mFrame.rgba();
         }
 
         public JavaCameraFrame(Mat Yuv420sp, int width, int height) {
             super();
-            mWidth = width;
-            mHeight = height;
-            mYuvFrameData = Yuv420sp;
-            mRgba = new Mat();
+            mFrame = new YuvFrame(Yuv420sp, width, height);
+        }
+
+        /* Called once the frame data holds a new preview frame, makes every conversion stale */
+        public void newFrame() {
+            int conversion;
+            if (isGrayOnly())
+                conversion = Imgproc.COLOR_GRAY2RGBA;  // luma only, no YUV conversion
+            else if (mPreviewFormat == ImageFormat.NV21)
+                conversion = Imgproc.COLOR_YUV2RGBA_NV21;
+            else if (mPreviewFormat == ImageFormat.YV12)
+                conversion = Imgproc.COLOR_YUV2RGB_I420;  // COLOR_YUV2RGBA_YV12 produces inverted colors
+            else
+                conversion = YuvFrame.NO_RGBA_CONVERSION;
+            mFrame.newFrame(conversion);
         }
 
         public void release() {
-            mRgba.release();
+            mFrame.release();
         }
 
-        private Mat mYuvFrameData;
-        private Mat mRgba;
-        private int mWidth;
-        private int mHeight;
+        private final YuvFrame mFrame;
     };
 
     private class CameraWorker implements Runnable {
@@ -351,28 +399,22 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
         @Override
         public void run() {
             do {
-                boolean hasFrame = false;
-                synchronized (JavaCameraView.this) {
-                    try {
-                        while (!mCameraFrameReady && !mStopThread) {
-                            JavaCameraView.this.wait();
-                        }
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                    if (mCameraFrameReady)
-                    {
-                        mChainIdx = 1 - mChainIdx;
-                        mCameraFrameReady = false;
-                        hasFrame = true;
-                    }
-                }
-
-                if (!mStopThread && hasFrame) {
-                    if (!mFrameChain[1 - mChainIdx].empty())
-                        deliverAndDrawFrame(mCameraFrame[1 - mChainIdx]);
+                int index = mHandoff.take(WORKER_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+                if (index == FrameHandoff.NONE)
+                    continue;
+
+                /* The buffer is ours until it goes back to the camera, so the copy can't tear */
+                byte[] buffer = mBuffers[index];
+                if (!mStopThread) {
+                    mFrameData.put(0, 0, buffer);
+                    mCameraFrame[0].newFrame();
+                    deliverAndDrawFrame(mCameraFrame[0]);
                 }
+                Camera camera = mCamera;
+                if (camera != null)
+                    camera.addCallbackBuffer(buffer);
             } while (!mStopThread);
+            releaseFrameRenderer();
             Log.d(TAG, "Finish processing thread");
         }
     }
@@ -0,0 +1,294 @@
+package org.opencv.android;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import android.annotation.TargetApi;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+/**
+ * Asynchronous readback of the current framebuffer through a ring of pixel buffer objects. read() queues a
+ * glReadPixels() into a free buffer, which returns right away because the GPU copies into the buffer on its own time,
+ * and puts a fence behind it. On the following calls the buffer is mapped and handed to the consumer once its fence has
+ * passed, so the CPU gets frame N-1 while frame N renders and never waits for the GPU. If the GPU falls so far behind
+ * that every buffer is still pending, the new frame is skipped instead.
+ *
+ * The GL calls go through the GL interface, so the ring can run against a software stand-in off the device. Every
+ * call, including release(), must come from the thread the GL context is current on.
+ */
+final class PixelBufferRing {
+
+    public interface GL {
+        /** Create a pixel buffer of size bytes to read into, returns its name. */
+        int createBuffer(int size);
+        void deleteBuffer(int buffer);
+        /** Start reading width x height RGBA pixels of the current read framebuffer into buffer. */
+        void readPixels(int buffer, int width, int height);
+        /** Put a fence behind the commands issued so far, returns its handle. */
+        long fence();
+        /** Whether the GPU has passed fence, without waiting for it. */
+        boolean isSignaled(long fence);
+        void deleteFence(long fence);
+        /** Map the first size bytes of buffer for reading, returns null if that failed. */
+        ByteBuffer map(int buffer, int size);
+        void unmap(int buffer);
+    }
+
+    public interface Consumer {
+        /**
+         * Pixels of a frame read earlier, width x height RGBA with rows as glReadPixels() returns them. The buffer is
+         * unmapped when this returns, so copy out whatever is needed later.
+         */
+        void onPixels(ByteBuffer pixels, int width, int height, long timestamp);
+    }
+
+    private final GL        mGL;
+    private final int[]     mBuffers;
+    private final int[]     mBufferSizes;
+    private final long[]    mFences;
+    private final int[]     mWidths;
+    private final int[]     mHeights;
+    private final long[]    mTimestamps;
+
+    // Pending reads sit in the ring from mOldest on, in the order they were queued
+    private int             mOldest;
+    private int             mPending;
+
+    private volatile long   mReadCount;
+    private volatile long   mDeliveredCount;
+    private volatile long   mDroppedCount;
+    private volatile long   mSkippedCount;
+
+    /**
+     * @param count - number of pixel buffers, at least 2: one being written by the GPU while the other is read
+     */
+    public PixelBufferRing(GL gl, int count) {
+        if (count < 2)
+            throw new IllegalArgumentException("A pixel buffer ring needs at least 2 buffers, was " + count);
+        mGL = gl;
+        mBuffers = new int[count];
+        mBufferSizes = new int[count];
+        mFences = new long[count];
+        mWidths = new int[count];
+        mHeights = new int[count];
+        mTimestamps = new long[count];
+    }
+
+    /**
+     * Hand the newest finished read to consumer, then queue a read of the current framebuffer's bottom left width x
+     * height pixels, tagged with timestamp. Reads that finished but were overtaken by a newer one are dropped, and the
+     * new read is skipped if no buffer is free.
+     */
+    public void read(int width, int height, long timestamp, Consumer consumer) {
+        deliver(consumer);
+
+        if (mPending == mBuffers.length) {
+            mSkippedCount++;
+            return;
+        }
+        int slot = (mOldest + mPending) % mBuffers.length;
+        int size = width * height * 4;
+        if (mBufferSizes[slot] != size) {
+            if (mBuffers[slot] != 0)
+                mGL.deleteBuffer(mBuffers[slot]);
+            mBuffers[slot] = mGL.createBuffer(size);
+            mBufferSizes[slot] = size;
+        }
+        mGL.readPixels(mBuffers[slot], width, height);
+        mFences[slot] = mGL.fence();
+        mWidths[slot] = width;
+        mHeights[slot] = height;
+        mTimestamps[slot] = timestamp;
+        mPending++;
+        mReadCount++;
+    }
+
+    private void deliver(Consumer consumer) {
+        int ready = -1;
+        while (mPending > 0 && mGL.isSignaled(mFences[mOldest])) {
+            if (ready != -1) {
+                // a newer read is ready as well, nobody wants the older frame anymore
+                mDroppedCount++;
+            }
+            ready = mOldest;
+            mGL.deleteFence(mFences[mOldest]);
+            mFences[mOldest] = 0;
+            mOldest = (mOldest + 1) % mBuffers.length;
+            mPending--;
+        }
+        if (ready == -1)
+            return;
+
+        ByteBuffer pixels = mGL.map(mBuffers[ready], mBufferSizes[ready]);
+        if (pixels == null) {
+            // the driver couldn't map the buffer, the frame is lost but the buffer can be read into again
+            mDroppedCount++;
+            return;
+        }
+        try {
+            consumer.onPixels(pixels, mWidths[ready], mHeights[ready], mTimestamps[ready]);
+        } finally {
+            mGL.unmap(mBuffers[ready]);
+        }
+        mDeliveredCount++;
+    }
+
+    /**
+     * Forget the pending reads, e.g. when the frame size or format changes. The buffers are kept for the next reads.
+     */
+    public void clear() {
+        while (mPending > 0) {
+            mGL.deleteFence(mFences[mOldest]);
+            mFences[mOldest] = 0;
+            mOldest = (mOldest + 1) % mBuffers.length;
+            mPending--;
+        }
+    }
+
+    // Forget the pending reads and delete the buffers. The ring can be used again afterwards.
+    public void release() {
+        clear();
+        for (int i = 0; i < mBuffers.length; i++) {
+            if (mBuffers[i] != 0)
+                mGL.deleteBuffer(mBuffers[i]);
+            mBuffers[i] = 0;
+            mBufferSizes[i] = 0;
+        }
+    }
+
+    // Reads queued, finished reads handed to the consumer, finished reads overtaken by a newer one, and frames not read
+    // because every buffer was pending. Written on the GL thread, can be read from any thread.
+    public long getReadCount() {
+        return mReadCount;
+    }
+
+    public long getDeliveredCount() {
+        return mDeliveredCount;
+    }
+
+    public long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    public long getSkippedCount() {
+        return mSkippedCount;
+    }
+
+    /**
+     * Pixel buffer objects and fences of OpenGL ES 3.0.
+     */
+    @TargetApi(18)
+    static final class Gles30 implements GL {
+        private final int[] mName = new int[1];
+
+        @Override
+        public int createBuffer(int size) {
+            GLES30.glGenBuffers(1, mName, 0);
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mName[0]);
+            GLES30.glBufferData(GLES30.GL_PIXEL_PACK_BUFFER, size, null, GLES30.GL_STREAM_READ);
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+            return mName[0];
+        }
+
+        @Override
+        public void deleteBuffer(int buffer) {
+            mName[0] = buffer;
+            GLES30.glDeleteBuffers(1, mName, 0);
+        }
+
+        @Override
+        public void readPixels(int buffer, int width, int height) {
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, buffer);
+            // with a pack buffer bound the last argument is an offset into it, and the call doesn't wait for the GPU
+            GLES30.glReadPixels(0, 0, width, height, GLES30.GL_RGBA, GLES30.GL_UNSIGNED_BYTE, 0);
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        }
+
+        @Override
+        public long fence() {
+            return GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        }
+
+        @Override
+        public boolean isSignaled(long fence) {
+            int status = GLES30.glClientWaitSync(fence, 0, 0);
+            return status == GLES30.GL_ALREADY_SIGNALED || status == GLES30.GL_CONDITION_SATISFIED;
+        }
+
+        @Override
+        public void deleteFence(long fence) {
+            GLES30.glDeleteSync(fence);
+        }
+
+        @Override
+        public ByteBuffer map(int buffer, int size) {
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, buffer);
+            return (ByteBuffer) GLES30.glMapBufferRange(GLES30.GL_PIXEL_PACK_BUFFER, 0, size, GLES30.GL_MAP_READ_BIT);
+        }
+
+        @Override
+        public void unmap(int buffer) {
+            GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        }
+    }
+
+    /**
+     * Stand-in for OpenGL ES 2.0 contexts, which have no pixel buffer objects: "buffers" are direct ByteBuffers that
+     * glReadPixels() fills synchronously, and every fence has passed. The ring still delivers frame N-1, but each read
+     * waits for the GPU.
+     */
+    static final class Gles20 implements GL {
+        private final ArrayList<ByteBuffer> mMemory = new ArrayList<ByteBuffer>();
+
+        @Override
+        public int createBuffer(int size) {
+            int free = mMemory.indexOf(null);
+            ByteBuffer memory = ByteBuffer.allocateDirect(size);
+            if (free == -1) {
+                mMemory.add(memory);
+                return mMemory.size();
+            }
+            mMemory.set(free, memory);
+            return free + 1;
+        }
+
+        @Override
+        public void deleteBuffer(int buffer) {
+            mMemory.set(buffer - 1, null);
+        }
+
+        @Override
+        public void readPixels(int buffer, int width, int height) {
+            ByteBuffer memory = mMemory.get(buffer - 1);
+            memory.clear();
+            GLES20.glReadPixels(0, 0, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, memory);
+        }
+
+        @Override
+        public long fence() {
+            return 1;
+        }
+
+        @Override
+        public boolean isSignaled(long fence) {
+            return true;
+        }
+
+        @Override
+        public void deleteFence(long fence) {
+        }
+
+        @Override
+        public ByteBuffer map(int buffer, int size) {
+            ByteBuffer memory = mMemory.get(buffer - 1);
+            memory.clear();
+            return memory;
+        }
+
+        @Override
+        public void unmap(int buffer) {
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package org.opencv.android;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * A YUV 4:2:0 preview frame, height * 3 / 2 rows of width bytes with luma first, and the conversions of it that a
+ * CvCameraViewFrame hands out. Each conversion is done the first time it is asked for after newFrame(), and the same
+ * Mat is handed out again for the rest of the frame. It is not a fresh copy: whatever the listener drew into rgba() is
+ * still there when the drawing code asks for rgba() after it, which is what lets the listener return it to be shown.
+ * Code that needs the unmodified frame has to copy it before handing the Mat on.
+ *
+ * Not thread-safe, the frame belongs to the thread that delivers it.
+ */
+final class YuvFrame {
+    // Conversion for newFrame() when the preview format has none to RGBA
+    public static final int NO_RGBA_CONVERSION = -1;
+
+    private final Mat mYuv;
+    private final Mat mGray;
+    private final Mat mRgba = new Mat();
+    private final Mat mGrayScaled = new Mat();
+    private final int mWidth;
+    private final int mHeight;
+
+    private int mRgbaConversion = NO_RGBA_CONVERSION;
+
+    /* Which frame each conversion was made from */
+    private long mGeneration;
+    private long mRgbaGeneration = -1;
+    private long mGrayScaledGeneration = -1;
+    private int mGrayScaledFactor;
+
+    public YuvFrame(Mat yuv420, int width, int height) {
+        mYuv = yuv420;
+        mWidth = width;
+        mHeight = height;
+        mGray = mYuv.submat(0, height, 0, width);
+    }
+
+    /**
+     * Called once the frame data holds a new preview frame, makes every conversion stale. rgbaConversion is the
+     * Imgproc color conversion code from the frame data to RGBA, Imgproc.COLOR_GRAY2RGBA to expand luma only without
+     * any YUV conversion, or NO_RGBA_CONVERSION.
+     */
+    public void newFrame(int rgbaConversion) {
+        mRgbaConversion = rgbaConversion;
+        mGeneration++;
+    }
+
+    // The luma plane, in place
+    public Mat gray() {
+        return mGray;
+    }
+
+    // Luma shrunk by downscale along both axes with INTER_AREA, once per frame and factor
+    public Mat gray(int downscale) {
+        if (downscale < 1)
+            throw new IllegalArgumentException("Downscale factor must be at least 1, was " + downscale);
+        if (downscale == 1)
+            return mGray;
+        if (mGrayScaledGeneration != mGeneration || mGrayScaledFactor != downscale) {
+            Imgproc.resize(mGray, mGrayScaled, new Size(mWidth / downscale, mHeight / downscale), 0, 0,
+                    Imgproc.INTER_AREA);
+            mGrayScaledFactor = downscale;
+            mGrayScaledGeneration = mGeneration;
+        }
+        return mGrayScaled;
+    }
+
+    // The frame as RGBA, converted once per frame
+    public Mat rgba() {
+        if (mRgbaGeneration == mGeneration)
+            return mRgba;
+
+        if (mRgbaConversion == Imgproc.COLOR_GRAY2RGBA)
+            Imgproc.cvtColor(mGray, mRgba, Imgproc.COLOR_GRAY2RGBA, 4);
+        else if (mRgbaConversion != NO_RGBA_CONVERSION)
+            Imgproc.cvtColor(mYuv, mRgba, mRgbaConversion, 4);
+        else
+            throw new IllegalArgumentException("Preview Format can be NV21 or YV12");
+
+        mRgbaGeneration = mGeneration;
+        return mRgba;
+    }
+
+    public void release() {
+        mGray.release();
+        mRgba.release();
+        mGrayScaled.release();
+    }
+}
@@ -1,16 +1,24 @@
 package org.opencv.core;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
 // C++: class Mat
 //javadoc: Mat
-public class Mat {
+public class Mat implements AutoCloseable {
 
     public final long nativeObj;
 
+    // Frees nativeObj on close(), or when the Mat is garbage collected without having been closed
+    private final MatCleaner.Cleanup mCleanup;
+
     public Mat(long addr)
     {
         if (addr == 0)
             throw new java.lang.UnsupportedOperationException("Native object address is NULL");
         nativeObj = addr;
+        mCleanup = MatCleaner.register(this, nativeObj);
     }
 
     //
@@ -22,6 +30,7 @@ public class Mat {
     {
 
         nativeObj = n_Mat();
+        mCleanup = MatCleaner.register(this, nativeObj);
 
         return;
     }
@@ -35,6 +44,7 @@ public class Mat {
     {
 
         nativeObj = n_Mat(rows, cols, type);
+        mCleanup = MatCleaner.register(this, nativeObj);
 
         return;
     }
@@ -48,6 +58,7 @@ public class Mat {
     {
 
         nativeObj = n_Mat(size.width, size.height, type);
+        mCleanup = MatCleaner.register(this, nativeObj);
 
         return;
     }
@@ -61,6 +72,7 @@ public class Mat {
     {
 
         nativeObj = n_Mat(rows, cols, type, s.val[0], s.val[1], s.val[2], s.val[3]);
+        mCleanup = MatCleaner.register(this, nativeObj);
 
         return;
     }
@@ -74,6 +86,7 @@ public class Mat {
     {
 
         nativeObj = n_Mat(size.width, size.height, type, s.val[0], s.val[1], s.val[2], s.val[3]);
+        mCleanup = MatCleaner.register(this, nativeObj);
 
         return;
     }
@@ -87,6 +100,7 @@ public class Mat {
     {
 
         nativeObj = n_Mat(m.nativeObj, rowRange.start, rowRange.end, colRange.start, colRange.end);
+        mCleanup = MatCleaner.register(this, nativeObj);
 
         return;
     }
@@ -96,6 +110,7 @@ public class Mat {
     {
 
         nativeObj = n_Mat(m.nativeObj, rowRange.start, rowRange.end);
+        mCleanup = MatCleaner.register(this, nativeObj);
 
         return;
     }
@@ -109,6 +124,7 @@ public class Mat {
     {
 
         nativeObj = n_Mat(m.nativeObj, roi.y, roi.y + roi.height, roi.x, roi.x + roi.width);
+        mCleanup = MatCleaner.register(this, nativeObj);
 
         return;
     }
@@ -906,10 +922,72 @@ public class Mat {
         return retVal;
     }
 
+    /**
+     * Free the native Mat now instead of waiting for the garbage collector. Calling close() again does nothing. The Mat,
+     * and its nativeObj, must not be used after it has been closed. Mats that are never closed are still freed once
+     * they become unreachable, but the garbage collector doesn't see how much native memory they hold, so long running
+     * code should close the Mats it creates, for example with try-with-resources.
+     */
     @Override
-    protected void finalize() throws Throwable {
+    public void close() {
+        mCleanup.clean(false);
+    }
+
+    /**
+     * Called when leak tracking is on and a Mat is freed by the garbage collector instead of being closed, with a
+     * Throwable whose stack trace is where the Mat was allocated. Called on the cleaner thread.
+     */
+    public interface LeakListener {
+        void onLeak(Throwable allocationSite);
+    }
+
+    /**
+     * Record where every Mat is allocated from now on, and report Mats that are never closed to the LeakListener. This
+     * captures a stack trace per Mat, so it is meant for debug builds only.
+     */
+    public static void setLeakTracking(boolean enabled) {
+        MatCleaner.setLeakTracking(enabled);
+    }
+
+    public static boolean isLeakTracking() {
+        return MatCleaner.isLeakTracking();
+    }
+
+    public static void setLeakListener(LeakListener listener) {
+        MatCleaner.setLeakListener(listener);
+    }
+
+    /** Number of Mats whose native object hasn't been freed yet. */
+    public static long getLiveCount() {
+        return MatCleaner.liveCount();
+    }
+
+    /** Number of Mats so far that were freed by the garbage collector rather than closed. */
+    public static long getLeakCount() {
+        return MatCleaner.leakCount();
+    }
+
+    /**
+     * Approximate native memory held by all Mats that haven't been freed yet, as the sum of total() * elemSize().
+     * Submatrices are counted separately from the Mat they view. This walks every live Mat, so sample it occasionally
+     * rather than every frame.
+     */
+    public static long getLiveNativeBytes() {
+        return MatCleaner.liveNativeBytes();
+    }
+
+    // Run hook if this Mat is freed by the garbage collector instead of being closed, see MatCleaner.Cleanup
+    void setLeakHook(Runnable hook) {
+        mCleanup.setLeakHook(hook);
+    }
+
+    // Used by MatCleaner, which frees Mats outside of any Mat instance
+    static void nativeDelete(long nativeObj) {
         n_delete(nativeObj);
-        super.finalize();
+    }
+
+    static long nativeBytes(long nativeObj) {
+        return n_total(nativeObj) * n_elemSize(nativeObj);
     }
 
     // javadoc:Mat::toString()
@@ -1075,6 +1153,72 @@ public class Mat {
         throw new java.lang.UnsupportedOperationException("Mat data type is not compatible: " + t);
     }
 
+    // javadoc:Mat::put(row,col,data)
+    /**
+     * Copy the bytes between the direct buffer's position and limit into the Mat starting at element (row, col),
+     * continuing row by row. Unlike the byte[] overload, the bytes are copied straight from the buffer with no array
+     * pinning, and any Mat depth is accepted since the data is raw. Advances the buffer's position and returns the
+     * number of bytes copied.
+     */
+    public int put(int row, int col, ByteBuffer data) {
+        if (data == null || !data.isDirect())
+            throw new java.lang.UnsupportedOperationException("Provided buffer should be a direct ByteBuffer");
+        return MatDirect.copy(this, row, col, data, 1, true);
+    }
+
+    // javadoc:Mat::put(row,col,data)
+    /**
+     * Copy the floats between the direct buffer's position and limit into a CV_32F Mat starting at element
+     * (row, col). The buffer must be in native byte order. Advances the buffer's position and returns the number of
+     * bytes copied.
+     */
+    public int put(int row, int col, FloatBuffer data) {
+        checkFloatBuffer(data);
+        return MatDirect.copy(this, row, col, data, 4, true);
+    }
+
+    // javadoc:Mat::get(row,col,data)
+    /**
+     * Copy Mat data starting at element (row, col) into the direct buffer, from its position up to its limit or the
+     * end of the Mat. Advances the buffer's position and returns the number of bytes copied.
+     */
+    public int get(int row, int col, ByteBuffer data) {
+        if (data == null || !data.isDirect())
+            throw new java.lang.UnsupportedOperationException("Provided buffer should be a direct ByteBuffer");
+        return MatDirect.copy(this, row, col, data, 1, false);
+    }
+
+    // javadoc:Mat::get(row,col,data)
+    /**
+     * Copy CV_32F Mat data starting at element (row, col) into the direct buffer, which must be in native byte order.
+     * Advances the buffer's position and returns the number of bytes copied.
+     */
+    public int get(int row, int col, FloatBuffer data) {
+        checkFloatBuffer(data);
+        return MatDirect.copy(this, row, col, data, 4, false);
+    }
+
+    private void checkFloatBuffer(FloatBuffer data) {
+        if (data == null || !data.isDirect() || data.order() != ByteOrder.nativeOrder())
+            throw new java.lang.UnsupportedOperationException(
+                    "Provided buffer should be a direct FloatBuffer in native byte order");
+        int t = type();
+        if (CvType.depth(t) != CvType.CV_32F)
+            throw new java.lang.UnsupportedOperationException("Mat data type is not compatible: " + t);
+    }
+
+    /**
+     * A direct ByteBuffer, in native byte order, over this Mat's data. Nothing is copied: writes through the buffer
+     * change the Mat and the other way round. Only continuous Mats can be wrapped. The buffer is only valid while the
+     * Mat is open and isn't reallocated, for example by create() with another size or by being used as the output of
+     * an OpenCV call that changes its size or type.
+     */
+    public ByteBuffer asByteBuffer() {
+        if (!isContinuous())
+            throw new java.lang.UnsupportedOperationException("Only continuous Mats can be wrapped in a ByteBuffer");
+        return MatDirect.wrap(this);
+    }
+
     // javadoc:Mat::get(row,col)
     public double[] get(int row, int col) {
         return nGet(nativeObj, row, col);
@@ -1287,7 +1431,7 @@ public class Mat {
     // C++: static Mat Mat::zeros(Size size, int type)
     private static native long n_zeros(double size_width, double size_height, int type);
 
-    // native support for java finalize()
+    // native support for java close()
     private static native void n_delete(long nativeObj);
 
     private static native int nPutD(long self, int row, int col, int count, double[] data);
@@ -0,0 +1,151 @@
+package org.opencv.core;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Frees the native side of Mats.
+ *
+ * Every Mat registers a phantom reference here when it is created. Closing the Mat frees its native object right away
+ * and unregisters it. A Mat that is never closed is freed by a daemon thread once the garbage collector enqueues its
+ * reference, which replaces the old finalize() without the cost of running a finalizer for every Mat.
+ *
+ * Registering and unregistering don't take a global lock, since every Mat of every thread goes through them. Each
+ * reference guards its own native object instead, so liveNativeBytes() can read the size of a Mat while another
+ * thread closes it.
+ *
+ * In leak tracking mode the allocation site of every Mat is recorded, and reported to the leak listener when a Mat
+ * gets to the fallback path without having been closed.
+ */
+final class MatCleaner {
+
+    private static final ReferenceQueue<Mat> sQueue = new ReferenceQueue<Mat>();
+
+    // Registered references, kept here so they stay reachable until they are cleaned
+    private static final ConcurrentHashMap<Cleanup, Boolean> sLive = new ConcurrentHashMap<Cleanup, Boolean>();
+    private static final AtomicLong sLeakCount = new AtomicLong();
+
+    private static volatile boolean sLeakTracking;
+    private static volatile Mat.LeakListener sLeakListener;
+    private static volatile Thread sThread;
+
+    private MatCleaner() {
+    }
+
+    static Cleanup register(Mat mat, long nativeObj) {
+        Throwable site = sLeakTracking ? new Throwable("Mat allocated here") : null;
+        Cleanup cleanup = new Cleanup(mat, nativeObj, site);
+        sLive.put(cleanup, Boolean.TRUE);
+        if (sThread == null)
+            startThread();
+        return cleanup;
+    }
+
+    static void setLeakTracking(boolean enabled) {
+        sLeakTracking = enabled;
+    }
+
+    static boolean isLeakTracking() {
+        return sLeakTracking;
+    }
+
+    static void setLeakListener(Mat.LeakListener listener) {
+        sLeakListener = listener;
+    }
+
+    static long liveCount() {
+        return sLive.size();
+    }
+
+    static long leakCount() {
+        return sLeakCount.get();
+    }
+
+    /**
+     * Sum of total() * elemSize() over every Mat that hasn't been freed. Submatrices count the size of their view, so
+     * data shared between Mats is counted once per Mat. Walks every live Mat, so it is meant to be sampled now and then,
+     * not called per frame.
+     */
+    static long liveNativeBytes() {
+        long bytes = 0;
+        for (Cleanup c : sLive.keySet())
+            bytes += c.nativeBytes();
+        return bytes;
+    }
+
+    private static synchronized void startThread() {
+        if (sThread != null)
+            return;
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    try {
+                        Cleanup cleanup = (Cleanup) sQueue.remove();
+                        cleanup.clean(true);
+                    } catch (InterruptedException e) {
+                        // Nothing interrupts this thread on purpose, keep cleaning
+                    }
+                }
+            }
+        }, "OpenCV-MatCleaner");
+        thread.setDaemon(true);
+        thread.start();
+        sThread = thread;
+    }
+
+    static final class Cleanup extends PhantomReference<Mat> {
+        private final long mNativeObj;
+        private final Throwable mSite;
+        private volatile Runnable mLeakHook;
+        // Guarded by this, which is held while the native object is deleted
+        private boolean mCleaned;
+
+        Cleanup(Mat mat, long nativeObj, Throwable site) {
+            super(mat, sQueue);
+            mNativeObj = nativeObj;
+            mSite = site;
+        }
+
+        /**
+         * Free the native object once. Returns false if it was already freed. leaked is true when called because the
+         * garbage collector found the Mat unreachable without it having been closed.
+         */
+        boolean clean(boolean leaked) {
+            synchronized (this) {
+                if (mCleaned)
+                    return false;
+                mCleaned = true;
+                Mat.nativeDelete(mNativeObj);
+            }
+            sLive.remove(this);
+            clear();
+            if (!leaked)
+                return true;
+
+            sLeakCount.incrementAndGet();
+            Runnable hook = mLeakHook;
+            if (hook != null)
+                hook.run();
+            Mat.LeakListener listener = sLeakListener;
+            if (mSite != null && listener != null)
+                listener.onLeak(mSite);
+            return true;
+        }
+
+        /**
+         * Run hook on the cleaner thread if the Mat is freed by the garbage collector, so whoever accounts for it can
+         * catch up. The hook must not reference the Mat, or it never becomes unreachable.
+         */
+        void setLeakHook(Runnable hook) {
+            mLeakHook = hook;
+        }
+
+        // Size of the native Mat, 0 once it has been freed
+        synchronized long nativeBytes() {
+            return mCleaned ? 0 : Mat.nativeBytes(mNativeObj);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package org.opencv.core;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Transfers between Mats and direct NIO buffers, used by the ByteBuffer and FloatBuffer overloads of Mat.put() and
+ * Mat.get() and by Mat.asByteBuffer(). Implemented in libopencv_direct.so, which is loaded the first time one of these
+ * is used, so code that never touches them doesn't need it.
+ */
+final class MatDirect {
+
+    static {
+        System.loadLibrary("opencv_direct");
+    }
+
+    private MatDirect() {
+    }
+
+    /**
+     * Copy between buffer (from its position to its limit) and mat starting at element (row, col), continuing row by
+     * row. Advances the buffer's position by the number of bytes copied, and returns that number.
+     */
+    static int copy(Mat mat, int row, int col, Buffer buffer, int bytesPerBufferElement, boolean toMat) {
+        long elemSize = mat.elemSize();
+        long count = (long) buffer.remaining() * bytesPerBufferElement;
+        if (count % elemSize != 0)
+            throw new java.lang.UnsupportedOperationException(
+                    "Provided buffer size (" + count + " bytes) should be multiple of the Mat element size (" +
+                            elemSize + ")");
+
+        long copied = nCopy(mat.dataAddr(), mat.step1() * mat.elemSize1(), mat.rows(), mat.cols(), elemSize, row,
+                col, buffer, (long) buffer.position() * bytesPerBufferElement, count, toMat);
+        buffer.position(buffer.position() + (int) (copied / bytesPerBufferElement));
+        return (int) copied;
+    }
+
+    static ByteBuffer wrap(Mat mat) {
+        long capacity = mat.total() * mat.elemSize();
+        if (capacity == 0)
+            return ByteBuffer.allocateDirect(0).order(ByteOrder.nativeOrder());
+        return nNewDirectByteBuffer(mat.dataAddr(), capacity).order(ByteOrder.nativeOrder());
+    }
+
+    private static native long nCopy(long dataAddr, long step, int rows, int cols, long elemSize, int row, int col,
+                                     Buffer buffer, long bufferOffset, long count, boolean toMat);
+
+    private static native ByteBuffer nNewDirectByteBuffer(long address, long capacity);
+}
@@ -0,0 +1,32 @@
+package org.opencv.core;
+
+/**
+ * Shared by the struct-of-arrays accessors of the MatOf* types (toArrays(), toInterleaved() and fromArrays()), which
+ * copy between a Mat and caller-supplied arrays without allocating per element.
+ */
+final class MatOfArrays {
+
+    private MatOfArrays() {
+    }
+
+    /** Return buff if it holds at least length floats, else a new array that does, for the caller to keep. */
+    static float[] scratch(float[] buff, int length) {
+        if(buff == null || buff.length < length)
+            return new float[length];
+        return buff;
+    }
+
+    static void checkLength(int length, int num) {
+        if(length < num)
+            throw new IllegalArgumentException("Array holds " + length + " elements, " + num + " needed");
+    }
+
+    /**
+     * Check the byte count a float get() or put() returned. It copies less than asked for when the Mat isn't CV_32F or
+     * is smaller than its total() said, and the arrays would silently keep stale values.
+     */
+    static void checkCopied(int copied, int floats) {
+        if(copied != floats * 4)
+            throw new IllegalStateException("Copied " + copied + " bytes of Mat data, " + floats * 4 + " expected");
+    }
+}
@@ -71,6 +71,35 @@ public class MatOfDMatch extends Mat {
         return a;
     }
 
+    // Reused by the bulk accessors below, so they only allocate when the element count grows
+    private float[] _buff;
+
+    /**
+     * Copy the matches into caller-supplied arrays, one per field, without creating a DMatch per element. Any array
+     * may be null to skip that field, the others must hold at least total() elements. Returns the number of matches
+     * copied.
+     */
+    public int toArrays(int[] queryIdx, int[] trainIdx, int[] imgIdx, float[] distance) {
+        int num = (int) total();
+        if(num == 0)
+            return 0;
+        if(queryIdx != null) MatOfArrays.checkLength(queryIdx.length, num);
+        if(trainIdx != null) MatOfArrays.checkLength(trainIdx.length, num);
+        if(imgIdx != null) MatOfArrays.checkLength(imgIdx.length, num);
+        if(distance != null) MatOfArrays.checkLength(distance.length, num);
+
+        float buff[] = _buff = MatOfArrays.scratch(_buff, num * _channels);
+        MatOfArrays.checkCopied(get(0, 0, buff), num * _channels);
+        for(int i=0; i<num; i++) {
+            int b = _channels*i;
+            if(queryIdx != null) queryIdx[i] = (int) buff[b+0];
+            if(trainIdx != null) trainIdx[i] = (int) buff[b+1];
+            if(imgIdx != null) imgIdx[i] = (int) buff[b+2];
+            if(distance != null) distance[i] = buff[b+3];
+        }
+        return num;
+    }
+
     public void fromList(List<DMatch> ldm) {
         DMatch adm[] = ldm.toArray(new DMatch[0]);
         fromArray(adm);
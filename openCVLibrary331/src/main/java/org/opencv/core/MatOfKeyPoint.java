@@ -74,6 +74,73 @@ public class MatOfKeyPoint extends Mat {
         return a;
     }
 
+    // Reused by the bulk accessors below, so they only allocate when the element count grows
+    private float[] _buff;
+
+    /**
+     * Copy the keypoints into caller-supplied arrays, one per field, without creating a KeyPoint per element. Any
+     * array may be null to skip that field, the others must hold at least total() elements. Returns the number of
+     * keypoints copied.
+     */
+    public int toArrays(float[] x, float[] y, float[] size, float[] angle, float[] response, int[] octave,
+                        int[] classId) {
+        int num = (int) total();
+        if(num == 0)
+            return 0;
+        if(x != null) MatOfArrays.checkLength(x.length, num);
+        if(y != null) MatOfArrays.checkLength(y.length, num);
+        if(size != null) MatOfArrays.checkLength(size.length, num);
+        if(angle != null) MatOfArrays.checkLength(angle.length, num);
+        if(response != null) MatOfArrays.checkLength(response.length, num);
+        if(octave != null) MatOfArrays.checkLength(octave.length, num);
+        if(classId != null) MatOfArrays.checkLength(classId.length, num);
+
+        float buff[] = _buff = MatOfArrays.scratch(_buff, num * _channels);
+        MatOfArrays.checkCopied(get(0, 0, buff), num * _channels);
+        for(int i=0; i<num; i++) {
+            int b = _channels*i;
+            if(x != null) x[i] = buff[b+0];
+            if(y != null) y[i] = buff[b+1];
+            if(size != null) size[i] = buff[b+2];
+            if(angle != null) angle[i] = buff[b+3];
+            if(response != null) response[i] = buff[b+4];
+            if(octave != null) octave[i] = (int) buff[b+5];
+            if(classId != null) classId[i] = (int) buff[b+6];
+        }
+        return num;
+    }
+
+    /**
+     * Replace the contents with count keypoints taken from caller-supplied arrays, one per field. octave and classId
+     * may be null, in which case they are 0 and -1 like in a default KeyPoint.
+     */
+    public void fromArrays(int count, float[] x, float[] y, float[] size, float[] angle, float[] response,
+                           int[] octave, int[] classId) {
+        if(count <= 0)
+            return;
+        MatOfArrays.checkLength(x.length, count);
+        MatOfArrays.checkLength(y.length, count);
+        MatOfArrays.checkLength(size.length, count);
+        MatOfArrays.checkLength(angle.length, count);
+        MatOfArrays.checkLength(response.length, count);
+        if(octave != null) MatOfArrays.checkLength(octave.length, count);
+        if(classId != null) MatOfArrays.checkLength(classId.length, count);
+
+        alloc(count);
+        float buff[] = _buff = MatOfArrays.scratch(_buff, count * _channels);
+        for(int i=0; i<count; i++) {
+            int b = _channels*i;
+            buff[b+0] = x[i];
+            buff[b+1] = y[i];
+            buff[b+2] = size[i];
+            buff[b+3] = angle[i];
+            buff[b+4] = response[i];
+            buff[b+5] = octave != null ? octave[i] : 0;
+            buff[b+6] = classId != null ? classId[i] : -1;
+        }
+        MatOfArrays.checkCopied(put(0, 0, buff), count * _channels);
+    }
+
     public void fromList(List<KeyPoint> lkp) {
         KeyPoint akp[] = lkp.toArray(new KeyPoint[0]);
         fromArray(akp);
@@ -67,6 +67,68 @@ public class MatOfPoint3f extends Mat {
         return ap;
     }
 
+    // Reused by the bulk accessors below, so they only allocate when the element count grows
+    private float[] _buff;
+
+    /**
+     * Copy the points into caller-supplied arrays, one per coordinate, without creating a Point per element. The
+     * arrays must hold at least total() elements. Returns the number of points copied.
+     */
+    public int toArrays(float[] x, float[] y, float[] z) {
+        int num = (int) total();
+        if(num == 0)
+            return 0;
+        MatOfArrays.checkLength(x.length, num);
+        MatOfArrays.checkLength(y.length, num);
+        MatOfArrays.checkLength(z.length, num);
+
+        float buff[] = _buff = MatOfArrays.scratch(_buff, num * _channels);
+        MatOfArrays.checkCopied(get(0, 0, buff), num * _channels);
+        for(int i=0; i<num; i++) {
+            int b = _channels*i;
+            x[i] = buff[b+0];
+            y[i] = buff[b+1];
+            z[i] = buff[b+2];
+        }
+        return num;
+    }
+
+    /**
+     * Copy the points into one caller-supplied array with the coordinates interleaved, exactly as they are stored in
+     * the Mat. This is a single copy with no scratch buffer. The array must hold at least 3 * total() elements.
+     * Returns the number of points copied.
+     */
+    public int toInterleaved(float[] coords) {
+        int num = (int) total();
+        if(num == 0)
+            return 0;
+        MatOfArrays.checkLength(coords.length, num * _channels);
+        // get() wants a multiple of the channel count, and stops at the end of the Mat anyway
+        if(coords.length % _channels != 0)
+            throw new IllegalArgumentException("Array length must be a multiple of " + _channels);
+        MatOfArrays.checkCopied(get(0, 0, coords), num * _channels);
+        return num;
+    }
+
+    /** Replace the contents with count points taken from caller-supplied arrays, one per coordinate. */
+    public void fromArrays(int count, float[] x, float[] y, float[] z) {
+        if(count <= 0)
+            return;
+        MatOfArrays.checkLength(x.length, count);
+        MatOfArrays.checkLength(y.length, count);
+        MatOfArrays.checkLength(z.length, count);
+
+        alloc(count);
+        float buff[] = _buff = MatOfArrays.scratch(_buff, count * _channels);
+        for(int i=0; i<count; i++) {
+            int b = _channels*i;
+            buff[b+0] = x[i];
+            buff[b+1] = y[i];
+            buff[b+2] = z[i];
+        }
+        MatOfArrays.checkCopied(put(0, 0, buff), count * _channels);
+    }
+
     public void fromList(List<Point3> lp) {
         Point3 ap[] = lp.toArray(new Point3[0]);
         fromArray(ap);
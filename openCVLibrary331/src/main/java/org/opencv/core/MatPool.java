@@ -0,0 +1,389 @@
+package org.opencv.core;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+/**
+ * Pool of reusable Mats for per-frame processing.
+ *
+ * Allocating and closing a new Mat for every intermediate result of every frame means a native allocation and free for
+ * each of them. A MatPool hands out Mats by size and type and takes them back when they are closed, so once every shape
+ * a frame needs has been allocated once, the steady state does no native allocations at all.
+ *
+ * <pre>
+ * try (MatPool.PooledMat gray = pool.acquire(rows, cols, CvType.CV_8UC1)) {
+ *     ...
+ * }
+ * </pre>
+ *
+ * or, for all the Mats of one frame at once, with an {@link Arena} that is created once and reused:
+ *
+ * <pre>
+ * try (MatPool.Arena frame = arena.open()) {
+ *     Mat gray = frame.acquire(rows, cols, CvType.CV_8UC1);
+ *     ...
+ * }
+ * </pre>
+ *
+ * Idle Mats are capped twice: at maxIdlePerShape per size and type, and at maxIdleBytes overall. When a returned Mat
+ * doesn't fit under the overall cap, the Mats that have been idle longest are freed first, so shapes a frame stopped
+ * using (say, after a resolution change) make room for the current ones.
+ *
+ * A pooled Mat may be resized by an OpenCV call that uses it as output; it is filed under its new shape when it comes
+ * back, if that shape has been acquired before, and freed otherwise. All methods are thread safe, but a pool shared by
+ * threads that use different shapes will hit less often than one pool per thread.
+ */
+public class MatPool {
+
+    public static final int DEFAULT_MAX_IDLE_PER_SHAPE = 4;
+    public static final long DEFAULT_MAX_IDLE_BYTES = 32L << 20;
+
+    private final int mMaxIdlePerShape;
+    private final long mMaxIdleBytes;
+
+    // Buckets of the shapes acquired so far, and a key that is reused for lookups so a hit doesn't allocate
+    private final HashMap<Shape, Bucket> mBuckets = new HashMap<Shape, Bucket>();
+    private final Shape mLookup = new Shape();
+
+    // Every idle Mat, linked from the one idle longest to the one returned last
+    private PooledMat mOldestIdle;
+    private PooledMat mNewestIdle;
+
+    private long mLiveBytes;
+    private long mIdleBytes;
+    private long mAcquires;
+    private long mHits;
+    private long mAllocations;
+    private long mLeaks;
+
+    public MatPool() {
+        this(DEFAULT_MAX_IDLE_PER_SHAPE, DEFAULT_MAX_IDLE_BYTES);
+    }
+
+    public MatPool(int maxIdlePerShape) {
+        this(maxIdlePerShape, DEFAULT_MAX_IDLE_BYTES);
+    }
+
+    /**
+     * @param maxIdlePerShape how many returned Mats of the same size and type to keep around. Mats returned beyond
+     *                        that are freed immediately.
+     * @param maxIdleBytes    native bytes all idle Mats together may hold. Returning a Mat beyond that frees the Mats
+     *                        idle longest; a Mat larger than the whole cap is freed immediately.
+     */
+    public MatPool(int maxIdlePerShape, long maxIdleBytes) {
+        if (maxIdlePerShape < 0)
+            throw new IllegalArgumentException("maxIdlePerShape must not be negative");
+        if (maxIdleBytes < 0)
+            throw new IllegalArgumentException("maxIdleBytes must not be negative");
+        mMaxIdlePerShape = maxIdlePerShape;
+        mMaxIdleBytes = maxIdleBytes;
+    }
+
+    /**
+     * Get a Mat of the given size and type, reusing a returned one if there is any. The contents are undefined.
+     * The Mat must be closed exactly once when done, which gives it back to the pool.
+     */
+    public PooledMat acquire(int rows, int cols, int type) {
+        if (rows <= 0 || cols <= 0)
+            throw new IllegalArgumentException("Pooled Mats must not be empty: " + rows + "x" + cols);
+
+        PooledMat mat;
+        synchronized (this) {
+            mAcquires++;
+            Bucket bucket = mBuckets.get(mLookup.set(rows, cols, type));
+            if (bucket != null && !bucket.mIdle.isEmpty()) {
+                mHits++;
+                mat = bucket.mIdle.pollLast();
+                unlinkIdle(mat);
+                mIdleBytes -= mat.mLease.mBytes;
+                mat.mLeased = true;
+                return mat;
+            }
+            if (bucket == null) {
+                Shape shape = new Shape().set(rows, cols, type);
+                mBuckets.put(shape, new Bucket(mMaxIdlePerShape));
+            }
+            mAllocations++;
+        }
+
+        // Allocate outside the lock, native allocation of a large Mat is not free
+        mat = new PooledMat(this, rows, cols, type);
+        synchronized (this) {
+            mLiveBytes += mat.mLease.mBytes;
+        }
+        return mat;
+    }
+
+    public PooledMat acquire(Size size, int type) {
+        return acquire((int) size.height, (int) size.width, type);
+    }
+
+    /**
+     * Free every idle Mat and forget the shapes acquired so far. Leased Mats are not affected, but are freed when they
+     * come back unless their shape is acquired again in the meantime.
+     */
+    public synchronized void trim() {
+        while (mOldestIdle != null)
+            evictOldestLocked();
+        mBuckets.clear();
+    }
+
+    /** Native bytes held by Mats from this pool, leased or idle. */
+    public synchronized long getLiveNativeBytes() {
+        return mLiveBytes;
+    }
+
+    /** Native bytes held by idle Mats waiting to be reused. */
+    public synchronized long getIdleNativeBytes() {
+        return mIdleBytes;
+    }
+
+    public synchronized long getAcquireCount() {
+        return mAcquires;
+    }
+
+    /** Number of acquires that had to allocate a new native Mat. Stays flat in a warmed-up steady state. */
+    public synchronized long getAllocationCount() {
+        return mAllocations;
+    }
+
+    /**
+     * Number of leased Mats that were garbage collected without having been closed. Their native memory was freed by
+     * the garbage collector, and no longer counts towards getLiveNativeBytes().
+     */
+    public synchronized long getLeakCount() {
+        return mLeaks;
+    }
+
+    /** Fraction of acquires served by a reused Mat, 0 before the first acquire. */
+    public synchronized double getHitRate() {
+        return mAcquires == 0 ? 0 : (double) mHits / mAcquires;
+    }
+
+    private void giveBack(PooledMat mat) {
+        // The Mat may have been reallocated as an output of some OpenCV call, so look at its shape now
+        int rows = mat.rows();
+        int cols = mat.cols();
+        int type = mat.type();
+        long bytes = shapeBytes(rows, cols, type);
+
+        synchronized (this) {
+            mLiveBytes += bytes - mat.mLease.mBytes;
+            mat.mLease.mBytes = bytes;
+
+            Bucket bucket = mBuckets.get(mLookup.set(rows, cols, type));
+            if (bucket == null || bucket.mIdle.size() >= mMaxIdlePerShape || bytes > mMaxIdleBytes) {
+                freeLocked(mat);
+                return;
+            }
+            while (mIdleBytes + bytes > mMaxIdleBytes)
+                evictOldestLocked();
+            bucket.mIdle.addLast(mat);
+            mat.mBucket = bucket;
+            linkIdle(mat);
+            mIdleBytes += bytes;
+        }
+    }
+
+    // Free the Mat idle longest. It is also the first of its bucket, both are in the order the Mats came back.
+    private void evictOldestLocked() {
+        PooledMat mat = mOldestIdle;
+        mat.mBucket.mIdle.pollFirst();
+        unlinkIdle(mat);
+        mIdleBytes -= mat.mLease.mBytes;
+        freeLocked(mat);
+    }
+
+    private void linkIdle(PooledMat mat) {
+        mat.mOlder = mNewestIdle;
+        if (mNewestIdle != null)
+            mNewestIdle.mNewer = mat;
+        else
+            mOldestIdle = mat;
+        mNewestIdle = mat;
+    }
+
+    private void unlinkIdle(PooledMat mat) {
+        if (mat.mOlder != null)
+            mat.mOlder.mNewer = mat.mNewer;
+        else
+            mOldestIdle = mat.mNewer;
+        if (mat.mNewer != null)
+            mat.mNewer.mOlder = mat.mOlder;
+        else
+            mNewestIdle = mat.mOlder;
+        mat.mOlder = null;
+        mat.mNewer = null;
+        mat.mBucket = null;
+    }
+
+    private void freeLocked(PooledMat mat) {
+        mLiveBytes -= mat.mLease.mBytes;
+        mat.mLease.mBytes = 0;
+        mat.destroy();
+    }
+
+    static long shapeBytes(int rows, int cols, int type) {
+        return (long) rows * cols * CvType.ELEM_SIZE(type);
+    }
+
+    // Size and type of a Mat, the key of the buckets. Only mLookup is changed after it has been created.
+    private static final class Shape {
+        int mRows;
+        int mCols;
+        int mType;
+
+        Shape set(int rows, int cols, int type) {
+            mRows = rows;
+            mCols = cols;
+            mType = type;
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Shape))
+                return false;
+            Shape other = (Shape) o;
+            return mRows == other.mRows && mCols == other.mCols && mType == other.mType;
+        }
+
+        @Override
+        public int hashCode() {
+            return (mRows * 31 + mCols) * 31 + mType;
+        }
+    }
+
+    // Idle Mats of one shape, oldest first. The newest, most recently used (warmest) Mat is reused first.
+    private static final class Bucket {
+        final ArrayDeque<PooledMat> mIdle;
+
+        Bucket(int capacity) {
+            mIdle = new ArrayDeque<PooledMat>(Math.max(capacity, 1));
+        }
+    }
+
+    /**
+     * A Mat that belongs to a MatPool. Closing it returns it to the pool instead of freeing it; closing it again does
+     * nothing. It must not be used after it has been closed. The pool frees it for real once it has more idle Mats of
+     * this shape, or more idle bytes, than it keeps.
+     */
+    public static final class PooledMat extends Mat {
+        private final MatPool mPool;
+        private final Lease mLease;
+        private boolean mLeased = true;
+        // While idle: its bucket and its neighbours in the pool's idle order
+        private Bucket mBucket;
+        private PooledMat mOlder;
+        private PooledMat mNewer;
+
+        PooledMat(MatPool pool, int rows, int cols, int type) {
+            super(rows, cols, type);
+            mPool = pool;
+            mLease = new Lease(pool, shapeBytes(rows, cols, type));
+            setLeakHook(mLease);
+        }
+
+        @Override
+        public void close() {
+            synchronized (mPool) {
+                if (!mLeased)
+                    return;
+                mLeased = false;
+            }
+            mPool.giveBack(this);
+        }
+
+        // Free the native Mat instead of returning it to the pool
+        void destroy() {
+            super.close();
+        }
+    }
+
+    /**
+     * The pool's account of one PooledMat, kept apart from it so the garbage collector can still find the Mat
+     * unreachable. If it does before the Mat was closed, MatCleaner frees the native Mat and runs the lease, which
+     * takes its bytes off the pool's books.
+     */
+    private static final class Lease implements Runnable {
+        private final MatPool mPool;
+        // Guarded by mPool
+        long mBytes;
+
+        Lease(MatPool pool, long bytes) {
+            mPool = pool;
+            mBytes = bytes;
+        }
+
+        @Override
+        public void run() {
+            synchronized (mPool) {
+                mPool.mLiveBytes -= mBytes;
+                mBytes = 0;
+                mPool.mLeaks++;
+            }
+        }
+    }
+
+    /** Create an arena that returns all Mats acquired through it to this pool at once. */
+    public Arena newArena() {
+        return new Arena(this);
+    }
+
+    /**
+     * Frame-scoped group of pooled Mats. An arena is meant to be created once and reused for every frame: open() it at
+     * the start of a frame, acquire the frame's Mats through it, and close it at the end, which returns all of them to
+     * the pool. An arena is used by one thread at a time.
+     */
+    public static final class Arena implements AutoCloseable {
+        private final MatPool mPool;
+        private PooledMat[] mLeases = new PooledMat[16];
+        private int mCount;
+        private boolean mOpen;
+
+        Arena(MatPool pool) {
+            mPool = pool;
+        }
+
+        /** Start a frame. Returns this, for use in a try-with-resources statement. */
+        public Arena open() {
+            if (mOpen)
+                throw new IllegalStateException("Arena is already open");
+            mOpen = true;
+            return this;
+        }
+
+        public Mat acquire(int rows, int cols, int type) {
+            if (!mOpen)
+                throw new IllegalStateException("Arena is not open");
+            PooledMat mat = mPool.acquire(rows, cols, type);
+            if (mCount == mLeases.length) {
+                PooledMat[] grown = new PooledMat[mLeases.length * 2];
+                System.arraycopy(mLeases, 0, grown, 0, mCount);
+                mLeases = grown;
+            }
+            mLeases[mCount++] = mat;
+            return mat;
+        }
+
+        public Mat acquire(Size size, int type) {
+            return acquire((int) size.height, (int) size.width, type);
+        }
+
+        /** Number of Mats acquired since the arena was opened. */
+        public int size() {
+            return mCount;
+        }
+
+        /** End the frame and give every Mat acquired through the arena back to the pool. */
+        @Override
+        public void close() {
+            for (int i = 0; i < mCount; i++) {
+                mLeases[i].close();
+                mLeases[i] = null;
+            }
+            mCount = 0;
+            mOpen = false;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package org.opencv.android;
+
+import org.junit.Test;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host tests for FrameHandoff, the last one with a producer and a consumer thread passing buffers around the way
+ * JavaCameraView's preview callback and processing thread do.
+ */
+public class FrameHandoffTest {
+
+    @Test
+    public void publish_beforeTake_replacesOlderBuffer() {
+        FrameHandoff handoff = new FrameHandoff();
+        assertEquals(FrameHandoff.NONE, handoff.publish(0));
+        assertEquals(0, handoff.publish(1));
+
+        assertEquals(1, handoff.poll());
+        assertEquals(FrameHandoff.NONE, handoff.poll());
+        assertEquals(2, handoff.getPublishedCount());
+        assertEquals(1, handoff.getOverwrittenCount());
+        assertEquals(1, handoff.getTakenCount());
+    }
+
+    @Test
+    public void take_withoutPublish_timesOut() {
+        FrameHandoff handoff = new FrameHandoff();
+        assertEquals(FrameHandoff.NONE, handoff.take(10, TimeUnit.MILLISECONDS));
+        assertEquals(0, handoff.getTakenCount());
+    }
+
+    @Test
+    public void wakeConsumer_whileTaking_returnsNone() throws Exception {
+        final FrameHandoff handoff = new FrameHandoff();
+        final int[] taken = {0};
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                taken[0] = handoff.take(10, TimeUnit.SECONDS);
+            }
+        });
+        long start = System.nanoTime();
+        consumer.start();
+        Thread.sleep(20);
+        handoff.wakeConsumer();
+        consumer.join(5000);
+
+        assertFalse(consumer.isAlive());
+        assertEquals(FrameHandoff.NONE, taken[0]);
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    }
+
+    @Test
+    public void publishAndTake_concurrently_neverShareABuffer() throws Exception {
+        final int buffers = 3;
+        final int frames = 200000;
+        final int[][] data = new int[buffers][64];
+        final FrameHandoff handoff = new FrameHandoff();
+        // Buffers the producer may fill, like the camera's callback buffer queue
+        final ConcurrentLinkedQueue<Integer> free = new ConcurrentLinkedQueue<Integer>();
+        for (int i = 0; i < buffers; i++) {
+            free.offer(i);
+        }
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        final long[] starved = {0};
+        final AtomicBoolean producerDone = new AtomicBoolean();
+
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int sequence = 1; sequence <= frames && failure.get() == null; sequence++) {
+                    Integer buffer = free.poll();
+                    if (buffer == null) {
+                        // With three buffers there is always one that is neither waiting nor being processed
+                        starved[0]++;
+                        continue;
+                    }
+                    for (int i = 0; i < data[buffer].length; i++) {
+                        data[buffer][i] = sequence;
+                    }
+                    int replaced = handoff.publish(buffer);
+                    if (replaced != FrameHandoff.NONE) {
+                        free.offer(replaced);
+                    }
+                }
+                producerDone.set(true);
+                handoff.wakeConsumer();
+            }
+        });
+
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int last = 0;
+                while (failure.get() == null) {
+                    int buffer = handoff.take(100, TimeUnit.MILLISECONDS);
+                    if (buffer == FrameHandoff.NONE) {
+                        if (producerDone.get()) {
+                            break;
+                        }
+                        continue;
+                    }
+                    int sequence = data[buffer][0];
+                    // Give the producer time to write into the buffer if it (wrongly) could
+                    Thread.yield();
+                    for (int i = 0; i < data[buffer].length; i++) {
+                        if (data[buffer][i] != sequence) {
+                            failure.set("Buffer " + buffer + " was written while the consumer held it");
+                        }
+                    }
+                    if (sequence <= last) {
+                        failure.set("Frame " + sequence + " came after frame " + last);
+                    }
+                    last = sequence;
+                    free.offer(buffer);
+                }
+            }
+        });
+
+        producer.start();
+        consumer.start();
+        producer.join(60000);
+        consumer.join(60000);
+
+        assertNull(failure.get());
+        assertFalse(producer.isAlive());
+        assertFalse(consumer.isAlive());
+        assertEquals(0, starved[0]);
+        long pending = handoff.clear() == FrameHandoff.NONE ? 0 : 1;
+        assertEquals(frames, handoff.getPublishedCount());
+        assertEquals(handoff.getPublishedCount(),
+                handoff.getTakenCount() + handoff.getOverwrittenCount() + pending);
+        assertTrue(handoff.getTakenCount() > 0);
+    }
+}
@@ -0,0 +1,152 @@
+package org.opencv.android;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host tests for FrameStats, fed frame timestamps in whole milliseconds.
+ */
+public class FrameStatsTest {
+
+    private static final long MS = 1000000L;
+    private static final double DELTA = 1e-9;
+
+    // Record one frame at start and then one more after each of the given intervals in milliseconds, return the last
+    // frame's time
+    private static long frames(FrameStats stats, long start, long... intervalsMillis) {
+        long time = start;
+        stats.frame(time);
+        for (long interval : intervalsMillis) {
+            time += interval * MS;
+            stats.frame(time);
+        }
+        return time;
+    }
+
+    @Test
+    public void frame_firstFrame_hasNoInterval() {
+        FrameStats stats = new FrameStats();
+        stats.frame(5 * MS);
+        assertEquals(1, stats.getFrameCount());
+        assertEquals(0, stats.getFps(), DELTA);
+        assertEquals(0, stats.getMeanFrameTimeMillis(), DELTA);
+        assertEquals(0, stats.getFrameTimePercentileMillis(50), DELTA);
+        assertEquals(0, stats.getMaxFrameTimeMillis(), DELTA);
+    }
+
+    @Test
+    public void getFps_steadyFrames_isInverseOfInterval() {
+        FrameStats stats = new FrameStats();
+        frames(stats, 0, 10, 10, 10, 10);
+        assertEquals(5, stats.getFrameCount());
+        assertEquals(100, stats.getFps(), 1e-6);
+        assertEquals(10, stats.getMeanFrameTimeMillis(), DELTA);
+        assertEquals(10, stats.getMinFrameTimeMillis(), DELTA);
+        assertEquals(10, stats.getMaxFrameTimeMillis(), DELTA);
+    }
+
+    @Test
+    public void getFrameTimePercentileMillis_usesNearestRank() {
+        FrameStats stats = new FrameStats(100);
+        // Intervals of 1 to 100 ms, recorded out of order
+        long[] intervals = new long[100];
+        for (int i = 0; i < intervals.length; i++) {
+            intervals[i] = (i * 37) % 100 + 1;
+        }
+        frames(stats, 0, intervals);
+
+        assertEquals(1, stats.getFrameTimePercentileMillis(0), DELTA);
+        assertEquals(50, stats.getFrameTimePercentileMillis(50), DELTA);
+        assertEquals(95, stats.getFrameTimePercentileMillis(95), DELTA);
+        assertEquals(99, stats.getFrameTimePercentileMillis(99), DELTA);
+        assertEquals(100, stats.getFrameTimePercentileMillis(100), DELTA);
+        // Between two ranks rounds up to the next frame
+        assertEquals(51, stats.getFrameTimePercentileMillis(50.5), DELTA);
+        assertEquals(1, stats.getMinFrameTimeMillis(), DELTA);
+        assertEquals(100, stats.getMaxFrameTimeMillis(), DELTA);
+    }
+
+    @Test
+    public void getFrameTimePercentileMillis_afterNewFrame_sortsAgain() {
+        FrameStats stats = new FrameStats();
+        long time = frames(stats, 0, 10, 10, 10);
+        assertEquals(10, stats.getFrameTimePercentileMillis(100), DELTA);
+
+        stats.frame(time + 40 * MS);
+        assertEquals(40, stats.getFrameTimePercentileMillis(100), DELTA);
+        assertEquals(10, stats.getFrameTimePercentileMillis(50), DELTA);
+    }
+
+    @Test
+    public void frame_beyondWindow_dropsOldestInterval() {
+        FrameStats stats = new FrameStats(4);
+        frames(stats, 0, 100, 1, 2, 3, 4);
+
+        assertEquals(6, stats.getFrameCount());
+        assertEquals(2.5, stats.getMeanFrameTimeMillis(), DELTA);
+        assertEquals(4, stats.getMaxFrameTimeMillis(), DELTA);
+        assertEquals(1, stats.getMinFrameTimeMillis(), DELTA);
+        assertEquals(4 * 1000.0 / 10, stats.getFps(), 1e-6);
+    }
+
+    @Test
+    public void getJankCount_countsFramesOverJankFactorOfAverage() {
+        FrameStats stats = new FrameStats();
+        long time = frames(stats, 0, 10, 10, 10, 10);
+        assertEquals(0, stats.getJankCount());
+
+        // Slower, but not twice the average
+        time = frames(stats, time, 15);
+        assertEquals(0, stats.getJankCount());
+        frames(stats, time, 40);
+        assertEquals(1, stats.getJankCount());
+    }
+
+    @Test
+    public void reset_forgetsFramesAndTheGapAfterThem() {
+        FrameStats stats = new FrameStats();
+        frames(stats, 0, 10, 50, 10);
+        stats.reset();
+        assertEquals(0, stats.getFrameCount());
+        assertEquals(0, stats.getFps(), DELTA);
+
+        // Resuming a second later isn't a frame that took a second
+        frames(stats, 1000 * MS, 20, 20);
+        assertEquals(3, stats.getFrameCount());
+        assertEquals(20, stats.getMaxFrameTimeMillis(), DELTA);
+        assertEquals(0, stats.getJankCount());
+    }
+
+    @Test
+    public void appendSummary_steadyFrames() {
+        FrameStats stats = new FrameStats();
+        frames(stats, 0, 10, 10, 10);
+        StringBuilder out = new StringBuilder();
+        stats.appendSummary(out);
+        assertEquals("100.00 FPS  p50 10.00 p95 10.00 p99 10.00 ms  jank 0", out.toString());
+    }
+
+    @Test
+    public void appendFixed_roundsToTwoDecimals() {
+        StringBuilder out = new StringBuilder();
+        FrameStats.appendFixed(out, 3.14159);
+        out.append(' ');
+        FrameStats.appendFixed(out, 0.05);
+        out.append(' ');
+        FrameStats.appendFixed(out, 2.999);
+        out.append(' ');
+        FrameStats.appendFixed(out, -1.5);
+        assertEquals("3.14 0.05 3.00 -1.50", out.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void getFrameTimePercentileMillis_over100_throws() {
+        new FrameStats().getFrameTimePercentileMillis(101);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_windowOfOne_throws() {
+        new FrameStats(1);
+    }
+}
@@ -0,0 +1,250 @@
+package org.opencv.android;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host tests for PixelBufferRing, run against SoftwareGL, a stand-in for the GPU whose reads finish a set number of
+ * frames after they were queued.
+ */
+public class PixelBufferRingTest {
+
+    private static final int WIDTH = 8;
+    private static final int HEIGHT = 4;
+
+    /**
+     * Keeps the framebuffer and the pixel buffers in memory. A read copies the framebuffer right away, but its buffer
+     * counts as being written until the fence behind it has passed, and mapping it before then fails the test.
+     */
+    private static class SoftwareGL implements PixelBufferRing.GL {
+        final byte[] framebuffer = new byte[WIDTH * HEIGHT * 4];
+        int latency = 1;
+        int frame;
+
+        final Map<Integer, ByteBuffer> buffers = new HashMap<Integer, ByteBuffer>();
+        final Set<Integer> written = new HashSet<Integer>();
+        final Map<Long, Long> fenceFrames = new HashMap<Long, Long>();
+        final Map<Long, Integer> fenceBuffers = new HashMap<Long, Integer>();
+        int lastRead;
+        int mapped;
+        int mapCount;
+        private int nextBuffer = 1;
+        private long nextFence = 1;
+
+        // Fill the framebuffer for the next frame
+        void nextFrame(int value) {
+            frame++;
+            Arrays.fill(framebuffer, (byte) value);
+        }
+
+        @Override
+        public int createBuffer(int size) {
+            buffers.put(nextBuffer, ByteBuffer.allocate(size));
+            return nextBuffer++;
+        }
+
+        @Override
+        public void deleteBuffer(int buffer) {
+            assertTrue("deleted a mapped buffer", buffer != mapped);
+            assertNotNull("deleted an unknown buffer", buffers.remove(buffer));
+            written.remove(buffer);
+        }
+
+        @Override
+        public void readPixels(int buffer, int width, int height) {
+            ByteBuffer memory = buffers.get(buffer);
+            assertFalse("read into a buffer still being written", written.contains(buffer));
+            assertEquals(width * height * 4, memory.capacity());
+            memory.clear();
+            memory.put(framebuffer, 0, width * height * 4);
+            written.add(buffer);
+            lastRead = buffer;
+        }
+
+        @Override
+        public long fence() {
+            fenceFrames.put(nextFence, (long) frame);
+            fenceBuffers.put(nextFence, lastRead);
+            return nextFence++;
+        }
+
+        @Override
+        public boolean isSignaled(long fence) {
+            boolean signaled = frame - fenceFrames.get(fence) >= latency;
+            if (signaled)
+                written.remove(fenceBuffers.get(fence));
+            return signaled;
+        }
+
+        @Override
+        public void deleteFence(long fence) {
+            assertNotNull("deleted an unknown fence", fenceFrames.remove(fence));
+            fenceBuffers.remove(fence);
+        }
+
+        @Override
+        public ByteBuffer map(int buffer, int size) {
+            assertEquals("mapped two buffers at once", 0, mapped);
+            assertFalse("mapped a buffer still being written", written.contains(buffer));
+            mapped = buffer;
+            mapCount++;
+            ByteBuffer memory = buffers.get(buffer);
+            memory.clear();
+            return memory;
+        }
+
+        @Override
+        public void unmap(int buffer) {
+            assertEquals(mapped, buffer);
+            mapped = 0;
+        }
+    }
+
+    // Records the first byte and the timestamp of every frame delivered
+    private static class Frames implements PixelBufferRing.Consumer {
+        final List<Integer> values = new ArrayList<Integer>();
+        final List<Long> timestamps = new ArrayList<Long>();
+
+        @Override
+        public void onPixels(ByteBuffer pixels, int width, int height, long timestamp) {
+            assertEquals(width * height * 4, pixels.remaining());
+            values.add((int) pixels.get(0));
+            timestamps.add(timestamp);
+        }
+    }
+
+    @Test
+    public void read_gpuKeepsUp_deliversPreviousFrame() {
+        SoftwareGL gl = new SoftwareGL();
+        PixelBufferRing ring = new PixelBufferRing(gl, 2);
+        Frames frames = new Frames();
+
+        for (int i = 0; i < 10; i++) {
+            gl.nextFrame(i);
+            ring.read(WIDTH, HEIGHT, 1000 * i, frames);
+            // frame i is being read, frame i-1 was delivered
+            assertEquals(i, frames.values.size());
+            if (i > 0) {
+                assertEquals(i - 1, (int) frames.values.get(i - 1));
+                assertEquals(1000 * (i - 1), (long) frames.timestamps.get(i - 1));
+            }
+        }
+        assertEquals(10, ring.getReadCount());
+        assertEquals(9, ring.getDeliveredCount());
+        assertEquals(0, ring.getDroppedCount());
+        assertEquals(0, ring.getSkippedCount());
+        // two buffers take turns
+        assertEquals(2, gl.buffers.size());
+    }
+
+    @Test
+    public void read_gpuBehind_skipsFramesWithoutWaiting() {
+        SoftwareGL gl = new SoftwareGL();
+        gl.latency = Integer.MAX_VALUE;
+        PixelBufferRing ring = new PixelBufferRing(gl, 3);
+        Frames frames = new Frames();
+
+        for (int i = 0; i < 5; i++) {
+            gl.nextFrame(i);
+            ring.read(WIDTH, HEIGHT, i, frames);
+        }
+        assertEquals(3, ring.getReadCount());
+        assertEquals(2, ring.getSkippedCount());
+        assertEquals(0, gl.mapCount);
+
+        // the GPU catches up: only the newest of the three finished frames is worth delivering
+        gl.latency = 0;
+        gl.nextFrame(5);
+        ring.read(WIDTH, HEIGHT, 5, frames);
+        assertEquals(1, frames.values.size());
+        assertEquals(2, (int) frames.values.get(0));
+        assertEquals(2, ring.getDroppedCount());
+        assertEquals(4, ring.getReadCount());
+    }
+
+    @Test
+    public void read_sizeChange_deliversPendingFrameAtItsOwnSize() {
+        SoftwareGL gl = new SoftwareGL();
+        PixelBufferRing ring = new PixelBufferRing(gl, 2);
+        final List<Integer> widths = new ArrayList<Integer>();
+        PixelBufferRing.Consumer consumer = new PixelBufferRing.Consumer() {
+            @Override
+            public void onPixels(ByteBuffer pixels, int width, int height, long timestamp) {
+                assertEquals(width * height * 4, pixels.remaining());
+                widths.add(width);
+            }
+        };
+
+        gl.nextFrame(0);
+        ring.read(WIDTH, HEIGHT, 0, consumer);
+        gl.nextFrame(1);
+        ring.read(WIDTH / 2, HEIGHT / 2, 1, consumer);
+        gl.nextFrame(2);
+        ring.read(WIDTH / 2, HEIGHT / 2, 2, consumer);
+
+        assertEquals(2, widths.size());
+        assertEquals(WIDTH, (int) widths.get(0));
+        assertEquals(WIDTH / 2, (int) widths.get(1));
+        // the first buffer was reallocated for the smaller frame
+        assertEquals(2, gl.buffers.size());
+    }
+
+    @Test
+    public void read_consumerThrows_unmapsBuffer() {
+        SoftwareGL gl = new SoftwareGL();
+        PixelBufferRing ring = new PixelBufferRing(gl, 2);
+        PixelBufferRing.Consumer consumer = new PixelBufferRing.Consumer() {
+            @Override
+            public void onPixels(ByteBuffer pixels, int width, int height, long timestamp) {
+                throw new IllegalStateException("consumer failed");
+            }
+        };
+
+        gl.nextFrame(0);
+        ring.read(WIDTH, HEIGHT, 0, consumer);
+        gl.nextFrame(1);
+        try {
+            ring.read(WIDTH, HEIGHT, 1, consumer);
+            fail("The consumer's exception was swallowed");
+        } catch (IllegalStateException expected) {
+        }
+        assertEquals(0, gl.mapped);
+    }
+
+    @Test
+    public void release_withPendingReads_deletesEveryBufferAndFence() {
+        SoftwareGL gl = new SoftwareGL();
+        gl.latency = 2;
+        PixelBufferRing ring = new PixelBufferRing(gl, 3);
+        Frames frames = new Frames();
+        for (int i = 0; i < 4; i++) {
+            gl.nextFrame(i);
+            ring.read(WIDTH, HEIGHT, i, frames);
+        }
+        assertFalse(gl.fenceFrames.isEmpty());
+
+        ring.release();
+        assertTrue(gl.buffers.isEmpty());
+        assertTrue(gl.fenceFrames.isEmpty());
+
+        // and it starts over on the next read
+        gl.nextFrame(4);
+        ring.read(WIDTH, HEIGHT, 4, frames);
+        assertEquals(1, gl.buffers.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_singleBuffer_throws() {
+        new PixelBufferRing(new SoftwareGL(), 1);
+    }
+}
@@ -0,0 +1,84 @@
+package edu.something.ar_framework;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares pose stability with and without the KeypointGrid by replaying a RenderedRecording through PoseReplay, once
+ * with the default grid and once with plain ORB. Tracking is off, so every frame is a detection and the grid picks the
+ * keypoints of every pose. Skipped when native-lib isn't built for the host.
+ */
+public class GridPoseStabilityTest {
+
+    private static final int FRAMES = 60;
+
+    // The grid may cost a little jitter on a target that is textured all over, but no more than this
+    private static final double JITTER_TOLERANCE = 1.25;
+
+    private File myFile;
+    private byte[] myTarget;
+
+    @BeforeClass
+    public static void loadNativeLib() {
+        RenderedRecording.assumeNativeLib();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        myFile = File.createTempFile("stability", ".asfr");
+        myTarget = RenderedRecording.targetImage(new Random(16));
+        RenderedRecording.write(myFile, myTarget, FRAMES, 0, 0, new Random(17));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        myFile.delete();
+    }
+
+    @Test
+    public void replay_defaultGrid_jittersNoMoreThanPlainOrb() throws Exception {
+        PoseReplay.Report plain = replay(0, 0);
+        PoseReplay.Report grid = replay(PoseEngine.DEFAULT_GRID_COLUMNS, PoseEngine.DEFAULT_GRID_ROWS);
+        System.out.println("Plain ORB:\n" + plain + "\nGrid:\n" + grid);
+
+        assertScored("plain ORB", plain);
+        assertScored("grid", grid);
+        assertTrue("grid rotation jitter " + grid.getMeanRotationJitterDegrees() + " deg, plain ORB "
+                        + plain.getMeanRotationJitterDegrees(),
+                grid.getMeanRotationJitterDegrees() <= plain.getMeanRotationJitterDegrees() * JITTER_TOLERANCE);
+        assertTrue("grid translation jitter " + grid.getMeanTranslationJitter() + ", plain ORB "
+                        + plain.getMeanTranslationJitter(),
+                grid.getMeanTranslationJitter() <= plain.getMeanTranslationJitter() * JITTER_TOLERANCE);
+    }
+
+    // Most frames found the target where the camera path put it
+    private static void assertScored(String name, PoseReplay.Report report) {
+        assertTrue(name + " scored " + report.myScoredFrames + " of " + FRAMES + " frames",
+                report.myScoredFrames >= FRAMES * 9 / 10);
+        assertEquals(name + " found the target where there was none", 0, report.myFalsePositiveFrames);
+        assertTrue(name + " mean rotation error " + report.getMeanRotationErrorDegrees() + " deg",
+                report.getMeanRotationErrorDegrees() < 2);
+        assertTrue(name + " jitter wasn't measured", report.myJitterPairs > 0);
+    }
+
+    private PoseReplay.Report replay(int gridColumns, int gridRows) throws Exception {
+        PoseReplay.Options options = new PoseReplay.Options();
+        options.tracking = false;
+        options.gridColumns = gridColumns;
+        options.gridRows = gridRows;
+        FrameRecording recording = FrameRecording.open(myFile);
+        try {
+            return PoseReplay.run(recording, new ByteBuffer[]{RenderedRecording.targetModel(myTarget)}, options);
+        } finally {
+            recording.close();
+        }
+    }
+}
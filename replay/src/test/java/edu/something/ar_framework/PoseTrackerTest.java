@@ -0,0 +1,102 @@
+package edu.something.ar_framework;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the detect and track paths of native-lib's PoseTracker, through PoseEngine, by replaying a
+ * RenderedRecording and checking which mode each frame ran in and how close its pose came to the ground truth. Skipped
+ * when native-lib isn't built for the host.
+ */
+public class PoseTrackerTest {
+
+    private static final int FRAMES = 60;
+    // The camera looks away from the target for these frames
+    private static final int HIDDEN_FROM = 20;
+    private static final int HIDDEN_TO = 30;
+
+    private File myFile;
+    private byte[] myTarget;
+
+    @BeforeClass
+    public static void loadNativeLib() {
+        RenderedRecording.assumeNativeLib();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        myFile = File.createTempFile("tracker", ".asfr");
+        myTarget = RenderedRecording.targetImage(new Random(4));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        myFile.delete();
+    }
+
+    @Test
+    public void replay_trackingEnabled_detectsThenTracks() throws Exception {
+        RenderedRecording.write(myFile, myTarget, FRAMES, 0, 0, new Random(5));
+        PoseReplay.Report report = replay(true);
+
+        assertTrue("nothing detected", report.myTrackingStats.getDetectedFrames() >= 1);
+        assertTrue(report.myTrackingStats.getTrackedFrames() + " of " + FRAMES + " frames tracked",
+                report.myTrackingStats.getTrackedFrames() >= FRAMES * 3 / 4);
+        assertAccurate(report, FRAMES);
+    }
+
+    @Test
+    public void replay_trackingDisabled_detectsEveryFrame() throws Exception {
+        RenderedRecording.write(myFile, myTarget, FRAMES, 0, 0, new Random(5));
+        PoseReplay.Report report = replay(false);
+
+        assertEquals(0, report.myTrackingStats.getTrackedFrames());
+        assertEquals(FRAMES, report.myTrackingStats.getDetectedFrames() + report.myTrackingStats.getLostFrames());
+        assertAccurate(report, FRAMES);
+    }
+
+    @Test
+    public void replay_targetLeavesView_losesItThenDetectsAgain() throws Exception {
+        RenderedRecording.write(myFile, myTarget, FRAMES, HIDDEN_FROM, HIDDEN_TO, new Random(5));
+        PoseReplay.Report report = replay(true);
+
+        // Tracking lets go of the target as soon as it is gone, instead of following the noise
+        assertEquals("pose reported without the target in view", 0, report.myFalsePositiveFrames);
+        assertTrue(report.myTrackingStats.getLostFrames() + " frames lost",
+                report.myTrackingStats.getLostFrames() >= HIDDEN_TO - HIDDEN_FROM);
+        // and finds it with a detection when it comes back, then tracks it again
+        assertTrue("not detected again", report.myTrackingStats.getDetectedFrames() >= 2);
+        assertTrue("not tracked again", report.myTrackingStats.getTrackedFrames() >= (FRAMES - HIDDEN_TO) / 2);
+        assertAccurate(report, FRAMES - (HIDDEN_TO - HIDDEN_FROM));
+    }
+
+    // Nearly all of the frames that show the target got a pose close to the ground truth
+    private static void assertAccurate(PoseReplay.Report report, int visibleFrames) {
+        assertTrue(report.myScoredFrames + " of " + visibleFrames + " frames scored",
+                report.myScoredFrames >= visibleFrames * 9 / 10);
+        assertEquals(0, report.myWrongTargetFrames);
+        assertTrue("mean rotation error " + report.getMeanRotationErrorDegrees() + " deg",
+                report.getMeanRotationErrorDegrees() < 2);
+        assertTrue("mean translation error " + report.getMeanTranslationError(),
+                report.getMeanTranslationError() < 0.05);
+    }
+
+    private PoseReplay.Report replay(boolean tracking) throws Exception {
+        PoseReplay.Options options = new PoseReplay.Options();
+        options.tracking = tracking;
+        FrameRecording recording = FrameRecording.open(myFile);
+        try {
+            return PoseReplay.run(recording, new ByteBuffer[]{RenderedRecording.targetModel(myTarget)}, options);
+        } finally {
+            recording.close();
+        }
+    }
+}
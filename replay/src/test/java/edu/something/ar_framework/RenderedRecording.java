@@ -0,0 +1,192 @@
+package edu.something.ar_framework;
+
+import org.junit.Assume;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * FrameRecordings for the replay tests that run the native pose engine: a target textured all over, rendered as the
+ * camera sees it along a slow path around it, with the intrinsics native-lib assumes (focal length the larger frame
+ * side, principal point in the center) and a little sensor noise. Every frame is recorded with its pose as ground
+ * truth. The target is one unit wide, like the models native-lib builds.
+ */
+final class RenderedRecording {
+
+    static final int WIDTH = 640;
+    static final int HEIGHT = 480;
+    static final int TARGET_SIZE = 320;
+    static final long FRAME_NANOS = 33333333L;
+
+    // Gray level around the target
+    private static final int BACKGROUND = 100;
+
+    private RenderedRecording() {
+    }
+
+    // Skip the calling test class when native-lib isn't built for the host, see app/CMakeLists.txt
+    static void assumeNativeLib() {
+        try {
+            System.loadLibrary("native-lib");
+        } catch (UnsatisfiedLinkError e) {
+            Assume.assumeNoException("native-lib isn't built for the host", e);
+        }
+    }
+
+    // A TARGET_SIZE square reference image: overlapping boxes of random gray levels on a mid-gray background
+    static byte[] targetImage(Random random) {
+        byte[] image = new byte[TARGET_SIZE * TARGET_SIZE];
+        Arrays.fill(image, (byte) 128);
+        for (int box = 0; box < 400; box++) {
+            int x = random.nextInt(TARGET_SIZE);
+            int y = random.nextInt(TARGET_SIZE);
+            int width = 4 + random.nextInt(28);
+            int height = 4 + random.nextInt(28);
+            byte value = (byte) random.nextInt(256);
+            for (int row = y; row < Math.min(TARGET_SIZE, y + height); row++) {
+                for (int column = x; column < Math.min(TARGET_SIZE, x + width); column++) {
+                    image[row * TARGET_SIZE + column] = value;
+                }
+            }
+        }
+        return image;
+    }
+
+    // The serialized target model of a targetImage(), in a direct buffer like PoseReplay.loadTarget() returns
+    static ByteBuffer targetModel(byte[] target) {
+        ByteBuffer reference = ByteBuffer.allocateDirect(target.length);
+        reference.put(target);
+        reference.flip();
+        byte[] model = PoseEngine.buildTargetModel(reference, TARGET_SIZE, TARGET_SIZE, TARGET_SIZE);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(model.length);
+        buffer.put(model);
+        return buffer;
+    }
+
+    /**
+     * Write frames frames of target along the camera path to file. Frames hiddenFrom up to hiddenTo show only the
+     * background, as if the camera looked away, and are recorded with TARGET_NONE.
+     */
+    static void write(File file, byte[] target, int frames, int hiddenFrom, int hiddenTo, Random noise)
+            throws IOException {
+        float[] rvec = new float[3];
+        float[] tvec = new float[3];
+        double[] homography = new double[9];
+        ByteBuffer frame = ByteBuffer.allocate(WIDTH * HEIGHT);
+        FrameRecording.Writer writer = new FrameRecording.Writer(file, WIDTH, HEIGHT, WIDTH,
+                FrameRecording.FORMAT_GRAY8);
+        try {
+            for (int i = 0; i < frames; i++) {
+                long timestamp = 1000000000L + i * FRAME_NANOS;
+                if (i >= hiddenFrom && i < hiddenTo) {
+                    render(null, null, noise, frame);
+                    writer.addFrame(frame, timestamp, FrameRecording.TARGET_NONE, null, null);
+                    continue;
+                }
+                pose(2 * Math.PI * i / frames, rvec, tvec);
+                imageToTarget(rvec, tvec, homography);
+                render(target, homography, noise, frame);
+                writer.addFrame(frame, timestamp, 0, rvec, tvec);
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    // A slow loop around the target, t going from 0 to 2 pi, which keeps all of it in view about 2.2 units away
+    private static void pose(double t, float[] rvec, float[] tvec) {
+        rvec[0] = (float) (0.25 * Math.sin(t));
+        rvec[1] = (float) (0.2 * Math.cos(t));
+        rvec[2] = (float) (0.1 * Math.sin(2 * t));
+        tvec[0] = (float) (-0.5 + 0.1 * Math.cos(t));
+        tvec[1] = (float) (-0.5 + 0.05 * Math.sin(t));
+        tvec[2] = (float) (2.2 + 0.2 * Math.sin(t));
+    }
+
+    /**
+     * The target plane z = 0 projects to the image through K [r1 r2 t]. Invert that, and fold in the scale from target
+     * units to reference pixels, to get the homography from image pixels to reference pixels.
+     */
+    private static void imageToTarget(float[] rvec, float[] tvec, double[] homography) {
+        double[] rotation = rodrigues(rvec);
+        double focal = Math.max(WIDTH, HEIGHT);
+        double[] principal = {WIDTH / 2.0, HEIGHT / 2.0};
+        double[] h = new double[9];
+        for (int row = 0; row < 3; row++) {
+            h[row * 3] = rotation[row * 3];
+            h[row * 3 + 1] = rotation[row * 3 + 1];
+            h[row * 3 + 2] = tvec[row];
+        }
+        // K times [r1 r2 t]: the first two rows get focal times themselves plus the principal point times the third
+        for (int row = 0; row < 2; row++) {
+            for (int column = 0; column < 3; column++) {
+                h[row * 3 + column] = focal * h[row * 3 + column] + principal[row] * h[6 + column];
+            }
+        }
+        invert(h, homography);
+        for (int i = 0; i < 6; i++) {
+            homography[i] *= TARGET_SIZE;
+        }
+    }
+
+    // Rotation matrix of a non-zero rotation vector, row by row
+    private static double[] rodrigues(float[] rvec) {
+        double angle = Math.sqrt(rvec[0] * rvec[0] + rvec[1] * rvec[1] + rvec[2] * rvec[2]);
+        double x = rvec[0] / angle;
+        double y = rvec[1] / angle;
+        double z = rvec[2] / angle;
+        double c = Math.cos(angle);
+        double s = Math.sin(angle);
+        double k = 1 - c;
+        return new double[]{
+                c + x * x * k, x * y * k - z * s, x * z * k + y * s,
+                y * x * k + z * s, c + y * y * k, y * z * k - x * s,
+                z * x * k - y * s, z * y * k + x * s, c + z * z * k};
+    }
+
+    private static void invert(double[] m, double[] inverse) {
+        double a = m[4] * m[8] - m[5] * m[7];
+        double b = m[5] * m[6] - m[3] * m[8];
+        double c = m[3] * m[7] - m[4] * m[6];
+        double determinant = m[0] * a + m[1] * b + m[2] * c;
+        inverse[0] = a / determinant;
+        inverse[1] = (m[2] * m[7] - m[1] * m[8]) / determinant;
+        inverse[2] = (m[1] * m[5] - m[2] * m[4]) / determinant;
+        inverse[3] = b / determinant;
+        inverse[4] = (m[0] * m[8] - m[2] * m[6]) / determinant;
+        inverse[5] = (m[2] * m[3] - m[0] * m[5]) / determinant;
+        inverse[6] = c / determinant;
+        inverse[7] = (m[1] * m[6] - m[0] * m[7]) / determinant;
+        inverse[8] = (m[0] * m[4] - m[1] * m[3]) / determinant;
+    }
+
+    // Sample the reference image bilinearly at every frame pixel, with the background around it or everywhere if
+    // target is null
+    private static void render(byte[] target, double[] homography, Random noise, ByteBuffer frame) {
+        for (int v = 0; v < HEIGHT; v++) {
+            for (int u = 0; u < WIDTH; u++) {
+                double value = BACKGROUND;
+                if (target != null) {
+                    double w = homography[6] * u + homography[7] * v + homography[8];
+                    double x = (homography[0] * u + homography[1] * v + homography[2]) / w;
+                    double y = (homography[3] * u + homography[4] * v + homography[5]) / w;
+                    if (x >= 0 && y >= 0 && x < TARGET_SIZE - 1 && y < TARGET_SIZE - 1) {
+                        int x0 = (int) x;
+                        int y0 = (int) y;
+                        double fx = x - x0;
+                        double fy = y - y0;
+                        int i = y0 * TARGET_SIZE + x0;
+                        value = (1 - fy) * ((1 - fx) * (target[i] & 0xff) + fx * (target[i + 1] & 0xff))
+                                + fy * ((1 - fx) * (target[i + TARGET_SIZE] & 0xff)
+                                + fx * (target[i + TARGET_SIZE + 1] & 0xff));
+                    }
+                }
+                value += noise.nextGaussian() * 2;
+                frame.put(v * WIDTH + u, (byte) Math.max(0, Math.min(255, Math.round(value))));
+            }
+        }
+    }
+}